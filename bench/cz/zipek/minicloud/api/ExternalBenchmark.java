@@ -0,0 +1,147 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.fake.FakeServer;
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request encoding and decoding of path listings. Listings are generated
+ * by fake server, so payload matches real server responses.
+ * 
+ * @author Jan Zípek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExternalBenchmark {
+	
+	@Param({ "100", "10000" })
+	public int files;
+	
+	private External api;
+	private Map<String, String> params;
+	private byte[] listing;
+	private byte[] data;
+	private JSONObject json;
+	
+	@Setup
+	public void setup() throws IOException, JSONException {
+		FakeServer server = new FakeServer();
+		for (int i = 0; i < files; i++) {
+			server.createFile("bench/folder " + (i % 50) + "/file " + i + ".txt", new byte[0]);
+		}
+		
+		api = new External(FakeServer.URL);
+		api.setTransport(server);
+		
+		params = new HashMap<>();
+		params.put("action_id", "1");
+		params.put("id", "42");
+		params.put("path_id", "7");
+		params.put("filename", "Příliš žluťoučký kůň & spol.txt");
+		params.put("encryption", "AES/CBC/PKCS5Padding");
+		params.put("public", "false");
+		
+		listing = fetch(server, "action=get_path&action_id=1&path=bench&recursive=1");
+		json = new JSONObject(new String(listing, "UTF-8")).getJSONObject("data");
+		data = json.toString().getBytes("UTF-8");
+	}
+	
+	@TearDown
+	public void tearDown() {
+		api.shutdown();
+	}
+	
+	@Benchmark
+	public String createUrl() {
+		return api.createUrl("set_file", params);
+	}
+	
+	@Benchmark
+	public Event decodeResponse() throws IOException, JSONException {
+		return api.decodeResponse(reader(listing), "1");
+	}
+	
+	@Benchmark
+	public Path pathFromJson() throws JSONException {
+		return new Path(api, json);
+	}
+	
+	@Benchmark
+	public Path pathFromStream() throws IOException {
+		return new Path(api, reader(data));
+	}
+	
+	private static JsonReader reader(byte[] content) throws IOException {
+		return new JsonReader(new InputStreamReader(new ByteArrayInputStream(content), "UTF-8"));
+	}
+	
+	private static byte[] fetch(FakeServer server, String params) throws IOException {
+		HttpURLConnection conn = server.open(FakeServer.URL + "/api.php", null);
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(params.getBytes("UTF-8"));
+		}
+		
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = conn.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				result.write(buffer, 0, read);
+			}
+		}
+		return result.toByteArray();
+	}
+}
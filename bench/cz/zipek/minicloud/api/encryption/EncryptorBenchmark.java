@@ -0,0 +1,123 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.encryption;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streaming encryption and decryption throughput for supported cipher
+ * configs. Every operation processes 1 MiB written in 4 KiB blocks like
+ * uploader and downloader do, so score is in MiB per second.
+ * 
+ * @author Jan Zípek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptorBenchmark {
+	
+	private static final int MIB = 1024 * 1024;
+	private static final int BLOCK = 4096;
+	
+	@Param({ "AES/CBC/PKCS5Padding", "AES/CTR/NoPadding", "Blowfish/CBC/PKCS5Padding" })
+	public String config;
+	
+	private Encryptor encryptor;
+	private byte[] plain;
+	private byte[] encrypted;
+	
+	@Setup
+	public void setup() throws IOException, GeneralSecurityException {
+		byte[] key = new byte[16];
+		new Random(42).nextBytes(key);
+		
+		encryptor = new Encryptor(key, config);
+		plain = new byte[MIB];
+		new Random(7).nextBytes(plain);
+		
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		try (CipherOutputStream out = encryptor.getOutputStream(target, Cipher.ENCRYPT_MODE)) {
+			out.write(plain);
+		}
+		encrypted = target.toByteArray();
+	}
+	
+	@Benchmark
+	public long encrypt() throws IOException, GeneralSecurityException {
+		return stream(plain, Cipher.ENCRYPT_MODE);
+	}
+	
+	@Benchmark
+	public long decrypt() throws IOException, GeneralSecurityException {
+		return stream(encrypted, Cipher.DECRYPT_MODE);
+	}
+	
+	private long stream(byte[] data, int mode) throws IOException, GeneralSecurityException {
+		CountingOutputStream target = new CountingOutputStream();
+		try (CipherOutputStream out = encryptor.getOutputStream(target, mode)) {
+			for (int offset = 0; offset < data.length; offset += BLOCK) {
+				out.write(data, offset, Math.min(BLOCK, data.length - offset));
+			}
+		}
+		return target.count;
+	}
+	
+	/**
+	 * Discards written data.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.bench;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.Path;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.download.DownloadEvent;
+import cz.zipek.minicloud.api.download.Downloader;
+import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFileDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFileStartedEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import cz.zipek.minicloud.api.upload.UploadEvent;
+import cz.zipek.minicloud.api.upload.Uploader;
+import cz.zipek.minicloud.api.upload.events.UploadFailedEvent;
+import cz.zipek.minicloud.api.upload.events.UploadFileDoneEvent;
+import cz.zipek.minicloud.api.upload.events.UploadFileStartedEvent;
+import cz.zipek.minicloud.sync.SyncEvent;
+import cz.zipek.minicloud.sync.SyncFolder;
+import cz.zipek.minicloud.sync.events.SyncDone;
+import cz.zipek.minicloud.sync.events.SyncDownloadEvent;
+import cz.zipek.minicloud.sync.events.SyncUploadEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single simulated user with own API instance, local folder and
+ * remote folder.
+ * 
+ * @author Jan Zípek
+ */
+class Client {
+	
+	private final TransferHarness harness;
+	private final External api;
+	private final User user;
+	private final Random random;
+	
+	private final String remote;
+	private final File local;
+	private final File downloads;
+	
+	private final List<File> files = new ArrayList<>();
+	
+	private SyncFolder folder;
+	private volatile CountDownLatch synced;
+	private volatile Phase syncing;
+	
+	Client(TransferHarness harness, FakeServer server, int index, File root) {
+		this.harness = harness;
+		this.random = new Random(index);
+		
+		api = new External(FakeServer.URL);
+		api.setTransport(server);
+		
+		byte[] key = new byte[16];
+		random.nextBytes(key);
+		user = new User(api, "client" + index, "client" + index + "@minicloud.fake", null, false);
+		user.setKey(key);
+		
+		remote = "client-" + index;
+		// Synchronization needs existing remote folder
+		server.createPath(remote);
+		local = new File(root, remote + File.separator + "local");
+		downloads = new File(root, remote + File.separator + "downloads");
+	}
+	
+	/**
+	 * Generates local files.
+	 * 
+	 * @throws IOException when files can't be written
+	 */
+	void prepare() throws IOException {
+		for (int i = 0; i < harness.files; i++) {
+			File file = new File(local, "folder " + (i % 10) + File.separator + "file " + i + ".bin");
+			file.getParentFile().mkdirs();
+			write(file, harness.sizes.next(random));
+			files.add(file);
+		}
+	}
+	
+	/**
+	 * Uploads all local files.
+	 * 
+	 * @param phase collected results
+	 * @throws GeneralSecurityException when encryption isn't available
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	void upload(final Phase phase) throws GeneralSecurityException, InterruptedException {
+		final CountDownLatch done = new CountDownLatch(files.size());
+		final long[] started = new long[1];
+		
+		Uploader uploader = new Uploader(api, user.getEncryptor(harness.encryption));
+		uploader.addListener(new Listener<UploadEvent>() {
+			@Override
+			public void handleEvent(UploadEvent event, Object sender) {
+				if (event instanceof UploadFileStartedEvent) {
+					started[0] = System.nanoTime();
+				} else if (event instanceof UploadFileDoneEvent) {
+					phase.latency.record(System.nanoTime() - started[0]);
+					phase.bytes.addAndGet(((UploadFileDoneEvent)event).getFile().length());
+					phase.files.incrementAndGet();
+					done.countDown();
+				} else if (event instanceof UploadFailedEvent) {
+					// Uploader stops on first failure
+					phase.failures.addAndGet(done.getCount());
+					while (done.getCount() > 0) {
+						done.countDown();
+					}
+				}
+			}
+		});
+		
+		for (File file : files) {
+			uploader.add(file, remote + "/" + file.getParentFile().getName(), false);
+		}
+		uploader.start(remote);
+		
+		await(done, phase);
+	}
+	
+	/**
+	 * Downloads all remote files of client.
+	 * 
+	 * @param phase collected results
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	void download(final Phase phase) throws InterruptedException {
+		Path folder;
+		try {
+			folder = api.getPathAsync(remote, true).get(harness.timeout, TimeUnit.SECONDS).getPath();
+		} catch (ExecutionException | TimeoutException ex) {
+			phase.failures.addAndGet(files.size());
+			return;
+		}
+		
+		List<cz.zipek.minicloud.api.File> remoteFiles = folder.getAllFiles();
+		final CountDownLatch done = new CountDownLatch(remoteFiles.size());
+		// Files are downloaded in parallel, so start is kept per file
+		final ConcurrentMap<String, Long> started = new ConcurrentHashMap<>();
+		
+		Downloader downloader = new Downloader(api, user);
+		downloader.setConcurrency(harness.concurrency);
+		downloader.setSegments(harness.segments, Downloader.SEGMENT_THRESHOLD);
+		downloader.addListener(new Listener<DownloadEvent>() {
+			@Override
+			public void handleEvent(DownloadEvent event, Object sender) {
+				if (event instanceof DownloadFileStartedEvent) {
+					started.put(((DownloadFileStartedEvent)event).getTarget(), System.nanoTime());
+				} else if (event instanceof DownloadFileDoneEvent) {
+					Long start = started.remove(((DownloadFileDoneEvent)event).getTarget());
+					phase.latency.record(System.nanoTime() - start);
+					phase.bytes.addAndGet(((DownloadFileDoneEvent)event).getFile().getSize());
+					phase.files.incrementAndGet();
+					done.countDown();
+				} else if (event instanceof DownloadFailedEvent) {
+					// Downloader starts no more files after failure
+					phase.failures.addAndGet(done.getCount());
+					while (done.getCount() > 0) {
+						done.countDown();
+					}
+				}
+			}
+		});
+		
+		for (cz.zipek.minicloud.api.File file : remoteFiles) {
+			File target = new File(downloads, file.getRelativePath(remote).replace("/", File.separator));
+			target.getParentFile().mkdirs();
+			downloader.add(file.getVersion(), target.getAbsolutePath());
+		}
+		downloader.start(downloads.getAbsolutePath());
+		
+		await(done, phase);
+	}
+	
+	/**
+	 * Changes part of local files and synchronizes folder.
+	 * 
+	 * @param phase collected results
+	 * @throws IOException when local files can't be changed
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	void sync(final Phase phase) throws IOException, InterruptedException {
+		int changed = 0;
+		for (File file : files) {
+			if (random.nextDouble() < harness.changes) {
+				write(file, file.length());
+				// Local copy must look newer than remote one
+				file.setLastModified(System.currentTimeMillis() + 60000);
+				changed++;
+			}
+		}
+		
+		// Folder is reused, so rounds don't pile up listeners on API
+		if (folder == null) {
+			folder = new SyncFolder(local, remote, 0, null, null);
+			folder.setExternal(api);
+			folder.setUser(user);
+			folder.setEncryption(harness.encryption);
+			folder.setDownloadConcurrency(harness.concurrency);
+			folder.addListener(new Listener<SyncEvent>() {
+				@Override
+				public void handleEvent(SyncEvent event, Object sender) {
+					if (event instanceof SyncDone) {
+						synced.countDown();
+					} else if (event instanceof SyncUploadEvent && ((SyncUploadEvent)event).getEvent() instanceof UploadFileDoneEvent) {
+						syncing.files.incrementAndGet();
+						syncing.bytes.addAndGet(((UploadFileDoneEvent)((SyncUploadEvent)event).getEvent()).getFile().length());
+					} else if (event instanceof SyncDownloadEvent && ((SyncDownloadEvent)event).getEvent() instanceof DownloadFileDoneEvent) {
+						syncing.files.incrementAndGet();
+						syncing.bytes.addAndGet(((DownloadFileDoneEvent)((SyncDownloadEvent)event).getEvent()).getFile().getSize());
+					}
+				}
+			});
+		}
+		
+		CountDownLatch done = new CountDownLatch(1);
+		synced = done;
+		syncing = phase;
+		
+		long started = System.nanoTime();
+		folder.sync();
+		if (done.await(harness.timeout, TimeUnit.SECONDS)) {
+			phase.latency.record(System.nanoTime() - started);
+		} else {
+			folder.stop();
+			phase.failures.addAndGet(changed);
+		}
+	}
+	
+	/**
+	 * Releases API resources.
+	 */
+	void close() {
+		api.shutdown();
+	}
+	
+	private void await(CountDownLatch done, Phase phase) throws InterruptedException {
+		if (!done.await(harness.timeout, TimeUnit.SECONDS)) {
+			phase.failures.addAndGet(done.getCount());
+		}
+	}
+	
+	private void write(File file, long size) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = new FileOutputStream(file)) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+			}
+		}
+	}
+}
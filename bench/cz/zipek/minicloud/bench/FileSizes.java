@@ -0,0 +1,73 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.bench;
+
+import java.util.Random;
+
+/**
+ * Distribution of generated file sizes.
+ * 
+ * @author Jan Zípek
+ */
+enum FileSizes {
+	/** 1 to 16 KiB. */
+	TINY {
+		@Override
+		long next(Random random) {
+			return between(random, 1024, 16 * 1024);
+		}
+	},
+	/** 32 to 128 MiB. */
+	HUGE {
+		@Override
+		long next(Random random) {
+			return between(random, 32 * MIB, 128 * MIB);
+		}
+	},
+	/** Mostly tiny files with some medium and few large files. */
+	MIXED {
+		@Override
+		long next(Random random) {
+			int roll = random.nextInt(100);
+			if (roll < 90) {
+				return TINY.next(random);
+			} else if (roll < 99) {
+				return between(random, MIB, 4 * MIB);
+			}
+			return between(random, 16 * MIB, 32 * MIB);
+		}
+	};
+	
+	private static final long MIB = 1024 * 1024;
+	
+	/**
+	 * @param random source of randomness
+	 * @return size of next file in bytes
+	 */
+	abstract long next(Random random);
+	
+	private static long between(Random random, long min, long max) {
+		return min + (long)(random.nextDouble() * (max - min));
+	}
+}
@@ -0,0 +1,70 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.bench;
+
+import cz.zipek.minicloud.api.metrics.Histogram;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of single workload phase collected from all clients.
+ * 
+ * @author Jan Zípek
+ */
+class Phase {
+	
+	private final String name;
+	
+	///@var latency duration of single item, file for transfers and whole run for sync
+	final Histogram latency = new Histogram();
+	final AtomicLong bytes = new AtomicLong();
+	final AtomicLong files = new AtomicLong();
+	final AtomicLong failures = new AtomicLong();
+	
+	private final long start = System.nanoTime();
+	private long elapsed = -1;
+	
+	Phase(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Stops phase clock.
+	 */
+	void finish() {
+		elapsed = System.nanoTime() - start;
+	}
+	
+	@Override
+	public String toString() {
+		double seconds = Math.max(elapsed, 1) / 1e9;
+		return String.format(Locale.ROOT,
+			"%-8s %8.2f s %10.2f MB/s %10.1f files/s  p50 %9.2f ms  p99 %9.2f ms  max %9.2f ms  files %d  failed %d",
+			name, seconds,
+			bytes.get() / seconds / 1e6, files.get() / seconds,
+			latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getMax(),
+			files.get(), failures.get()
+		);
+	}
+}
@@ -0,0 +1,248 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.bench;
+
+import cz.zipek.minicloud.api.download.Downloader;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * End-to-end throughput and soak harness. Drives uploader, downloader
+ * and folder synchronization of several concurrent clients against
+ * in-process fake server and reports throughput, per item latency,
+ * thread count and heap usage after every round.
+ * <p>
+ * Options are passed as <code>--name=value</code>:
+ * <ul>
+ * <li>clients - number of concurrent clients (4)</li>
+ * <li>files - files per client (100)</li>
+ * <li>sizes - file size distribution, tiny, mixed or huge (tiny)</li>
+ * <li>encryption - cipher config or none (none)</li>
+ * <li>latency - server latency per request in ms (0)</li>
+ * <li>bandwidth - server bandwidth per connection in bytes/s, 0 for unlimited (0)</li>
+ * <li>concurrency - files downloaded at once by every client (1)</li>
+ * <li>segments - parts large file is downloaded in, 1 disables segmented download (4)</li>
+ * <li>phases - comma separated list of upload, download and sync (upload,download,sync)</li>
+ * <li>changes - fraction of files changed before every sync (0.1)</li>
+ * <li>rounds - number of rounds (1)</li>
+ * <li>duration - soak duration in seconds, repeats rounds until elapsed (0)</li>
+ * <li>timeout - maximal wait for single phase of client in seconds (600)</li>
+ * </ul>
+ * 
+ * @author Jan Zípek
+ */
+public class TransferHarness {
+	
+	int clients = 4;
+	int files = 100;
+	FileSizes sizes = FileSizes.TINY;
+	String encryption = null;
+	long latency = 0;
+	long bandwidth = 0;
+	int concurrency = 1;
+	int segments = Downloader.SEGMENTS;
+	List<String> phases = Arrays.asList("upload", "download", "sync");
+	double changes = 0.1;
+	int rounds = 1;
+	long duration = 0;
+	long timeout = 600;
+	
+	public static void main(String[] args) throws Exception {
+		TransferHarness harness = new TransferHarness();
+		for (String arg : args) {
+			harness.set(arg);
+		}
+		harness.run();
+	}
+	
+	/**
+	 * Applies single command line option.
+	 * 
+	 * @param option option in --name=value format
+	 */
+	void set(String option) {
+		if (!option.startsWith("--") || !option.contains("=")) {
+			throw new IllegalArgumentException("Expected --name=value, got " + option);
+		}
+		
+		String name = option.substring(2, option.indexOf('='));
+		String value = option.substring(option.indexOf('=') + 1);
+		switch (name) {
+			case "clients":
+				clients = Integer.parseInt(value);
+				break;
+			case "files":
+				files = Integer.parseInt(value);
+				break;
+			case "sizes":
+				sizes = FileSizes.valueOf(value.toUpperCase(Locale.ROOT));
+				break;
+			case "encryption":
+				encryption = value.equals("none") ? null : value;
+				break;
+			case "latency":
+				latency = Long.parseLong(value);
+				break;
+			case "bandwidth":
+				bandwidth = Long.parseLong(value);
+				break;
+			case "concurrency":
+				concurrency = Integer.parseInt(value);
+				break;
+			case "segments":
+				segments = Integer.parseInt(value);
+				break;
+			case "phases":
+				phases = Arrays.asList(value.split(","));
+				break;
+			case "changes":
+				changes = Double.parseDouble(value);
+				break;
+			case "rounds":
+				rounds = Integer.parseInt(value);
+				break;
+			case "duration":
+				duration = Long.parseLong(value);
+				break;
+			case "timeout":
+				timeout = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+	
+	/**
+	 * Prepares clients and runs rounds.
+	 * 
+	 * @throws Exception when workload fails
+	 */
+	void run() throws Exception {
+		File root = File.createTempFile("harness", "");
+		root.delete();
+		root.mkdirs();
+		
+		// Contents are kept on disk, so heap usage reflects clients only
+		FakeServer server = new FakeServer(new File(root, "server"));
+		server.setLatency(latency);
+		server.setBandwidth(bandwidth);
+		
+		System.out.println(String.format(Locale.ROOT,
+			"clients %d, files %d, sizes %s, encryption %s, latency %d ms, bandwidth %d B/s, concurrency %d, segments %d",
+			clients, files, sizes.name().toLowerCase(Locale.ROOT), encryption == null ? "none" : encryption, latency, bandwidth, concurrency, segments
+		));
+		
+		List<Client> all = new ArrayList<>();
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		try {
+			for (int i = 0; i < clients; i++) {
+				Client client = new Client(this, server, i, root);
+				client.prepare();
+				all.add(client);
+			}
+			
+			long end = System.currentTimeMillis() + duration * 1000;
+			for (int round = 1; round <= rounds || System.currentTimeMillis() < end; round++) {
+				System.out.println("round " + round);
+				for (String phase : phases) {
+					System.out.println(runPhase(pool, all, phase.trim()));
+				}
+				System.out.println(resources());
+			}
+		} finally {
+			pool.shutdownNow();
+			for (Client client : all) {
+				client.close();
+			}
+			delete(root);
+		}
+	}
+	
+	private Phase runPhase(ExecutorService pool, List<Client> all, final String name) throws InterruptedException, ExecutionException {
+		final Phase phase = new Phase(name);
+		
+		List<Future<Void>> running = new ArrayList<>();
+		for (final Client client : all) {
+			running.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					switch (name) {
+						case "upload":
+							client.upload(phase);
+							break;
+						case "download":
+							client.download(phase);
+							break;
+						case "sync":
+							client.sync(phase);
+							break;
+						default:
+							throw new IllegalArgumentException("Unknown phase " + name);
+					}
+					return null;
+				}
+			}));
+		}
+		
+		for (Future<Void> future : running) {
+			future.get();
+		}
+		
+		phase.finish();
+		return phase;
+	}
+	
+	private static String resources() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		return String.format(Locale.ROOT,
+			"threads %d (peak %d), heap used %.1f MB, committed %.1f MB",
+			threads.getThreadCount(), threads.getPeakThreadCount(),
+			heap.getUsed() / 1e6, heap.getCommitted() / 1e6
+		);
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,139 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.sync;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import cz.zipek.minicloud.sync.events.SyncDone;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Synchronization of folder that is already up to date. Remote tree is
+ * served by fake server without latency, so the benchmark measures
+ * listing decoding, local walk, hashing and reconciliation.
+ * 
+ * @author Jan Zípek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncFolderBenchmark {
+	
+	@Param({ "100", "2000" })
+	public int files;
+	
+	@Param({ "10" })
+	public int depth;
+	
+	private File local;
+	private External api;
+	private SyncFolder folder;
+	private volatile CountDownLatch done;
+	
+	@Setup
+	public void setup() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+		FakeServer server = new FakeServer();
+		local = File.createTempFile("sync", "");
+		local.delete();
+		
+		for (int i = 0; i < files; i++) {
+			StringBuilder path = new StringBuilder();
+			for (int level = 0; level < i % depth; level++) {
+				path.append("level ").append(level).append('/');
+			}
+			path.append("file ").append(i).append(".txt");
+			
+			byte[] content = ("content of file " + i).getBytes("UTF-8");
+			server.createFile("bench/" + path, content);
+			
+			File target = new File(local, path.toString().replace("/", File.separator));
+			target.getParentFile().mkdirs();
+			try (FileOutputStream out = new FileOutputStream(target)) {
+				out.write(content);
+			}
+		}
+		
+		api = new External(FakeServer.URL);
+		api.setTransport(server);
+		User user = api.getUserAsync().get(10, TimeUnit.SECONDS);
+		
+		folder = new SyncFolder(local, "bench", 0, null, null);
+		folder.setExternal(api);
+		folder.setUser(user);
+		folder.addListener(new Listener<SyncEvent>() {
+			@Override
+			public void handleEvent(SyncEvent event, Object sender) {
+				if (event instanceof SyncDone) {
+					done.countDown();
+				}
+			}
+		});
+	}
+	
+	@TearDown
+	public void tearDown() {
+		api.shutdown();
+		delete(local);
+	}
+	
+	@Benchmark
+	public boolean sync() throws InterruptedException {
+		done = new CountDownLatch(1);
+		folder.sync();
+		return done.await(1, TimeUnit.MINUTES);
+	}
+	
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
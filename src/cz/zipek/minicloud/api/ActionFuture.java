@@ -0,0 +1,253 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.ErrorEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of asynchronous API request. Future is completed directly
+ * by API when response with matching action id arrives, response
+ * isn't broadcasted to API listeners.
+ * 
+ * @author Jan Zípek
+ * @param <T> request result type
+ */
+public class ActionFuture<T> implements Future<T> {
+	
+	private final External source;
+	private final String actionId;
+	private final Class<? extends Event> expected;
+	
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final List<ActionCallback<T>> callbacks = new ArrayList<>();
+	
+	private boolean finished;
+	private boolean cancelled;
+	private T result;
+	private Exception failure;
+	
+	/**
+	 * Should only be instanced from API.
+	 * 
+	 * @param source API that sends the request
+	 * @param actionId action id of request
+	 * @param expected expected response type
+	 */
+	protected ActionFuture(External source, String actionId, Class<? extends Event> expected) {
+		this.source = source;
+		this.actionId = actionId;
+		this.expected = expected;
+	}
+	
+	/**
+	 * Extracts result from response. Default implementation returns response itself.
+	 * 
+	 * @param event response of expected type
+	 * @return request result
+	 */
+	@SuppressWarnings("unchecked")
+	protected T resolve(Event event) {
+		return (T)event;
+	}
+	
+	/**
+	 * Completes future with server response.
+	 * 
+	 * @param event response with action id of this request
+	 */
+	void handle(Event event) {
+		if (event instanceof ErrorEvent) {
+			fail(new RequestFailedException((ErrorEvent)event));
+		} else if (expected.isInstance(event)) {
+			T value;
+			try {
+				value = resolve(event);
+			} catch (RuntimeException ex) {
+				fail(ex);
+				return;
+			}
+			complete(value);
+		} else {
+			fail(new RequestFailedException(event, "Unexpected response " + event.getClass().getSimpleName()));
+		}
+	}
+	
+	/**
+	 * Completes future with result.
+	 * 
+	 * @param value request result
+	 * @return false if future was already finished
+	 */
+	protected boolean complete(T value) {
+		List<ActionCallback<T>> waiting;
+		synchronized (this) {
+			if (finished) {
+				return false;
+			}
+			finished = true;
+			result = value;
+			waiting = new ArrayList<>(callbacks);
+			callbacks.clear();
+		}
+		latch.countDown();
+		
+		for (ActionCallback<T> callback : waiting) {
+			notifyDone(callback, value);
+		}
+		return true;
+	}
+	
+	/**
+	 * Completes future with failure.
+	 * 
+	 * @param ex reason of failure
+	 * @return false if future was already finished
+	 */
+	protected boolean fail(Exception ex) {
+		List<ActionCallback<T>> waiting;
+		synchronized (this) {
+			if (finished) {
+				return false;
+			}
+			finished = true;
+			failure = ex;
+			waiting = new ArrayList<>(callbacks);
+			callbacks.clear();
+		}
+		latch.countDown();
+		
+		for (ActionCallback<T> callback : waiting) {
+			notifyFailed(callback, ex);
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds callback called when request finishes. When request is already
+	 * finished, callback is called immediately from current thread.
+	 * 
+	 * @param callback callback to be called
+	 * @return this future
+	 */
+	public ActionFuture<T> then(ActionCallback<T> callback) {
+		synchronized (this) {
+			if (!finished) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		
+		if (failure != null) {
+			notifyFailed(callback, failure);
+		} else {
+			notifyDone(callback, result);
+		}
+		return this;
+	}
+	
+	private void notifyDone(ActionCallback<T> callback, T value) {
+		try {
+			callback.done(value);
+		} catch (RuntimeException ex) {
+			Logger.getLogger(ActionFuture.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+	
+	private void notifyFailed(ActionCallback<T> callback, Exception ex) {
+		try {
+			callback.failed(ex);
+		} catch (RuntimeException e) {
+			Logger.getLogger(ActionFuture.class.getName()).log(Level.SEVERE, null, e);
+		}
+	}
+	
+	/**
+	 * @return action id of request
+	 */
+	public String getActionId() {
+		return actionId;
+	}
+
+	/**
+	 * Stops waiting for response. Request itself can't be stopped once sent.
+	 * 
+	 * @param mayInterruptIfRunning ignored
+	 * @return false if request already finished
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (finished) {
+				return false;
+			}
+			cancelled = true;
+		}
+		source.forget(this);
+		return fail(new CancellationException());
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return finished;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return report();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return report();
+	}
+	
+	private synchronized T report() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return result;
+	}
+}
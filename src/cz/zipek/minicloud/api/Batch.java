@@ -0,0 +1,233 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects modifying actions and sends them to server together in single
+ * request. Responses of collected actions are emitted as usual, each with
+ * its own action id.
+ * <p>Batch is sent when it reaches maximum size, when maximum delay since
+ * first collected action passes, or when it's flushed manually.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class Batch implements AutoCloseable {
+	
+	///@var timer sends batches whose delay passed
+	private static ScheduledExecutorService timer;
+	
+	private final External source;
+	
+	private int maxSize = 100;
+	private long maxDelay = 50;
+	
+	private List<String> actions = new ArrayList<>();
+	private List<Map<String, String>> params = new ArrayList<>();
+	private ScheduledFuture<?> scheduled;
+	
+	/**
+	 * @param source API instance used to send batches
+	 */
+	public Batch(External source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Adds moving of specified file to specified path.
+	 * 
+	 * @param file file to be moved
+	 * @param path target path
+	 * @return action id
+	 */
+	public String moveFile(File file, String path) {
+		String action_id = source.nextActionId();
+		add("set_file", External.moveFileParams(file, path, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds applying of local changes to server.
+	 * 
+	 * @param file changed file
+	 * @return action id
+	 */
+	public String updateFile(File file) {
+		String action_id = source.nextActionId();
+		add("set_file", External.updateFileParams(file, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds deletion of specified files.
+	 * 
+	 * @param files files to delete
+	 * @return action id
+	 */
+	public String deleteFiles(List<File> files) {
+		String action_id = source.nextActionId();
+		add("delete_files", External.deleteFilesParams(files, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds moving of specified path.
+	 * 
+	 * @param path path to be moved
+	 * @param result target parent path
+	 * @return action id
+	 */
+	public String movePath(Path path, String result) {
+		String action_id = source.nextActionId();
+		add("set_path", External.movePathParams(path, result, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds deletion of specified path.
+	 * 
+	 * @param path path to delete
+	 * @return action id
+	 */
+	public String deletePath(Path path) {
+		String action_id = source.nextActionId();
+		add("delete_path", External.deletePathParams(path, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds deletion of specified paths.
+	 * 
+	 * @param paths paths to delete
+	 * @return action id
+	 */
+	public String deletePaths(List<Path> paths) {
+		String action_id = source.nextActionId();
+		add("delete_paths", External.deletePathsParams(paths, action_id));
+		return action_id;
+	}
+	
+	/**
+	 * Adds action to batch.
+	 * 
+	 * @param action action name
+	 * @param parameters action parameters, including action id
+	 */
+	public synchronized void add(String action, Map<String, String> parameters) {
+		actions.add(action);
+		params.add(parameters);
+		
+		if (actions.size() >= maxSize) {
+			flush();
+		} else if (actions.size() == 1 && maxDelay > 0) {
+			scheduled = getTimer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, maxDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Sends all collected actions.
+	 */
+	public synchronized void flush() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		
+		if (actions.isEmpty()) {
+			return;
+		}
+		
+		source.sendBatch(actions, params);
+		
+		actions = new ArrayList<>();
+		params = new ArrayList<>();
+	}
+	
+	/**
+	 * Sends all collected actions.
+	 */
+	@Override
+	public void close() {
+		flush();
+	}
+	
+	/**
+	 * @return number of collected actions
+	 */
+	public synchronized int size() {
+		return actions.size();
+	}
+
+	/**
+	 * @return number of actions that causes batch to be sent
+	 */
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize number of actions that causes batch to be sent
+	 */
+	public synchronized void setMaxSize(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Batch has to hold at least one action");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return time in ms after which collected actions are sent, 0 if never
+	 */
+	public synchronized long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param maxDelay time in ms after which collected actions are sent, 0 to send only manually
+	 */
+	public synchronized void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+	
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, new RequestExecutors.NamedThreadFactory("API batch", true));
+			pool.setRemoveOnCancelPolicy(true);
+			timer = pool;
+		}
+		return timer;
+	}
+}
@@ -0,0 +1,175 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops sending requests to server that keeps failing. After specified
+ * number of consecutive failures, requests fail immediately for a while.
+ * Then single trial request is let through, and the breaker closes again
+ * when it succeeds. Trial that doesn't report its result in time is
+ * replaced by another one.
+ * <p>Breakers are shared by all API instances using the same server.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class CircuitBreaker {
+	
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+	
+	private int failureThreshold = 5;
+	private long openTime = 30000;
+	
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private long trialAt = 0;
+	
+	/**
+	 * Returns breaker of specified server.
+	 * 
+	 * @param server url of server
+	 * @return breaker used for server
+	 */
+	public static CircuitBreaker forServer(String server) {
+		CircuitBreaker breaker = breakers.get(server);
+		if (breaker == null) {
+			breaker = new CircuitBreaker();
+			CircuitBreaker current = breakers.putIfAbsent(server, breaker);
+			if (current != null) {
+				breaker = current;
+			}
+		}
+		return breaker;
+	}
+	
+	/**
+	 * Checks if request can be sent. Lets through single trial request
+	 * when breaker was open long enough.
+	 * 
+	 * @return true if request can be sent
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.currentTimeMillis() - openedAt >= openTime) {
+					state = State.HALF_OPEN;
+					trialAt = System.currentTimeMillis();
+					return true;
+				}
+				return false;
+			default:
+				//Trial request is already running, unless it got lost
+				if (System.currentTimeMillis() - trialAt >= openTime) {
+					trialAt = System.currentTimeMillis();
+					return true;
+				}
+				return false;
+		}
+	}
+	
+	/**
+	 * Records successful request.
+	 */
+	public synchronized void recordSuccess() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+	
+	/**
+	 * Records failed request.
+	 */
+	public synchronized void recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Records request that ended without telling if server works, for
+	 * example when it was interrupted. When it was the trial request,
+	 * next request becomes the trial.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN) {
+			state = State.OPEN;
+		}
+	}
+	
+	/**
+	 * Closes breaker.
+	 */
+	public synchronized void reset() {
+		failures = 0;
+		state = State.CLOSED;
+	}
+	
+	/**
+	 * @return current state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return number of consecutive failures that opens breaker
+	 */
+	public synchronized int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * @param failureThreshold number of consecutive failures that opens breaker
+	 */
+	public synchronized void setFailureThreshold(int failureThreshold) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("Threshold has to be positive");
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * @return time breaker stays open in ms
+	 */
+	public synchronized long getOpenTime() {
+		return openTime;
+	}
+
+	/**
+	 * @param openTime time breaker stays open in ms
+	 */
+	public synchronized void setOpenTime(long openTime) {
+		this.openTime = openTime;
+	}
+}
@@ -30,7 +30,7 @@ import org.json.JSONObject;
  * 
  * @author Jan Zípek
  */
-public class Event {
+public class Event implements Cloneable {
 
 	/**
 	 * API instance that sent this event.
@@ -81,4 +81,21 @@ public class Event {
 	public String getActionId() {
 		return actionId;
 	}
+	
+	/**
+	 * Creates copy of this event as response to another request.
+	 * Copy shares raw data and decoded content with this event.
+	 * 
+	 * @param action_id action id of the other request
+	 * @return event copy
+	 */
+	public Event forAction(String action_id) {
+		try {
+			Event copy = (Event)clone();
+			copy.actionId = action_id;
+			return copy;
+		} catch (CloneNotSupportedException ex) {
+			throw new AssertionError(ex);
+		}
+	}
 }
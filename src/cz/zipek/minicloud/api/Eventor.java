@@ -23,40 +23,115 @@
  */
 package cz.zipek.minicloud.api;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Event emittor.
+ * Event emittor. Listeners are kept in copy-on-write array, so events
+ * can be emitted from multiple threads at once without locking and slow
+ * listener doesn't block other emitting threads.
+ * <p>
+ * By default listeners are called directly by emitting thread. In
+ * asynchronous mode every listener gets its own bounded queue and events
+ * are delivered by shared dispatch threads, so slow listener can't slow
+ * down transfers emitting events.</p>
  * 
  * @author Jan Zípek
  * @param <E> expected event class
  */
 public class Eventor<E> {
 	
+	private static final Listener[] EMPTY = new Listener[0];
+	
+	/**
+	 * Threads delivering events of asynchronous emittors.
+	 */
+	private static ExecutorService dispatcher;
+	
 	/**
-	 * List of listeners assigned to this event emittor.
+	 * Listeners assigned to this event emittor. Array is never modified,
+	 * changes replace it with modified copy.
 	 */
-	protected final List<Listener> listeners = new ArrayList<>();
+	private final AtomicReference<Listener[]> listeners = new AtomicReference<>(EMPTY);
 
 	/**
-	 * List of listeners that will be lazy removed. This prevents collisions
+	 * Listeners that will be lazy removed. This prevents collisions
 	 * with multiple threads.
 	 */
-	protected final List<Listener> toRemove = new ArrayList<>();
+	private final Queue<Listener> toRemove = new ConcurrentLinkedQueue<>();
 
 	/**
-	 * List of listeners that will be lazy added. This prevents collisions
+	 * Listeners that will be lazy added. This prevents collisions
 	 * with multiple threads.
 	 */
-	protected final List<Listener> toAdd = new ArrayList<>();
+	private final Queue<Listener> toAdd = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Queues of listeners in asynchronous mode.
+	 */
+	private final ConcurrentMap<Listener, ListenerQueue> queues = new ConcurrentHashMap<>();
+	
+	///@var overflow policy of listener queues, null when events are delivered synchronously
+	private volatile Overflow overflow = null;
+	private volatile int capacity = 0;
+	
+	/**
+	 * Switches to asynchronous delivery. Each listener gets its own queue
+	 * and events are delivered in order they were emitted. When already
+	 * asynchronous, existing queues keep their events and only change
+	 * their settings.
+	 * <p>
+	 * <b>Note:</b> with {@link Overflow#BLOCK} listener must not wait
+	 * for events emitted by this emittor.</p>
+	 * 
+	 * @param capacity number of events each listener queue can hold
+	 * @param overflow policy used when listener queue is full
+	 */
+	public void setAsync(int capacity, Overflow overflow) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		if (overflow == null) {
+			throw new IllegalArgumentException("Overflow policy is required");
+		}
+		
+		this.capacity = capacity;
+		this.overflow = overflow;
+		
+		// Queued events stay ahead of new ones
+		for (ListenerQueue queue : queues.values()) {
+			queue.configure(capacity, overflow);
+		}
+	}
+	
+	/**
+	 * Switches back to synchronous delivery. Events that are already
+	 * queued are still delivered first, until listener's queue is empty
+	 * its new events are queued behind them.
+	 */
+	public void setSynchronous() {
+		overflow = null;
+	}
+	
+	/**
+	 * @return true if events are delivered by dispatch threads
+	 */
+	public boolean isAsync() {
+		return overflow != null;
+	}
 	
 	/**
 	 * Adds new listener.
 	 * @param listener
 	 */
-	public synchronized void addListener(Listener<E> listener) {
-		listeners.add(listener);
+	public void addListener(Listener<E> listener) {
+		add(listener);
 	}
 	
 	/**
@@ -64,18 +139,19 @@ public class Eventor<E> {
 	 * with multiple threads.
 	 * @param listener
 	 */
-	public synchronized void addListenerLater(Listener<E> listener) {
+	public void addListenerLater(Listener<E> listener) {
 		toAdd.add(listener);
 	}
 
 	/**
-	 * Removes listener. Don't call this method from handler,
-	 * it will result in thread collision. Use removeListenerLater.
+	 * Removes listener. Events that are already being emitted are still
+	 * delivered to it, use removeListenerLater to remove listener
+	 * from its handler.
 	 * 
 	 * @param listener 
 	 */
-	public synchronized void removeListener(Listener<E> listener) {
-		listeners.remove(listener);
+	public void removeListener(Listener<E> listener) {
+		remove(listener);
 	}
 	
 	/**
@@ -93,37 +169,109 @@ public class Eventor<E> {
 	 * 
 	 * @param event event to be emitted
 	 */
-	protected synchronized void fireEvent(E event) {
-		if (toRemove.size() > 0) {
-			for(Listener l : toRemove) {
-				listeners.remove(l);
+	@SuppressWarnings("unchecked")
+	protected void fireEvent(E event) {
+		applyLater();
+
+		Overflow policy = overflow;
+		for(Listener listener : listeners.get()) {
+			if (policy != null) {
+				getQueue(listener, policy).offer(event);
+			} else if (!queues.isEmpty() && offerQueued(listener, event)) {
+				// Queue left from asynchronous mode isn't empty yet
+			} else {
+				listener.handleEvent(event, this);
 			}
-			toRemove.clear();
 		}
 		
-		if (toAdd.size() > 0) {
-			for(Listener l : toAdd) {
-				listeners.add(l);
+		applyLater();
+	}
+	
+	private ListenerQueue getQueue(Listener listener, Overflow policy) {
+		ListenerQueue queue = queues.get(listener);
+		while (queue == null || queue.isClosed()) {
+			// Queue dropped after leaving asynchronous mode is replaced
+			ListenerQueue created = new ListenerQueue(this, listener, capacity, policy, getDispatcher());
+			if (queue == null ? queues.putIfAbsent(listener, created) == null : queues.replace(listener, queue, created)) {
+				return created;
 			}
-			toAdd.clear();
+			queue = queues.get(listener);
 		}
-
-		for(Listener listener : listeners) {
-			listener.handleEvent(event, this);
+		return queue;
+	}
+	
+	/**
+	 * Passes event to queue left from asynchronous mode when it still
+	 * has events to deliver. Empty queue is dropped.
+	 * 
+	 * @return false when event should be delivered directly
+	 */
+	private boolean offerQueued(Listener listener, Object event) {
+		ListenerQueue queue = queues.get(listener);
+		if (queue == null) {
+			return false;
 		}
-		
-		if (toRemove.size() > 0) {
-			for(Listener l : toRemove) {
-				listeners.remove(l);
-			}
-			toRemove.clear();
+		if (queue.offerIfBusy(event)) {
+			return true;
 		}
-		
-		if (toAdd.size() > 0) {
-			for(Listener l : toAdd) {
-				listeners.add(l);
+		queues.remove(listener, queue);
+		return false;
+	}
+	
+	private static synchronized ExecutorService getDispatcher() {
+		if (dispatcher == null) {
+			dispatcher = Executors.newCachedThreadPool(new RequestExecutors.NamedThreadFactory("API events", true));
+		}
+		return dispatcher;
+	}
+	
+	/**
+	 * Applies lazy removals and additions.
+	 */
+	private void applyLater() {
+		Listener listener;
+		while ((listener = toRemove.poll()) != null) {
+			remove(listener);
+		}
+		while ((listener = toAdd.poll()) != null) {
+			add(listener);
+		}
+	}
+	
+	private void add(Listener listener) {
+		Listener[] current, updated;
+		do {
+			current = listeners.get();
+			updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = listener;
+		} while (!listeners.compareAndSet(current, updated));
+	}
+	
+	private void remove(Listener listener) {
+		Listener[] current, updated;
+		do {
+			current = listeners.get();
+			
+			int index = -1;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].equals(listener)) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				return;
 			}
-			toAdd.clear();
+			
+			updated = new Listener[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, index);
+			System.arraycopy(current, index + 1, updated, index, updated.length - index);
+		} while (!listeners.compareAndSet(current, updated));
+		
+		// Removed listener doesn't receive queued events
+		ListenerQueue queue = queues.remove(listener);
+		if (queue != null) {
+			queue.close();
 		}
 	}
 }
@@ -23,33 +23,61 @@
  */
 package cz.zipek.minicloud.api;
 
+import cz.zipek.minicloud.api.events.BatchEvent;
 import cz.zipek.minicloud.api.events.BoolEvent;
 import cz.zipek.minicloud.api.events.ConnectionErrorEvent;
 import cz.zipek.minicloud.api.events.ErrorEvent;
 import cz.zipek.minicloud.api.events.FileEvent;
 import cz.zipek.minicloud.api.events.FilesEvent;
+import cz.zipek.minicloud.api.events.ListingEvent;
 import cz.zipek.minicloud.api.events.PathEvent;
 import cz.zipek.minicloud.api.events.PathsEvent;
 import cz.zipek.minicloud.api.events.ServerInfoEvent;
 import cz.zipek.minicloud.api.events.SuccessEvent;
 import cz.zipek.minicloud.api.events.UserEvent;
 import cz.zipek.minicloud.api.events.UsersEvent;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import cz.zipek.minicloud.api.json.JsonReader;
+import cz.zipek.minicloud.api.metrics.MeteredInputStream;
+import cz.zipek.minicloud.api.metrics.MetricsCollector;
+import cz.zipek.minicloud.api.metrics.RequestTiming;
+import cz.zipek.minicloud.api.trace.RequestTraceEvent;
+import cz.zipek.minicloud.api.trace.Tracing;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -75,10 +103,77 @@ public class External extends Eventor<Event> {
 		public static final String SERVER_INFO = "server";
 		public static final String ERROR = "error";
 		public static final String BOOL = "bool";
+		public static final String BATCH = "batch";
 	}
 	
-	///@var events maps response type to class that parses said response
-	private final Map<String, Class> events = new HashMap<>();
+	///@var DEFAULT_EVENTS factories of response types known to this library
+	private static final Map<String, EventFactory> DEFAULT_EVENTS = new HashMap<>();
+
+	static {
+		DEFAULT_EVENTS.put("", new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new SuccessEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.FILE, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new FileEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.FILES, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new FilesEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.ERROR, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new ErrorEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.PATH, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new PathEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.PATHS, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new PathsEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.USER, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new UserEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.USERS, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new UsersEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.SERVER_INFO, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new ServerInfoEvent(sender, data, action_id);
+			}
+		});
+		DEFAULT_EVENTS.put(codes.BOOL, new EventFactory() {
+			@Override
+			public Event create(External sender, JSONObject data, String action_id) {
+				return new BoolEvent(sender, data, action_id);
+			}
+		});
+	}
+
+	///@var events maps response type to factory that parses said response
+	private final ConcurrentMap<String, EventFactory> events = new ConcurrentHashMap<>(DEFAULT_EVENTS);
 
 	///@var server path to server
 	private String server = "http://minicloud.zipek.cz";
@@ -86,39 +181,118 @@ public class External extends Eventor<Event> {
 	///@var auth authorization string used to autorize against API
 	private String auth;
 	
-	///@var long counter used to automatically create action_id
-	private long actionCounter;
+	///@var transport opens connections to server, shared with uploads and downloads
+	private Transport transport = new HttpConnector();
+	
+	///@var actionCounter counter used to automatically create action_id
+	private final AtomicLong actionCounter = new AtomicLong();
+	
+	///@var executor runs requests, default one is created on first request
+	private ExecutorService executor;
+	
+	///@var ownExecutor executor was created by this instance and should be shut down with it
+	private boolean ownExecutor;
+	
+	///@var maxConcurrentRequests maximum number of requests running at once
+	private int maxConcurrentRequests = 8;
+	
+	///@var maxQueuedRequests maximum number of requests waiting for free slot
+	private int maxQueuedRequests = 1024;
+	
+	///@var slots limits number of requests running at once
+	private volatile Semaphore slots = new Semaphore(maxConcurrentRequests);
+	
+	///@var listings action ids of path requests decoded into compact listing
+	private final Set<String> listings = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	///@var lazyTree children of paths are decoded when they're first accessed
+	private boolean lazyTree = false;
+	
+	///@var pending number of requests waiting or running
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	///@var futures asynchronous requests waiting for response, by action id
+	private final ConcurrentMap<String, ActionFuture<?>> futures = new ConcurrentHashMap<>();
+	
+	///@var interceptors internal handlers of responses, by action id
+	private final ConcurrentMap<String, Interceptor> interceptors = new ConcurrentHashMap<>();
+	
+	///@var subscriptions one-shot listeners waiting for response, by action id
+	private final ConcurrentMap<String, Listener<Event>> subscriptions = new ConcurrentHashMap<>();
+	
+	///@var typed listeners subscribed to event class, arrays are replaced on change
+	private final ConcurrentMap<Class<?>, Listener[]> typed = new ConcurrentHashMap<>();
+	
+	///@var retryPolicy specifies how failed requests are retried
+	private volatile RetryPolicy retryPolicy = new RetryPolicy();
+	
+	///@var session random prefix of idempotency keys sent with modifying requests
+	private final String session = UUID.randomUUID().toString();
+	
+	///@var metrics receives measurements of requests, null when disabled
+	private volatile MetricsCollector metrics;
+	
+	///@var cache cached path listings, null when caching is disabled
+	private volatile MetadataCache cache;
+	
+	///@var flights running idempotent requests, by request parameters
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
 	
 	/**
-	 * Used for parametrized thread.
+	 * Running request whose response is shared by callers that sent
+	 * identical request meanwhile.
 	 */
-	class ParamThread extends Thread {
-
-		public final String params;
-		public final String auth;
-
-		ParamThread(String params, String auth) {
-			this.params = params;
-			this.auth = auth;
+	private static class Flight {
+		
+		private final String key;
+		private final List<String> joined = new ArrayList<>();
+		private boolean closed = false;
+		private Future<?> done;
+		
+		Flight(String key) {
+			this.key = key;
+		}
+		
+		/**
+		 * Adds caller waiting for response.
+		 * 
+		 * @param action_id action id of caller
+		 * @return false when response was already delivered
+		 */
+		synchronized boolean join(String action_id) {
+			if (closed) {
+				return false;
+			}
+			joined.add(action_id);
+			return true;
+		}
+		
+		/**
+		 * Stops accepting callers.
+		 * 
+		 * @return action ids of joined callers
+		 */
+		synchronized List<String> close() {
+			closed = true;
+			return joined;
 		}
 	}
+	
+	/**
+	 * Internal handler of response, used instead of normal delivery.
+	 */
+	private interface Interceptor {
+		/**
+		 * @param event response of intercepted request
+		 */
+		void intercept(Event event);
+	}
 
 	/**
 	 * Initializes basic event mapping.
 	 */
 	public External() {
-		this.actionCounter = 0;
 		
-		events.put("", SuccessEvent.class);
-		events.put(codes.FILE, FileEvent.class);
-		events.put(codes.FILES, FilesEvent.class);
-		events.put(codes.ERROR, ErrorEvent.class);
-		events.put(codes.PATH, PathEvent.class);
-		events.put(codes.PATHS, PathsEvent.class);
-		events.put(codes.USER, UserEvent.class);
-		events.put(codes.USERS, UsersEvent.class);
-		events.put(codes.SERVER_INFO, ServerInfoEvent.class);
-		events.put(codes.BOOL, BoolEvent.class);
 	}
 
 	/**
@@ -151,126 +325,1148 @@ public class External extends Eventor<Event> {
 	}
 	
 	/**
-	 * Url to server with api suffix.
+	 * Returns transport used to open connections to server. Transport
+	 * is shared with uploads and downloads using this API.
+	 * 
+	 * @return transport used to open connections
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Sets transport used to open connections to server.
+	 * 
+	 * @param aTransport transport used to open connections
+	 */
+	public void setTransport(Transport aTransport) {
+		transport = aTransport;
+	}
+	
+	/**
+	 * Returns if paths received from server decode their children
+	 * only when they're first accessed.
+	 * 
+	 * @return true when lazy decoding is used
+	 */
+	public boolean isLazyTree() {
+		return lazyTree;
+	}
+
+	/**
+	 * Sets if paths received from server should decode their children
+	 * only when they're first accessed. Until then, children are kept
+	 * in compact undecoded form. Useful when only part of big recursive
+	 * listing is used.
+	 * 
+	 * @param lazy use lazy decoding
+	 */
+	public void setLazyTree(boolean lazy) {
+		lazyTree = lazy;
+	}
+	
+	/**
+	 * Returns policy used to retry failed requests.
+	 * 
+	 * @return retry policy
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+	
+	/**
+	 * Sets policy used to retry failed requests.
+	 * 
+	 * @param policy retry policy, null disables retrying
+	 */
+	public void setRetryPolicy(RetryPolicy policy) {
+		retryPolicy = policy != null ? policy : RetryPolicy.none();
+	}
+	
+	/**
+	 * Returns circuit breaker of current server.
+	 * 
+	 * @return circuit breaker shared by all instances using current server
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return CircuitBreaker.forServer(getServer());
+	}
+	
+	/**
+	 * Returns collector of request measurements.
+	 * 
+	 * @return metrics collector or null when requests aren't measured
+	 */
+	public MetricsCollector getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets collector of request measurements. Uploads and downloads
+	 * are measured too, as upload_file and download_file actions.
+	 * 
+	 * @param collector metrics collector, null disables measuring
+	 */
+	public void setMetrics(MetricsCollector collector) {
+		metrics = collector;
+	}
+	
+	/**
+	 * Returns cache used for path listings.
+	 * 
+	 * @return metadata cache or null when caching is disabled
+	 */
+	public MetadataCache getMetadataCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets cache used for path listings. Cached listing is reused when
+	 * checksum of listed path didn't change, which is checked by requesting
+	 * the path without its children. Cache is cleared whenever files or
+	 * paths are changed using this instance. Cache can be shared by
+	 * instances using different accounts, listings are kept separately
+	 * for every server and authorization.
+	 * 
+	 * @param cache metadata cache, null disables caching
+	 */
+	public void setMetadataCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Drops all cached path listings. Has to be called when remote files
+	 * are changed without using this instance.
+	 */
+	public void invalidateMetadata() {
+		MetadataCache current = cache;
+		if (current != null) {
+			current.invalidate();
+		}
+	}
+	
+	/**
+	 * Url to server with api suffix.
+	 * 
+	 * @return url to server with api suffix
+	 */
+	public String getApiUrl() {
+		return getServer() + "/api.php";
+	}
+
+	/**
+	 * Returns executor used to run requests. Default executor is created
+	 * when none was set.
+	 * 
+	 * @return executor used to run requests
+	 */
+	public synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = RequestExecutors.newDefault(maxConcurrentRequests);
+			ownExecutor = true;
+		}
+		return executor;
+	}
+	
+	/**
+	 * Sets executor used to run requests. Executor set this way
+	 * is never shut down by this instance.
+	 * 
+	 * @param aExecutor executor used to run requests
+	 */
+	public synchronized void setExecutor(ExecutorService aExecutor) {
+		if (ownExecutor && executor != null) {
+			executor.shutdown();
+		}
+		executor = aExecutor;
+		ownExecutor = false;
+	}
+	
+	/**
+	 * Returns maximum number of requests running at once.
+	 * 
+	 * @return maximum number of requests running at once
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * Sets maximum number of requests running at once. Requests over
+	 * this limit wait in queue.
+	 * 
+	 * @param max maximum number of requests running at once
+	 */
+	public synchronized void setMaxConcurrentRequests(int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("At least one request has to be allowed");
+		}
+		
+		maxConcurrentRequests = max;
+		slots = new Semaphore(max);
+		
+		if (ownExecutor && executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
+			if (max > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(max);
+				pool.setCorePoolSize(max);
+			} else {
+				pool.setCorePoolSize(max);
+				pool.setMaximumPoolSize(max);
+			}
+		}
+	}
+
+	/**
+	 * Returns maximum number of requests waiting for free slot.
+	 * 
+	 * @return maximum number of waiting requests
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Sets maximum number of requests waiting for free slot. Requests
+	 * over this limit are rejected with ConnectionErrorEvent.
+	 * 
+	 * @param max maximum number of waiting requests
+	 */
+	public void setMaxQueuedRequests(int max) {
+		if (max < 0) {
+			throw new IllegalArgumentException("Queue limit can't be negative");
+		}
+		
+		maxQueuedRequests = max;
+	}
+	
+	/**
+	 * Returns number of requests that are waiting or running.
+	 * 
+	 * @return number of unfinished requests
+	 */
+	public int getPendingRequests() {
+		return pending.get();
+	}
+	
+	/**
+	 * Stops default executor. Requests already submitted are finished.
+	 * Executors set by user are left untouched.
+	 */
+	public synchronized void shutdown() {
+		if (ownExecutor && executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private Future<?> request(String action, Map<String, String> params) {
+		if (isModifying(action)) {
+			invalidateMetadata();
+		}
+		
+		String action_id = params.get("action_id");
+		String auth = getAuth();
+		
+		Flight flight = null;
+		if (isIdempotent(action)) {
+			flight = new Flight(requestKey(action, params, auth));
+		}
+		
+		Call call = new Call(action, createUrl(action, params), auth, action_id, isIdempotent(action), flight);
+		
+		//Join identical request that is already running
+		if (flight != null) {
+			flight.done = call.done;
+			
+			Flight current;
+			while ((current = flights.putIfAbsent(flight.key, flight)) != null) {
+				if (current.join(action_id)) {
+					return current.done;
+				}
+				flights.remove(flight.key, current);
+			}
+		}
+		
+		return submit(call);
+	}
+	
+	/**
+	 * Checks if action only reads data, so it can be shared by callers.
+	 */
+	private boolean isIdempotent(String action) {
+		return action.startsWith("get_") || action.startsWith("admin_get_");
+	}
+	
+	/**
+	 * Checks if action changes remote files or paths.
+	 */
+	private boolean isModifying(String action) {
+		switch (action) {
+			case "set_file":
+			case "delete_files":
+			case "set_path":
+			case "delete_path":
+			case "delete_paths":
+			case "batch":
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Requests path listing through metadata cache. Checksum of listed path
+	 * is requested first and cached listing is used when it didn't change,
+	 * otherwise full listing is requested and cached.
+	 * 
+	 * @param action requested action
+	 * @param params request parameters
+	 * @param check parameters of request returning listed path without its children
+	 * @return future finished when response is delivered
+	 */
+	private Future<?> cachedRequest(final String action, final Map<String, String> params, Map<String, String> check) {
+		final MetadataCache store = cache;
+		final String action_id = params.get("action_id");
+		final String key = requestKey(action, params, getAuth());
+		final long generation = store.getGeneration();
+		final MetadataCache.Entry cached = store.get(key);
+		final ActionFuture<Event> done = new ActionFuture<>(this, action_id, Event.class);
+		
+		//Recursive listing carries its own checksum, there is nothing to revalidate
+		if (cached == null && action.equals("get_path")) {
+			fetch(store, key, generation, action, params, null, null, done);
+			return done;
+		}
+		
+		String check_id = nextActionId();
+		check.put("action_id", check_id);
+		
+		interceptors.put(check_id, new Interceptor() {
+			@Override
+			public void intercept(Event event) {
+				Path current = null;
+				if (event instanceof PathEvent) {
+					current = ((PathEvent)event).getPath();
+				}
+				
+				if (current == null) {
+					fetch(store, key, generation, action, params, null, null, done);
+				} else if (cached != null && cached.isValid(current.getChecksum(), current.getMdtime())) {
+					Event hit = createCachedEvent(cached.getValue(), action_id);
+					deliver(hit);
+					done.complete(hit);
+				} else {
+					fetch(store, key, generation, action, params, current.getChecksum(), current.getMdtime(), done);
+				}
+			}
+		});
+		
+		request("get_path", check);
+		
+		return done;
+	}
+	
+	/**
+	 * Requests path listing and caches it.
+	 * 
+	 * @param checksum checksum of listed path, null to take it from listing
+	 * @param mdtime modification time of listed path
+	 */
+	private void fetch(final MetadataCache store, final String key, final long generation, String action, Map<String, String> params, final String checksum, final Date mdtime, final ActionFuture<Event> done) {
+		final String action_id = params.get("action_id");
+		
+		interceptors.put(action_id, new Interceptor() {
+			@Override
+			public void intercept(Event event) {
+				if (event instanceof ListingEvent) {
+					Listing listing = ((ListingEvent)event).getListing();
+					store.put(key, listing, listing.getRoot().getChecksum(), listing.getRoot().getMdtime(), generation);
+				} else if (event instanceof PathEvent && ((PathEvent)event).getPath() != null) {
+					Path path = ((PathEvent)event).getPath();
+					store.put(key, copyOf(path), path.getChecksum(), path.getMdtime(), generation);
+				} else if (event instanceof PathsEvent && ((PathsEvent)event).getPaths() != null) {
+					store.put(key, copyOf(((PathsEvent)event).getPaths()), checksum, mdtime, generation);
+				}
+				
+				deliver(event);
+				done.complete(event);
+			}
+		});
+		
+		request(action, params);
+	}
+	
+	/**
+	 * Creates key identifying request parameters, action id excluded.
+	 * Server and authorization are part of the key, so responses are never
+	 * shared between users, even when they share metadata cache.
+	 */
+	private String requestKey(String action, Map<String, String> params, String auth) {
+		Map<String, String> values = new TreeMap<>(params);
+		values.remove("action_id");
+		
+		StringBuilder key = new StringBuilder();
+		key.append(getServer()).append(' ').append(auth).append(' ');
+		key.append(action);
+		if (listings.contains(params.get("action_id"))) {
+			key.append(":listing");
+		}
+		key.append(values);
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Copies decoded listing, so tree kept in cache is never shared with
+	 * callers, who are free to modify trees they receive. Listing is
+	 * immutable and is returned as is.
+	 */
+	private static Object copyOf(Object value) {
+		if (value instanceof Path) {
+			return new Path((Path)value);
+		} else if (value instanceof Path[]) {
+			Path[] paths = (Path[])value;
+			Path[] copy = new Path[paths.length];
+			for (int i = 0; i < paths.length; i++) {
+				copy[i] = paths[i] != null ? new Path(paths[i]) : null;
+			}
+			return copy;
+		}
+		return value;
+	}
+	
+	/**
+	 * Creates response event from cached listing. Every event gets its own
+	 * copy of cached tree.
+	 */
+	private Event createCachedEvent(Object cached, String action_id) {
+		Object value = copyOf(cached);
+		
+		JSONObject data = new JSONObject();
+		try {
+			data.put("action_id", action_id);
+			data.put("type", value instanceof Path[] ? codes.PATHS : codes.PATH);
+		} catch (JSONException ex) {
+			Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		
+		if (value instanceof Listing) {
+			return new ListingEvent(this, data, action_id, (Listing)value);
+		} else if (value instanceof Path) {
+			return new PathEvent(this, data, action_id, (Path)value);
+		}
+		return new PathsEvent(this, data, action_id, (Path[])value);
+	}
+	
+	/**
+	 * Request sent to server and retried according to retry policy. Every
+	 * attempt runs as separate executor task. Between attempts, request
+	 * waits in retry scheduler and holds neither request slot nor executor
+	 * thread.
+	 */
+	private class Call implements Runnable {
+		
+		private final String action;
+		private final String params;
+		private final String auth;
+		private final String action_id;
+		private final String key;
+		private final boolean idempotent;
+		private final Flight flight;
+		private final RetryPolicy policy = getRetryPolicy();
+		private final ActionFuture<Event> done;
+		
+		private int attempt = 0;
+		
+		/**
+		 * @param action requested action
+		 * @param params encoded request parameters
+		 * @param auth authorization used for request
+		 * @param action_id action id of request
+		 * @param idempotent request only reads data
+		 * @param flight callers sharing the response, can be null
+		 */
+		Call(String action, String params, String auth, String action_id, boolean idempotent, Flight flight) {
+			this.action = action;
+			this.params = params;
+			this.auth = auth;
+			this.action_id = action_id;
+			this.key = idempotent ? null : session + "-" + action_id;
+			this.idempotent = idempotent;
+			this.flight = flight;
+			this.done = new ActionFuture<>(External.this, action_id, Event.class);
+		}
+		
+		@Override
+		public void run() {
+			Event response = null;
+			boolean finished = true;
+			
+			try {
+				response = send();
+				finished = response != null;
+			} catch (RuntimeException ex) {
+				//Failure of transport or decoder mustn't leave callers waiting
+				response = new ConnectionErrorEvent(External.this, null, action_id, ex);
+				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+			} catch (Error ex) {
+				response = new ConnectionErrorEvent(External.this, null, action_id, new ExecutionException(ex));
+				throw ex;
+			} finally {
+				if (finished) {
+					finish(response);
+				}
+			}
+		}
+		
+		/**
+		 * Makes single attempt to send request.
+		 * 
+		 * @return response or null when request will be retried
+		 */
+		private Event send() {
+			attempt++;
+			
+			Semaphore limit = slots;
+			try {
+				limit.acquire();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				Logger.getLogger(External.class.getName()).log(Level.WARNING, null, ex);
+				return new ConnectionErrorEvent(External.this, null, action_id, ex);
+			}
+			
+			try {
+				CircuitBreaker breaker = getCircuitBreaker();
+				if (!breaker.allowRequest()) {
+					return new ConnectionErrorEvent(External.this, null, action_id, new IOException("Server keeps failing, requests are suspended"));
+				}
+				
+				MetricsCollector collector = metrics;
+				RequestTiming timing = null;
+				if (collector != null) {
+					timing = new RequestTiming();
+					collector.started(action);
+				}
+				
+				boolean recorded = false;
+				try {
+					Event response = loadResponse(action, params, auth, action_id, key, timing);
+					breaker.recordSuccess();
+					recorded = true;
+					
+					if (collector != null) {
+						if (response instanceof ErrorEvent) {
+							collector.failed(action, response.getClass().getSimpleName(), timing);
+						} else {
+							collector.completed(action, timing);
+						}
+					}
+					return response;
+				} catch (JSONException excalibur) {
+					//Server did respond, only its response can't be used
+					breaker.recordSuccess();
+					recorded = true;
+					
+					if (collector != null) {
+						collector.failed(action, excalibur.getClass().getSimpleName(), timing);
+					}
+					
+					Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, excalibur);
+					return new ConnectionErrorEvent(External.this, null, action_id, excalibur);
+				} catch (IOException excalibur) {
+					breaker.recordFailure();
+					recorded = true;
+					
+					if (collector != null) {
+						collector.failed(action, excalibur.getClass().getSimpleName(), timing);
+					}
+					
+					if (attempt >= policy.getMaxAttempts() || !isRetryable(excalibur, idempotent, policy)) {
+						Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, excalibur);
+						return new ConnectionErrorEvent(External.this, null, action_id, excalibur);
+					}
+					
+					long retryAfter = -1;
+					if (excalibur instanceof ServerBusyException) {
+						retryAfter = ((ServerBusyException)excalibur).getRetryAfter();
+					}
+					long delay = policy.getDelay(attempt, retryAfter);
+					
+					Logger.getLogger(External.class.getName()).log(Level.WARNING, "Request {0} failed, retrying in {1} ms: {2}", new Object[] { action_id, delay, excalibur.getMessage() });
+					
+					retry(delay);
+					return null;
+				} finally {
+					//Trial request of half open breaker has to end somehow
+					if (!recorded) {
+						breaker.release();
+					}
+				}
+			} finally {
+				limit.release();
+			}
+		}
+		
+		/**
+		 * Sends request again after specified delay.
+		 * 
+		 * @param delay delay in ms
+		 */
+		private void retry(long delay) {
+			final Call call = this;
+			try {
+				RequestExecutors.retryScheduler().schedule(new Runnable() {
+					@Override
+					public void run() {
+						call.submit();
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException ex) {
+				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+				finish(new ConnectionErrorEvent(External.this, null, action_id, ex));
+			}
+		}
+		
+		/**
+		 * Passes attempt to executor.
+		 */
+		private void submit() {
+			try {
+				getExecutor().execute(this);
+			} catch (RejectedExecutionException ex) {
+				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+				finish(new ConnectionErrorEvent(External.this, null, action_id, ex));
+			}
+		}
+		
+		/**
+		 * Delivers response and marks request as finished.
+		 * 
+		 * @param response response to be delivered
+		 */
+		private void finish(Event response) {
+			try {
+				settle(flight, response);
+			} finally {
+				pending.decrementAndGet();
+				done.complete(response);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if failed request can be sent again. Read requests can always
+	 * be repeated. Modifying requests are repeated only when they surely
+	 * didn't reach the server, which is when connection couldn't be made
+	 * or when server refused them with 429 or 503, or when server
+	 * deduplicates them. Gateway errors 502 and 504 don't prove that the
+	 * server didn't process the request.
+	 */
+	private boolean isRetryable(IOException ex, boolean idempotent, RetryPolicy policy) {
+		if (idempotent || policy.isRetryingMutations()) {
+			return true;
+		}
+		if (ex instanceof ServerBusyException) {
+			int status = ((ServerBusyException)ex).getStatus();
+			return status == 429 || status == 503;
+		}
+		return ex instanceof ConnectException || ex instanceof UnknownHostException;
+	}
+	
+	/**
+	 * Submits request to executor.
+	 * 
+	 * @param call request to be sent
+	 * @return future finished when response is delivered, or null when request was rejected
+	 */
+	private Future<?> submit(Call call) {
+		if (pending.incrementAndGet() > maxConcurrentRequests + maxQueuedRequests) {
+			call.finish(new ConnectionErrorEvent(this, null, call.action_id, new RejectedExecutionException("Too many pending requests")));
+			return null;
+		}
+		
+		call.submit();
+		return call.done;
+	}
+	
+	/**
+	 * Delivers response to request and to all callers that joined it.
+	 * 
+	 * @param flight callers sharing the response, can be null
+	 * @param event response
+	 */
+	private void settle(Flight flight, Event event) {
+		List<String> joined = Collections.emptyList();
+		if (flight != null) {
+			joined = flight.close();
+			flights.remove(flight.key, flight);
+		}
+		
+		deliver(event);
+		
+		for (String action_id : joined) {
+			deliver(event.forAction(action_id));
+		}
+	}
+	
+	/**
+	 * Waits for request to finish.
+	 * 
+	 * @param request request to wait for, can be null when request was rejected
+	 */
+	private void await(Future<?> request) {
+		if (request == null) {
+			return;
+		}
+		
+		try {
+			request.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			Logger.getLogger(External.class.getName()).log(Level.WARNING, null, ex);
+		} catch (ExecutionException ex) {
+			Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Creates event from parsed response.
+	 * 
+	 * @param response parsed response
+	 * @param request_id action id of request, used when response doesn't contain any
+	 * @return response event
+	 */
+	private Event createEvent(JSONObject response, String request_id) {
+		
+		String type = response.optString("type", "");
+		String action_id = response.optString("action_id", request_id);
+		JSONObject data = response; //.optJSONObject("data");
+		
+		EventFactory factory = events.get(type);
+		
+		if (factory != null) {
+			try {
+				return factory.create(this, data, action_id);
+			} catch (RuntimeException ex) {
+				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+		
+		//We need to fire something
+		return new Event(this, data, action_id);
+	}
+	
+	/**
+	 * Passes response to asynchronous request waiting for it. Responses
+	 * nobody waits for are passed to subscribers and emitted to listeners.
+	 * 
+	 * @param event response to be delivered
+	 */
+	private void deliver(Event event) {
+		ActionFuture<?> future = null;
+		if (event.getActionId() != null) {
+			Interceptor interceptor = interceptors.remove(event.getActionId());
+			if (interceptor != null) {
+				interceptor.intercept(event);
+				return;
+			}
+			
+			future = futures.remove(event.getActionId());
+			listings.remove(event.getActionId());
+		}
+		
+		if (future != null) {
+			future.handle(event);
+		} else {
+			route(event);
+			fireEvent(event);
+		}
+	}
+	
+	/**
+	 * Passes response to listeners subscribed to its action id or type.
+	 * 
+	 * @param event response to be delivered
+	 */
+	@SuppressWarnings("unchecked")
+	private void route(Event event) {
+		if (event.getActionId() != null && !subscriptions.isEmpty()) {
+			Listener<Event> listener = subscriptions.remove(event.getActionId());
+			if (listener != null) {
+				listener.handleEvent(event, this);
+			}
+		}
+		
+		if (!typed.isEmpty()) {
+			for (Class<?> type = event.getClass(); type != null; type = type.getSuperclass()) {
+				Listener[] listeners = typed.get(type);
+				if (listeners != null) {
+					for (Listener listener : listeners) {
+						listener.handleEvent(event, this);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Registers factory for responses of specified type. Replaces factory
+	 * previously registered for that type, including built-in ones.
+	 * 
+	 * @param type response type, as sent by server
+	 * @param factory factory creating event for response
+	 */
+	public void registerEvent(String type, EventFactory factory) {
+		if (factory == null) {
+			throw new IllegalArgumentException("Factory can't be null");
+		}
+		events.put(type, factory);
+	}
+	
+	/**
+	 * Removes factory for responses of specified type. Responses of this
+	 * type will be emitted as plain {@link Event}.
+	 * 
+	 * @param type response type
+	 */
+	public void unregisterEvent(String type) {
+		events.remove(type);
+	}
+	
+	/**
+	 * Subscribes listener to response of single request. Subscription is
+	 * removed once response arrives. Use {@link #nextActionId()} to get
+	 * action id before sending request, so response can't arrive first.
+	 * <p>
+	 * Unlike broadcast listeners, subscribers are only called for events
+	 * they are interested in. Responses of requests made by asynchronous
+	 * methods returning future are not routed.</p>
+	 * 
+	 * @param action_id action id of request
+	 * @param listener response handler
+	 */
+	public void subscribe(String action_id, Listener<Event> listener) {
+		subscriptions.put(action_id, listener);
+	}
+	
+	/**
+	 * Cancels subscription to response of single request.
+	 * 
+	 * @param action_id action id of request
+	 */
+	public void unsubscribe(String action_id) {
+		subscriptions.remove(action_id);
+	}
+	
+	/**
+	 * Subscribes listener to responses of specified type, including
+	 * its subclasses.
+	 * 
+	 * @param type event class
+	 * @param listener response handler
+	 */
+	public void subscribe(Class<? extends Event> type, Listener<Event> listener) {
+		for (;;) {
+			Listener[] current = typed.get(type);
+			if (current == null) {
+				if (typed.putIfAbsent(type, new Listener[] { listener }) == null) {
+					return;
+				}
+			} else {
+				Listener[] updated = Arrays.copyOf(current, current.length + 1);
+				updated[current.length] = listener;
+				if (typed.replace(type, current, updated)) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Cancels subscription to responses of specified type.
+	 * 
+	 * @param type event class
+	 * @param listener response handler
+	 */
+	public void unsubscribe(Class<? extends Event> type, Listener<Event> listener) {
+		for (;;) {
+			Listener[] current = typed.get(type);
+			if (current == null) {
+				return;
+			}
+			
+			List<Listener> updated = new ArrayList<>(Arrays.asList(current));
+			if (!updated.remove(listener)) {
+				return;
+			}
+			
+			boolean replaced = updated.isEmpty()
+				? typed.remove(type, current)
+				: typed.replace(type, current, updated.toArray(new Listener[updated.size()]));
+			if (replaced) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Registers asynchronous request, so its response is passed to it.
+	 * 
+	 * @param <T> request result type
+	 * @param future request waiting for response
+	 * @return the future
+	 */
+	private <T> ActionFuture<T> expect(ActionFuture<T> future) {
+		futures.put(future.getActionId(), future);
+		return future;
+	}
+	
+	/**
+	 * Stops waiting for response of asynchronous request.
+	 * 
+	 * @param future cancelled request
+	 */
+	void forget(ActionFuture<?> future) {
+		futures.remove(future.getActionId(), future);
+	}
+
+	/**
+	 * Sends request and decodes its response.
+	 * 
+	 * @param action requested action
+	 * @param params encoded request parameters
+	 * @param auth authorization used for request
+	 * @param request_id action id of request
+	 * @param idempotencyKey key identifying repeated modifying request, can be null
+	 * @param timing receives durations of request phases, can be null
+	 * @return response event
+	 */
+	private Event loadResponse(String action, String params, String auth, String request_id, String idempotencyKey, RequestTiming timing) throws IOException, JSONException {
+		RequestTraceEvent trace = null;
+		if (Tracing.isEnabled()) {
+			trace = new RequestTraceEvent(action);
+			if (timing == null) {
+				timing = new RequestTiming();
+			}
+		}
+		
+		int status = 0;
+		try {
+			byte[] body = params.getBytes("UTF-8");
+
+			HttpURLConnection conn = getTransport().open(getApiUrl(), auth);
+			conn.setReadTimeout(10000);
+			conn.setDoInput(true);
+			conn.setDoOutput(true);
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			if (idempotencyKey != null) {
+				conn.setRequestProperty("Idempotency-Key", idempotencyKey);
+			}
+			conn.setFixedLengthStreamingMode(body.length);
+
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(body);
+				out.flush();
+			}
+
+			if (timing != null) {
+				timing.connected();
+			}
+
+			status = conn.getResponseCode();
+
+			if (timing != null) {
+				timing.responded();
+			}
+
+			if (status == 429 || status == 502 || status == 503 || status == 504) {
+				getTransport().release(conn);
+				throw new ServerBusyException(status, RetryPolicy.parseRetryAfter(conn.getHeaderField("Retry-After")));
+			}
+
+			InputStream stream;
+			try {
+				stream = conn.getInputStream();
+			} catch (IOException e) {
+				stream = conn.getErrorStream();
+				if (stream == null) {
+					throw e;
+				}
+			}
+
+			if (timing != null) {
+				stream = new MeteredInputStream(stream, timing);
+			}
+
+			try {
+				Event event = decodeResponse(new JsonReader(new InputStreamReader(stream, "UTF-8")), request_id);
+				if (timing != null) {
+					timing.decoded();
+				}
+				return event;
+			} finally {
+				getTransport().release(stream);
+			}
+		} finally {
+			if (trace != null) {
+				trace.setStatus(status);
+				trace.setBytes(timing.getBytes());
+				trace.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes response directly from stream. Data of path and file responses
+	 * are decoded straight into API objects, other responses are decoded
+	 * into JSON object.
 	 * 
-	 * @return url to server with api suffix
+	 * @param reader response stream
+	 * @param request_id action id of request, used when response doesn't contain any
+	 * @return response event
+	 * @throws IOException when stream can't be read or is malformed
+	 * @throws JSONException when response can't be stored
 	 */
-	public String getApiUrl() {
-		return getServer() + "/api.php";
-	}
-
-	private Thread request(String params) {
-		return request(params, getAuth());
-	}
-	
-	private Thread request(String params, String auth) {		
-		final External sender = this;
+	@SuppressWarnings("unchecked")
+	Event decodeResponse(JsonReader reader, String request_id) throws IOException, JSONException {
+		JSONObject envelope = new JSONObject();
+		String type = "";
+		Object model = null;
+		boolean compact = request_id != null && listings.contains(request_id);
 		
-		Thread request = new ParamThread(params, auth) {
-			@Override
-			public void run() {
-				try {
-					JSONObject res = loadResponse(this.params, this.auth);
-					dispatchResponse(res);
-				} catch (JSONException | IOException excalibur) {
-					fireEvent(new ConnectionErrorEvent(sender, null, null, excalibur));
-					Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, excalibur);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("data") && isStreamed(type, reader.peek())) {
+				if (compact && type.equals(codes.PATH) && !isReplaced(type)) {
+					model = Listing.read(this, reader);
+				} else {
+					model = decodeData(type, reader);
+				}
+			} else {
+				Object value = reader.readValue();
+				if (name.equals("type")) {
+					type = value.toString();
 				}
+				envelope.put(name, value);
 			}
-		};
-		request.start();
-		return request;
-	}
-
-	private void dispatchResponse(JSONObject response) {
-		
-		if (response == null) {
-			fireEvent(new ConnectionErrorEvent(this, null, null, new Exception("Empty response")));
-			return;
 		}
+		reader.endObject();
 		
-		String type = response.optString("type", "");
-		String action_id = response.optString("action_id", null);
-		JSONObject data = response; //.optJSONObject("data");
+		String action_id = envelope.optString("action_id", request_id);
 		
-		Class handler = events.get(type);
-		
-		if (handler != null) {
-					
-			//System.out.println("Event type " + handler.getName());
-			
-			try {
-				fireEvent((Event)(
-					handler
-						.getDeclaredConstructor(External.class, JSONObject.class, String.class)
-						.newInstance(this, data, action_id)
-				));
-			} catch (NoSuchMethodException |
-					SecurityException |
-					InstantiationException |
-					IllegalAccessException |
-					IllegalArgumentException |
-					InvocationTargetException ex) {
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-				
-				//We need to fire something
-				fireEvent(new Event(this, data, action_id));
-			}
-		} else {
-			fireEvent(new Event(this, data, action_id));
-		}
-	}
-
-	private JSONObject loadResponse(String params, String auth) throws IOException, JSONException {
-		URL urlsort = new URL(getApiUrl());
-		HttpURLConnection conn = (HttpURLConnection) urlsort.openConnection();
-		conn.setReadTimeout(10000);
-		conn.setConnectTimeout(15000);
-		conn.setDoInput(true);
-		conn.setDoOutput(true);
-		conn.setRequestMethod("POST");
-		conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-		
-		// Only add auth when there is any
-		if (auth != null)
-			conn.setRequestProperty("X-Auth", auth);
-
-		try (DataOutputStream out = new DataOutputStream(conn.getOutputStream())) {
-			out.writeBytes(params);
-			out.flush();
-		} catch (Exception e) {
-			fireEvent(new ConnectionErrorEvent(this, null, null, e));
-			Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, e);
-			return null;
-		}
-
-		String response;
-		try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-			response = "";
-			String line;
-			while ((line = in.readLine()) != null) {
-				response += line + "\n";
+		if (model == null) {
+			if (compact && type.equals(codes.PATH) && !isReplaced(type)) {
+				return new ListingEvent(this, envelope, action_id);
 			}
-		} catch (Exception e) {
-			try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getErrorStream()))) {
-				response = "";
-				String line;
-				while ((line = in.readLine()) != null) {
-					response += line + "\n";
+			if (type.equals(codes.BATCH)) {
+				List<Event> responses = new ArrayList<>();
+				JSONArray list = envelope.optJSONArray("data");
+				for (int i = 0; list != null && i < list.length(); i++) {
+					JSONObject item = list.optJSONObject(i);
+					if (item != null) {
+						responses.add(createEvent(item, null));
+					}
 				}
-			} catch (Exception e2) {
-				fireEvent(new ConnectionErrorEvent(this, null, null, e2));
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, e2);
-				return null;
+				return new BatchEvent(this, envelope, action_id, responses);
 			}
+			return createEvent(envelope, request_id);
 		}
 		
-		//System.out.print(response);
-		
-		return new JSONObject(response);
+		switch (type) {
+			case codes.PATH:
+				if (model instanceof Listing) {
+					return new ListingEvent(this, envelope, action_id, (Listing)model);
+				}
+				return new PathEvent(this, envelope, action_id, (Path)model);
+			case codes.PATHS:
+				return new PathsEvent(this, envelope, action_id, (Path[])model);
+			case codes.FILE:
+				return new FileEvent(this, envelope, action_id, (File)model);
+			case codes.BATCH:
+				return new BatchEvent(this, envelope, action_id, (List<Event>)model);
+			default:
+				return new FilesEvent(this, envelope, action_id, (File[])model);
+		}
+	}
+	
+	/**
+	 * Checks if application registered its own factory for response type.
+	 */
+	private boolean isReplaced(String type) {
+		return events.get(type) != DEFAULT_EVENTS.get(type);
+	}
+	
+	/**
+	 * Checks if response data can be decoded directly from stream.
+	 * Only works when type of response is already known and its factory
+	 * wasn't replaced by application.
+	 */
+	private boolean isStreamed(String type, JsonReader.Token next) {
+		if (isReplaced(type)) {
+			return false;
+		}
+		switch (type) {
+			case codes.PATH:
+			case codes.FILE:
+				return next == JsonReader.Token.BEGIN_OBJECT;
+			case codes.PATHS:
+			case codes.FILES:
+			case codes.BATCH:
+				return next == JsonReader.Token.BEGIN_ARRAY;
+			default:
+				return false;
+		}
+	}
+	
+	private Object decodeData(String type, JsonReader reader) throws IOException {
+		switch (type) {
+			case codes.PATH:
+				return new Path(this, reader);
+			case codes.FILE:
+				return new File(this, reader);
+			case codes.PATHS:
+				List<Path> paths = new ArrayList<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					paths.add(new Path(this, reader));
+				}
+				reader.endArray();
+				return paths.toArray(new Path[paths.size()]);
+			case codes.BATCH:
+				List<Event> responses = new ArrayList<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					try {
+						responses.add(decodeResponse(reader, null));
+					} catch (JSONException ex) {
+						throw new IOException(ex);
+					}
+				}
+				reader.endArray();
+				return responses;
+			default:
+				List<File> files = new ArrayList<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					files.add(new File(this, reader));
+				}
+				reader.endArray();
+				return files.toArray(new File[files.size()]);
+		}
 	}
 	
-	private String createUrl(String action, Map<String, String> params) {
+	/**
+	 * Encodes request parameters.
+	 * 
+	 * @param action requested action
+	 * @param params action parameters
+	 * @return form encoded request body
+	 */
+	String createUrl(String action, Map<String, String> params) {
 		try {
 			StringBuilder result = new StringBuilder();
 			result.append("action=");
@@ -309,7 +1505,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String getServerInfo(boolean wait) {
-		return getServerInfo(wait, Long.toString(this.actionCounter++));
+		return getServerInfo(wait, nextActionId());
 	}
 	
 	/**
@@ -323,14 +1519,10 @@ public class External extends Eventor<Event> {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		
-		Thread request = request(createUrl("get_server_info", params));
+		Future<?> request = request("get_server_info", params);
 
 		if (wait) {
-			try {
-				request.join();
-			} catch (InterruptedException ex) {
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-			}
+			await(request);
 		}
 		
 		return action_id;
@@ -352,7 +1544,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String getUser(boolean wait) {
-		return getUser(wait, Long.toString(this.actionCounter++));
+		return getUser(wait, nextActionId());
 	}
 	
 	/**
@@ -366,14 +1558,10 @@ public class External extends Eventor<Event> {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		
-		Thread request = request(createUrl("get_user", params));
+		Future<?> request = request("get_user", params);
 
 		if (wait) {
-			try {
-				request.join();
-			} catch (InterruptedException ex) {
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-			}
+			await(request);
 		}
 		
 		return action_id;
@@ -386,7 +1574,7 @@ public class External extends Eventor<Event> {
 	 * @return action id if request
 	 */
 	public String getUsers() {
-		return getUsers(Long.toString(this.actionCounter++));
+		return getUsers(nextActionId());
 	}
 	
 	/**
@@ -400,7 +1588,7 @@ public class External extends Eventor<Event> {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		
-		request(createUrl("admin_get_users", params));
+		request("admin_get_users", params);
 		
 		return action_id;
 	}
@@ -414,7 +1602,7 @@ public class External extends Eventor<Event> {
 	 * @throws NoSuchProviderException thown when user is unable to hash password
 	 */
 	public String setUser(User user) throws NoSuchProviderException {
-		return setUser(user, Long.toString(this.actionCounter++));
+		return setUser(user, nextActionId());
 	}
 	
 	/**
@@ -434,7 +1622,7 @@ public class External extends Eventor<Event> {
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(user.getId()));
 		
-		request(createUrl("set_user", params));
+		request("set_user", params);
 		
 		return action_id;
 	}
@@ -447,7 +1635,7 @@ public class External extends Eventor<Event> {
 	 * @return action id to identify response
 	 */
 	public String createUser(User user) {
-		return createUser(user, Long.toString(this.actionCounter++));
+		return createUser(user, nextActionId());
 	}
 	
 	/**
@@ -464,7 +1652,7 @@ public class External extends Eventor<Event> {
 		
 		params.putAll(user.getUpdate(true));
 		
-		request(createUrl("admin_create_user", params));
+		request("admin_create_user", params);
 
 		return action_id;
 	}
@@ -477,7 +1665,7 @@ public class External extends Eventor<Event> {
 	 * @return action id to identify response
 	 */
 	public String adminSetUser(User user) {
-		return adminSetUser(user, Long.toString(this.actionCounter++));
+		return adminSetUser(user, nextActionId());
 	}
 	
 	/**
@@ -494,7 +1682,7 @@ public class External extends Eventor<Event> {
 		
 		params.putAll(user.getUpdate(true));
 		
-		request(createUrl("admin_set_user", params));
+		request("admin_set_user", params);
 
 		return action_id;
 	}
@@ -507,7 +1695,7 @@ public class External extends Eventor<Event> {
 	 * @return action id to identify response
 	 */
 	public String deleteUser(User user) {
-		return deleteUser(user, Long.toString(this.actionCounter++));
+		return deleteUser(user, nextActionId());
 	}
 	
 	/**
@@ -523,7 +1711,7 @@ public class External extends Eventor<Event> {
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(user.getId()));
 		
-		request(createUrl("admin_delete_user", params));
+		request("admin_delete_user", params);
 		
 		return action_id;
 	}
@@ -555,7 +1743,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String getPath(String path, boolean recursive) {
-		return getPath(path, recursive, Long.toString(this.actionCounter++));
+		return getPath(path, recursive, nextActionId());
 	}
 	
 	/**
@@ -578,11 +1766,41 @@ public class External extends Eventor<Event> {
 			params.put("recursive", "1");
 		}
 		
-		request(createUrl("get_path", params));
+		if (cache != null && recursive) {
+			Map<String, String> check = new HashMap<>(params);
+			check.remove("recursive");
+			cachedRequest("get_path", params, check);
+		} else {
+			request("get_path", params);
+		}
 
 		return action_id;
 	}
 	
+	/**
+	 * Requests recursive listing of path. Response is decoded into
+	 * compact listing and emitted as ListingEvent.
+	 * 
+	 * @param path queried path
+	 * @return action id
+	 */
+	public String getListing(String path) {
+		return getListing(path, nextActionId());
+	}
+	
+	/**
+	 * Requests recursive listing of path. Response is decoded into
+	 * compact listing and emitted as ListingEvent.
+	 * 
+	 * @param path queried path
+	 * @param action_id user specified action id
+	 * @return action id
+	 */
+	public String getListing(String path, String action_id) {
+		listings.add(action_id);
+		return getPath(path, true, action_id);
+	}
+	
 	/**
 	 * Requests path info.
 	 * 
@@ -601,7 +1819,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String getPath(int id, boolean wait) {
-		return getPath(id, wait, Long.toString(this.actionCounter++));
+		return getPath(id, wait, nextActionId());
 	}
 	
 	/**
@@ -617,14 +1835,10 @@ public class External extends Eventor<Event> {
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(id));
 
-		Thread request = request(createUrl("get_path", params));
+		Future<?> request = request("get_path", params);
 
 		if (wait) {
-			try {
-				request.join();
-			} catch (InterruptedException ex) {
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-			}
+			await(request);
 		}
 		
 		return action_id;
@@ -645,7 +1859,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String getPaths(boolean wait) {
-		return getPaths(wait, Long.toString(this.actionCounter++));
+		return getPaths(wait, nextActionId());
 	}
 	
 	/**
@@ -659,14 +1873,16 @@ public class External extends Eventor<Event> {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		
-		Thread request = request(createUrl("get_paths", params));
+		Future<?> request;
+		if (cache != null) {
+			//List of paths is revalidated by checksum of root path
+			request = cachedRequest("get_paths", params, new HashMap<String, String>());
+		} else {
+			request = request("get_paths", params);
+		}
 
 		if (wait) {
-			try {
-				request.join();
-			} catch (InterruptedException ex) {
-				Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-			}
+			await(request);
 		}
 		
 		return action_id;
@@ -679,7 +1895,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deleteFiles(List<File> files) {
-		return deleteFiles(files, Long.toString(this.actionCounter++));
+		return deleteFiles(files, nextActionId());
 	}
 	
 	/**
@@ -690,23 +1906,30 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deleteFiles(List<File> files, String action_id) {
-		try {
-			StringBuilder params = new StringBuilder();
-			params.append(String.format(
-					"action=delete_files&action_id=%s",
-					URLEncoder.encode(action_id, "UTF-8")
-			));
-			for (File file : files) {
-				params.append("&files[]=");
-				params.append(file.getId());
-			}
-			request(params.toString(), getAuth());
-		} catch (UnsupportedEncodingException ex) {
-			Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-		}
+		request("delete_files", deleteFilesParams(files, action_id));
+		
 		return action_id;
 	}
 	
+	/**
+	 * Builds parameters of delete_files request. Files are sent with
+	 * explicit indexes, files[0]=..&amp;files[1]=.., same as paths of
+	 * delete_paths. Server decodes them into the same array as former
+	 * files[]=.. form, but parameter names stay unique, so they can be
+	 * kept in map and nested into batch as actions[i][files][0].
+	 */
+	static Map<String, String> deleteFilesParams(List<File> files, String action_id) {
+		Map<String, String> params = new HashMap<>();
+		params.put("action_id", action_id);
+		
+		int index = 0;
+		for (File file : files) {
+			params.put("files[" + Integer.toString(index++) + "]", Integer.toString(file.getId()));
+		}
+		
+		return params;
+	}
+	
 	/**
 	 * Requests moving of specified file to specified path.
 	 * 
@@ -715,7 +1938,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String moveFile(File file, String path) {
-		return moveFile(file, path, Long.toString(actionCounter++));
+		return moveFile(file, path, nextActionId());
 	}
 	
 	/**
@@ -727,20 +1950,19 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String moveFile(File file, String path, String action_id) {
-		try {
-			request(
-					String.format(
-							"action=set_file&action_id=%s&id=%s&path=%s",
-							URLEncoder.encode(action_id, "UTF-8"),
-							Integer.toString(file.getId()),
-							URLEncoder.encode(path, "UTF-8")
-					)
-			);
-		} catch (UnsupportedEncodingException ex) {
-			Logger.getLogger(External.class.getName()).log(Level.SEVERE, null, ex);
-		}
+		request("set_file", moveFileParams(file, path, action_id));
+		
 		return action_id;
 	}
+	
+	static Map<String, String> moveFileParams(File file, String path, String action_id) {
+		Map<String, String> params = new HashMap<>();
+		params.put("action_id", action_id);
+		params.put("id", Integer.toString(file.getId()));
+		params.put("path", path);
+		
+		return params;
+	}
 
 	/**
 	 * Requests applying of local changes to server.
@@ -749,7 +1971,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String updateFile(File file) {
-		return updateFile(file, Long.toString(actionCounter++));
+		return updateFile(file, nextActionId());
 	}
 	
 	/**
@@ -760,15 +1982,19 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String updateFile(File file, String action_id) {
+		request("set_file", updateFileParams(file, action_id));
+		
+		return action_id;
+	}
+	
+	static Map<String, String> updateFileParams(File file, String action_id) {
 		Map<String, String> params = new HashMap<>();
 		params.putAll(file.getUpdate());
 		
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(file.getId()));
 
-		request(createUrl("set_file", params));
-		
-		return action_id;
+		return params;
 	}
 	
 		
@@ -781,7 +2007,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String movePath(Path path, String result) {
-		return movePath(path, result, Long.toString(actionCounter++));
+		return movePath(path, result, nextActionId());
 	}
 	
 	/**
@@ -793,15 +2019,19 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String movePath(Path path, String result, String action_id) {
+		request("set_path", movePathParams(path, result, action_id));
+		
+		return action_id;
+	}
+	
+	static Map<String, String> movePathParams(Path path, String result, String action_id) {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(path.getId()));
 		params.put("path", result + "/" + path.getName());
 		params.put("parent", result);
 		
-		request(createUrl("set_path", params));
-		
-		return action_id;
+		return params;
 	}
 	
 		
@@ -813,7 +2043,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deletePath(Path path) {
-		return deletePath(path, Long.toString(actionCounter++));
+		return deletePath(path, nextActionId());
 	}
 	
 	/**
@@ -824,13 +2054,17 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deletePath(Path path, String action_id) {
+		request("delete_path", deletePathParams(path, action_id));
+		
+		return action_id;
+	}
+	
+	static Map<String, String> deletePathParams(Path path, String action_id) {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		params.put("id", Integer.toString(path.getId()));
 		
-		request(createUrl("delete_path", params));
-		
-		return action_id;
+		return params;
 	}
 	
 	/**
@@ -840,7 +2074,7 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deletePaths(List<Path> paths) {
-		return deletePaths(paths, Long.toString(this.actionCounter++));
+		return deletePaths(paths, nextActionId());
 	}
 	
 	/**
@@ -851,6 +2085,12 @@ public class External extends Eventor<Event> {
 	 * @return action id
 	 */
 	public String deletePaths(List<Path> paths, String action_id) {
+		request("delete_paths", deletePathsParams(paths, action_id));
+		
+		return action_id;
+	}
+	
+	static Map<String, String> deletePathsParams(List<Path> paths, String action_id) {
 		Map<String, String> params = new HashMap<>();
 		params.put("action_id", action_id);
 		
@@ -859,9 +2099,268 @@ public class External extends Eventor<Event> {
 			params.put("paths[" + Integer.toString(index++) + "]", Integer.toString(path.getId()));
 		}
 		
-		request(createUrl("delete_paths", params));
+		return params;
+	}
+	
+	/**
+	 * Creates batch collecting actions, which are then sent in single request.
+	 * 
+	 * @return new batch
+	 */
+	public Batch batch() {
+		return new Batch(this);
+	}
+	
+	/**
+	 * Sends actions in single request. Responses are delivered separately
+	 * to each action. Actions without response receive error.
+	 * 
+	 * @param actions action names
+	 * @param params parameters of actions
+	 * @return request future, null when rejected
+	 */
+	Future<?> sendBatch(List<String> actions, List<Map<String, String>> params) {
+		if (actions.size() == 1) {
+			return request(actions.get(0), params.get(0));
+		}
+		
+		final String batch_id = nextActionId();
+		final List<String> ids = new ArrayList<>(actions.size());
 		
-		return action_id;
+		Map<String, String> envelope = new HashMap<>();
+		envelope.put("action_id", batch_id);
+		
+		for (int i = 0; i < actions.size(); i++) {
+			String prefix = "actions[" + i + "]";
+			envelope.put(prefix + "[action]", actions.get(i));
+			
+			for (Map.Entry<String, String> param : params.get(i).entrySet()) {
+				//Nested parameters like files[0] become actions[i][files][0]
+				String name = param.getKey();
+				int bracket = name.indexOf('[');
+				if (bracket >= 0) {
+					name = "[" + name.substring(0, bracket) + "]" + name.substring(bracket);
+				} else {
+					name = "[" + name + "]";
+				}
+				envelope.put(prefix + name, param.getValue());
+			}
+			
+			ids.add(params.get(i).get("action_id"));
+		}
+		
+		final External sender = this;
+		
+		interceptors.put(batch_id, new Interceptor() {
+			@Override
+			public void intercept(Event event) {
+				Set<String> remaining = new LinkedHashSet<>(ids);
+				
+				if (event instanceof BatchEvent) {
+					for (Event response : ((BatchEvent)event).getEvents()) {
+						if (remaining.remove(response.getActionId())) {
+							deliver(response);
+						}
+					}
+				}
+				
+				Event failure = event;
+				if (!(event instanceof ErrorEvent)) {
+					failure = new ConnectionErrorEvent(sender, event.getData(), batch_id, new IOException("Batch response is missing action"));
+				}
+				for (String action_id : remaining) {
+					deliver(failure.forAction(action_id));
+				}
+			}
+		});
+		
+		return request("batch", envelope);
+	}
+	
+	/**
+	 * Generates new action id. Action id can be passed to request methods,
+	 * so listeners can subscribe to response before request is sent.
+	 * 
+	 * @return action id
+	 */
+	public String nextActionId() {
+		return Long.toString(actionCounter.getAndIncrement());
+	}
+	
+	/**
+	 * Requests server info asynchronously.
+	 * 
+	 * @return future completed with server info
+	 */
+	public ActionFuture<ServerInfo> getServerInfoAsync() {
+		ActionFuture<ServerInfo> future = expect(new ActionFuture<ServerInfo>(this, nextActionId(), ServerInfoEvent.class) {
+			@Override
+			protected ServerInfo resolve(Event event) {
+				return ((ServerInfoEvent)event).getServerInfo();
+			}
+		});
+		getServerInfo(false, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests current user info asynchronously.
+	 * 
+	 * @return future completed with current user
+	 */
+	public ActionFuture<User> getUserAsync() {
+		ActionFuture<User> future = expect(new ActionFuture<User>(this, nextActionId(), UserEvent.class) {
+			@Override
+			protected User resolve(Event event) {
+				return ((UserEvent)event).getUser();
+			}
+		});
+		getUser(false, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests list of all users asynchronously. This method
+	 * is only usable by admins.
+	 * 
+	 * @return future completed with list of users
+	 */
+	public ActionFuture<User[]> getUsersAsync() {
+		ActionFuture<User[]> future = expect(new ActionFuture<User[]>(this, nextActionId(), UsersEvent.class) {
+			@Override
+			protected User[] resolve(Event event) {
+				return ((UsersEvent)event).getUsers();
+			}
+		});
+		getUsers(future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests path info asynchronously.
+	 * 
+	 * @param path queried path
+	 * @param recursive
+	 * @return future completed with path response
+	 */
+	public ActionFuture<PathEvent> getPathAsync(String path, boolean recursive) {
+		ActionFuture<PathEvent> future = expect(new ActionFuture<PathEvent>(this, nextActionId(), PathEvent.class));
+		getPath(path, recursive, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests path info asynchronously.
+	 * 
+	 * @param id queried path id
+	 * @return future completed with path response
+	 */
+	public ActionFuture<PathEvent> getPathAsync(int id) {
+		ActionFuture<PathEvent> future = expect(new ActionFuture<PathEvent>(this, nextActionId(), PathEvent.class));
+		getPath(id, false, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests recursive listing of path asynchronously.
+	 * 
+	 * @param path queried path
+	 * @return future completed with compact listing
+	 */
+	public ActionFuture<Listing> getListingAsync(String path) {
+		ActionFuture<Listing> future = expect(new ActionFuture<Listing>(this, nextActionId(), ListingEvent.class) {
+			@Override
+			protected Listing resolve(Event event) {
+				return ((ListingEvent)event).getListing();
+			}
+		});
+		getListing(path, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests list of all paths asynchronously.
+	 * 
+	 * @return future completed with paths response
+	 */
+	public ActionFuture<PathsEvent> getPathsAsync() {
+		ActionFuture<PathsEvent> future = expect(new ActionFuture<PathsEvent>(this, nextActionId(), PathsEvent.class));
+		getPaths(false, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests deletion of specified files asynchronously.
+	 * 
+	 * @param files files to delete
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> deleteFilesAsync(List<File> files) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		deleteFiles(files, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests moving of specified file to specified path asynchronously.
+	 * 
+	 * @param file file to be moved
+	 * @param path target path
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> moveFileAsync(File file, String path) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		moveFile(file, path, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests applying of local changes to server asynchronously.
+	 * 
+	 * @param file changed file
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> updateFileAsync(File file) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		updateFile(file, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests moving of specified path asynchronously.
+	 * 
+	 * @param path path to be moved
+	 * @param result target parent path
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> movePathAsync(Path path, String result) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		movePath(path, result, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests deletion of specified path asynchronously.
+	 * 
+	 * @param path path to delete
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> deletePathAsync(Path path) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		deletePath(path, future.getActionId());
+		return future;
+	}
+	
+	/**
+	 * Requests deletion of specified paths asynchronously.
+	 * 
+	 * @param paths paths to delete
+	 * @return future completed with server response
+	 */
+	public ActionFuture<SuccessEvent> deletePathsAsync(List<Path> paths) {
+		ActionFuture<SuccessEvent> future = expect(new ActionFuture<SuccessEvent>(this, nextActionId(), SuccessEvent.class));
+		deletePaths(paths, future.getActionId());
+		return future;
 	}
 	
 	/**
@@ -23,10 +23,14 @@
  */
 package cz.zipek.minicloud.api;
 
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -106,6 +110,107 @@ public class File {
 		}
 	}
 	
+	/**
+	 * Creates new file representation directly from response stream.
+	 * This class should only be instanced by API.
+	 * 
+	 * @param source API origin of this file
+	 * @param reader reader positioned at file object
+	 * @throws IOException thrown when stream can't be read or is malformed
+	 */
+	public File(External source, JsonReader reader) throws IOException {
+		this.source = source;
+		
+		List<FileVersion> list = new ArrayList<>();
+		int current = -1;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					id = reader.nextInt(0);
+					break;
+				case "size":
+					size = reader.nextLong(0);
+					break;
+				case "filename":
+					name = reader.nextString();
+					break;
+				case "path":
+					path = reader.nextString();
+					break;
+				case "checksum":
+					checksum = reader.nextString();
+					break;
+				case "encryption":
+					encryption = reader.nextString();
+					break;
+				case "mktime":
+					mktime = new Date(reader.nextLong(0) * 1000);
+					mdtime = mktime;
+					break;
+				case "public":
+					isPublic = reader.nextBoolean();
+					break;
+				case "version":
+					current = reader.nextInt(-1);
+					break;
+				case "versions":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						list.add(new FileVersion(this, reader));
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		versions = list.toArray(new FileVersion[list.size()]);
+		for (FileVersion item : versions) {
+			if (item.getId() == current)
+				version = item;
+		}
+		
+		extension = "";
+		if (name != null && name.length() > 0 && name.contains(".")) {
+			String[] parts = name.split("\\.");
+			extension = parts[parts.length - 1];
+		}
+	}
+	
+	/**
+	 * Creates independent copy of file, including its versions.
+	 * 
+	 * @param other file to be copied
+	 * @param parent parent of the copy
+	 */
+	File(File other, Path parent) {
+		source = other.source;
+		id = other.id;
+		size = other.size;
+		name = other.name;
+		path = other.path;
+		extension = other.extension;
+		encryption = other.encryption;
+		checksum = other.checksum;
+		mktime = other.mktime != null ? new Date(other.mktime.getTime()) : null;
+		mdtime = other.mdtime != null ? new Date(other.mdtime.getTime()) : null;
+		isPublic = other.isPublic;
+		this.parent = parent;
+		
+		if (other.versions != null) {
+			versions = new FileVersion[other.versions.length];
+			for (int i = 0; i < versions.length; i++) {
+				versions[i] = new FileVersion(this, other.versions[i]);
+				if (other.versions[i] == other.version)
+					version = versions[i];
+			}
+		}
+	}
+	
 	/**
 	 * Returns public download link.
 	 * This link can be used by any user.
@@ -23,6 +23,8 @@
  */
 package cz.zipek.minicloud.api;
 
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.IOException;
 import java.util.Date;
 import org.json.JSONObject;
 
@@ -48,6 +50,52 @@ public class FileVersion {
 		id = data.optInt("version");
 		created = new Date(data.optLong("created") * 1000);
 	}
+	
+	/**
+	 * Creates new version of file directly from response stream.
+	 * This class should only be instanced by File class.
+	 * 
+	 * @param file origin file
+	 * @param reader reader positioned at version object
+	 * @throws IOException thrown when stream can't be read or is malformed
+	 */
+	public FileVersion(File file, JsonReader reader) throws IOException {
+		this.file = file;
+		
+		int versionId = 0;
+		long createdTime = 0;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "version":
+					versionId = reader.nextInt(0);
+					break;
+				case "created":
+					createdTime = reader.nextLong(0);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		id = versionId;
+		created = new Date(createdTime * 1000);
+	}
+	
+	/**
+	 * Creates copy of version belonging to copied file.
+	 * 
+	 * @param file copied file
+	 * @param other version to be copied
+	 */
+	FileVersion(File file, FileVersion other) {
+		this.file = file;
+		
+		id = other.id;
+		created = new Date(other.created.getTime());
+	}
 
 	/**
 	 * @return ID of file version
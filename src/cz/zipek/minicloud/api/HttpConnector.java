@@ -0,0 +1,145 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens and releases HTTP connections to minicloud server.
+ * <p>Connections are kept alive and reused by JDK connection cache,
+ * as long as response is read completely and connection isn't
+ * disconnected. This class makes sure it happens, so API calls,
+ * uploads and downloads don't pay for new TCP/TLS handshake every time.
+ * Number of idle connections kept per server is controlled by
+ * <code>http.maxConnections</code> system property.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class HttpConnector implements Transport {
+	
+	///@var connectTimeout timeout in ms used when opening connection
+	private int connectTimeout = 15000;
+	
+	///@var drainLimit maximum number of bytes read from unused response to keep connection alive
+	private int drainLimit = 64 * 1024;
+	
+	/**
+	 * Opens connection to specified url.
+	 * 
+	 * @param url target url
+	 * @param auth authorization string, can be null
+	 * @return prepared connection
+	 * @throws IOException when connection can't be opened
+	 */
+	@Override
+	public HttpURLConnection open(String url, String auth) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setConnectTimeout(connectTimeout);
+		conn.setUseCaches(false);
+		conn.setRequestProperty("Connection", "keep-alive");
+		
+		// Only add auth when there is any
+		if (auth != null)
+			conn.setRequestProperty("X-Auth", auth);
+		
+		return conn;
+	}
+	
+	/**
+	 * Releases connection, so it can be reused. Unread part of response
+	 * is skipped, when it's not too big.
+	 * 
+	 * @param conn connection to be released
+	 */
+	@Override
+	public void release(HttpURLConnection conn) {
+		InputStream stream;
+		try {
+			stream = conn.getInputStream();
+		} catch (IOException ex) {
+			stream = conn.getErrorStream();
+		}
+		release(stream);
+	}
+	
+	/**
+	 * Skips rest of response stream and closes it.
+	 * 
+	 * @param stream response stream, can be null
+	 */
+	@Override
+	public void release(InputStream stream) {
+		if (stream == null) {
+			return;
+		}
+		
+		try {
+			byte[] buffer = new byte[4096];
+			long skipped = 0;
+			int read;
+			while (skipped < drainLimit && (read = stream.read(buffer)) != -1) {
+				skipped += read;
+			}
+		} catch (IOException ex) {
+			// Connection can't be reused, it will be closed below
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException ex) {
+				// Nothing else can be done
+			}
+		}
+	}
+
+	/**
+	 * @return timeout in ms used when opening connection
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @param connectTimeout timeout in ms used when opening connection
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return maximum number of bytes skipped to keep connection alive
+	 */
+	public int getDrainLimit() {
+		return drainLimit;
+	}
+
+	/**
+	 * @param drainLimit maximum number of bytes skipped to keep connection alive
+	 */
+	public void setDrainLimit(int drainLimit) {
+		this.drainLimit = drainLimit;
+	}
+}
@@ -0,0 +1,255 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded ring buffer of events waiting for single listener. Events are
+ * delivered in order by task running on shared executor, the task is
+ * only scheduled while there are events waiting.
+ * 
+ * @author Jan Zípek
+ */
+class ListenerQueue implements Runnable {
+	
+	/** Events delivered before task yields its thread. */
+	private static final int BATCH = 64;
+	
+	private final Object sender;
+	private final Listener listener;
+	private final Executor executor;
+	
+	private Overflow overflow;
+	private int capacity;
+	
+	private Object[] ring;
+	private int head = 0;
+	private int size = 0;
+	
+	private boolean scheduled = false;
+	private boolean closed = false;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	
+	ListenerQueue(Object sender, Listener listener, int capacity, Overflow overflow, Executor executor) {
+		this.sender = sender;
+		this.listener = listener;
+		this.overflow = overflow;
+		this.executor = executor;
+		this.capacity = Math.max(capacity, 1);
+		this.ring = new Object[this.capacity];
+	}
+	
+	/**
+	 * Changes capacity and overflow policy. Events already waiting are kept
+	 * and delivered first, even when there is more of them than new capacity.
+	 * 
+	 * @param capacity number of events queue can hold
+	 * @param overflow policy used when queue is full
+	 */
+	void configure(int capacity, Overflow overflow) {
+		lock.lock();
+		try {
+			this.capacity = Math.max(capacity, 1);
+			this.overflow = overflow;
+			
+			Object[] resized = new Object[Math.max(this.capacity, size)];
+			for (int i = 0; i < size; i++) {
+				resized[i] = ring[(head + i) % ring.length];
+			}
+			ring = resized;
+			head = 0;
+			
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Queues event only when older events are still waiting or being
+	 * delivered. Used after switching to synchronous delivery, so new
+	 * events can't overtake the queued ones. Queue that has nothing to
+	 * deliver is closed.
+	 * 
+	 * @param event emitted event
+	 * @return false when queue is empty and event should be delivered directly
+	 */
+	boolean offerIfBusy(Object event) {
+		lock.lock();
+		try {
+			if (!closed && size == 0 && !scheduled) {
+				closed = true;
+			}
+			if (closed) {
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		offer(event);
+		return true;
+	}
+	
+	/**
+	 * Queues event for delivery.
+	 * 
+	 * @param event emitted event
+	 */
+	void offer(Object event) {
+		boolean schedule;
+		
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			
+			if (overflow == Overflow.COALESCE && event instanceof Coalescable && replace((Coalescable)event)) {
+				return;
+			}
+			
+			while (size >= capacity) {
+				if (overflow == Overflow.DROP_OLDEST) {
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					size--;
+				} else {
+					try {
+						notFull.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						Logger.getLogger(ListenerQueue.class.getName()).log(Level.WARNING, "Interrupted while waiting for listener, event dropped", ex);
+						return;
+					}
+					if (closed) {
+						return;
+					}
+				}
+			}
+			
+			ring[(head + size) % ring.length] = event;
+			size++;
+			
+			schedule = !scheduled;
+			scheduled = true;
+		} finally {
+			lock.unlock();
+		}
+		
+		if (schedule) {
+			executor.execute(this);
+		}
+	}
+	
+	/**
+	 * Drops waiting events and wakes up blocked emitters.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (int i = 0; i < ring.length; i++) {
+				ring[i] = null;
+			}
+			size = 0;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return true when queue doesn't accept events anymore
+	 */
+	boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Replaces newest queued event superseded by specified event.
+	 */
+	private boolean replace(Coalescable event) {
+		for (int i = size - 1; i >= 0; i--) {
+			int index = (head + i) % ring.length;
+			if (event.supersedes(ring[index])) {
+				ring[index] = event;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void run() {
+		boolean idle = false;
+		try {
+			for (int delivered = 0; delivered < BATCH; delivered++) {
+				Object event;
+				
+				lock.lock();
+				try {
+					if (size == 0) {
+						scheduled = false;
+						idle = true;
+						return;
+					}
+					
+					event = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					size--;
+					notFull.signal();
+				} finally {
+					lock.unlock();
+				}
+				
+				try {
+					listener.handleEvent(event, sender);
+				} catch (RuntimeException ex) {
+					Logger.getLogger(ListenerQueue.class.getName()).log(Level.SEVERE, null, ex);
+				}
+			}
+		} finally {
+			// Let other listeners use the thread, queue is still scheduled
+			// even when listener threw an Error
+			if (!idle) {
+				executor.execute(this);
+			}
+		}
+	}
+}
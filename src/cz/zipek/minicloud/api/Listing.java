@@ -0,0 +1,958 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact representation of remote path tree. Values are stored in
+ * primitive columns, names and paths are deduplicated and checksums
+ * are kept as raw bytes. Listing uses only a fraction of memory needed
+ * by tree of {@link Path} and {@link File} objects, which makes it
+ * suitable for accounts with huge number of files.
+ * <p>Files and paths are accessed through lightweight views, which
+ * expose the same getters as File and Path. Views can be converted to
+ * File and Path when they're passed to code that needs them, for example
+ * to downloader. Listing is read only.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class Listing {
+	
+	private static final int CHECKSUM_LENGTH = 16;
+	
+	private static final byte FLAG_PUBLIC = 1;
+	private static final byte FLAG_CHECKSUM = 2;
+	
+	private final External source;
+	
+	///@var strings deduplicated names, paths and encryption strings
+	private String[] strings = new String[64];
+	private int stringCount = 0;
+	private Map<String, Integer> stringIndex = new HashMap<>();
+	
+	private int pathCount = 0;
+	private int[] pathIds = new int[16];
+	private int[] pathParentIds = new int[16];
+	private int[] pathNames = new int[16];
+	private int[] pathPaths = new int[16];
+	private int[] pathChecksums = new int[16];
+	private long[] pathMktimes = new long[16];
+	private long[] pathMdtimes = new long[16];
+	private int[] pathParents = new int[16];
+	private int[] pathFirstChild = new int[16];
+	private int[] pathNextSibling = new int[16];
+	private int[] pathFirstFile = new int[16];
+	private int[] pathFileCount = new int[16];
+	
+	private int fileCount = 0;
+	private int[] fileIds = new int[64];
+	private int[] fileParents = new int[64];
+	private int[] filePaths = new int[64];
+	private int[] fileNames = new int[64];
+	private int[] fileEncryptions = new int[64];
+	private int[] fileVersions = new int[64];
+	private long[] fileSizes = new long[64];
+	private long[] fileMktimes = new long[64];
+	private byte[] fileFlags = new byte[64];
+	private byte[] fileChecksums = new byte[64 * CHECKSUM_LENGTH];
+	
+	///@var otherChecksums checksums that aren't MD5 hex strings, by file index
+	private Map<Integer, String> otherChecksums = new HashMap<>();
+	
+	private Listing(External source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Builds listing directly from response stream.
+	 * 
+	 * @param source API origin
+	 * @param reader reader positioned at path object
+	 * @return listing of path and all its children
+	 * @throws IOException thrown when stream can't be read or is malformed
+	 */
+	public static Listing read(External source, JsonReader reader) throws IOException {
+		Listing listing = new Listing(source);
+		listing.readPath(reader, -1);
+		listing.trim();
+		return listing;
+	}
+	
+	/**
+	 * Builds listing from already decoded path tree.
+	 * 
+	 * @param root path to convert
+	 * @return listing of path and all its children
+	 */
+	public static Listing of(Path root) {
+		Listing listing = new Listing(root.getSource());
+		listing.addPath(root, -1);
+		listing.trim();
+		return listing;
+	}
+	
+	private int readPath(JsonReader reader, int parent) throws IOException {
+		int index = newPath(parent);
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					pathIds[index] = reader.nextInt(-1);
+					break;
+				case "parent_id":
+					pathParentIds[index] = reader.nextInt(-1);
+					break;
+				case "path":
+					setPathString(index, reader.nextString());
+					break;
+				case "checksum":
+					pathChecksums[index] = intern(reader.nextString());
+					break;
+				case "mktime":
+					pathMktimes[index] = reader.nextLong(-1);
+					break;
+				case "mdtime":
+					pathMdtimes[index] = reader.nextLong(-1);
+					break;
+				case "files":
+					pathFirstFile[index] = fileCount;
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readFile(reader, index);
+					}
+					reader.endArray();
+					pathFileCount[index] = fileCount - pathFirstFile[index];
+					break;
+				case "paths":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readPath(reader, index);
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		return index;
+	}
+	
+	private void readFile(JsonReader reader, int parent) throws IOException {
+		int index = newFile(parent);
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					fileIds[index] = reader.nextInt(0);
+					break;
+				case "size":
+					fileSizes[index] = reader.nextLong(0);
+					break;
+				case "filename":
+					fileNames[index] = intern(reader.nextString());
+					break;
+				case "path":
+					filePaths[index] = intern(reader.nextString());
+					break;
+				case "checksum":
+					setChecksum(index, reader.nextString());
+					break;
+				case "encryption":
+					fileEncryptions[index] = intern(reader.nextString());
+					break;
+				case "mktime":
+					fileMktimes[index] = reader.nextLong(0);
+					break;
+				case "public":
+					if (reader.nextBoolean()) {
+						fileFlags[index] |= FLAG_PUBLIC;
+					}
+					break;
+				case "version":
+					fileVersions[index] = reader.nextInt(-1);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+	
+	private void addPath(Path path, int parent) {
+		int index = newPath(parent);
+		
+		pathIds[index] = path.getId();
+		pathParentIds[index] = path.getParent();
+		setPathString(index, path.getPath());
+		pathChecksums[index] = intern(path.getChecksum());
+		pathMktimes[index] = path.getMktime() != null ? path.getMktime().getTime() / 1000 : -1;
+		pathMdtimes[index] = path.getMdtime() != null ? path.getMdtime().getTime() / 1000 : -1;
+		
+		pathFirstFile[index] = fileCount;
+		for (File file : path.getFiles()) {
+			int item = newFile(index);
+			
+			fileIds[item] = file.getId();
+			fileSizes[item] = file.getSize();
+			fileNames[item] = intern(file.getName());
+			filePaths[item] = intern(file.getFolderPath());
+			fileEncryptions[item] = intern(file.getEncryption());
+			fileMktimes[item] = file.getMktime() != null ? file.getMktime().getTime() / 1000 : 0;
+			fileVersions[item] = file.getVersion() != null ? file.getVersion().getId() : -1;
+			if (file.isPublic()) {
+				fileFlags[item] |= FLAG_PUBLIC;
+			}
+			setChecksum(item, file.getChecksum());
+		}
+		pathFileCount[index] = fileCount - pathFirstFile[index];
+		
+		for (Path child : path.getPaths()) {
+			addPath(child, index);
+		}
+	}
+	
+	private int newPath(int parent) {
+		if (pathCount == pathIds.length) {
+			int size = pathCount * 2;
+			pathIds = Arrays.copyOf(pathIds, size);
+			pathParentIds = Arrays.copyOf(pathParentIds, size);
+			pathNames = Arrays.copyOf(pathNames, size);
+			pathPaths = Arrays.copyOf(pathPaths, size);
+			pathChecksums = Arrays.copyOf(pathChecksums, size);
+			pathMktimes = Arrays.copyOf(pathMktimes, size);
+			pathMdtimes = Arrays.copyOf(pathMdtimes, size);
+			pathParents = Arrays.copyOf(pathParents, size);
+			pathFirstChild = Arrays.copyOf(pathFirstChild, size);
+			pathNextSibling = Arrays.copyOf(pathNextSibling, size);
+			pathFirstFile = Arrays.copyOf(pathFirstFile, size);
+			pathFileCount = Arrays.copyOf(pathFileCount, size);
+		}
+		
+		int index = pathCount++;
+		pathIds[index] = -1;
+		pathParentIds[index] = -1;
+		pathNames[index] = -1;
+		pathPaths[index] = -1;
+		pathChecksums[index] = -1;
+		pathMktimes[index] = -1;
+		pathMdtimes[index] = -1;
+		pathParents[index] = parent;
+		pathFirstChild[index] = -1;
+		pathNextSibling[index] = -1;
+		pathFirstFile[index] = fileCount;
+		pathFileCount[index] = 0;
+		
+		// Children are linked in reverse order, reversed again when trimming
+		if (parent >= 0) {
+			pathNextSibling[index] = pathFirstChild[parent];
+			pathFirstChild[parent] = index;
+		}
+		
+		return index;
+	}
+	
+	private int newFile(int parent) {
+		if (fileCount == fileIds.length) {
+			int size = fileCount * 2;
+			fileIds = Arrays.copyOf(fileIds, size);
+			fileParents = Arrays.copyOf(fileParents, size);
+			filePaths = Arrays.copyOf(filePaths, size);
+			fileNames = Arrays.copyOf(fileNames, size);
+			fileEncryptions = Arrays.copyOf(fileEncryptions, size);
+			fileVersions = Arrays.copyOf(fileVersions, size);
+			fileSizes = Arrays.copyOf(fileSizes, size);
+			fileMktimes = Arrays.copyOf(fileMktimes, size);
+			fileFlags = Arrays.copyOf(fileFlags, size);
+			fileChecksums = Arrays.copyOf(fileChecksums, size * CHECKSUM_LENGTH);
+		}
+		
+		int index = fileCount++;
+		fileIds[index] = 0;
+		fileParents[index] = parent;
+		filePaths[index] = -1;
+		fileNames[index] = -1;
+		fileEncryptions[index] = -1;
+		fileVersions[index] = -1;
+		fileSizes[index] = 0;
+		fileMktimes[index] = 0;
+		fileFlags[index] = 0;
+		
+		return index;
+	}
+	
+	private void setPathString(int index, String path) {
+		pathPaths[index] = intern(path);
+		
+		if (path != null) {
+			String[] split = path.split("/");
+			if (split.length > 0) {
+				pathNames[index] = intern(split[split.length - 1]);
+			}
+		}
+	}
+	
+	private void setChecksum(int index, String checksum) {
+		if (checksum == null) {
+			return;
+		}
+		
+		if (checksum.length() == CHECKSUM_LENGTH * 2) {
+			int offset = index * CHECKSUM_LENGTH;
+			boolean valid = true;
+			for (int i = 0; i < CHECKSUM_LENGTH && valid; i++) {
+				int high = lowerHexDigit(checksum.charAt(i * 2));
+				int low = lowerHexDigit(checksum.charAt(i * 2 + 1));
+				valid = high >= 0 && low >= 0;
+				fileChecksums[offset + i] = (byte)((high << 4) | low);
+			}
+			if (valid) {
+				fileFlags[index] |= FLAG_CHECKSUM;
+				return;
+			}
+		}
+		
+		otherChecksums.put(index, checksum);
+	}
+	
+	/**
+	 * Decodes hex digit. Upper case digits aren't accepted, checksum using
+	 * them is stored as text, so it's returned exactly as server sent it.
+	 */
+	private static int lowerHexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns checksum of file as sent by server.
+	 */
+	private String checksum(int index) {
+		if ((fileFlags[index] & FLAG_CHECKSUM) != 0) {
+			int offset = index * CHECKSUM_LENGTH;
+			return Tools.getHexString(Arrays.copyOfRange(fileChecksums, offset, offset + CHECKSUM_LENGTH));
+		}
+		return otherChecksums != null ? otherChecksums.get(index) : null;
+	}
+	
+	/**
+	 * Builds file data in the form sent by server. Only current version
+	 * of file is known to listing.
+	 */
+	private JSONObject fileData(int index) throws JSONException {
+		JSONObject data = new JSONObject();
+		data.put("id", fileIds[index]);
+		data.put("size", fileSizes[index]);
+		data.put("filename", string(fileNames[index]));
+		data.put("path", string(filePaths[index]));
+		data.put("checksum", checksum(index));
+		data.put("encryption", string(fileEncryptions[index]));
+		data.put("mktime", fileMktimes[index]);
+		data.put("public", (fileFlags[index] & FLAG_PUBLIC) != 0);
+		data.put("version", fileVersions[index]);
+		
+		JSONArray versions = new JSONArray();
+		if (fileVersions[index] >= 0) {
+			JSONObject version = new JSONObject();
+			version.put("version", fileVersions[index]);
+			version.put("created", fileMktimes[index]);
+			versions.put(version);
+		}
+		data.put("versions", versions);
+		
+		return data;
+	}
+	
+	/**
+	 * Builds path data in the form sent by server.
+	 * 
+	 * @param index index of path
+	 * @param children include files and child paths
+	 */
+	private JSONObject pathData(int index, boolean children) throws JSONException {
+		JSONObject data = new JSONObject();
+		data.put("id", pathIds[index]);
+		data.put("parent_id", pathParentIds[index]);
+		data.put("path", string(pathPaths[index]));
+		data.put("checksum", string(pathChecksums[index]));
+		data.put("mktime", pathMktimes[index]);
+		data.put("mdtime", pathMdtimes[index]);
+		
+		JSONArray files = new JSONArray();
+		JSONArray paths = new JSONArray();
+		if (children) {
+			for (int i = 0; i < pathFileCount[index]; i++) {
+				files.put(fileData(pathFirstFile[index] + i));
+			}
+			for (int child = pathFirstChild[index]; child >= 0; child = pathNextSibling[child]) {
+				paths.put(pathData(child, true));
+			}
+		}
+		data.put("files", files);
+		data.put("paths", paths);
+		
+		return data;
+	}
+	
+	private int intern(String value) {
+		if (value == null) {
+			return -1;
+		}
+		
+		Integer index = stringIndex.get(value);
+		if (index != null) {
+			return index;
+		}
+		
+		if (stringCount == strings.length) {
+			strings = Arrays.copyOf(strings, stringCount * 2);
+		}
+		strings[stringCount] = value;
+		stringIndex.put(value, stringCount);
+		return stringCount++;
+	}
+	
+	private String string(int index) {
+		return index >= 0 ? strings[index] : null;
+	}
+	
+	/**
+	 * Releases unused capacity and lookup tables used while building.
+	 */
+	private void trim() {
+		strings = Arrays.copyOf(strings, stringCount);
+		stringIndex = null;
+		
+		pathIds = Arrays.copyOf(pathIds, pathCount);
+		pathParentIds = Arrays.copyOf(pathParentIds, pathCount);
+		pathNames = Arrays.copyOf(pathNames, pathCount);
+		pathPaths = Arrays.copyOf(pathPaths, pathCount);
+		pathChecksums = Arrays.copyOf(pathChecksums, pathCount);
+		pathMktimes = Arrays.copyOf(pathMktimes, pathCount);
+		pathMdtimes = Arrays.copyOf(pathMdtimes, pathCount);
+		pathParents = Arrays.copyOf(pathParents, pathCount);
+		pathFirstChild = Arrays.copyOf(pathFirstChild, pathCount);
+		pathNextSibling = Arrays.copyOf(pathNextSibling, pathCount);
+		pathFirstFile = Arrays.copyOf(pathFirstFile, pathCount);
+		pathFileCount = Arrays.copyOf(pathFileCount, pathCount);
+		
+		// Restore original order of children
+		for (int i = 0; i < pathCount; i++) {
+			int previous = -1;
+			int current = pathFirstChild[i];
+			while (current >= 0) {
+				int next = pathNextSibling[current];
+				pathNextSibling[current] = previous;
+				previous = current;
+				current = next;
+			}
+			pathFirstChild[i] = previous;
+		}
+		
+		fileIds = Arrays.copyOf(fileIds, fileCount);
+		fileParents = Arrays.copyOf(fileParents, fileCount);
+		filePaths = Arrays.copyOf(filePaths, fileCount);
+		fileNames = Arrays.copyOf(fileNames, fileCount);
+		fileEncryptions = Arrays.copyOf(fileEncryptions, fileCount);
+		fileVersions = Arrays.copyOf(fileVersions, fileCount);
+		fileSizes = Arrays.copyOf(fileSizes, fileCount);
+		fileMktimes = Arrays.copyOf(fileMktimes, fileCount);
+		fileFlags = Arrays.copyOf(fileFlags, fileCount);
+		fileChecksums = Arrays.copyOf(fileChecksums, fileCount * CHECKSUM_LENGTH);
+		
+		if (otherChecksums.isEmpty()) {
+			otherChecksums = null;
+		}
+	}
+	
+	/**
+	 * @return API used to fetch this listing
+	 */
+	public External getSource() {
+		return source;
+	}
+	
+	/**
+	 * @return number of paths in listing, including root
+	 */
+	public int getPathCount() {
+		return pathCount;
+	}
+	
+	/**
+	 * @return number of files in listing
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+	
+	/**
+	 * @return view of listed path
+	 */
+	public PathView getRoot() {
+		return new PathView(0);
+	}
+	
+	/**
+	 * Returns view of path at specified index.
+	 * 
+	 * @param index index of path, 0 is root
+	 * @return path view
+	 */
+	public PathView getPath(int index) {
+		if (index < 0 || index >= pathCount) {
+			throw new IndexOutOfBoundsException("Path " + index + " of " + pathCount);
+		}
+		return new PathView(index);
+	}
+	
+	/**
+	 * Returns view of file at specified index. Views are cheap, but when
+	 * scanning huge listing, use {@link FileView#moveTo(int)} on single view.
+	 * 
+	 * @param index index of file
+	 * @return file view
+	 */
+	public FileView getFile(int index) {
+		if (index < 0 || index >= fileCount) {
+			throw new IndexOutOfBoundsException("File " + index + " of " + fileCount);
+		}
+		return new FileView(index);
+	}
+	
+	/**
+	 * Returns list of all files in listing. Views are created when accessed.
+	 * 
+	 * @return list of all files
+	 */
+	public List<FileView> getAllFiles() {
+		return new FileList(0, fileCount);
+	}
+	
+	/**
+	 * View of file stored in listing.
+	 */
+	public class FileView {
+		
+		private int index;
+		
+		FileView(int index) {
+			this.index = index;
+		}
+		
+		/**
+		 * Moves view to different file. Allows scanning listing without
+		 * creating new objects.
+		 * 
+		 * @param index index of file
+		 * @return this view
+		 */
+		public FileView moveTo(int index) {
+			if (index < 0 || index >= fileCount) {
+				throw new IndexOutOfBoundsException("File " + index + " of " + fileCount);
+			}
+			this.index = index;
+			return this;
+		}
+		
+		/**
+		 * @return index of file in listing
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * @return file ID
+		 */
+		public int getId() {
+			return fileIds[index];
+		}
+		
+		/**
+		 * @return size in bytes
+		 */
+		public long getSize() {
+			return fileSizes[index];
+		}
+		
+		/**
+		 * @return name of file
+		 */
+		public String getName() {
+			return string(fileNames[index]);
+		}
+		
+		/**
+		 * @return string representation of parent path
+		 */
+		public String getFolderPath() {
+			return string(filePaths[index]);
+		}
+		
+		/**
+		 * Returns path string for this file, always beginning with /.
+		 * 
+		 * @return path string of this file
+		 */
+		public String getPath() {
+			String parent = string(pathPaths[fileParents[index]]);
+			if (parent == null || parent.isEmpty()) {
+				return "/" + getName();
+			}
+			return "/" + parent + "/" + getName();
+		}
+		
+		/**
+		 * Builds file path string relative to specified path.
+		 * 
+		 * @param relative path result should be relative to
+		 * @return relative path to specified parent path
+		 */
+		public String getRelativePath(String relative) {
+			return getParent().getRelativePath(relative) + "/" + getName();
+		}
+		
+		/**
+		 * @return file extension without dot
+		 */
+		public String getExtension() {
+			String name = getName();
+			if (name == null) {
+				return "";
+			}
+			int dot = name.lastIndexOf('.');
+			return dot >= 0 ? name.substring(dot + 1) : "";
+		}
+		
+		/**
+		 * @return md5 checksum of unencrypted contents, exactly as sent by server
+		 */
+		public String getChecksum() {
+			return checksum(index);
+		}
+		
+		/**
+		 * @return raw bytes of md5 checksum, null when not available
+		 */
+		public byte[] getChecksumBytes() {
+			if ((fileFlags[index] & FLAG_CHECKSUM) == 0) {
+				return null;
+			}
+			int offset = index * CHECKSUM_LENGTH;
+			return Arrays.copyOfRange(fileChecksums, offset, offset + CHECKSUM_LENGTH);
+		}
+		
+		/**
+		 * Compares checksum without creating any objects.
+		 * 
+		 * @param checksum raw checksum bytes
+		 * @return true when checksum matches
+		 */
+		public boolean checksumEquals(byte[] checksum) {
+			if ((fileFlags[index] & FLAG_CHECKSUM) == 0 || checksum == null || checksum.length != CHECKSUM_LENGTH) {
+				return false;
+			}
+			int offset = index * CHECKSUM_LENGTH;
+			for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+				if (fileChecksums[offset + i] != checksum[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @return date of file creation
+		 */
+		public Date getMktime() {
+			return new Date(fileMktimes[index] * 1000);
+		}
+		
+		/**
+		 * @return date of last file modification
+		 */
+		public Date getMdtime() {
+			return getMktime();
+		}
+		
+		/**
+		 * @return encryption string, null or empty when file isn't encrypted
+		 */
+		public String getEncryption() {
+			return string(fileEncryptions[index]);
+		}
+		
+		/**
+		 * @return if file is saved encrypted
+		 */
+		public boolean isEncrypted() {
+			String encryption = getEncryption();
+			return !(encryption == null || encryption.isEmpty());
+		}
+		
+		/**
+		 * @return if file is public
+		 */
+		public boolean isPublic() {
+			return (fileFlags[index] & FLAG_PUBLIC) != 0;
+		}
+		
+		/**
+		 * @return ID of current file version
+		 */
+		public int getVersionId() {
+			return fileVersions[index];
+		}
+		
+		/**
+		 * Returns current version of file, which can be passed to downloader.
+		 * Creates new File object, see {@link #toFile()}.
+		 * 
+		 * @return current version, null when unknown
+		 */
+		public FileVersion getVersion() {
+			File file = toFile();
+			return file != null ? file.getVersion() : null;
+		}
+		
+		/**
+		 * Returns internal download link of current version.
+		 * This link can be used only by authorized clients.
+		 * 
+		 * @return internal download link
+		 */
+		public String getDownloadLink() {
+			if (fileVersions[index] >= 0) {
+				return String.format("%s?action=download_file&id=%s&version=%s", source.getApiUrl(), getId(), fileVersions[index]);
+			}
+			return String.format("%s?action=download_file&id=%s", source.getApiUrl(), getId());
+		}
+		
+		/**
+		 * Creates File object of this file, for code that works with
+		 * decoded tree, like downloader or synchronization. File knows only
+		 * its current version. Its parent is created without children.
+		 * 
+		 * @return new file object, null when it can't be created
+		 */
+		public File toFile() {
+			try {
+				File file = new File(source, fileData(index));
+				file.setParent(new Path(source, pathData(fileParents[index], false)));
+				return file;
+			} catch (JSONException ex) {
+				Logger.getLogger(Listing.class.getName()).log(Level.SEVERE, null, ex);
+				return null;
+			}
+		}
+		
+		/**
+		 * @return parent path
+		 */
+		public PathView getParent() {
+			return new PathView(fileParents[index]);
+		}
+		
+		/**
+		 * @return API used to fetch this file info
+		 */
+		public External getSource() {
+			return source;
+		}
+	}
+	
+	/**
+	 * View of path stored in listing.
+	 */
+	public class PathView {
+		
+		private final int index;
+		
+		PathView(int index) {
+			this.index = index;
+		}
+		
+		/**
+		 * @return index of path in listing
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * @return the id
+		 */
+		public int getId() {
+			return pathIds[index];
+		}
+		
+		/**
+		 * @return the parent id
+		 */
+		public int getParent() {
+			return pathParentIds[index];
+		}
+		
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return string(pathNames[index]);
+		}
+		
+		/**
+		 * @return the path, empty for root
+		 */
+		public String getPath() {
+			String path = string(pathPaths[index]);
+			return path != null ? path : "";
+		}
+		
+		/**
+		 * @return the checksum
+		 */
+		public String getChecksum() {
+			return string(pathChecksums[index]);
+		}
+		
+		/**
+		 * @return the mktime
+		 */
+		public Date getMktime() {
+			return pathMktimes[index] > 0 ? new Date(pathMktimes[index] * 1000) : null;
+		}
+		
+		/**
+		 * @return the mdtime
+		 */
+		public Date getMdtime() {
+			return pathMdtimes[index] > 0 ? new Date(pathMdtimes[index] * 1000) : null;
+		}
+		
+		/**
+		 * @return files directly in this path
+		 */
+		public List<FileView> getFiles() {
+			return new FileList(pathFirstFile[index], pathFileCount[index]);
+		}
+		
+		/**
+		 * @return child paths
+		 */
+		public List<PathView> getPaths() {
+			int count = 0;
+			for (int child = pathFirstChild[index]; child >= 0; child = pathNextSibling[child]) {
+				count++;
+			}
+			
+			PathView[] children = new PathView[count];
+			int i = 0;
+			for (int child = pathFirstChild[index]; child >= 0; child = pathNextSibling[child]) {
+				children[i++] = new PathView(child);
+			}
+			return Arrays.asList(children);
+		}
+		
+		/**
+		 * Returns path relative to specified path.
+		 * 
+		 * @param relative_to path result will be relative to
+		 * @return path relative to argument
+		 */
+		public String getRelativePath(String relative_to) {
+			
+			// Sanitize path a little
+			if (relative_to.length() > 0 && relative_to.charAt(0) == '/')
+				relative_to = relative_to.substring(1);
+			if (relative_to.length() > 0 && relative_to.charAt(relative_to.length() - 1) == '/')
+				relative_to = relative_to.substring(0, relative_to.length() - 1);
+			
+			return getPath().substring(relative_to.length());
+		}
+		
+		/**
+		 * Creates Path object of this path including all its children,
+		 * for code that works with decoded tree.
+		 * 
+		 * @return new path object, null when it can't be created
+		 */
+		public Path toPath() {
+			try {
+				return new Path(source, pathData(index, true));
+			} catch (JSONException ex) {
+				Logger.getLogger(Listing.class.getName()).log(Level.SEVERE, null, ex);
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * Read only list of file views over continuous range of files.
+	 */
+	private class FileList extends AbstractList<FileView> {
+		
+		private final int offset;
+		private final int size;
+		
+		FileList(int offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public FileView get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("File " + index + " of " + size);
+			}
+			return new FileView(offset + index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache of path listings received from server. Least recently
+ * used listings are evicted first. Every listing is stored together with
+ * checksum and modification time of listed path, which are used to check
+ * whether the listing is still up to date.
+ * <p>Cached values aren't handed out directly, {@link External} stores and
+ * delivers copies of decoded trees, so callers are free to modify them.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class MetadataCache {
+	
+	/**
+	 * Cached listing with its validator.
+	 */
+	public static class Entry {
+		
+		private final Object value;
+		private final String checksum;
+		private final Date mdtime;
+		
+		Entry(Object value, String checksum, Date mdtime) {
+			this.value = value;
+			this.checksum = checksum;
+			this.mdtime = mdtime;
+		}
+		
+		/**
+		 * Checks if listing matches current state of listed path.
+		 * 
+		 * @param checksum current checksum of listed path
+		 * @param mdtime current modification time of listed path
+		 * @return true if cached listing can be used
+		 */
+		public boolean isValid(String checksum, Date mdtime) {
+			if (this.checksum == null || !this.checksum.equals(checksum)) {
+				return false;
+			}
+			return this.mdtime == null ? mdtime == null : this.mdtime.equals(mdtime);
+		}
+
+		/**
+		 * @return cached listing
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * @return checksum of listed path at time of caching
+		 */
+		public String getChecksum() {
+			return checksum;
+		}
+
+		/**
+		 * @return modification time of listed path at time of caching
+		 */
+		public Date getMdtime() {
+			return mdtime;
+		}
+	}
+	
+	private final int capacity;
+	
+	private final Map<String, Entry> entries;
+	
+	private long generation = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	
+	/**
+	 * @param capacity maximum number of cached listings
+	 */
+	public MetadataCache(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Cache needs to hold at least one listing");
+		}
+		
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, MetadataCache.Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * Returns cached listing.
+	 * 
+	 * @param key cache key
+	 * @return cached listing or null
+	 */
+	public synchronized Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Stores listing in cache. Listing is dropped when cache was invalidated
+	 * since specified generation, because it may be already outdated.
+	 * 
+	 * @param key cache key
+	 * @param value listing to be cached
+	 * @param checksum checksum of listed path
+	 * @param mdtime modification time of listed path
+	 * @param since generation at time the listing was requested
+	 * @return true if listing was stored
+	 */
+	public synchronized boolean put(String key, Object value, String checksum, Date mdtime, long since) {
+		if (since != generation || checksum == null) {
+			return false;
+		}
+		entries.put(key, new Entry(value, checksum, mdtime));
+		return true;
+	}
+	
+	/**
+	 * Removes listing from cache.
+	 * 
+	 * @param key cache key
+	 */
+	public synchronized void remove(String key) {
+		entries.remove(key);
+	}
+	
+	/**
+	 * Removes all cached listings. Listings requested before this call
+	 * won't be stored.
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+		generation++;
+	}
+	
+	/**
+	 * @return current generation, increased with every invalidation
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return number of cached listings
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return maximum number of cached listings
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return number of lookups that found cached listing
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return number of lookups that didn't find cached listing
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
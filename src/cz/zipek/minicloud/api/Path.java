@@ -23,9 +23,15 @@
  */
 package cz.zipek.minicloud.api;
 
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -53,6 +59,51 @@ public class Path {
 	private final List<File> files = new ArrayList<>();
 	private final List<Path> paths = new ArrayList<>();
 	
+	///@var pendingFiles undecoded files, used in lazy mode
+	private volatile JSONArray pendingFiles;
+	///@var pendingPaths undecoded child paths, used in lazy mode
+	private volatile JSONArray pendingPaths;
+	
+	///@var rawFiles undecoded JSON text of files, used in lazy mode
+	private volatile Raw rawFiles;
+	///@var rawPaths undecoded JSON text of child paths, used in lazy mode
+	private volatile Raw rawPaths;
+	
+	///@var filesByName files directly in this path by name, built on first lookup
+	private Map<String, List<File>> filesByName;
+	///@var pathsByName child paths by name, built on first lookup
+	private Map<String, Path> pathsByName;
+	///@var filesByRelativePath all files in this tree by path relative to this path
+	private Map<String, File> filesByRelativePath;
+	///@var filesById all files in this tree by id
+	private Map<Integer, File> filesById;
+	///@var pathsById all paths in this tree by id
+	private Map<Integer, Path> pathsById;
+	
+	/**
+	 * Part of undecoded JSON text. Text of whole lazily decoded tree is
+	 * kept only once, every path refers to its children by offsets.
+	 */
+	private static class Raw {
+		
+		private final String text;
+		private final int start;
+		
+		Raw(String text, int start) {
+			this.text = text;
+			this.start = start;
+		}
+		
+		/**
+		 * @return reader positioned at start of this part
+		 */
+		JsonReader open() throws IOException {
+			StringReader in = new StringReader(text);
+			in.skip(start);
+			return new JsonReader(in);
+		}
+	}
+	
 	/**
 	 * Creates new path representation. Should only be instanced
 	 * from API.
@@ -97,6 +148,12 @@ public class Path {
 		JSONArray ch_files = data.getJSONArray("files");
 		JSONArray ch_paths = data.getJSONArray("paths");
 		
+		if (api != null && api.isLazyTree()) {
+			pendingFiles = ch_files;
+			pendingPaths = ch_paths;
+			return;
+		}
+		
 		for(int i = 0, l = ch_files.length(); i < l; i++) {
 			File file = new File(this.source, ch_files.getJSONObject(i));
 			file.setParent(this);
@@ -109,6 +166,235 @@ public class Path {
 		
 	}
 	
+	/**
+	 * Creates new path representation directly from response stream.
+	 * Should only be instanced from API.
+	 * 
+	 * @param api origin
+	 * @param reader reader positioned at path object
+	 * @throws IOException thrown when stream can't be read or is malformed
+	 */
+	public Path(External api, JsonReader reader) throws IOException {
+		this(api, reader, null);
+	}
+	
+	/**
+	 * Creates new path from response stream. Children of path read from
+	 * undecoded text are only located and left in the text in lazy mode.
+	 * 
+	 * @param api origin
+	 * @param reader reader positioned at path object
+	 * @param text undecoded text being read, starting where reader starts,
+	 * null when reading response stream
+	 * @throws IOException thrown when stream can't be read or is malformed
+	 */
+	private Path(External api, JsonReader reader, Raw text) throws IOException {
+		
+		source = api;
+		
+		boolean lazy = api != null && api.isLazyTree();
+		
+		int pathId = -1;
+		int parentId = -1;
+		String pathString = null;
+		String pathChecksum = null;
+		long created = -1;
+		long modified = -1;
+		
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					pathId = reader.nextInt(-1);
+					break;
+				case "parent_id":
+					parentId = reader.nextInt(-1);
+					break;
+				case "path":
+					pathString = reader.nextString();
+					break;
+				case "checksum":
+					pathChecksum = reader.nextString();
+					break;
+				case "mktime":
+					created = reader.nextLong(-1);
+					break;
+				case "mdtime":
+					modified = reader.nextLong(-1);
+					break;
+				case "files":
+					if (lazy) {
+						rawFiles = locate(reader, text);
+					} else {
+						readFiles(reader);
+					}
+					break;
+				case "paths":
+					if (lazy) {
+						rawPaths = locate(reader, text);
+					} else {
+						readPaths(reader);
+					}
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		
+		id = pathId;
+		parent = parentId;
+		path = pathString;
+		checksum = pathChecksum;
+		
+		if (path != null) {
+			String[] split = path.split("/");
+			if (split.length > 0) {
+				name = split[split.length - 1];
+			} else {
+				name = null;
+			}
+		} else {
+			name = null;
+		}
+		
+		mktime = created > 0 ? new Date(created * 1000) : null;
+		mdtime = modified > 0 ? new Date(modified * 1000) : null;
+	}
+	
+	/**
+	 * Creates independent copy of path tree. Files and child paths are
+	 * copied too, children still waiting for lazy decoding are left
+	 * undecoded and share only the immutable undecoded data.
+	 * 
+	 * @param other path to be copied
+	 */
+	Path(Path other) {
+		source = other.source;
+		id = other.id;
+		parent = other.parent;
+		name = other.name;
+		path = other.path;
+		checksum = other.checksum;
+		mktime = other.mktime != null ? new Date(other.mktime.getTime()) : null;
+		mdtime = other.mdtime != null ? new Date(other.mdtime.getTime()) : null;
+		
+		synchronized (other) {
+			pendingFiles = other.pendingFiles;
+			rawFiles = other.rawFiles;
+			if (pendingFiles == null && rawFiles == null) {
+				for (File file : other.files) {
+					files.add(new File(file, this));
+				}
+			}
+			
+			pendingPaths = other.pendingPaths;
+			rawPaths = other.rawPaths;
+			if (pendingPaths == null && rawPaths == null) {
+				for (Path child : other.paths) {
+					paths.add(new Path(child));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Skips next value and returns where it can be found later. Value is
+	 * copied only when it's read from response stream.
+	 */
+	private static Raw locate(JsonReader reader, Raw text) throws IOException {
+		if (text == null) {
+			return new Raw(reader.readRaw(), 0);
+		}
+		
+		reader.peek();
+		int start = text.start + (int)reader.getPosition();
+		reader.skipValue();
+		return new Raw(text.text, start);
+	}
+	
+	private void readFiles(JsonReader reader) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			File file = new File(this.source, reader);
+			file.setParent(this);
+			files.add(file);
+		}
+		reader.endArray();
+	}
+	
+	private void readPaths(JsonReader reader) throws IOException {
+		readPaths(reader, null);
+	}
+	
+	private void readPaths(JsonReader reader, Raw text) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			paths.add(new Path(this.source, reader, text));
+		}
+		reader.endArray();
+	}
+	
+	/**
+	 * Decodes files left undecoded in lazy mode.
+	 * 
+	 * @throws IllegalStateException when undecoded data are malformed,
+	 * subtree is never silently left empty
+	 */
+	private synchronized void materializeFiles() {
+		try {
+			if (pendingFiles != null) {
+				for(int i = 0, l = pendingFiles.length(); i < l; i++) {
+					File file = new File(this.source, pendingFiles.getJSONObject(i));
+					file.setParent(this);
+					files.add(file);
+				}
+			}
+			if (rawFiles != null) {
+				readFiles(rawFiles.open());
+			}
+		} catch (JSONException | IOException ex) {
+			// Keep undecoded data, so every access fails the same way
+			files.clear();
+			throw new IllegalStateException("Files of path " + path + " are malformed", ex);
+		}
+		pendingFiles = null;
+		rawFiles = null;
+	}
+	
+	/**
+	 * Decodes child paths left undecoded in lazy mode.
+	 * 
+	 * @throws IllegalStateException when undecoded data are malformed,
+	 * subtree is never silently left empty
+	 */
+	private synchronized void materializePaths() {
+		try {
+			if (pendingPaths != null) {
+				for(int i = 0, l = pendingPaths.length(); i < l; i++) {
+					paths.add(new Path(this.source, pendingPaths.getJSONObject(i)));
+				}
+			}
+			if (rawPaths != null) {
+				readPaths(rawPaths.open(), rawPaths);
+			}
+		} catch (JSONException | IOException ex) {
+			paths.clear();
+			throw new IllegalStateException("Child paths of " + path + " are malformed", ex);
+		}
+		pendingPaths = null;
+		rawPaths = null;
+	}
+	
+	/**
+	 * Checks if children of this path were already decoded.
+	 * 
+	 * @return false when some children wait for lazy decoding
+	 */
+	public synchronized boolean isMaterialized() {
+		return pendingFiles == null && pendingPaths == null && rawFiles == null && rawPaths == null;
+	}
+	
 	/**
 	 * Loads list of all files including child folders.
 	 * 
@@ -116,15 +402,143 @@ public class Path {
 	 */
 	public List<File> getAllFiles() {
 		List<File> items = new ArrayList<>();
-		items.addAll(files);
+		items.addAll(getFiles());
 		
-		for(Path child : paths) {
+		for(Path child : getPaths()) {
 			items.addAll(child.getAllFiles());
 		}
 		
 		return items;
 	}
 	
+	/**
+	 * Returns files directly in this path with specified name.
+	 * There can be more files with same name on server.
+	 * 
+	 * @param name file name
+	 * @return files with specified name, empty list when there is none
+	 */
+	public synchronized List<File> getFilesByName(String name) {
+		if (filesByName == null) {
+			filesByName = new HashMap<>();
+			for (File file : getFiles()) {
+				List<File> named = filesByName.get(file.getName());
+				if (named == null) {
+					named = new ArrayList<>(1);
+					filesByName.put(file.getName(), named);
+				}
+				named.add(file);
+			}
+		}
+		
+		List<File> named = filesByName.get(name);
+		return named != null ? named : Collections.<File>emptyList();
+	}
+	
+	/**
+	 * Returns file directly in this path with specified name.
+	 * 
+	 * @param name file name
+	 * @return first file with specified name or null
+	 */
+	public File getFile(String name) {
+		List<File> named = getFilesByName(name);
+		return named.isEmpty() ? null : named.get(0);
+	}
+	
+	/**
+	 * Returns child path with specified name.
+	 * 
+	 * @param name name of child path
+	 * @return child path or null
+	 */
+	public synchronized Path getChild(String name) {
+		if (pathsByName == null) {
+			pathsByName = new HashMap<>();
+			for (Path child : getPaths()) {
+				pathsByName.put(child.getName(), child);
+			}
+		}
+		return pathsByName.get(name);
+	}
+	
+	/**
+	 * Finds file anywhere in this tree by its path relative to this path.
+	 * Leading slash is optional.
+	 * 
+	 * @param relative path relative to this path, using / as separator
+	 * @return file or null
+	 */
+	public synchronized File findFile(String relative) {
+		if (filesByRelativePath == null) {
+			filesByRelativePath = new HashMap<>();
+			for (File file : getAllFiles()) {
+				String key = trimSlash(file.getRelativePath(this));
+				if (!filesByRelativePath.containsKey(key)) {
+					filesByRelativePath.put(key, file);
+				}
+			}
+		}
+		return filesByRelativePath.get(trimSlash(relative));
+	}
+	
+	/**
+	 * Finds file anywhere in this tree by its id.
+	 * 
+	 * @param fileId id of file
+	 * @return file or null
+	 */
+	public synchronized File findFileById(int fileId) {
+		if (filesById == null) {
+			filesById = new HashMap<>();
+			for (File file : getAllFiles()) {
+				filesById.put(file.getId(), file);
+			}
+		}
+		return filesById.get(fileId);
+	}
+	
+	/**
+	 * Finds path anywhere in this tree, including this path, by its id.
+	 * 
+	 * @param pathId id of path
+	 * @return path or null
+	 */
+	public synchronized Path findPathById(int pathId) {
+		if (pathsById == null) {
+			pathsById = new HashMap<>();
+			indexPaths(this, pathsById);
+		}
+		return pathsById.get(pathId);
+	}
+	
+	private static void indexPaths(Path path, Map<Integer, Path> index) {
+		index.put(path.getId(), path);
+		for (Path child : path.getPaths()) {
+			indexPaths(child, index);
+		}
+	}
+	
+	private static String trimSlash(String value) {
+		int start = 0;
+		while (start < value.length() && value.charAt(start) == '/') {
+			start++;
+		}
+		return value.substring(start);
+	}
+	
+	/**
+	 * Drops lookup indexes. Call this after modifying lists
+	 * returned by getFiles or getPaths.
+	 */
+	public synchronized void invalidateIndex() {
+		filesByName = null;
+		pathsByName = null;
+		filesByRelativePath = null;
+		filesById = null;
+		pathsById = null;
+	}
+	
 	/**
 	 * @return the source
 	 */
@@ -182,16 +596,29 @@ public class Path {
 	}
 
 	/**
+	 * Returns files directly in this path. In lazy mode, files are
+	 * decoded on first call.
+	 * 
 	 * @return the files
+	 * @throws IllegalStateException when lazily decoded data are malformed
 	 */
 	public List<File> getFiles() {
+		if (pendingFiles != null || rawFiles != null) {
+			materializeFiles();
+		}
 		return files;
 	}
 
 	/**
+	 * Returns child paths. In lazy mode, paths are decoded on first call.
+	 * 
 	 * @return the paths
+	 * @throws IllegalStateException when lazily decoded data are malformed
 	 */
 	public List<Path> getPaths() {
+		if (pendingPaths != null || rawPaths != null) {
+			materializePaths();
+		}
 		return paths;
 	}
 	
@@ -0,0 +1,172 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factory methods for executors used to run API requests.
+ * 
+ * @author Jan Zípek
+ */
+public class RequestExecutors {
+	
+	///@var KEEP_ALIVE seconds idle pool thread is kept before it's released
+	private static final long KEEP_ALIVE = 10;
+	
+	///@var retries delays requests that are going to be retried
+	private static ScheduledExecutorService retries;
+	
+	private RequestExecutors() {
+	}
+	
+	/**
+	 * Creates default executor. Virtual threads are used when running JDK
+	 * supports them, bounded thread pool is used otherwise.
+	 * 
+	 * @param threads maximum number of pool threads
+	 * @return new executor
+	 */
+	public static ExecutorService newDefault(int threads) {
+		ExecutorService virtual = newVirtual();
+		if (virtual != null) {
+			return virtual;
+		}
+		return newBounded(threads);
+	}
+	
+	/**
+	 * Creates thread pool with fixed upper bound of threads. Idle threads
+	 * are released after a while.
+	 * 
+	 * @param threads maximum number of pool threads
+	 * @return new executor
+	 */
+	public static ExecutorService newBounded(int threads) {
+		return newBounded(threads, "API request", false);
+	}
+	
+	/**
+	 * Creates thread pool with fixed upper bound of threads and named
+	 * threads. Idle threads are released after a while.
+	 * 
+	 * @param threads maximum number of pool threads
+	 * @param name prefix of thread names
+	 * @param daemon true when pool threads shouldn't keep JVM running
+	 * @return new executor
+	 */
+	public static ExecutorService newBounded(int threads, String name, boolean daemon) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			threads, threads,
+			KEEP_ALIVE, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new NamedThreadFactory(name, daemon)
+		);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	/**
+	 * Creates executor starting new virtual thread for every task.
+	 * 
+	 * @return new executor or null when JDK doesn't support virtual threads
+	 */
+	public static ExecutorService newVirtual() {
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch (NoSuchMethodException ex) {
+			return null;
+		} catch (IllegalAccessException | InvocationTargetException | UnsupportedOperationException ex) {
+			// Virtual threads can be disabled as preview feature
+			Logger.getLogger(RequestExecutors.class.getName()).log(Level.FINE, null, ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks if running JDK supports virtual threads.
+	 * 
+	 * @return true when virtual threads are available
+	 */
+	public static boolean isVirtualAvailable() {
+		try {
+			java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns scheduler used to delay retried requests. Scheduler only
+	 * passes request back to its executor once the delay is over, so
+	 * single daemon thread is shared by all API instances.
+	 * 
+	 * @return shared retry scheduler
+	 */
+	static synchronized ScheduledExecutorService retryScheduler() {
+		if (retries == null) {
+			retries = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("API retry", true));
+		}
+		return retries;
+	}
+	
+	/**
+	 * Creates named threads, so requests are easy to spot in thread dumps.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+		
+		private final String name;
+		private final boolean daemon;
+		private final AtomicInteger counter = new AtomicInteger();
+		
+		NamedThreadFactory(String name) {
+			this(name, false);
+		}
+		
+		NamedThreadFactory(String name, boolean daemon) {
+			this.name = name;
+			this.daemon = daemon;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + " " + counter.incrementAndGet());
+			thread.setDaemon(daemon);
+			return thread;
+		}
+	}
+}
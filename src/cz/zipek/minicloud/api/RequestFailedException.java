@@ -0,0 +1,64 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.ConnectionErrorEvent;
+import cz.zipek.minicloud.api.events.ErrorEvent;
+
+/**
+ * Thrown when asynchronous API request fails.
+ * 
+ * @author Jan Zípek
+ */
+public class RequestFailedException extends Exception {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final transient Event event;
+	
+	/**
+	 * @param event response that caused the failure
+	 * @param message failure description
+	 */
+	public RequestFailedException(Event event, String message) {
+		super(message, event instanceof ConnectionErrorEvent ? ((ConnectionErrorEvent)event).getException() : null);
+		
+		this.event = event;
+	}
+	
+	/**
+	 * @param event error response
+	 */
+	public RequestFailedException(ErrorEvent event) {
+		this(event, event.getMessage());
+	}
+
+	/**
+	 * @return response that caused the failure
+	 */
+	public Event getEvent() {
+		return event;
+	}
+	
+}
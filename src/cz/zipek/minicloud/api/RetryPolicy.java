@@ -0,0 +1,191 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Specifies how failed requests are retried. Delay between attempts grows
+ * exponentially and is randomized, so clients that failed at the same time
+ * don't retry at the same time. Delay requested by server using
+ * Retry-After header is respected.
+ * <p>Read requests are always retried. Modifying requests are retried when
+ * they didn't reach the server, that is when connection failed or server
+ * refused them with HTTP 429 or 503. Gateway errors 502 and 504 only
+ * retry modifying requests when mutation retries are enabled, in which
+ * case server is expected to recognize repeated request by its
+ * Idempotency-Key header.</p>
+ * <p>Request waiting for its next attempt doesn't hold request slot
+ * or executor thread.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class RetryPolicy {
+	
+	private final Random random = new Random();
+	
+	private int maxAttempts = 3;
+	private long baseDelay = 250;
+	private long maxDelay = 10000;
+	private long maxRetryAfter = 60000;
+	private boolean retryingMutations = false;
+	
+	/**
+	 * Creates policy that never retries.
+	 * 
+	 * @return new policy
+	 */
+	public static RetryPolicy none() {
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxAttempts(1);
+		return policy;
+	}
+	
+	/**
+	 * Returns delay before next attempt.
+	 * 
+	 * @param attempt number of failed attempts, starting with 1
+	 * @param retryAfter delay requested by server in ms, negative if none
+	 * @return delay in ms
+	 */
+	public long getDelay(int attempt, long retryAfter) {
+		if (retryAfter >= 0) {
+			return Math.min(retryAfter, maxRetryAfter);
+		}
+		
+		long ceiling = maxDelay;
+		if (attempt - 1 < 31) {
+			ceiling = Math.min(maxDelay, baseDelay << (attempt - 1));
+		}
+		
+		//Half of the delay is fixed, the other half is random
+		synchronized (random) {
+			return ceiling / 2 + (long)(random.nextDouble() * (ceiling - ceiling / 2));
+		}
+	}
+	
+	/**
+	 * Parses value of Retry-After header, which is either number of
+	 * seconds or HTTP date.
+	 * 
+	 * @param value header value, can be null
+	 * @return delay in ms, negative when value is missing or invalid
+	 */
+	public static long parseRetryAfter(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return -1;
+		}
+		
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException ex) {
+			try {
+				SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+				return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+			} catch (ParseException exx) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * @return maximum number of attempts, including the first one
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts maximum number of attempts, including the first one
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt has to be made");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return delay after first failure in ms
+	 */
+	public long getBaseDelay() {
+		return baseDelay;
+	}
+
+	/**
+	 * @param baseDelay delay after first failure in ms
+	 */
+	public void setBaseDelay(long baseDelay) {
+		this.baseDelay = baseDelay;
+	}
+
+	/**
+	 * @return maximum delay between attempts in ms
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param maxDelay maximum delay between attempts in ms
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @return maximum delay requested by server that is respected, in ms
+	 */
+	public long getMaxRetryAfter() {
+		return maxRetryAfter;
+	}
+
+	/**
+	 * @param maxRetryAfter maximum delay requested by server that is respected, in ms
+	 */
+	public void setMaxRetryAfter(long maxRetryAfter) {
+		this.maxRetryAfter = maxRetryAfter;
+	}
+
+	/**
+	 * @return true if modifying requests are retried after they reached server
+	 */
+	public boolean isRetryingMutations() {
+		return retryingMutations;
+	}
+
+	/**
+	 * Enables retrying of modifying requests that may have reached server.
+	 * Only safe when server deduplicates requests by Idempotency-Key header.
+	 * 
+	 * @param retryingMutations retry modifying requests
+	 */
+	public void setRetryingMutations(boolean retryingMutations) {
+		this.retryingMutations = retryingMutations;
+	}
+}
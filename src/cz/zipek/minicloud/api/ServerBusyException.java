@@ -0,0 +1,65 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.io.IOException;
+
+/**
+ * Server refused to handle request now, because it's overloaded or
+ * temporarily unavailable.
+ * 
+ * @author Jan Zípek
+ */
+public class ServerBusyException extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final int status;
+	private final long retryAfter;
+	
+	/**
+	 * @param status HTTP status of response
+	 * @param retryAfter delay requested by server in ms, negative if none
+	 */
+	public ServerBusyException(int status, long retryAfter) {
+		super("Server is unavailable (HTTP " + status + ")");
+		
+		this.status = status;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return HTTP status of response
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return delay requested by server in ms, negative if none
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
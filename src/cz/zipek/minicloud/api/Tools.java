@@ -23,6 +23,8 @@
  */
 package cz.zipek.minicloud.api;
 
+import cz.zipek.minicloud.api.trace.HashTraceEvent;
+import cz.zipek.minicloud.api.trace.Tracing;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -94,8 +96,29 @@ public class Tools {
 	 * @throws IOException 
 	 */
 	public static String md5Checksum(File file) throws NoSuchAlgorithmException, FileNotFoundException, IOException {
+		return md5Checksum(file, 2048);
+	}
+	
+	/**
+	 * Calculates md5 checksum of file.
+	 * 
+	 * @param file
+	 * @param bufferSize size of read buffer
+	 * @return md5 checksum
+	 * @throws NoSuchAlgorithmException
+	 * @throws FileNotFoundException
+	 * @throws IOException 
+	 */
+	public static String md5Checksum(File file, int bufferSize) throws NoSuchAlgorithmException, FileNotFoundException, IOException {
+		HashTraceEvent trace = Tracing.isEnabled() ? new HashTraceEvent(file.getAbsolutePath(), file.length()) : null;
 		MessageDigest md = MessageDigest.getInstance("MD5");
-		return getDigest(new FileInputStream(file.getAbsolutePath()), md, 2048);
+		try {
+			return getDigest(new FileInputStream(file.getAbsolutePath()), md, bufferSize);
+		} finally {
+			if (trace != null) {
+				trace.commit();
+			}
+		}
 	}
 
 	/**
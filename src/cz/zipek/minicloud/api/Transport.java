@@ -0,0 +1,63 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Opens connections to minicloud server. Used by API requests, uploads
+ * and downloads, so all of them can be redirected to different
+ * implementation, like in-process server used for measurements.
+ * 
+ * @author Jan Zípek
+ */
+public interface Transport {
+	
+	/**
+	 * Opens connection to specified url.
+	 * 
+	 * @param url target url
+	 * @param auth authorization string, can be null
+	 * @return prepared connection
+	 * @throws IOException when connection can't be opened
+	 */
+	HttpURLConnection open(String url, String auth) throws IOException;
+	
+	/**
+	 * Releases connection, so it can be reused.
+	 * 
+	 * @param conn connection to be released
+	 */
+	void release(HttpURLConnection conn);
+	
+	/**
+	 * Releases response stream, so its connection can be reused.
+	 * 
+	 * @param stream response stream, can be null
+	 */
+	void release(InputStream stream);
+	
+}
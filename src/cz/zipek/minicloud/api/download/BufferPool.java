@@ -0,0 +1,90 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Read buffers shared by all downloads, so large buffers aren't allocated
+ * for every file. Buffer sizes are powers of two between {@link #MIN} and
+ * {@link #MAX}, few buffers of every size are kept.
+ * 
+ * @author Jan Zípek
+ */
+final class BufferPool {
+	/** Smallest buffer size. */
+	static final int MIN = 64 * 1024;
+	/** Largest buffer size. */
+	static final int MAX = 1024 * 1024;
+	
+	///@var KEEP number of released buffers kept per size
+	static final int KEEP = 8;
+	
+	///@var pools released buffers by size, index is log2 of size / MIN
+	private static final List<Queue<byte[]>> pools = new ArrayList<>();
+	
+	static {
+		for (int size = MIN; size <= MAX; size *= 2) {
+			pools.add(new ConcurrentLinkedQueue<byte[]>());
+		}
+	}
+	
+	private BufferPool() {
+	}
+	
+	/**
+	 * Returns pooled buffer or allocates new one.
+	 * 
+	 * @param size requested size, rounded to supported size
+	 * @return buffer of at least MIN and at most MAX bytes
+	 */
+	static byte[] acquire(int size) {
+		int index = index(size);
+		byte[] buffer = pools.get(index).poll();
+		return buffer != null ? buffer : new byte[MIN << index];
+	}
+	
+	/**
+	 * Returns buffer to pool. Buffer must not be used afterwards.
+	 * 
+	 * @param buffer buffer returned by {@link #acquire(int)}
+	 */
+	static void release(byte[] buffer) {
+		Queue<byte[]> pool = pools.get(index(buffer.length));
+		if (pool.size() < KEEP) {
+			pool.offer(buffer);
+		}
+	}
+	
+	private static int index(int size) {
+		int index = 0;
+		while (index < pools.size() - 1 && (MIN << index) < size) {
+			index++;
+		}
+		return index;
+	}
+}
@@ -0,0 +1,102 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+/**
+ * Handle of file added to download queue. Allows cancelling queued
+ * download or changing its priority without searching the queue.
+ * 
+ * @author Jan Zípek
+ * @see Downloader#enqueue(DownloadItem, DownloadPriority)
+ */
+public class DownloadHandle {
+	private final DownloadItem item;
+	private final DownloadScheduler scheduler;
+	
+	///@var priority current priority, guarded by scheduler
+	DownloadPriority priority;
+	///@var entry current queue entry, null once started or cancelled, guarded by scheduler
+	DownloadScheduler.Entry entry;
+	///@var cancelled true when removed from queue before start, guarded by scheduler
+	boolean cancelled;
+	
+	DownloadHandle(DownloadScheduler scheduler, DownloadItem item, DownloadPriority priority) {
+		this.scheduler = scheduler;
+		this.item = item;
+		this.priority = priority;
+	}
+	
+	/**
+	 * Removes file from queue. Downloads already started aren't affected.
+	 * 
+	 * @return true when file was waiting and won't be downloaded
+	 */
+	public boolean cancel() {
+		return scheduler.cancel(this);
+	}
+	
+	/**
+	 * Changes priority of waiting file. Age used for aging starts again.
+	 * 
+	 * @param priority new priority
+	 * @return true when file is still waiting and priority was changed
+	 */
+	public boolean setPriority(DownloadPriority priority) {
+		return scheduler.reprioritize(this, priority);
+	}
+	
+	/**
+	 * @return current priority
+	 */
+	public DownloadPriority getPriority() {
+		synchronized (scheduler) {
+			return priority;
+		}
+	}
+	
+	/**
+	 * @return true when file is waiting in queue
+	 */
+	public boolean isQueued() {
+		synchronized (scheduler) {
+			return entry != null;
+		}
+	}
+	
+	/**
+	 * @return true when file was removed from queue before it started
+	 */
+	public boolean isCancelled() {
+		synchronized (scheduler) {
+			return cancelled;
+		}
+	}
+	
+	/**
+	 * @return queued download item
+	 */
+	public DownloadItem getItem() {
+		return item;
+	}
+}
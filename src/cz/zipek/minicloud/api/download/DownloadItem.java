@@ -35,6 +35,11 @@ import java.io.OutputStream;
  * @author Jan Zípek
  */
 public class DownloadItem {
+	/** Suffix of file holding partially downloaded data. */
+	public static final String PARTIAL_SUFFIX = ".minicloud.part";
+	/** Suffix of journal describing partially downloaded data. */
+	public static final String JOURNAL_SUFFIX = ".minicloud.journal";
+	
 	private final FileVersion version;
 	private final String encryption;
 	private String target;
@@ -79,6 +84,35 @@ public class DownloadItem {
 		return new FileOutputStream(getTarget());
 	}
 	
+	/**
+	 * Checks if interrupted download can continue where it stopped.
+	 * Only current version of unencrypted file downloaded to local path
+	 * has known size and can be resumed.
+	 * 
+	 * @return true when download writes to partial file first
+	 */
+	public boolean isResumable() {
+		File file = getFile();
+		return target != null &&
+			(encryption == null || encryption.isEmpty()) &&
+			file.getVersion() != null &&
+			file.getVersion().getId() == version.getId();
+	}
+	
+	/**
+	 * @return file where data are downloaded before download completes
+	 */
+	public java.io.File getPartial() {
+		return new java.io.File(target + PARTIAL_SUFFIX);
+	}
+	
+	/**
+	 * @return journal describing data in partial file
+	 */
+	public java.io.File getJournal() {
+		return new java.io.File(target + JOURNAL_SUFFIX);
+	}
+	
 	/**
 	 * Sets path, where file will be downloaded.
 	 * @param target path where file will be downloaded
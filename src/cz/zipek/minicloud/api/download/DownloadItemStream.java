@@ -46,4 +46,9 @@ public class DownloadItemStream extends DownloadItem {
 		return stream;
 	}
 	
+	@Override
+	public boolean isResumable() {
+		return false;
+	}
+	
 }
@@ -0,0 +1,184 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps track of partially downloaded file, so interrupted download can
+ * continue from last committed offset. Journal records file, version and
+ * size of downloaded data, partial file of different version is discarded.
+ * 
+ * @author Jan Zípek
+ */
+class DownloadJournal {
+	private final DownloadItem item;
+	private final long size;
+	
+	///@var offset number of bytes of partial file known to be written
+	private long offset;
+	
+	/**
+	 * Loads journal of previous attempt to download item.
+	 * 
+	 * @param item resumable download item
+	 */
+	DownloadJournal(DownloadItem item) {
+		this.item = item;
+		this.size = item.getFile().getSize();
+		
+		java.io.File journal = item.getJournal();
+		java.io.File partial = item.getPartial();
+		if (journal.exists() && partial.exists()) {
+			try {
+				JSONObject data = new JSONObject(new String(Files.readAllBytes(journal.toPath()), StandardCharsets.UTF_8));
+				if (data.getInt("file") == item.getFile().getId() &&
+					data.getInt("version") == item.getVersion().getId() &&
+					data.getLong("size") == size &&
+					data.getLong("offset") <= partial.length()) {
+					// Committed offset was forced to disk, shorter file isn't the one journal describes
+					offset = Math.max(0, data.getLong("offset"));
+				}
+			} catch (IOException | JSONException ex) {
+				Logger.getLogger(DownloadJournal.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+	}
+	
+	/**
+	 * @return number of bytes already downloaded
+	 */
+	long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return expected size of downloaded file
+	 */
+	long getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return file holding downloaded data
+	 */
+	java.io.File getPartial() {
+		return item.getPartial();
+	}
+	
+	/**
+	 * Opens partial file for writing at committed offset. Anything written
+	 * past committed offset by previous attempt is dropped.
+	 * 
+	 * @param preallocate extend partial file to expected size at once
+	 * @return channel of partial file
+	 * @throws IOException when partial file can't be opened
+	 */
+	FileChannel open(boolean preallocate) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(item.getPartial(), "rw")) {
+			file.setLength(offset);
+			if (preallocate) {
+				file.setLength(size);
+			}
+		}
+		
+		// Separate descriptor, some file systems flush whole file on close
+		// when it was truncated and written through the same one
+		return FileChannel.open(item.getPartial().toPath(), StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Records data up to offset as written. Data are forced to disk first,
+	 * so journal never points past data that survive a crash. Failure to
+	 * write journal is only logged, download itself can continue.
+	 * 
+	 * @param channel partial file opened by {@link #open(boolean)}
+	 * @param offset number of bytes written to partial file
+	 */
+	void commit(FileChannel channel, long offset) {
+		this.offset = offset;
+		
+		java.io.File journal = item.getJournal();
+		java.io.File temp = new java.io.File(journal.getPath() + ".tmp");
+		try {
+			channel.force(false);
+			
+			JSONObject data = new JSONObject();
+			data.put("file", item.getFile().getId());
+			data.put("version", item.getVersion().getId());
+			data.put("size", size);
+			data.put("offset", offset);
+			Files.write(temp.toPath(), data.toString().getBytes(StandardCharsets.UTF_8));
+			
+			try {
+				Files.move(temp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | JSONException ex) {
+			Logger.getLogger(DownloadJournal.class.getName()).log(Level.WARNING, null, ex);
+		}
+	}
+	
+	/**
+	 * Forgets downloaded data, next write starts at beginning of file.
+	 */
+	void reset() {
+		offset = 0;
+	}
+	
+	/**
+	 * Moves complete partial file to target and removes journal.
+	 * 
+	 * @throws IOException when partial file can't be moved
+	 */
+	void complete() throws IOException {
+		Files.move(item.getPartial().toPath(), new java.io.File(item.getTarget()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(item.getJournal().toPath());
+	}
+	
+	/**
+	 * Removes partial file and journal.
+	 */
+	void discard() {
+		offset = 0;
+		try {
+			Files.deleteIfExists(item.getPartial().toPath());
+			Files.deleteIfExists(item.getJournal().toPath());
+		} catch (IOException ex) {
+			Logger.getLogger(DownloadJournal.class.getName()).log(Level.WARNING, null, ex);
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Queue of downloads ordered by priority and policy. Every priority has
+ * own queue in order of arrival and, for smallest first policy, heap
+ * ordered by size. Cancelled and reprioritized entries are only marked
+ * and skipped when reached, so handles work in constant time. Level is
+ * compacted once its dead entries outnumber live ones.
+ * 
+ * @author Jan Zípek
+ */
+class DownloadScheduler {
+	
+	/**
+	 * Single queued occurrence of handle.
+	 */
+	static class Entry {
+		private final DownloadHandle handle;
+		private final long sequence;
+		private final long enqueued;
+		
+		Entry(DownloadHandle handle, long sequence, long enqueued) {
+			this.handle = handle;
+			this.sequence = sequence;
+			this.enqueued = enqueued;
+		}
+		
+		/**
+		 * @return true when entry wasn't started, cancelled nor replaced
+		 */
+		private boolean isLive() {
+			return handle.entry == this;
+		}
+	}
+	
+	/**
+	 * Queued entries of single priority.
+	 */
+	private static class Level {
+		///@var arrivals entries in order of arrival, including dead ones
+		private final ArrayDeque<Entry> arrivals = new ArrayDeque<>();
+		///@var smallest entries ordered by size, null for FIFO policy
+		private PriorityQueue<Entry> smallest;
+		///@var live number of live entries
+		private int live;
+		
+		/**
+		 * @return oldest live entry or null
+		 */
+		private Entry oldest() {
+			while (!arrivals.isEmpty() && !arrivals.peekFirst().isLive()) {
+				arrivals.pollFirst();
+			}
+			return arrivals.peekFirst();
+		}
+		
+		/**
+		 * @return next entry according to policy or null
+		 */
+		private Entry next() {
+			if (smallest == null) {
+				return oldest();
+			}
+			while (!smallest.isEmpty() && !smallest.peek().isLive()) {
+				smallest.poll();
+			}
+			return smallest.peek();
+		}
+		
+		private void add(Entry entry) {
+			arrivals.addLast(entry);
+			if (smallest != null) {
+				smallest.add(entry);
+			}
+			live++;
+		}
+		
+		private void removed() {
+			live--;
+			if (arrivals.size() - live > live || (smallest != null && smallest.size() - live > live)) {
+				compact();
+			}
+		}
+		
+		/**
+		 * Drops dead entries once they outnumber live ones, so churn of
+		 * cancelled and reprioritized entries doesn't grow the queues.
+		 */
+		private void compact() {
+			Entry[] entries = arrivals.toArray(new Entry[arrivals.size()]);
+			arrivals.clear();
+			for (Entry entry : entries) {
+				if (entry.isLive()) {
+					arrivals.addLast(entry);
+				}
+			}
+			if (smallest != null) {
+				smallest = new PriorityQueue<>(Math.max(1, live), BY_SIZE);
+				smallest.addAll(arrivals);
+			}
+		}
+	}
+	
+	///@var BY_SIZE orders entries by file size, then by arrival
+	private static final Comparator<Entry> BY_SIZE = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			int size = Long.compare(a.handle.getItem().getFile().getSize(), b.handle.getItem().getFile().getSize());
+			return size != 0 ? size : Long.compare(a.sequence, b.sequence);
+		}
+	};
+	
+	private final Level[] levels = new Level[DownloadPriority.values().length];
+	private DownloadPolicy policy = DownloadPolicy.FIFO;
+	///@var aging waiting time in ms after which entry is promoted by one priority, 0 disables aging
+	private long aging;
+	private long sequence;
+	private int size;
+	
+	DownloadScheduler() {
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = new Level();
+		}
+	}
+	
+	/**
+	 * Adds item to queue.
+	 * 
+	 * @param item download item
+	 * @param priority item priority
+	 * @return handle of queued item
+	 */
+	synchronized DownloadHandle add(DownloadItem item, DownloadPriority priority) {
+		DownloadHandle handle = new DownloadHandle(this, item, priority);
+		enqueue(handle);
+		size++;
+		return handle;
+	}
+	
+	/**
+	 * Removes next item to be downloaded. Items of highest priority go
+	 * first in order given by policy. With aging, oldest item of every
+	 * priority is promoted by one priority per aging period and items
+	 * promoted to same priority are served oldest first.
+	 * 
+	 * @return next item or null when queue is empty
+	 */
+	synchronized DownloadItem poll() {
+		if (size == 0) {
+			return null;
+		}
+		
+		long now = System.currentTimeMillis();
+		int best = -1;
+		long bestRank = Long.MAX_VALUE;
+		long bestEnqueued = Long.MAX_VALUE;
+		for (int i = 0; i < levels.length; i++) {
+			Entry oldest = levels[i].oldest();
+			if (oldest == null) {
+				continue;
+			}
+			// Promoted entry competes with entries of its new priority by age
+			long rank = aging > 0 ? Math.max(0, i - (now - oldest.enqueued) / aging) : i;
+			if (rank < bestRank || (rank == bestRank && oldest.enqueued < bestEnqueued)) {
+				best = i;
+				bestRank = rank;
+				bestEnqueued = oldest.enqueued;
+			}
+		}
+		boolean promoted = bestRank < best;
+		
+		Level level = levels[best];
+		Entry entry = promoted ? level.oldest() : level.next();
+		entry.handle.entry = null;
+		level.removed();
+		size--;
+		return entry.handle.getItem();
+	}
+	
+	/**
+	 * Removes waiting handle from queue.
+	 * 
+	 * @param handle queued handle
+	 * @return true when handle was waiting
+	 */
+	synchronized boolean cancel(DownloadHandle handle) {
+		if (handle.entry == null) {
+			return false;
+		}
+		handle.entry = null;
+		handle.cancelled = true;
+		levels[handle.priority.ordinal()].removed();
+		size--;
+		return true;
+	}
+	
+	/**
+	 * Moves waiting handle to different priority.
+	 * 
+	 * @param handle queued handle
+	 * @param priority new priority
+	 * @return true when handle was waiting
+	 */
+	synchronized boolean reprioritize(DownloadHandle handle, DownloadPriority priority) {
+		if (handle.entry == null) {
+			return false;
+		}
+		handle.entry = null;
+		levels[handle.priority.ordinal()].removed();
+		handle.priority = priority;
+		enqueue(handle);
+		return true;
+	}
+	
+	/**
+	 * Removes all waiting items of file.
+	 * 
+	 * @param file removed file
+	 */
+	synchronized void remove(File file) {
+		for (Level level : levels) {
+			for (Entry entry : new ArrayList<>(level.arrivals)) {
+				if (entry.isLive() && entry.handle.getItem().getFile() == file) {
+					cancel(entry.handle);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return waiting items by priority, in order of arrival
+	 */
+	synchronized List<DownloadItem> getItems() {
+		List<DownloadItem> items = new ArrayList<>(size);
+		for (Level level : levels) {
+			for (Entry entry : level.arrivals) {
+				if (entry.isLive()) {
+					items.add(entry.handle.getItem());
+				}
+			}
+		}
+		return items;
+	}
+	
+	/**
+	 * @return number of waiting items
+	 */
+	synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Changes order of items of same priority, including waiting ones.
+	 * 
+	 * @param policy new policy
+	 */
+	synchronized void setPolicy(DownloadPolicy policy) {
+		this.policy = policy;
+		for (Level level : levels) {
+			level.smallest = null;
+			if (policy == DownloadPolicy.SMALLEST_FIRST) {
+				level.smallest = new PriorityQueue<>(Math.max(1, level.live), BY_SIZE);
+				for (Entry entry : level.arrivals) {
+					if (entry.isLive()) {
+						level.smallest.add(entry);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return order of items of same priority
+	 */
+	synchronized DownloadPolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * @param aging waiting time in ms after which item is promoted by one priority, 0 disables aging
+	 */
+	synchronized void setAging(long aging) {
+		this.aging = aging;
+	}
+	
+	/**
+	 * @return waiting time in ms after which item is promoted by one priority
+	 */
+	synchronized long getAging() {
+		return aging;
+	}
+	
+	private void enqueue(DownloadHandle handle) {
+		Entry entry = new Entry(handle, sequence++, System.currentTimeMillis());
+		handle.entry = entry;
+		levels[handle.priority.ordinal()].add(entry);
+	}
+}
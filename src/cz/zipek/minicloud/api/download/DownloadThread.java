@@ -25,19 +25,26 @@ package cz.zipek.minicloud.api.download;
 
 import cz.zipek.minicloud.api.File;
 import cz.zipek.minicloud.api.FileVersion;
+import cz.zipek.minicloud.api.HttpConnector;
 import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.Tools;
+import cz.zipek.minicloud.api.Transport;
 import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
 import cz.zipek.minicloud.api.download.events.DownloadStoppedEvent;
 import cz.zipek.minicloud.api.download.events.DownloadFileDoneEvent;
 import cz.zipek.minicloud.api.download.events.DownloadProgressEvent;
 import cz.zipek.minicloud.api.encryption.Encryptor;
+import cz.zipek.minicloud.api.metrics.MetricsCollector;
+import cz.zipek.minicloud.api.metrics.RequestTiming;
+import cz.zipek.minicloud.api.trace.TransferTraceEvent;
+import cz.zipek.minicloud.api.trace.Tracing;
 import cz.zipek.minicloud.api.upload.NotClosingOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -55,14 +62,40 @@ class DownloadThread extends Thread
 	private final DownloadItem item;
 	private final String auth;
 	private final byte[] key;
+	private final Transport transport;
+	private final MetricsCollector metrics;
 	
-	private boolean stopDownload;
+	///@var FAST time of filling buffer after which buffer grows, in ns
+	private static final long FAST = 20000000;
+	///@var SLOW time of filling buffer after which buffer shrinks, in ns
+	private static final long SLOW = 200000000;
+	///@var COMMIT number of bytes written between journal commits
+	private static final long COMMIT = 4 * 1024 * 1024;
+	
+	private volatile boolean stopDownload;
+	
+	///@var segments number of parts large file is downloaded in, 1 disables segmented download
+	private int segments = 1;
+	///@var segmentThreshold minimal size of file downloaded in parts
+	private long segmentThreshold = Long.MAX_VALUE;
+	///@var preallocate extend target to its size before writing
+	private boolean preallocate;
 
 	public DownloadThread(DownloadItem item, String auth, byte[] key) {
+		this(item, auth, key, new HttpConnector());
+	}
+
+	public DownloadThread(DownloadItem item, String auth, byte[] key, Transport transport) {
+		this(item, auth, key, transport, null);
+	}
+
+	public DownloadThread(DownloadItem item, String auth, byte[] key, Transport transport, MetricsCollector metrics) {
 		super("File download");
 		this.item = item;
 		this.auth = auth;
 		this.key = key;
+		this.transport = transport;
+		this.metrics = metrics;
 	}
 	
 	protected final List<Listener> listeners = new ArrayList<>();
@@ -88,8 +121,19 @@ class DownloadThread extends Thread
 		String target = item.getTarget();
 		String encryption = item.getEncryption();
 		
+		RequestTiming timing = null;
+		if (metrics != null) {
+			timing = new RequestTiming();
+			metrics.started("download_file");
+		}
+		
+		TransferTraceEvent trace = null;
+		if (Tracing.isEnabled()) {
+			trace = new TransferTraceEvent(TransferTraceEvent.DOWNLOAD, source.getName(), encryption);
+		}
+		
 		try {
-			URL url = new URL(this.getSource().getDownloadLink(version));
+			String url = this.getSource().getDownloadLink(version);
 			
 			//System.out.println("Downloading " + url);
 			
@@ -101,13 +145,30 @@ class DownloadThread extends Thread
 			HttpURLConnection httpConn;
 			
 			try {
-				httpConn = (HttpURLConnection) url.openConnection();
+				// Resumable downloads go through partial file
+				if (item.isResumable()) {
+					DownloadJournal journal = new DownloadJournal(item);
+					if (journal.getOffset() > 0 || !downloadSegmented(url, journal, timing, trace)) {
+						downloadResumable(url, journal, timing, trace);
+					}
+					return;
+				}
+				
+				httpConn = transport.open(url, auth);
 				httpConn.setDoOutput(true);
 				httpConn.setDoInput(true);
 				httpConn.setChunkedStreamingMode(4096);
-				httpConn.setRequestProperty("X-Auth", auth);
+				
+				if (timing != null) {
+					timing.connected();
+				}
 				
 				int status = httpConn.getResponseCode();
+				
+				if (timing != null) {
+					timing.responded();
+				}
+				
 				if (status == HttpURLConnection.HTTP_OK) {
 					OutputStream outputStream;
 					long total;
@@ -130,7 +191,11 @@ class DownloadThread extends Thread
 						total = Long.parseLong(httpConn.getHeaderField("Content-Length"));
 						downloaded = 0;
 
+						long read = System.nanoTime();
 						while ((bytesRead = inputStream.read(buffer)) != -1 && !stopDownload) {
+							if (timing != null) {
+								timing.transferred(System.nanoTime() - read, bytesRead);
+							}
 							
 							//@TODO: Block size should be same
 							if (cipherStream != null) {
@@ -141,6 +206,8 @@ class DownloadThread extends Thread
 
 							downloaded += bytesRead;
 							fireEvent(new DownloadProgressEvent(source, target, downloaded, total));
+							
+							read = System.nanoTime();
 						}
 
 						if (cipherStream != null) {
@@ -151,6 +218,17 @@ class DownloadThread extends Thread
 						outputStream.flush();
 						outputStream.close();
 						inputStream.close();
+						
+						// Decryption and writing counts as decoding
+						if (timing != null) {
+							timing.decoded();
+							metrics.completed("download_file", timing);
+						}
+
+						if (trace != null) {
+							trace.setBytes(downloaded);
+							trace.setSuccess(!stopDownload);
+						}
 
 						if (stopDownload) {
 							fireEvent(new DownloadStoppedEvent(source));
@@ -159,19 +237,199 @@ class DownloadThread extends Thread
 						}
 						
 					} catch (IOException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
+						failed(ex.getClass().getSimpleName(), timing);
 						fireEvent(new DownloadFailedEvent(source, ex));
 						Logger.getLogger(DownloadThread.class.getName()).log(Level.SEVERE, null, ex);
 					}
 				} else {
+					transport.release(httpConn);
+					failed("HTTP " + status, timing);
 					fireEvent(new DownloadFailedEvent(source, null));
 				}
 			} catch (IOException ex) {
+				failed(ex.getClass().getSimpleName(), timing);
 				fireEvent(new DownloadFailedEvent(source, ex));
 				Logger.getLogger(DownloadThread.class.getName()).log(Level.SEVERE, null, ex);
 			}
-		} catch (NoSuchProviderException | NoSuchAlgorithmException | NoSuchPaddingException | MalformedURLException ex) {
+		} catch (NoSuchProviderException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
+			failed(ex.getClass().getSimpleName(), timing);
 			fireEvent(new DownloadFailedEvent(source, ex));
 			Logger.getLogger(DownloadThread.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			if (trace != null) {
+				trace.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Downloads large file in parts into partial file.
+	 * 
+	 * @return true when file was downloaded, false when single stream has to be used
+	 */
+	private boolean downloadSegmented(String url, DownloadJournal journal, RequestTiming timing, TransferTraceEvent trace) throws IOException, NoSuchAlgorithmException {
+		if (segments < 2 || journal.getSize() < segmentThreshold) {
+			return false;
+		}
+		
+		SegmentedDownload download = new SegmentedDownload(this, journal.getPartial(), url, auth, transport, timing, segments);
+		if (!download.run()) {
+			return false;
+		}
+		
+		if (!stopDownload) {
+			journal.complete();
+		}
+		finished(download.getDownloaded(), timing, trace);
+		return true;
+	}
+	
+	/**
+	 * Downloads file into partial file, continuing after data committed
+	 * by previous attempt. Progress is committed to journal regularly and
+	 * when download stops or fails.
+	 */
+	private void downloadResumable(String url, DownloadJournal journal, RequestTiming timing, TransferTraceEvent trace) throws IOException, NoSuchAlgorithmException {
+		File source = item.getFile();
+		long size = journal.getSize();
+		long resumed = journal.getOffset();
+		long downloaded = resumed;
+		
+		if (resumed == 0 || resumed < size) {
+			HttpURLConnection httpConn = transport.open(url, auth);
+			httpConn.setDoOutput(true);
+			httpConn.setDoInput(true);
+			httpConn.setChunkedStreamingMode(4096);
+			if (resumed > 0) {
+				httpConn.setRequestProperty("Range", "bytes=" + resumed + "-");
+			}
+			
+			if (timing != null) {
+				timing.connected();
+			}
+			
+			int status = httpConn.getResponseCode();
+			
+			if (timing != null) {
+				timing.responded();
+			}
+			
+			String range = httpConn.getHeaderField("Content-Range");
+			if (status == HttpURLConnection.HTTP_OK) {
+				// Server sent whole file
+				journal.reset();
+				resumed = 0;
+				downloaded = 0;
+			} else if (status != HttpURLConnection.HTTP_PARTIAL || range == null ||
+					!range.equals("bytes " + resumed + "-" + (size - 1) + "/" + size)) {
+				transport.release(httpConn);
+				throw new IOException("Unexpected response to resumed download: HTTP " + status);
+			}
+			
+			try (InputStream inputStream = httpConn.getInputStream();
+				FileChannel channel = journal.open(preallocate)) {
+				byte[] buffer = BufferPool.acquire(BufferPool.MIN);
+				long committed = downloaded;
+				int filled;
+				
+				try {
+					long started = System.nanoTime();
+					while (!stopDownload && (filled = fill(inputStream, buffer, timing)) != -1) {
+						ByteBuffer data = ByteBuffer.wrap(buffer, 0, filled);
+						while (data.hasRemaining()) {
+							downloaded += channel.write(data, downloaded);
+						}
+						
+						if (downloaded - committed >= COMMIT) {
+							journal.commit(channel, downloaded);
+							committed = downloaded;
+						}
+						
+						fireEvent(new DownloadProgressEvent(source, item.getTarget(), downloaded, size));
+						
+						// Larger reads on fast links, smaller on slow ones so progress stays regular
+						long took = System.nanoTime() - started;
+						if (filled == buffer.length && took < FAST && buffer.length < BufferPool.MAX) {
+							BufferPool.release(buffer);
+							buffer = BufferPool.acquire(filled * 2);
+						} else if (took > SLOW && buffer.length > BufferPool.MIN) {
+							BufferPool.release(buffer);
+							buffer = BufferPool.acquire(buffer.length / 2);
+						}
+						started = System.nanoTime();
+					}
+				} finally {
+					BufferPool.release(buffer);
+					journal.commit(channel, downloaded);
+				}
+			}
+		}
+		
+		if (!stopDownload) {
+			if (downloaded != size) {
+				throw new IOException("Downloaded " + downloaded + " of " + size + " bytes");
+			}
+			
+			// Data written by previous attempt are verified with the rest
+			if (source.getChecksum() != null &&
+				!source.getChecksum().equalsIgnoreCase(Tools.md5Checksum(journal.getPartial()))) {
+				journal.discard();
+				throw new IOException("Checksum of " + item.getTarget() + " doesn't match");
+			}
+			
+			journal.complete();
+		}
+		finished(downloaded - resumed, timing, trace);
+	}
+	
+	/**
+	 * Reads from stream until buffer is full, stream ends or download
+	 * is stopped, so data are written to disk in large blocks.
+	 * 
+	 * @return number of bytes read, -1 when stream ended before anything was read
+	 */
+	private int fill(InputStream input, byte[] buffer, RequestTiming timing) throws IOException {
+		int filled = 0;
+		while (filled < buffer.length && !stopDownload) {
+			long read = System.nanoTime();
+			int count = input.read(buffer, filled, buffer.length - filled);
+			if (count == -1) {
+				return filled > 0 ? filled : -1;
+			}
+			if (timing != null) {
+				timing.transferred(System.nanoTime() - read, count);
+			}
+			filled += count;
+		}
+		return filled;
+	}
+	
+	/**
+	 * Records finished download and announces it.
+	 * 
+	 * @param bytes bytes transferred by this attempt
+	 */
+	private void finished(long bytes, RequestTiming timing, TransferTraceEvent trace) {
+		if (timing != null) {
+			timing.decoded();
+			metrics.completed("download_file", timing);
+		}
+		
+		if (trace != null) {
+			trace.setBytes(bytes);
+			trace.setSuccess(!stopDownload);
+		}
+		
+		if (stopDownload) {
+			fireEvent(new DownloadStoppedEvent(item.getFile()));
+		} else {
+			fireEvent(new DownloadFileDoneEvent(item.getFile(), item.getTarget()));
+		}
+	}
+	
+	private void failed(String error, RequestTiming timing) {
+		if (timing != null) {
+			metrics.failed("download_file", error, timing);
 		}
 	}
 
@@ -189,6 +447,31 @@ class DownloadThread extends Thread
 		return item.getTarget();
 	}
 
+	/**
+	 * Sets how large files are split into parts downloaded at once.
+	 * 
+	 * @param segments number of parts, 1 disables segmented download
+	 * @param threshold minimal size of file downloaded in parts
+	 */
+	void setSegments(int segments, long threshold) {
+		this.segments = segments;
+		this.segmentThreshold = threshold;
+	}
+	
+	/**
+	 * @param preallocate extend target to its size before writing
+	 */
+	void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+	
+	/**
+	 * @return true when download was asked to stop
+	 */
+	boolean isStopDownload() {
+		return stopDownload;
+	}
+
 	/**
 	 * @param stopDownload the stopDownload to set
 	 */
@@ -30,10 +30,12 @@ import cz.zipek.minicloud.api.FileVersion;
 import cz.zipek.minicloud.api.Listener;
 import cz.zipek.minicloud.api.User;
 import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
 import cz.zipek.minicloud.api.download.events.DownloadFileDoneEvent;
 import cz.zipek.minicloud.api.download.events.DownloadFileStartedEvent;
+import cz.zipek.minicloud.api.download.events.DownloadStoppedEvent;
 import java.io.OutputStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -41,9 +43,25 @@ import java.util.List;
  * @author Jan Zípek
  */
 public class Downloader extends Eventor<DownloadEvent> implements Listener {
+	/** Default number of parts large file is downloaded in. */
+	public static final int SEGMENTS = 4;
+	/** Default minimal size of file downloaded in parts. */
+	public static final long SEGMENT_THRESHOLD = 16 * 1024 * 1024;
 
-	private final List<DownloadItem> items;
-	private DownloadThread thread;
+	///@var scheduler queue of files waiting for download
+	private final DownloadScheduler scheduler = new DownloadScheduler();
+	///@var threads downloads currently running
+	private final List<DownloadThread> threads = new ArrayList<>();
+	///@var concurrency maximal number of files downloaded at once
+	private int concurrency = 1;
+	///@var segments number of parts large file is downloaded in
+	private int segments = SEGMENTS;
+	///@var segmentThreshold minimal size of file downloaded in parts
+	private long segmentThreshold = SEGMENT_THRESHOLD;
+	///@var preallocate extend targets to their size before writing
+	private boolean preallocate;
+	///@var failed true when file of current queue failed, no more files are started
+	private boolean failed;
 	private String targetFolder;
 	private final External external;
 	
@@ -54,7 +72,6 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param aUser user that performs the downloading
 	 */
 	public Downloader(External aExternal, User aUser) {
-		items = new LinkedList<>();
 		external = aExternal;
 		user = aUser;
 	}
@@ -64,7 +81,7 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param file
 	 */
 	public void add(FileVersion file) {
-		add(new DownloadItem(file, null));
+		enqueue(new DownloadItem(file, null));
 	}
 
 	/**
@@ -73,7 +90,7 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param target
 	 */
 	public void add(FileVersion file, String target) {
-		add(new DownloadItem(file, target));
+		enqueue(new DownloadItem(file, target));
 	}
 	
 	/**
@@ -82,7 +99,7 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param target
 	 */
 	public void add(FileVersion file, OutputStream target) {
-		add(new DownloadItemStream(file, target));
+		enqueue(new DownloadItemStream(file, target));
 	}
 	
 	/**
@@ -90,24 +107,55 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param item
 	 */
 	public void add(DownloadItem item) {
-		getItems().add(item);
+		enqueue(item);
 	}
 	
 	/**
-	 * Removes file from queue.
+	 * Adds new file to download list.
+	 * @param file
+	 * @param target
+	 * @param priority
+	 * @return handle of queued file
+	 */
+	public DownloadHandle enqueue(FileVersion file, String target, DownloadPriority priority) {
+		return enqueue(new DownloadItem(file, target), priority);
+	}
+	
+	/**
+	 * Adds new download item with normal priority.
+	 * @param item
+	 * @return handle of queued item
+	 */
+	public DownloadHandle enqueue(DownloadItem item) {
+		return enqueue(item, DownloadPriority.NORMAL);
+	}
+	
+	/**
+	 * Adds new download item. When downloading is in progress and
+	 * download slot is free, item is started at once.
+	 * 
+	 * @param item download item
+	 * @param priority item priority
+	 * @return handle that can cancel or reprioritize waiting item
+	 */
+	public DownloadHandle enqueue(DownloadItem item, DownloadPriority priority) {
+		DownloadHandle handle;
+		List<DownloadThread> started;
+		synchronized (this) {
+			handle = scheduler.add(item, priority);
+			started = threads.isEmpty() ? new ArrayList<DownloadThread>() : nextFiles();
+		}
+		run(started);
+		return handle;
+	}
+	
+	/**
+	 * Removes file from queue. Searches whole queue, use handle
+	 * returned by enqueue to cancel single item.
 	 * @param file 
 	 */
 	public void remove(File file) {
-		DownloadItem found = null;
-		for(DownloadItem item : getItems()) {
-			if (item.getFile() == file) {
-				found = item;
-				break;
-			}
-		}
-		if (found != null) {
-			getItems().remove(found);
-		}
+		scheduler.remove(file);
 	}
 
 	/**
@@ -115,60 +163,222 @@ public class Downloader extends Eventor<DownloadEvent> implements Listener {
 	 * @param target_folder default path that will be used, when no path is specified for item
 	 */
 	public void start(String target_folder) {
-		if (getItems().size() > 0 && thread == null) {
+		List<DownloadThread> started;
+		synchronized (this) {
+			if (scheduler.size() == 0 || !threads.isEmpty()) {
+				return;
+			}
 			targetFolder = target_folder;
-			nextFile();
+			failed = false;
+			started = nextFiles();
 		}
+		run(started);
 	}
 
 	/**
-	 * Starts downloading new file in queue.
+	 * Takes files from queue until all download slots are used.
+	 * Must be called with lock held, returned threads are started
+	 * by {@link #run(java.util.List)} after lock is released.
+	 * 
+	 * @return prepared downloads
 	 */
-	private synchronized void nextFile() {
-		DownloadItem file = getItems().get(0);
-		getItems().remove(0);
+	private List<DownloadThread> nextFiles() {
+		List<DownloadThread> started = new ArrayList<>();
+		while (!failed && threads.size() < concurrency) {
+			DownloadItem file = scheduler.poll();
+			if (file == null) {
+				break;
+			}
+
+			if (file.getTarget() == null) {
+				file.setTarget(targetFolder
+					+ java.io.File.separator
+					+ file.getFile().getName()
+				);
+			}
 
-		String target = file.getTarget();
-		if (target == null) {
-			file.setTarget(targetFolder
-				+ java.io.File.separator
-				+ file.getFile().getName()
-			);
+			DownloadThread thread = new DownloadThread(file, external.getAuth(), user.getKey(), external.getTransport(), external.getMetrics());
+			thread.setSegments(segments, segmentThreshold);
+			thread.setPreallocate(preallocate);
+			thread.addListener(this);
+			threads.add(thread);
+			started.add(thread);
+		}
+		return started;
+	}
+	
+	/**
+	 * Announces and starts prepared downloads.
+	 * 
+	 * @param started downloads returned by {@link #nextFiles()}
+	 */
+	private void run(List<DownloadThread> started) {
+		for (DownloadThread thread : started) {
+			fireEvent(new DownloadFileStartedEvent(thread.getSource(), thread.getTarget()));
+			thread.start();
 		}
-		
-		fireEvent(new DownloadFileStartedEvent(file.getFile(), target));
-		
-		thread = new DownloadThread(file, external.getAuth(), user.getKey());
-		thread.addListener(this);
-		thread.start();
 	}
 
 	@Override
-	public synchronized void handleEvent(Object event, Object sender) {
-		if (event instanceof DownloadFileDoneEvent) {
-			if (getItems().size() > 0) {
-				nextFile();
-			} else {
+	public void handleEvent(Object event, Object sender) {
+		// File events go out before next files and before all done event
+		fireEvent((DownloadEvent) event);
+		
+		if (event instanceof DownloadFileDoneEvent ||
+			event instanceof DownloadFailedEvent ||
+			event instanceof DownloadStoppedEvent) {
+			List<DownloadThread> started;
+			boolean done;
+			synchronized (this) {
+				// Downloads removed by stop are no longer part of queue
+				if (!threads.remove((DownloadThread) sender)) {
+					return;
+				}
+				if (event instanceof DownloadFailedEvent) {
+					failed = true;
+				}
+				started = nextFiles();
+				done = !failed && threads.isEmpty() && scheduler.size() == 0;
+			}
+			run(started);
+			
+			if (done) {
 				fireEvent(new DownloadAllDoneEvent());
 			}
 		}
-		fireEvent((DownloadEvent) event);
 	}
 
 	/**
 	 * Stops downloading. All running downloads will be stopped immidiately.
 	 */
-	public void stop() {
-		if (thread != null) {
+	public synchronized void stop() {
+		for (DownloadThread thread : threads) {
 			thread.setStopDownload(true);
-			thread = null;
 		}
+		threads.clear();
+	}
+	
+	/**
+	 * Sets number of files downloaded at once. Change applies to files
+	 * started afterwards.
+	 * 
+	 * @param concurrency maximal number of parallel downloads
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be positive");
+		}
+		this.concurrency = concurrency;
+	}
+	
+	/**
+	 * @return maximal number of parallel downloads
+	 */
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * Sets how large files are downloaded. Files of at least threshold
+	 * size are split into parts fetched at once by range requests and
+	 * written directly to their offsets in target file. Encrypted files
+	 * and downloads to streams always use single connection.
+	 * 
+	 * @param segments number of parts, 1 disables segmented download
+	 * @param threshold minimal size of file downloaded in parts
+	 */
+	public synchronized void setSegments(int segments, long threshold) {
+		if (segments < 1) {
+			throw new IllegalArgumentException("Number of segments must be positive");
+		}
+		this.segments = segments;
+		this.segmentThreshold = threshold;
+	}
+	
+	/**
+	 * @return number of parts large file is downloaded in
+	 */
+	public synchronized int getSegments() {
+		return segments;
+	}
+	
+	/**
+	 * @return minimal size of file downloaded in parts
+	 */
+	public synchronized long getSegmentThreshold() {
+		return segmentThreshold;
+	}
+	
+	/**
+	 * Sets if resumable downloads extend partial file to size of
+	 * downloaded file before writing, so file system can reserve its
+	 * space at once.
+	 * 
+	 * @param preallocate true to preallocate targets
+	 */
+	public synchronized void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+	
+	/**
+	 * @return true when targets are preallocated
+	 */
+	public synchronized boolean isPreallocate() {
+		return preallocate;
+	}
+	
+	/**
+	 * @return true when there are no queued nor running downloads
+	 */
+	public synchronized boolean isDone() {
+		return threads.isEmpty() && scheduler.size() == 0;
+	}
+
+	/**
+	 * Sets order of waiting files of same priority.
+	 * 
+	 * @param policy order of files
+	 */
+	public void setPolicy(DownloadPolicy policy) {
+		scheduler.setPolicy(policy);
+	}
+	
+	/**
+	 * @return order of waiting files of same priority
+	 */
+	public DownloadPolicy getPolicy() {
+		return scheduler.getPolicy();
+	}
+	
+	/**
+	 * Sets how long file waits before it's promoted by one priority,
+	 * so background files aren't starved by constant stream of files
+	 * with higher priority.
+	 * 
+	 * @param aging waiting time in ms, 0 disables aging
+	 */
+	public void setAging(long aging) {
+		scheduler.setAging(aging);
+	}
+	
+	/**
+	 * @return waiting time in ms after which file is promoted by one priority
+	 */
+	public long getAging() {
+		return scheduler.getAging();
+	}
+	
+	/**
+	 * @return number of files waiting for download
+	 */
+	public int getQueueSize() {
+		return scheduler.size();
 	}
 
 	/**
-	 * @return download queue
+	 * @return copy of download queue by priority, files are removed from it once started
 	 */
 	public List<DownloadItem> getItems() {
-		return items;
+		return scheduler.getItems();
 	}
 }
@@ -0,0 +1,320 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.File;
+import cz.zipek.minicloud.api.RequestExecutors;
+import cz.zipek.minicloud.api.Tools;
+import cz.zipek.minicloud.api.Transport;
+import cz.zipek.minicloud.api.download.events.DownloadProgressEvent;
+import cz.zipek.minicloud.api.metrics.RequestTiming;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads file in several parts at once using HTTP range requests.
+ * Every part is written at its offset into preallocated target file,
+ * whole file is verified against its checksum at the end. Parts of all
+ * files share one bounded pool, parts over its size wait for free thread.
+ * 
+ * @author Jan Zípek
+ */
+class SegmentedDownload {
+	///@var THREADS maximum number of parts downloaded at once by all files
+	private static final int THREADS = 16;
+	///@var PROGRESS_INTERVAL ms between progress events while parts are running
+	private static final long PROGRESS_INTERVAL = 100;
+	
+	///@var pool runs parts of all segmented downloads
+	private static ExecutorService pool;
+	
+	private final DownloadThread owner;
+	private final java.io.File target;
+	private final String url;
+	private final String auth;
+	private final Transport transport;
+	private final RequestTiming timing;
+	private final int segments;
+	
+	///@var downloaded bytes written by all parts
+	private final AtomicLong downloaded = new AtomicLong();
+	///@var reported bytes in last progress event, used only by waiting thread
+	private long reported = 0;
+	///@var unsupported true when server ignored range and sent whole file
+	private volatile boolean unsupported;
+	///@var error first failure of any part
+	private volatile IOException error;
+	///@var responded true once first part received response headers
+	private boolean responded;
+	
+	/**
+	 * @param owner download this file belongs to, receives progress events
+	 * @param target file parts are written to
+	 * @param url download link of file
+	 * @param auth authorization string
+	 * @param transport transport used to open connections
+	 * @param timing timing of download, can be null
+	 * @param segments number of parts downloaded at once
+	 */
+	SegmentedDownload(DownloadThread owner, java.io.File target, String url, String auth, Transport transport, RequestTiming timing, int segments) {
+		this.owner = owner;
+		this.target = target;
+		this.url = url;
+		this.auth = auth;
+		this.transport = transport;
+		this.timing = timing;
+		this.segments = segments;
+	}
+	
+	/**
+	 * Downloads all parts and waits for them.
+	 * 
+	 * @return false when server doesn't support ranges and file has to be downloaded as single stream
+	 * @throws IOException when any part fails or file doesn't match checksum
+	 * @throws NoSuchAlgorithmException when checksum can't be computed
+	 */
+	boolean run() throws IOException, NoSuchAlgorithmException {
+		final File source = owner.getSource();
+		final long size = source.getSize();
+		long part = (size + segments - 1) / segments;
+		
+		try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+			file.setLength(size);
+		}
+		
+		// Parts are written through separate descriptor, see DownloadJournal.open
+		try (final FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+			
+			ExecutorService executor = getPool();
+			List<Future<?>> parts = new ArrayList<>();
+			for (long first = 0; first < size; first += part) {
+				final long from = first;
+				final long to = Math.min(size, first + part) - 1;
+				parts.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							fetch(channel, from, to, size);
+						} catch (IOException ex) {
+							fail(ex);
+						} catch (Throwable ex) {
+							fail(new IOException("Range " + from + "-" + to + " failed", ex));
+						}
+					}
+				}));
+			}
+			
+			// Progress is reported only from this thread, so it never goes
+			// back and is ordered with other events of the download
+			try {
+				for (Future<?> future : parts) {
+					for (;;) {
+						try {
+							future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+							break;
+						} catch (TimeoutException ex) {
+							progress(size);
+						} catch (ExecutionException ex) {
+							// Parts catch everything themselves, kept for completeness
+							fail(new IOException(ex.getCause()));
+							break;
+						}
+					}
+					progress(size);
+				}
+			} catch (InterruptedException ex) {
+				owner.setStopDownload(true);
+				for (Future<?> future : parts) {
+					future.cancel(false);
+				}
+				throw new InterruptedIOException("Segmented download interrupted");
+			}
+		}
+		
+		if (error != null) {
+			throw error;
+		}
+		if (unsupported) {
+			return false;
+		}
+		
+		if (!isCancelled() && source.getChecksum() != null &&
+			!source.getChecksum().equalsIgnoreCase(Tools.md5Checksum(target))) {
+			throw new IOException("Checksum of " + owner.getTarget() + " doesn't match");
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Downloads single part and writes it at its offset.
+	 * 
+	 * @param channel target file
+	 * @param first offset of first byte of part
+	 * @param last offset of last byte of part
+	 * @param size size of whole file
+	 * @throws IOException when part can't be downloaded or written
+	 */
+	private void fetch(FileChannel channel, long first, long last, long size) throws IOException {
+		HttpURLConnection conn = transport.open(url, auth);
+		conn.setDoOutput(true);
+		conn.setDoInput(true);
+		conn.setChunkedStreamingMode(4096);
+		conn.setRequestProperty("Range", "bytes=" + first + "-" + last);
+		
+		int status = conn.getResponseCode();
+		markResponded();
+		
+		if (status == HttpURLConnection.HTTP_OK) {
+			unsupported = true;
+			transport.release(conn);
+			return;
+		}
+		
+		String range = conn.getHeaderField("Content-Range");
+		if (status != HttpURLConnection.HTTP_PARTIAL || range == null || !range.startsWith("bytes " + first + "-")) {
+			transport.release(conn);
+			throw new IOException("Unexpected response to range " + first + "-" + last + ": HTTP " + status);
+		}
+		
+		long position = first;
+		try (InputStream input = conn.getInputStream()) {
+			byte[] buffer = BufferPool.acquire(BufferPool.MIN);
+			int read;
+			long mark = System.nanoTime();
+			try {
+				while (position <= last && !isCancelled() && (read = input.read(buffer)) != -1) {
+					transferred(System.nanoTime() - mark, read);
+					
+					int count = (int)Math.min(read, last - position + 1);
+					ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+					while (data.hasRemaining()) {
+						position += channel.write(data, position);
+					}
+					
+					downloaded.addAndGet(count);
+					mark = System.nanoTime();
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+		}
+		
+		if (position <= last && !isCancelled()) {
+			throw new EOFException("Range " + first + "-" + last + " ended at " + position);
+		}
+	}
+	
+	/**
+	 * Reports bytes written by all parts, when there are new ones.
+	 * 
+	 * @param size size of whole file
+	 */
+	private void progress(long size) {
+		long current = downloaded.get();
+		if (current > reported && !isCancelled()) {
+			reported = current;
+			owner.fireEvent(new DownloadProgressEvent(owner.getSource(), owner.getTarget(), current, size));
+		}
+	}
+	
+	/**
+	 * Remembers failure of part, only first failure is reported.
+	 * 
+	 * @param ex failure of part
+	 */
+	private synchronized void fail(IOException ex) {
+		if (error == null) {
+			error = ex;
+		}
+	}
+	
+	/**
+	 * @return shared pool running parts of all files
+	 */
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = RequestExecutors.newBounded(THREADS, "File download segment", true);
+		}
+		return pool;
+	}
+	
+	/**
+	 * @return true when download was stopped or other part failed
+	 */
+	private boolean isCancelled() {
+		return owner.isStopDownload() || error != null || unsupported;
+	}
+	
+	/**
+	 * Marks response headers of first part as received.
+	 */
+	private void markResponded() {
+		if (timing == null) {
+			return;
+		}
+		synchronized (timing) {
+			if (!responded) {
+				timing.connected();
+				timing.responded();
+				responded = true;
+			}
+		}
+	}
+	
+	/**
+	 * Adds transfer time of part to download timing.
+	 */
+	private void transferred(long nanos, long count) {
+		if (timing == null) {
+			return;
+		}
+		synchronized (timing) {
+			timing.transferred(nanos, count);
+		}
+	}
+	
+	/**
+	 * @return bytes written by all parts
+	 */
+	long getDownloaded() {
+		return downloaded.get();
+	}
+}
@@ -23,6 +23,7 @@
  */
 package cz.zipek.minicloud.api.download.events;
 
+import cz.zipek.minicloud.api.Coalescable;
 import cz.zipek.minicloud.api.File;
 import cz.zipek.minicloud.api.download.DownloadEvent;
 
@@ -30,7 +31,7 @@ import cz.zipek.minicloud.api.download.DownloadEvent;
  *
  * @author Jan Zípek
  */
-public class DownloadProgressEvent extends DownloadEvent {
+public class DownloadProgressEvent extends DownloadEvent implements Coalescable {
 	private final File file;
 	private final long downloaded;
 	private final long total;
@@ -70,4 +71,9 @@ public class DownloadProgressEvent extends DownloadEvent {
 	public String getTarget() {
 		return target;
 	}
+
+	@Override
+	public boolean supersedes(Object older) {
+		return older instanceof DownloadProgressEvent && ((DownloadProgressEvent)older).file == file;
+	}
 }
@@ -0,0 +1,60 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.events;
+
+import cz.zipek.minicloud.api.Event;
+import cz.zipek.minicloud.api.External;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * Response to batch of actions. Contains responses of all actions
+ * in the batch, which are delivered separately.
+ * 
+ * @author Jan Zípek
+ */
+public class BatchEvent extends SuccessEvent {
+
+	protected List<Event> events;
+	
+	/**
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without responses
+	 * @param action_id action id of batch
+	 * @param events responses of actions in batch
+	 */
+	public BatchEvent(External sender, JSONObject data, String action_id, List<Event> events) {
+		super(sender, data, action_id);
+		
+		this.events = events;
+	}
+	
+	/**
+	 * @return responses of actions in batch
+	 */
+	public List<Event> getEvents() {
+		return events;
+	}
+	
+}
@@ -40,6 +40,21 @@ public class FileEvent extends SuccessEvent {
 		
 		file = new File(sender, data.optJSONObject("data"));
 	}
+	
+	/**
+	 * Creates event from file decoded directly from response stream.
+	 * Raw data of such event don't contain decoded file.
+	 * 
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without file
+	 * @param action_id action id of request
+	 * @param file decoded file
+	 */
+	public FileEvent(External sender, JSONObject data, String action_id, File file) {
+		super(sender, data, action_id);
+		
+		this.file = file;
+	}
 
 	/**
 	 * @return the path
@@ -47,6 +47,21 @@ public class FilesEvent extends SuccessEvent {
 		}
 	}
 	
+	/**
+	 * Creates event from files decoded directly from response stream.
+	 * Raw data of such event don't contain decoded files.
+	 * 
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without files
+	 * @param action_id action id of request
+	 * @param files decoded files
+	 */
+	public FilesEvent(External sender, JSONObject data, String action_id, File[] files) {
+		super(sender, data, action_id);
+		
+		this.files = files;
+	}
+	
 	/**
 	 * @return list of files contained in event
 	 */
@@ -0,0 +1,75 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.events;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.Listing;
+import cz.zipek.minicloud.api.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Path response decoded into compact listing.
+ * 
+ * @author Jan Zípek
+ */
+public class ListingEvent extends SuccessEvent {
+
+	protected Listing listing;
+	
+	public ListingEvent(External sender, JSONObject data, String action_id) {
+		super(sender, data, action_id);
+		
+		try {
+			listing = Listing.of(new Path(sender, data.optJSONObject("data")));
+		} catch (JSONException ex) {
+			Logger.getLogger(ListingEvent.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+	
+	/**
+	 * Creates event from listing decoded directly from response stream.
+	 * Raw data of such event don't contain decoded listing.
+	 * 
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without listing
+	 * @param action_id action id of request
+	 * @param listing decoded listing
+	 */
+	public ListingEvent(External sender, JSONObject data, String action_id, Listing listing) {
+		super(sender, data, action_id);
+		
+		this.listing = listing;
+	}
+
+	/**
+	 * @return the listing
+	 */
+	public Listing getListing() {
+		return listing;
+	}
+	
+}
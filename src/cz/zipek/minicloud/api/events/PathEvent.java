@@ -47,6 +47,21 @@ public class PathEvent extends SuccessEvent {
 			Logger.getLogger(PathEvent.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
+	
+	/**
+	 * Creates event from path decoded directly from response stream.
+	 * Raw data of such event don't contain decoded path.
+	 * 
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without path
+	 * @param action_id action id of request
+	 * @param path decoded path
+	 */
+	public PathEvent(External sender, JSONObject data, String action_id, Path path) {
+		super(sender, data, action_id);
+		
+		this.path = path;
+	}
 
 	/**
 	 * @return the path
@@ -54,6 +54,21 @@ public class PathsEvent extends SuccessEvent {
 		}
 	}
 	
+	/**
+	 * Creates event from paths decoded directly from response stream.
+	 * Raw data of such event don't contain decoded paths.
+	 * 
+	 * @param sender API instance that sent this event
+	 * @param data raw event data without paths
+	 * @param action_id action id of request
+	 * @param paths decoded paths
+	 */
+	public PathsEvent(External sender, JSONObject data, String action_id, Path[] paths) {
+		super(sender, data, action_id);
+		
+		this.paths = paths;
+	}
+	
 	/**
 	 * @return list of paths contained in event
 	 */
@@ -0,0 +1,556 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull parser reading JSON directly from stream. Used to build API objects
+ * from server responses without creating intermediate string and DOM.
+ * <p>Values have to be separated by commas, as in any JSON. Numbers that
+ * don't fit into long are read as BigInteger, malformed ones as text.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class JsonReader implements Closeable {
+	
+	/**
+	 * Type of next value in stream.
+	 */
+	public enum Token {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END
+	}
+	
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+	
+	///@var read number of chars consumed before current buffer
+	private long read = 0;
+	
+	private final StringBuilder text = new StringBuilder();
+	
+	///@var raw collects source text of value read by readRaw
+	private StringBuilder raw = null;
+	
+	///@var rawStart position in buffer where collecting of raw text started
+	private int rawStart = 0;
+	
+	///@var separated true when value ended and comma has to come before next one
+	private boolean pending = false;
+	
+	/**
+	 * @param in source of JSON data, should be buffered by parser only
+	 */
+	public JsonReader(Reader in) {
+		this.in = in;
+	}
+	
+	/**
+	 * Returns type of next value, without consuming it. Separators
+	 * before the value are skipped.
+	 * 
+	 * @return type of next value
+	 * @throws IOException when stream can't be read
+	 */
+	public Token peek() throws IOException {
+		int c = peekValue();
+		switch (c) {
+			case -1: return Token.END;
+			case '{': return Token.BEGIN_OBJECT;
+			case '}': return Token.END_OBJECT;
+			case '[': return Token.BEGIN_ARRAY;
+			case ']': return Token.END_ARRAY;
+			case '"': return Token.STRING;
+			case 't':
+			case 'f': return Token.BOOLEAN;
+			case 'n': return Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return Token.NUMBER;
+				}
+				throw syntaxError("Unexpected character '" + (char)c + "'");
+		}
+	}
+	
+	/**
+	 * Checks if current object or array has another item.
+	 * 
+	 * @return true if there is another item
+	 * @throws IOException when stream can't be read
+	 */
+	public boolean hasNext() throws IOException {
+		int c = peekValue();
+		return c != '}' && c != ']' && c != -1;
+	}
+	
+	/**
+	 * Consumes beginning of object.
+	 * 
+	 * @throws IOException when next value isn't object
+	 */
+	public void beginObject() throws IOException {
+		peekValue();
+		expect('{');
+		pending = false;
+	}
+	
+	/**
+	 * Consumes end of object.
+	 * 
+	 * @throws IOException when object doesn't end here
+	 */
+	public void endObject() throws IOException {
+		expect('}');
+		pending = true;
+	}
+	
+	/**
+	 * Consumes beginning of array.
+	 * 
+	 * @throws IOException when next value isn't array
+	 */
+	public void beginArray() throws IOException {
+		peekValue();
+		expect('[');
+		pending = false;
+	}
+	
+	/**
+	 * Consumes end of array.
+	 * 
+	 * @throws IOException when array doesn't end here
+	 */
+	public void endArray() throws IOException {
+		expect(']');
+		pending = true;
+	}
+	
+	/**
+	 * Reads name of next object property.
+	 * 
+	 * @return property name
+	 * @throws IOException when next token isn't property name
+	 */
+	public String nextName() throws IOException {
+		if (peekValue() != '"') {
+			throw syntaxError("Expected property name");
+		}
+		String name = readString();
+		expect(':');
+		pending = false;
+		return name;
+	}
+	
+	/**
+	 * Reads next value as string. Numbers and booleans are returned
+	 * in their text form, null is returned as null.
+	 * 
+	 * @return string value
+	 * @throws IOException when next value isn't scalar
+	 */
+	public String nextString() throws IOException {
+		switch (peek()) {
+			case STRING:
+				return readString();
+			case NUMBER:
+			case BOOLEAN:
+				return readLiteral();
+			case NULL:
+				readLiteral();
+				return null;
+			default:
+				throw syntaxError("Expected string");
+		}
+	}
+	
+	/**
+	 * Reads next value as number. Numbers stored as strings are accepted.
+	 * 
+	 * @param fallback value returned for null or value that isn't a number
+	 * @return number value
+	 * @throws IOException when next value isn't scalar
+	 */
+	public long nextLong(long fallback) throws IOException {
+		String value = nextString();
+		if (value == null || value.isEmpty()) {
+			return fallback;
+		}
+		
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException ex) {
+			try {
+				return (long)Double.parseDouble(value);
+			} catch (NumberFormatException ex2) {
+				return fallback;
+			}
+		}
+	}
+	
+	/**
+	 * Reads next value as number. Numbers stored as strings are accepted.
+	 * 
+	 * @param fallback value returned for null or value that isn't a number
+	 * @return number value
+	 * @throws IOException when next value isn't scalar
+	 */
+	public int nextInt(int fallback) throws IOException {
+		return (int)nextLong(fallback);
+	}
+	
+	/**
+	 * Reads next value as boolean. Numbers are true when not zero,
+	 * strings "true" and "1" are true.
+	 * 
+	 * @return boolean value
+	 * @throws IOException when next value isn't scalar
+	 */
+	public boolean nextBoolean() throws IOException {
+		String value = nextString();
+		if (value == null) {
+			return false;
+		}
+		if (value.equals("true")) {
+			return true;
+		}
+		try {
+			return Double.parseDouble(value) != 0;
+		} catch (NumberFormatException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Skips next value, including all its children.
+	 * 
+	 * @throws IOException when stream can't be read
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch (peek()) {
+				case BEGIN_OBJECT:
+					beginObject();
+					depth++;
+					break;
+				case BEGIN_ARRAY:
+					beginArray();
+					depth++;
+					break;
+				case END_OBJECT:
+					endObject();
+					depth--;
+					break;
+				case END_ARRAY:
+					endArray();
+					depth--;
+					break;
+				case STRING:
+					readString();
+					// Property names inside skipped objects
+					if (depth > 0 && peekChar() == ':') {
+						pos++;
+						pending = false;
+					}
+					break;
+				case END:
+					throw syntaxError("Unexpected end of stream");
+				default:
+					readLiteral();
+			}
+			
+			if (depth < 0) {
+				throw syntaxError("Expected value");
+			}
+		} while (depth > 0);
+	}
+	
+	/**
+	 * Reads source text of next value, including all its children.
+	 * Used to keep parts of response unparsed until they're needed.
+	 * 
+	 * @return JSON text of next value
+	 * @throws IOException when stream can't be read or is malformed
+	 */
+	public String readRaw() throws IOException {
+		peekValue();
+		
+		raw = new StringBuilder();
+		rawStart = pos;
+		try {
+			skipValue();
+			raw.append(buffer, rawStart, pos - rawStart);
+			return raw.toString();
+		} finally {
+			raw = null;
+		}
+	}
+	
+	/**
+	 * Reads next value into org.json structure. Used for small responses
+	 * that don't have streaming parser.
+	 * 
+	 * @return JSONObject, JSONArray, String, Number, Boolean or JSONObject.NULL
+	 * @throws IOException when stream can't be read or is malformed
+	 */
+	public Object readValue() throws IOException {
+		try {
+			switch (peek()) {
+				case BEGIN_OBJECT:
+					JSONObject object = new JSONObject();
+					beginObject();
+					while (hasNext()) {
+						String name = nextName();
+						object.put(name, readValue());
+					}
+					endObject();
+					return object;
+				case BEGIN_ARRAY:
+					JSONArray array = new JSONArray();
+					beginArray();
+					while (hasNext()) {
+						array.put(readValue());
+					}
+					endArray();
+					return array;
+				case STRING:
+					return readString();
+				case NUMBER:
+					return parseNumber(readLiteral());
+				case BOOLEAN:
+					return Boolean.valueOf(readLiteral());
+				case NULL:
+					readLiteral();
+					return JSONObject.NULL;
+				default:
+					throw syntaxError("Expected value");
+			}
+		} catch (JSONException ex) {
+			throw new IOException(ex);
+		}
+	}
+	
+	/**
+	 * Converts number literal the same way org.json does. Integers that
+	 * don't fit into long become BigInteger, malformed numbers stay text.
+	 */
+	private Object parseNumber(String value) {
+		try {
+			if (value.indexOf('.') >= 0 || value.indexOf('e') >= 0 || value.indexOf('E') >= 0) {
+				return Double.valueOf(value);
+			}
+			long number = Long.parseLong(value);
+			if (number == (int)number) {
+				return (int)number;
+			}
+			return number;
+		} catch (NumberFormatException ex) {
+			try {
+				return new BigInteger(value);
+			} catch (NumberFormatException ex2) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * @return number of characters consumed so far
+	 */
+	public long getPosition() {
+		return read + pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	private boolean fill() throws IOException {
+		if (raw != null) {
+			raw.append(buffer, rawStart, limit - rawStart);
+			rawStart = 0;
+		}
+		
+		read += limit;
+		pos = 0;
+		limit = in.read(buffer, 0, buffer.length);
+		if (limit < 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Skips whitespace and comma separating next value from previous one,
+	 * returns next char without consuming it.
+	 */
+	private int peekValue() throws IOException {
+		int c = peekChar();
+		if (c == ',') {
+			if (!pending) {
+				throw syntaxError("Unexpected ','");
+			}
+			pos++;
+			pending = false;
+			
+			c = peekChar();
+			if (c == '}' || c == ']' || c == ',' || c == -1) {
+				throw syntaxError("Expected value after ','");
+			}
+		} else if (pending && c != '}' && c != ']' && c != -1) {
+			throw syntaxError("Expected ','");
+		}
+		return c;
+	}
+	
+	/**
+	 * Skips whitespace, returns next char without consuming it.
+	 */
+	private int peekChar() throws IOException {
+		while (true) {
+			if (pos >= limit && !fill()) {
+				return -1;
+			}
+			char c = buffer[pos];
+			if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				pos++;
+			} else {
+				return c;
+			}
+		}
+	}
+	
+	private void expect(char expected) throws IOException {
+		if (peekChar() != expected) {
+			throw syntaxError("Expected '" + expected + "'");
+		}
+		pos++;
+	}
+	
+	private String readString() throws IOException {
+		// Opening quote was already peeked
+		pos++;
+		text.setLength(0);
+		
+		while (true) {
+			if (pos >= limit && !fill()) {
+				throw syntaxError("Unterminated string");
+			}
+			
+			// Copy run of plain characters at once
+			int start = pos;
+			while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+				pos++;
+			}
+			text.append(buffer, start, pos - start);
+			
+			if (pos >= limit) {
+				continue;
+			}
+			
+			char c = buffer[pos++];
+			if (c == '"') {
+				pending = true;
+				return text.toString();
+			}
+			
+			text.append(readEscape());
+		}
+	}
+	
+	private char readEscape() throws IOException {
+		char c = readChar();
+		switch (c) {
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(readChar(), 16);
+					if (digit < 0) {
+						throw syntaxError("Malformed unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char)value;
+			default:
+				return c;
+		}
+	}
+	
+	private char readChar() throws IOException {
+		if (pos >= limit && !fill()) {
+			throw syntaxError("Unexpected end of stream");
+		}
+		return buffer[pos++];
+	}
+	
+	/**
+	 * Reads number, true, false or null.
+	 */
+	private String readLiteral() throws IOException {
+		text.setLength(0);
+		while (true) {
+			if (pos >= limit && !fill()) {
+				break;
+			}
+			char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				break;
+			}
+			text.append(c);
+			pos++;
+		}
+		
+		if (text.length() == 0) {
+			throw syntaxError("Expected value");
+		}
+		pending = true;
+		return text.toString();
+	}
+	
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at position " + getPosition());
+	}
+}
@@ -0,0 +1,171 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of single action.
+ * 
+ * @author Jan Zípek
+ */
+public class ActionStats {
+	
+	private final String action;
+	
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+	
+	private final Histogram total = new Histogram();
+	private final Histogram connect = new Histogram();
+	private final Histogram firstByte = new Histogram();
+	private final Histogram body = new Histogram();
+	private final Histogram decode = new Histogram();
+	
+	ActionStats(String action) {
+		this.action = action;
+	}
+	
+	void started() {
+		requests.incrementAndGet();
+		inFlight.incrementAndGet();
+	}
+	
+	void completed(RequestTiming timing) {
+		inFlight.decrementAndGet();
+		bytes.addAndGet(timing.getBytes());
+		
+		total.record(timing.getTotal());
+		connect.record(timing.getConnect());
+		firstByte.record(timing.getFirstByte());
+		body.record(timing.getBody());
+		decode.record(timing.getDecode());
+	}
+	
+	void failed(String error, RequestTiming timing) {
+		inFlight.decrementAndGet();
+		bytes.addAndGet(timing.getBytes());
+		
+		AtomicLong counter = errors.get(error);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong current = errors.putIfAbsent(error, counter);
+			if (current != null) {
+				counter = current;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * @return action name
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * @return number of started requests
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of running requests
+	 */
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return number of transferred body bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	/**
+	 * @return total number of failed requests
+	 */
+	public long getErrorCount() {
+		long count = 0;
+		for (AtomicLong counter : errors.values()) {
+			count += counter.get();
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of failed requests by error type
+	 */
+	public Map<String, Long> getErrors() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+			result.put(error.getKey(), error.getValue().get());
+		}
+		return result;
+	}
+
+	/**
+	 * @return durations of successful requests
+	 */
+	public Histogram getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return durations of connecting and sending request
+	 */
+	public Histogram getConnect() {
+		return connect;
+	}
+
+	/**
+	 * @return durations of waiting for response headers
+	 */
+	public Histogram getFirstByte() {
+		return firstByte;
+	}
+
+	/**
+	 * @return durations of body transfer
+	 */
+	public Histogram getBody() {
+		return body;
+	}
+
+	/**
+	 * @return durations of response decoding
+	 */
+	public Histogram getDecode() {
+		return decode;
+	}
+}
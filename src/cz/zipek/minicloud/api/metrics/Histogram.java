@@ -0,0 +1,115 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. Values are counted in buckets
+ * of exponentially growing size, starting at 1 microsecond, so
+ * percentiles are precise to factor of two.
+ * 
+ * @author Jan Zípek
+ */
+public class Histogram {
+	
+	private static final int BUCKETS = 40;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records duration.
+	 * 
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(nanos / 1000, 0);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		
+		long current;
+		while ((current = max.get()) < nanos && !max.compareAndSet(current, nanos)) {
+			// Retry until maximum is stored
+		}
+	}
+	
+	/**
+	 * @return number of recorded durations
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return mean duration in ms
+	 */
+	public double getMean() {
+		long values = count.get();
+		return values == 0 ? 0 : sum.get() / 1e6 / values;
+	}
+	
+	/**
+	 * @return maximum duration in ms
+	 */
+	public double getMax() {
+		return max.get() / 1e6;
+	}
+	
+	/**
+	 * Returns upper estimate of percentile.
+	 * 
+	 * @param percentile requested percentile, between 0 and 1
+	 * @return duration in ms
+	 */
+	public double getPercentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		long limit = (long)Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= limit && counts[i] > 0) {
+				//Bucket i holds values below 2^i microseconds
+				return Math.min((1L << i) / 1e3, getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,206 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes measurements through JMX. Every measured action has its own
+ * set of attributes named like <code>get_path.requests</code> or
+ * <code>get_path.firstByte.p99</code>. Durations are in milliseconds.
+ * 
+ * @author Jan Zípek
+ */
+public class JmxMetrics implements DynamicMBean {
+	
+	private static final String[] COUNTERS = { "requests", "inFlight", "bytes", "errors" };
+	private static final String[] PHASES = { "total", "connect", "firstByte", "body", "decode" };
+	private static final String[] STATISTICS = { "mean", "p50", "p99", "max" };
+	
+	private final MetricsRegistry registry;
+	
+	/**
+	 * @param registry exposed measurements
+	 */
+	public JmxMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+	
+	/**
+	 * Registers measurements in platform MBean server.
+	 * 
+	 * @param registry exposed measurements
+	 * @param name name distinguishing API instances
+	 * @return name of registered bean
+	 * @throws JMException when bean can't be registered
+	 */
+	public static ObjectName register(MetricsRegistry registry, String name) throws JMException {
+		ObjectName objectName = getName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxMetrics(registry), objectName);
+		return objectName;
+	}
+	
+	/**
+	 * Removes measurements from platform MBean server.
+	 * 
+	 * @param name name used to register measurements
+	 * @throws JMException when bean can't be removed
+	 */
+	public static void unregister(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(getName(name));
+	}
+	
+	private static ObjectName getName(String name) throws MalformedObjectNameException {
+		return new ObjectName("cz.zipek.minicloud:type=Requests,name=" + ObjectName.quote(name));
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		int split = attribute.indexOf('.');
+		if (split < 0) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		ActionStats stats = registry.getActions().get(attribute.substring(0, split));
+		if (stats == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		String metric = attribute.substring(split + 1);
+		switch (metric) {
+			case "requests":
+				return stats.getRequests();
+			case "inFlight":
+				return stats.getInFlight();
+			case "bytes":
+				return stats.getBytes();
+			case "errors":
+				return stats.getErrorCount();
+		}
+		
+		int phase = metric.indexOf('.');
+		if (phase < 0) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		Histogram histogram = getHistogram(stats, metric.substring(0, phase));
+		if (histogram == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		switch (metric.substring(phase + 1)) {
+			case "mean":
+				return histogram.getMean();
+			case "p50":
+				return histogram.getPercentile(0.5);
+			case "p99":
+				return histogram.getPercentile(0.99);
+			case "max":
+				return histogram.getMax();
+			default:
+				throw new AttributeNotFoundException(attribute);
+		}
+	}
+	
+	private Histogram getHistogram(ActionStats stats, String phase) {
+		switch (phase) {
+			case "total":
+				return stats.getTotal();
+			case "connect":
+				return stats.getConnect();
+			case "firstByte":
+				return stats.getFirstByte();
+			case "body":
+				return stats.getBody();
+			case "decode":
+				return stats.getDecode();
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Measurements are read only");
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException ex) {
+				// Missing attributes are left out
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		
+		for (String action : registry.getActions().keySet()) {
+			for (String counter : COUNTERS) {
+				attributes.add(new MBeanAttributeInfo(action + "." + counter, Long.class.getName(), counter, true, false, false));
+			}
+			for (String phase : PHASES) {
+				for (String statistic : STATISTICS) {
+					String name = action + "." + phase + "." + statistic;
+					attributes.add(new MBeanAttributeInfo(name, Double.class.getName(), phase + " " + statistic + " in ms", true, false, false));
+				}
+			}
+		}
+		
+		return new MBeanInfo(
+			JmxMetrics.class.getName(), "Request measurements",
+			attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+			null, new MBeanOperationInfo[0], null
+		);
+	}
+}
@@ -0,0 +1,114 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes snapshot of measurements as JSON, so it can be served
+ * to monitoring. Durations are in milliseconds.
+ * 
+ * @author Jan Zípek
+ */
+public class JsonMetrics {
+	
+	private JsonMetrics() {
+	}
+	
+	/**
+	 * Writes current measurements of all actions.
+	 * 
+	 * @param registry measurements
+	 * @return JSON object with one entry per action
+	 */
+	public static String snapshot(MetricsRegistry registry) {
+		StringBuilder out = new StringBuilder("{");
+		
+		for (ActionStats stats : registry.getActions().values()) {
+			if (out.length() > 1) {
+				out.append(',');
+			}
+			quote(out, stats.getAction());
+			out.append(':');
+			write(out, stats);
+		}
+		
+		return out.append('}').toString();
+	}
+	
+	private static void write(StringBuilder out, ActionStats stats) {
+		out.append("{\"requests\":").append(stats.getRequests())
+			.append(",\"in_flight\":").append(stats.getInFlight())
+			.append(",\"bytes\":").append(stats.getBytes())
+			.append(",\"errors\":{");
+		
+		boolean first = true;
+		for (Map.Entry<String, Long> error : stats.getErrors().entrySet()) {
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			quote(out, error.getKey());
+			out.append(':').append(error.getValue());
+		}
+		
+		out.append("},\"latency\":{");
+		write(out, "total", stats.getTotal());
+		out.append(',');
+		write(out, "connect", stats.getConnect());
+		out.append(',');
+		write(out, "first_byte", stats.getFirstByte());
+		out.append(',');
+		write(out, "body", stats.getBody());
+		out.append(',');
+		write(out, "decode", stats.getDecode());
+		out.append("}}");
+	}
+	
+	private static void write(StringBuilder out, String name, Histogram histogram) {
+		quote(out, name);
+		out.append(String.format(Locale.US,
+			":{\"count\":%d,\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}",
+			histogram.getCount(), histogram.getMean(),
+			histogram.getPercentile(0.5), histogram.getPercentile(0.9),
+			histogram.getPercentile(0.99), histogram.getMax()
+		));
+	}
+	
+	private static void quote(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int)c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+}
@@ -0,0 +1,64 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures time spent reading stream and number of bytes read.
+ * 
+ * @author Jan Zípek
+ */
+public class MeteredInputStream extends FilterInputStream {
+	
+	private final RequestTiming timing;
+	
+	/**
+	 * @param in measured stream
+	 * @param timing receives measurements
+	 */
+	public MeteredInputStream(InputStream in, RequestTiming timing) {
+		super(in);
+		
+		this.timing = timing;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int value = super.read();
+		timing.transferred(System.nanoTime() - start, value >= 0 ? 1 : 0);
+		return value;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int read = super.read(b, off, len);
+		timing.transferred(System.nanoTime() - start, Math.max(read, 0));
+		return read;
+	}
+}
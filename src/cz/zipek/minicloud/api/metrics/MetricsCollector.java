@@ -0,0 +1,58 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+/**
+ * Receives measurements of requests sent to server. Implementations
+ * have to be thread safe, requests are measured from many threads.
+ * 
+ * @author Jan Zípek
+ */
+public interface MetricsCollector {
+	
+	/**
+	 * Request started.
+	 * 
+	 * @param action requested action
+	 */
+	void started(String action);
+	
+	/**
+	 * Request received response.
+	 * 
+	 * @param action requested action
+	 * @param timing measured request
+	 */
+	void completed(String action, RequestTiming timing);
+	
+	/**
+	 * Request failed.
+	 * 
+	 * @param action requested action
+	 * @param error type of error
+	 * @param timing measured request
+	 */
+	void failed(String action, String error, RequestTiming timing);
+	
+}
@@ -0,0 +1,86 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default collector, keeps measurements of every action in memory.
+ * 
+ * @author Jan Zípek
+ */
+public class MetricsRegistry implements MetricsCollector {
+	
+	private final ConcurrentMap<String, ActionStats> actions = new ConcurrentHashMap<>();
+
+	@Override
+	public void started(String action) {
+		get(action).started();
+	}
+
+	@Override
+	public void completed(String action, RequestTiming timing) {
+		get(action).completed(timing);
+	}
+
+	@Override
+	public void failed(String action, String error, RequestTiming timing) {
+		get(action).failed(error, timing);
+	}
+	
+	/**
+	 * Returns measurements of action, created when action wasn't measured yet.
+	 * 
+	 * @param action action name
+	 * @return measurements of action
+	 */
+	public ActionStats get(String action) {
+		ActionStats stats = actions.get(action);
+		if (stats == null) {
+			stats = new ActionStats(action);
+			ActionStats current = actions.putIfAbsent(action, stats);
+			if (current != null) {
+				stats = current;
+			}
+		}
+		return stats;
+	}
+	
+	/**
+	 * @return measurements of all measured actions, by action name
+	 */
+	public Map<String, ActionStats> getActions() {
+		return new TreeMap<>(actions);
+	}
+	
+	/**
+	 * Drops all measurements.
+	 */
+	public void reset() {
+		actions.clear();
+	}
+}
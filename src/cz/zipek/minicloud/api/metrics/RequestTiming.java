@@ -0,0 +1,134 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+/**
+ * Time spent in phases of single request. Phases are marked as request
+ * progresses, all times are in nanoseconds.
+ * <ul>
+ * <li>connect - opening connection and sending request</li>
+ * <li>first byte - waiting for response headers</li>
+ * <li>body - transferring body (request body for uploads, response body otherwise)</li>
+ * <li>decode - decoding response, without time spent reading it</li>
+ * </ul>
+ * 
+ * @author Jan Zípek
+ */
+public class RequestTiming {
+	
+	private final long start = System.nanoTime();
+	
+	private long mark = start;
+	private long bodyMark = 0;
+	
+	private long connect;
+	private long firstByte;
+	private long body;
+	private long decode;
+	private long bytes;
+	
+	/**
+	 * Marks connection as opened and request as sent.
+	 */
+	public void connected() {
+		long now = System.nanoTime();
+		connect = now - mark;
+		mark = now;
+	}
+	
+	/**
+	 * Marks response headers as received. Waiting time excludes time spent
+	 * transferring body since connection was opened.
+	 */
+	public void responded() {
+		long now = System.nanoTime();
+		firstByte = Math.max(0, now - mark - (body - bodyMark));
+		mark = now;
+		bodyMark = body;
+	}
+	
+	/**
+	 * Adds time spent transferring body.
+	 * 
+	 * @param nanos time spent
+	 * @param count number of bytes transferred
+	 */
+	public void transferred(long nanos, long count) {
+		body += nanos;
+		bytes += count;
+	}
+	
+	/**
+	 * Marks response as decoded. Decoding time excludes time spent
+	 * transferring body since response headers were received.
+	 */
+	public void decoded() {
+		long now = System.nanoTime();
+		decode = Math.max(0, now - mark - (body - bodyMark));
+		mark = now;
+		bodyMark = body;
+	}
+
+	/**
+	 * @return time spent opening connection and sending request
+	 */
+	public long getConnect() {
+		return connect;
+	}
+
+	/**
+	 * @return time spent waiting for response headers
+	 */
+	public long getFirstByte() {
+		return firstByte;
+	}
+
+	/**
+	 * @return time spent transferring body
+	 */
+	public long getBody() {
+		return body;
+	}
+
+	/**
+	 * @return time spent decoding response
+	 */
+	public long getDecode() {
+		return decode;
+	}
+
+	/**
+	 * @return number of body bytes transferred
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return time since request started
+	 */
+	public long getTotal() {
+		return System.nanoTime() - start;
+	}
+}
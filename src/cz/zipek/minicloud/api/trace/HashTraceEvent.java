@@ -0,0 +1,71 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import java.util.Map;
+
+/**
+ * Checksum of local file.
+ * 
+ * @author Jan Zípek
+ */
+public class HashTraceEvent extends TraceEvent {
+	
+	private final String file;
+	private final long bytes;
+	
+	/**
+	 * @param file path of hashed file
+	 * @param bytes size of hashed file
+	 */
+	public HashTraceEvent(String file, long bytes) {
+		this.file = file;
+		this.bytes = bytes;
+	}
+
+	@Override
+	public String getName() {
+		return "hash";
+	}
+
+	@Override
+	protected void fill(Map<String, Object> fields) {
+		fields.put("file", file);
+		fields.put("bytes", bytes);
+	}
+
+	/**
+	 * @return path of hashed file
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * @return size of hashed file
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,92 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import java.util.Map;
+
+/**
+ * Single API request, from opening connection to decoded response.
+ * 
+ * @author Jan Zípek
+ */
+public class RequestTraceEvent extends TraceEvent {
+	
+	private final String action;
+	private int status;
+	private long bytes;
+	
+	/**
+	 * @param action requested action
+	 */
+	public RequestTraceEvent(String action) {
+		this.action = action;
+	}
+
+	@Override
+	public String getName() {
+		return "request";
+	}
+
+	@Override
+	protected void fill(Map<String, Object> fields) {
+		fields.put("action", action);
+		fields.put("status", status);
+		fields.put("bytes", bytes);
+	}
+
+	/**
+	 * @return requested action
+	 */
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * @return HTTP status of response, 0 if there was none
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @param status HTTP status of response
+	 */
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return response bytes read
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param bytes response bytes read
+	 */
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+}
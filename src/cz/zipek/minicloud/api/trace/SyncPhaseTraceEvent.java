@@ -0,0 +1,96 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import java.util.Map;
+
+/**
+ * Phase of folder synchronization.
+ * 
+ * @author Jan Zípek
+ */
+public class SyncPhaseTraceEvent extends TraceEvent {
+	
+	/** Waiting for remote file list. */
+	public static final String LISTING = "listing";
+	/** Walking local folder. */
+	public static final String WALK = "walk";
+	/** Comparing local and remote files. */
+	public static final String RECONCILE = "reconcile";
+	/** Uploading and downloading changes. */
+	public static final String TRANSFER = "transfer";
+	
+	private final String folder;
+	private final String phase;
+	private int items;
+	
+	/**
+	 * @param folder local synchronized folder
+	 * @param phase one of phase constants
+	 */
+	public SyncPhaseTraceEvent(String folder, String phase) {
+		this.folder = folder;
+		this.phase = phase;
+	}
+
+	@Override
+	public String getName() {
+		return "sync";
+	}
+
+	@Override
+	protected void fill(Map<String, Object> fields) {
+		fields.put("folder", folder);
+		fields.put("phase", phase);
+		fields.put("items", items);
+	}
+
+	/**
+	 * @return local synchronized folder
+	 */
+	public String getFolder() {
+		return folder;
+	}
+
+	/**
+	 * @return phase name
+	 */
+	public String getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return number of files processed in phase
+	 */
+	public int getItems() {
+		return items;
+	}
+
+	/**
+	 * @param items number of files processed in phase
+	 */
+	public void setItems(int items) {
+		this.items = items;
+	}
+}
@@ -0,0 +1,105 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed event, modeled after flight recorder events. Event starts when
+ * created and is sent to sink by {@link #commit()}.
+ * 
+ * @author Jan Zípek
+ */
+public abstract class TraceEvent {
+	
+	private final String thread = Thread.currentThread().getName();
+	private final long timestamp = System.currentTimeMillis();
+	private final long start = System.nanoTime();
+	private long duration = -1;
+	
+	/**
+	 * Marks end of event, duration isn't changed by later calls.
+	 */
+	public void end() {
+		if (duration < 0) {
+			duration = System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Ends event and sends it to sink.
+	 */
+	public void commit() {
+		end();
+		Tracing.commit(this);
+	}
+	
+	/**
+	 * @return name of event type
+	 */
+	public abstract String getName();
+	
+	/**
+	 * @return event specific values in stable order
+	 */
+	public Map<String, Object> getFields() {
+		Map<String, Object> fields = new LinkedHashMap<>();
+		fill(fields);
+		return fields;
+	}
+	
+	/**
+	 * Adds event specific values.
+	 * 
+	 * @param fields target map
+	 */
+	protected abstract void fill(Map<String, Object> fields);
+
+	/**
+	 * @return name of thread that created event
+	 */
+	public String getThread() {
+		return thread;
+	}
+
+	/**
+	 * @return wall clock time when event started, in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return event duration in nanoseconds, -1 when not ended yet
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return getName() + " " + String.format("%.3f", duration / 1000000.0) + " ms " + getFields();
+	}
+}
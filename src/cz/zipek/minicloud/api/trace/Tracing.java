@@ -0,0 +1,68 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+/**
+ * Global switch for trace events. Tracing is disabled until sink is set,
+ * instrumented code then only checks {@link #isEnabled()} and doesn't
+ * create any events.
+ * 
+ * @author Jan Zípek
+ */
+public final class Tracing {
+	
+	private static volatile TraceSink sink;
+	
+	private Tracing() {}
+	
+	/**
+	 * @return true if events are being recorded
+	 */
+	public static boolean isEnabled() {
+		return sink != null;
+	}
+	
+	/**
+	 * @return current sink, null when tracing is disabled
+	 */
+	public static TraceSink getSink() {
+		return sink;
+	}
+	
+	/**
+	 * Sets sink receiving events. Null disables tracing.
+	 * 
+	 * @param sink new sink
+	 */
+	public static void setSink(TraceSink sink) {
+		Tracing.sink = sink;
+	}
+	
+	static void commit(TraceEvent event) {
+		TraceSink current = sink;
+		if (current != null) {
+			current.commit(event);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import java.util.Map;
+
+/**
+ * Upload or download of single file, including encryption.
+ * 
+ * @author Jan Zípek
+ */
+public class TransferTraceEvent extends TraceEvent {
+	
+	public static final String UPLOAD = "upload";
+	public static final String DOWNLOAD = "download";
+	
+	private final String direction;
+	private final String file;
+	private final String cipher;
+	private long bytes;
+	private boolean success;
+	
+	/**
+	 * @param direction {@link #UPLOAD} or {@link #DOWNLOAD}
+	 * @param file name of transferred file
+	 * @param cipher encryption config, empty when file isn't encrypted
+	 */
+	public TransferTraceEvent(String direction, String file, String cipher) {
+		this.direction = direction;
+		this.file = file;
+		this.cipher = cipher == null ? "" : cipher;
+	}
+
+	@Override
+	public String getName() {
+		return direction;
+	}
+
+	@Override
+	protected void fill(Map<String, Object> fields) {
+		fields.put("file", file);
+		fields.put("cipher", cipher);
+		fields.put("bytes", bytes);
+		fields.put("success", success);
+	}
+
+	/**
+	 * @return {@link #UPLOAD} or {@link #DOWNLOAD}
+	 */
+	public String getDirection() {
+		return direction;
+	}
+
+	/**
+	 * @return name of transferred file
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * @return encryption config, empty when file isn't encrypted
+	 */
+	public String getCipher() {
+		return cipher;
+	}
+
+	/**
+	 * @return bytes transferred
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param bytes bytes transferred
+	 */
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return true if file was transferred
+	 */
+	public boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @param success true if file was transferred
+	 */
+	public void setSuccess(boolean success) {
+		this.success = success;
+	}
+}
@@ -4,6 +4,8 @@
  */
 package cz.zipek.minicloud.api.upload;
 
+import cz.zipek.minicloud.api.HttpConnector;
+import cz.zipek.minicloud.api.Transport;
 import cz.zipek.minicloud.api.Eventor;
 import cz.zipek.minicloud.api.encryption.Encryptor;
 import cz.zipek.minicloud.api.upload.events.UploadThreadSentEvent;
@@ -19,7 +21,6 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLConnection;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -54,6 +55,21 @@ public class MultipartUtility extends Eventor<UploadEvent> {
      * @throws IOException
      */
     public MultipartUtility(String requestURL, String charset, String auth, Encryptor encrypt)
+            throws IOException {
+		this(requestURL, charset, auth, encrypt, new HttpConnector());
+	}
+	
+    /**
+     * This constructor initializes a new HTTP POST request with content type
+     * is set to multipart/form-data
+     * @param requestURL
+     * @param charset
+	 * @param auth
+	 * @param encrypt
+	 * @param transport used to open (possibly reused) connection
+     * @throws IOException
+     */
+    public MultipartUtility(String requestURL, String charset, String auth, Encryptor encrypt, Transport transport)
             throws IOException {
        
 		this.charset = charset;
@@ -62,13 +78,11 @@ public class MultipartUtility extends Eventor<UploadEvent> {
         // creates a unique boundary based on time stamp
         boundary = "===" + System.currentTimeMillis() + "===";
          
-        URL url = new URL(requestURL);
-        httpConn = (HttpURLConnection) url.openConnection();
+        httpConn = transport.open(requestURL, auth);
         httpConn.setDoOutput(true); // indicates POST method
         httpConn.setDoInput(true);
         httpConn.setChunkedStreamingMode(4096);
         httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-		httpConn.setRequestProperty("X-Auth", auth);
 		
 		outputStream = httpConn.getOutputStream();
         writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
@@ -202,7 +216,7 @@ public class MultipartUtility extends Eventor<UploadEvent> {
 					data.append(line);
 				}
 			}
-			httpConn.disconnect();
+			// Connection is not disconnected, so it can be reused
         } else {
 			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
 					httpConn.getErrorStream()))) {
@@ -25,6 +25,11 @@ package cz.zipek.minicloud.api.upload;
 
 import cz.zipek.minicloud.api.Listener;
 import cz.zipek.minicloud.api.encryption.Encryptor;
+import cz.zipek.minicloud.api.metrics.MetricsCollector;
+import cz.zipek.minicloud.api.metrics.RequestTiming;
+import cz.zipek.minicloud.api.trace.TransferTraceEvent;
+import cz.zipek.minicloud.api.trace.Tracing;
+import cz.zipek.minicloud.api.upload.events.UploadFailedEvent;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -46,6 +51,8 @@ public class UploadThread extends Thread implements Listener {
 	protected final Encryptor encryptor;
 	protected final UploadItem item;
 	
+	private volatile boolean failed = false;
+	
 	public UploadThread(Uploader uploader, UploadItem item, Encryptor encryptor) {
 		super("Upload thread");
 		
@@ -74,13 +81,30 @@ public class UploadThread extends Thread implements Listener {
 	
 	@Override
 	public void run() {
+		MetricsCollector collector = uploader.getSource().getMetrics();
+		RequestTiming timing = null;
+		if (collector != null) {
+			timing = new RequestTiming();
+			collector.started("upload_file");
+		}
+		
+		TransferTraceEvent trace = null;
+		if (Tracing.isEnabled()) {
+			trace = new TransferTraceEvent(TransferTraceEvent.UPLOAD, item.getFilename(), encryptor != null ? encryptor.getConfig() : null);
+		}
+		
 		try {
 			// Helper for sending big requests
 			MultipartUtility sender = new MultipartUtility(
 				uploader.getSource().getApiUrl(), "UTF-8",
-				uploader.getSource().getAuth(), encryptor
+				uploader.getSource().getAuth(), encryptor,
+				uploader.getSource().getTransport()
 			);
 			
+			if (timing != null) {
+				timing.connected();
+			}
+			
 			// Listen to sender events
 			sender.addListener(this);
 			
@@ -122,17 +146,47 @@ public class UploadThread extends Thread implements Listener {
 			}
 			
 			// Add file
+			long started = System.nanoTime();
 			sender.addFilePart("file", item.getFilename(), item.getStream(), item.getSize());
 			
+			if (timing != null) {
+				timing.transferred(System.nanoTime() - started, item.getSize());
+			}
+			
 			// Start sending
 			sender.finish();
+			
+			if (trace != null) {
+				trace.setBytes(item.getSize());
+				trace.setSuccess(!failed);
+			}
+			
+			if (timing != null) {
+				timing.responded();
+				if (failed) {
+					collector.failed("upload_file", UploadFailedEvent.class.getSimpleName(), timing);
+				} else {
+					collector.completed("upload_file", timing);
+				}
+			}
 		} catch (IOException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException ex) {
+			if (timing != null) {
+				collector.failed("upload_file", ex.getClass().getSimpleName(), timing);
+			}
+			
 			Logger.getLogger(UploadThread.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			if (trace != null) {
+				trace.commit();
+			}
 		}
 	}
 
 	@Override
 	public void handleEvent(Object event, Object sender) {
+		if (event instanceof UploadFailedEvent) {
+			failed = true;
+		}
 		fireEvent(event);
 	}
 }
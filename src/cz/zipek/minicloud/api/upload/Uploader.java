@@ -156,6 +156,9 @@ public class Uploader extends Eventor<UploadEvent> implements Listener {
 				Logger.getLogger(Uploader.class.getName()).log(Level.SEVERE, null, ex);
 			}
 			
+			//Uploaded file changed remote listings
+			source.invalidateMetadata();
+			
 			fireEvent(new UploadFileDoneEvent(item, data));
 			nextFile();
 		}
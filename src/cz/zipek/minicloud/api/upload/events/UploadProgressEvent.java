@@ -23,6 +23,7 @@
  */
 package cz.zipek.minicloud.api.upload.events;
 
+import cz.zipek.minicloud.api.Coalescable;
 import cz.zipek.minicloud.api.upload.UploadEvent;
 import cz.zipek.minicloud.api.upload.UploadItem;
 import java.io.File;
@@ -31,7 +32,7 @@ import java.io.File;
  *
  * @author Jan Zípek
  */
-public class UploadProgressEvent extends UploadEvent {
+public class UploadProgressEvent extends UploadEvent implements Coalescable {
 	private final long total;
 	private final long sent;
 	private final UploadItem item;
@@ -73,4 +74,9 @@ public class UploadProgressEvent extends UploadEvent {
 	public String getTarget() {
 		return item.getTarget();
 	}
+
+	@Override
+	public boolean supersedes(Object older) {
+		return older instanceof UploadProgressEvent && ((UploadProgressEvent)older).item == item;
+	}
 }
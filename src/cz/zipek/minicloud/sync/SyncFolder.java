@@ -32,9 +32,13 @@ import cz.zipek.minicloud.api.Path;
 import cz.zipek.minicloud.api.Tools;
 import cz.zipek.minicloud.api.User;
 import cz.zipek.minicloud.api.download.DownloadEvent;
+import cz.zipek.minicloud.api.download.DownloadItem;
 import cz.zipek.minicloud.api.download.Downloader;
 import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.events.ConnectionErrorEvent;
 import cz.zipek.minicloud.api.events.PathEvent;
+import cz.zipek.minicloud.api.trace.SyncPhaseTraceEvent;
+import cz.zipek.minicloud.api.trace.Tracing;
 import cz.zipek.minicloud.api.upload.UploadEvent;
 import cz.zipek.minicloud.api.upload.Uploader;
 import cz.zipek.minicloud.api.upload.events.UploadAllDoneEvent;
@@ -68,7 +72,7 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 	private File local;
 	private String remote;
 	private Date lastSync;
-	private boolean syncing = false;
+	private volatile boolean syncing = false;
 	private String actionId;
 	private External external;
 	private Pattern regexp;
@@ -80,6 +84,30 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 	
 	private int timeOffset;
 	private String encryption;
+	
+	///@var downloadConcurrency number of files downloaded at once
+	private int downloadConcurrency = 1;
+	
+	///@var phase traced phase waiting for listing or transfers, null when tracing is disabled
+	private SyncPhaseTraceEvent phase;
+	
+	///@var responses receives response to listing request
+	private final Listener<Event> responses = new Listener<Event>() {
+		@Override
+		public void handleEvent(Event event, Object sender) {
+			handleExternal(event);
+		}
+	};
+	
+	///@var errors receives connection errors that don't belong to any request
+	private final Listener<Event> errors = new Listener<Event>() {
+		@Override
+		public void handleEvent(Event event, Object sender) {
+			if (event.getActionId() == null) {
+				handleExternal(event);
+			}
+		}
+	};
 
 	public SyncFolder(JSONObject folder) throws JSONException {
 		local = new File(folder.getString("local"));
@@ -143,13 +171,12 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 	 * @param external
 	 */
 	public void setExternal(External external) {
-		
-		if (this.external != null)
-			this.external.removeListenerLater(this);
+		if (this.external != null) {
+			this.external.unsubscribe(ConnectionErrorEvent.class, errors);
+		}
 		
 		this.external = external;
-		this.external.addListenerLater(this);
-		
+		this.external.subscribe(ConnectionErrorEvent.class, errors);
 	}
 	
 	public void setTimeOffset(int offset) {
@@ -172,6 +199,24 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 		this.encryption = encryption;
 	}
 	
+	/**
+	 * Sets number of files downloaded at once, used by next synchronization.
+	 * @param concurrency maximal number of parallel downloads
+	 */
+	public void setDownloadConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be positive");
+		}
+		downloadConcurrency = concurrency;
+	}
+	
+	/**
+	 * @return maximal number of parallel downloads
+	 */
+	public int getDownloadConcurrency() {
+		return downloadConcurrency;
+	}
+	
 	/**
 	 * @param lastSync the lastSync to set
 	 */
@@ -211,12 +256,14 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 		}
 		
 		if (external == null) {
-			external = new External();
-			external.addListener(this);
+			setExternal(new External());
 		}
 		
-		// Request file list
-		actionId = external.getPath(remote, true);
+		// Request file list, only its response and errors are routed here
+		phase = trace(SyncPhaseTraceEvent.LISTING);
+		actionId = external.nextActionId();
+		external.subscribe(actionId, responses);
+		external.getPath(remote, true, actionId);
 	}
 
 	/**
@@ -263,10 +310,15 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 	
 	private synchronized void checkIfComplete() {
 		if ((uploader == null || uploader.getItems().isEmpty()) &&
-			(downloader == null || downloader.getItems().isEmpty())) {
+			(downloader == null || downloader.isDone())) {
+			if (phase != null) {
+				phase.commit();
+				phase = null;
+			}
+			
 			setLastSync(new Date());
-			fireEvent(new SyncDone());
 			syncing = false;
+			fireEvent(new SyncDone());
 		}
 	}
 	
@@ -281,16 +333,40 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 			);
 	}
 	
+	/**
+	 * Ends synchronization that can't continue.
+	 */
+	private synchronized void abort() {
+		if (phase != null) {
+			phase.commit();
+			phase = null;
+		}
+		syncing = false;
+	}
+	
 	private void handleExternal(Event event) {
 		fireEvent(new SyncExternalEvent(event));
 		
-		if (event.getActionId() != null && event.getActionId().equals(actionId)) {
-			if (event instanceof PathEvent) {
+		if (event.getActionId() == null) {
+			// Listing may have been lost with the connection
+			String waiting = actionId;
+			if (waiting != null) {
+				actionId = null;
+				external.unsubscribe(waiting);
+				abort();
+			}
+		} else if (event.getActionId().equals(actionId)) {
+			actionId = null;
+			
+			if (!(event instanceof PathEvent)) {
+				abort();
+			} else {
 				try {
 					PathEvent pathEvent = (PathEvent)event;
 					Path folder = pathEvent.getPath();
 					
 					downloader = new Downloader(external, user);
+					downloader.setConcurrency(downloadConcurrency);
 					uploader = new Uploader(external, user.getEncryptor(encryption));
 					
 					downloader.addListener(this);
@@ -301,14 +377,32 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 					
 					if (folder != null) {
 						files = folder.getAllFiles();
-						
+					}
+					
+					if (phase != null) {
+						phase.setItems(files.size());
+						phase.commit();
+						phase = null;
+					}
+					
+					//All local files
+					SyncPhaseTraceEvent walk = trace(SyncPhaseTraceEvent.WALK);
+					List<File> loc = getAllFiles(local);
+					if (walk != null) {
+						walk.setItems(loc.size());
+						walk.commit();
+					}
+					
+					SyncPhaseTraceEvent reconcile = trace(SyncPhaseTraceEvent.RECONCILE);
+					
+					if (folder != null) {
 						//Download new files, sync changed
 						for(cz.zipek.minicloud.api.File file : files) {
 							boolean invalid = false;
 							
 							//Check if there isn't copy
 							if (file.getParent() != null) {
-								for(cz.zipek.minicloud.api.File brother : file.getParent().getFiles()) {
+								for(cz.zipek.minicloud.api.File brother : file.getParent().getFilesByName(file.getName())) {
 									if (brother.getName().equals(file.getName()) &&
 											brother.getMdtime().before(file.getMdtime())) {
 										invalid = true;
@@ -326,21 +420,14 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 					}
 					
 					//Find new local files
-					List<File> loc = getAllFiles(local);
 					for(File file : loc) {
-						boolean exists = false;
-						
 						if (maxSize != 0 && file.length() > maxSize) {
 							continue;
 						}
 						
-						for(cz.zipek.minicloud.api.File external_file : files) {
-							File ondisk = remoteFileToLocal(local.getAbsolutePath(), external_file, folder);
-							if (ondisk.getAbsolutePath().equals(file.getAbsolutePath())) {
-								exists = true;
-								break;
-							}
-						}
+						boolean exists = folder != null && folder.findFile(
+							file.getAbsolutePath().substring(local.getAbsolutePath().length()).replace(File.separator, "/")
+						) != null;
 						
 						
 						if (!exists) {
@@ -360,26 +447,52 @@ public class SyncFolder extends Eventor<SyncEvent> implements Listener {
 						}
 					}
 					
-					if (downloader.getItems().isEmpty() && uploader.getItems().isEmpty()) {
+					if (reconcile != null) {
+						reconcile.setItems(files.size() + loc.size());
+						reconcile.commit();
+					}
+					
+					if (downloader.isDone() && uploader.getItems().isEmpty()) {
 						checkIfComplete();
 					} else {
+						phase = trace(SyncPhaseTraceEvent.TRANSFER);
+						if (phase != null) {
+							phase.setItems(downloader.getQueueSize() + uploader.getItems().size());
+						}
+						
 						downloader.start(local.getAbsolutePath());
 						uploader.start(remote);
 					}
 				} catch (NoSuchProviderException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
 					fireEvent(new SyncEncryptionFailedEvent());
 					Logger.getLogger(SyncFolder.class.getName()).log(Level.SEVERE, null, ex);
+				} catch (IllegalStateException ex) {
+					// Malformed listing, remote files mustn't be taken as deleted
+					Logger.getLogger(SyncFolder.class.getName()).log(Level.SEVERE, null, ex);
+					abort();
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Starts trace of synchronization phase.
+	 * 
+	 * @param name phase name
+	 * @return started phase, null when tracing is disabled
+	 */
+	private SyncPhaseTraceEvent trace(String name) {
+		return Tracing.isEnabled() ? new SyncPhaseTraceEvent(local.getAbsolutePath(), name) : null;
+	}
+	
 	private List<File> getAllFiles(File folder) {
 		List<File> result = new ArrayList<>();
 		for(File file : folder.listFiles()) {
 			if (file.isDirectory()) {
 				result.addAll(getAllFiles(file));
-			} else {
+			} else if (!file.getName().endsWith(DownloadItem.PARTIAL_SUFFIX) &&
+					!file.getName().contains(DownloadItem.JOURNAL_SUFFIX)) {
+				// Partial files of interrupted downloads are skipped
 				result.add(file);
 			}
 		}
@@ -23,6 +23,7 @@
  */
 package cz.zipek.minicloud.sync.events;
 
+import cz.zipek.minicloud.api.Coalescable;
 import cz.zipek.minicloud.api.download.DownloadEvent;
 import cz.zipek.minicloud.sync.SyncEvent;
 
@@ -30,7 +31,7 @@ import cz.zipek.minicloud.sync.SyncEvent;
  *
  * @author Jan Zípek
  */
-public class SyncDownloadEvent extends SyncEvent {
+public class SyncDownloadEvent extends SyncEvent implements Coalescable {
 	private final DownloadEvent event;
 
 	public SyncDownloadEvent(DownloadEvent event) {
@@ -43,4 +44,11 @@ public class SyncDownloadEvent extends SyncEvent {
 	public DownloadEvent getEvent() {
 		return event;
 	}
+
+	@Override
+	public boolean supersedes(Object older) {
+		return older instanceof SyncDownloadEvent
+			&& event instanceof Coalescable
+			&& ((Coalescable)event).supersedes(((SyncDownloadEvent)older).getEvent());
+	}
 }
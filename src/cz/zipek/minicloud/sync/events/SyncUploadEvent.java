@@ -23,6 +23,7 @@
  */
 package cz.zipek.minicloud.sync.events;
 
+import cz.zipek.minicloud.api.Coalescable;
 import cz.zipek.minicloud.api.upload.UploadEvent;
 import cz.zipek.minicloud.sync.SyncEvent;
 
@@ -30,7 +31,7 @@ import cz.zipek.minicloud.sync.SyncEvent;
  *
  * @author Jan Zípek
  */
-public class SyncUploadEvent extends SyncEvent {
+public class SyncUploadEvent extends SyncEvent implements Coalescable {
 	private final UploadEvent event;
 
 	public SyncUploadEvent(UploadEvent event) {
@@ -43,4 +44,11 @@ public class SyncUploadEvent extends SyncEvent {
 	public UploadEvent getEvent() {
 		return event;
 	}
+
+	@Override
+	public boolean supersedes(Object older) {
+		return older instanceof SyncUploadEvent
+			&& event instanceof Coalescable
+			&& ((Coalescable)event).supersedes(((SyncUploadEvent)older).getEvent());
+	}
 }
@@ -0,0 +1,265 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.ErrorEvent;
+import cz.zipek.minicloud.api.events.PathEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks completion, callbacks and cancellation of asynchronous requests.
+ * 
+ * @author Jan Zípek
+ */
+public class ActionFutureTest {
+	
+	/**
+	 * Callback recording results and threads calling it.
+	 */
+	private static class Recorder implements ActionCallback<Object> {
+		final List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+		final CountDownLatch called = new CountDownLatch(1);
+		
+		@Override
+		public void done(Object result) {
+			results.add(result);
+			called.countDown();
+		}
+		
+		@Override
+		public void failed(Exception ex) {
+			failures.add(ex);
+			called.countDown();
+		}
+		
+		/**
+		 * @return callback of future with typed result, recording to this one
+		 */
+		<T> ActionCallback<T> typed() {
+			final Recorder recorder = this;
+			return new ActionCallback<T>() {
+				@Override
+				public void done(T result) {
+					recorder.done(result);
+				}
+				
+				@Override
+				public void failed(Exception ex) {
+					recorder.failed(ex);
+				}
+			};
+		}
+	}
+	
+	private FakeServer server;
+	private External external;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeServer();
+		server.createFile("docs/a.txt", new byte[] { 1 });
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		external.setRetryPolicy(RetryPolicy.none());
+		external.getCircuitBreaker().reset();
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+	}
+	
+	@Test
+	public void testCallbacksBeforeAndAfterCompletion() throws Exception {
+		ActionFuture<Object> future = new ActionFuture<>(external, "a", Event.class);
+		Recorder before = new Recorder();
+		Recorder throwing = new Recorder() {
+			@Override
+			public void done(Object result) {
+				super.done(result);
+				throw new IllegalStateException("Callback failure");
+			}
+		};
+		Recorder next = new Recorder();
+		future.then(before).then(throwing).then(next);
+		assertFalse(future.isDone());
+		
+		assertTrue(future.complete("result"));
+		assertFalse("future completes only once", future.complete("other"));
+		assertFalse(future.fail(new Exception()));
+		
+		assertEquals(Collections.<Object>singletonList("result"), before.results);
+		assertEquals("failing callback doesn't stop others", Collections.<Object>singletonList("result"), next.results);
+		
+		// Late callback is called immediately
+		Recorder after = new Recorder();
+		future.then(after);
+		assertEquals(Collections.<Object>singletonList("result"), after.results);
+		assertEquals(0, after.failures.size());
+		
+		assertTrue(future.isDone());
+		assertFalse(future.isCancelled());
+		assertEquals("result", future.get());
+	}
+	
+	@Test
+	public void testCallbacksAfterFailure() throws Exception {
+		ActionFuture<Object> future = new ActionFuture<>(external, "a", Event.class);
+		Recorder before = new Recorder();
+		future.then(before);
+		
+		Exception reason = new Exception("Failure");
+		assertTrue(future.fail(reason));
+		
+		Recorder after = new Recorder();
+		future.then(after);
+		assertSame(reason, before.failures.get(0));
+		assertSame(reason, after.failures.get(0));
+		assertEquals(0, after.results.size());
+		
+		try {
+			future.get();
+			fail("failure is reported");
+		} catch (ExecutionException ex) {
+			assertSame(reason, ex.getCause());
+		}
+	}
+	
+	@Test
+	public void testResponseCompletesFuture() throws Exception {
+		ActionFuture<PathEvent> future = external.getPathAsync("docs", true);
+		Recorder recorder = new Recorder();
+		future.then(recorder.<PathEvent>typed());
+		
+		PathEvent event = future.get(5, TimeUnit.SECONDS);
+		assertEquals(future.getActionId(), event.getActionId());
+		assertNotNull(event.getPath().getFile("a.txt"));
+		
+		assertTrue(recorder.called.await(5, TimeUnit.SECONDS));
+		assertSame(event, recorder.results.get(0));
+	}
+	
+	@Test
+	public void testErrorResponseFailsFuture() throws Exception {
+		ActionFuture<PathEvent> future = external.getPathAsync("missing", true);
+		Recorder recorder = new Recorder();
+		future.then(recorder.<PathEvent>typed());
+		
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("error response fails future");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RequestFailedException);
+			Event response = ((RequestFailedException)ex.getCause()).getEvent();
+			assertTrue(response instanceof ErrorEvent);
+			assertEquals(future.getActionId(), response.getActionId());
+			assertEquals(((ErrorEvent)response).getMessage(), ex.getCause().getMessage());
+		}
+		
+		assertTrue(recorder.called.await(5, TimeUnit.SECONDS));
+		assertTrue(recorder.failures.get(0) instanceof RequestFailedException);
+	}
+	
+	@Test
+	public void testUnexpectedResponseFailsFuture() throws Exception {
+		ActionFuture<Object> future = new ActionFuture<>(external, "a", PathEvent.class);
+		Event event = new Event(external, new JSONObject(), "a");
+		future.handle(event);
+		
+		try {
+			future.get();
+			fail("unexpected response fails future");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RequestFailedException);
+			assertSame(event, ((RequestFailedException)ex.getCause()).getEvent());
+		}
+	}
+	
+	@Test
+	public void testCancelForgetsRequest() throws Exception {
+		server.setLatency(200);
+		final List<Event> broadcast = Collections.synchronizedList(new ArrayList<Event>());
+		final CountDownLatch arrived = new CountDownLatch(1);
+		external.subscribe(PathEvent.class, new Listener<Event>() {
+			@Override
+			public void handleEvent(Event event, Object sender) {
+				broadcast.add(event);
+				arrived.countDown();
+			}
+		});
+		
+		ActionFuture<PathEvent> future = external.getPathAsync("docs", true);
+		Recorder recorder = new Recorder();
+		future.then(recorder.<PathEvent>typed());
+		
+		assertTrue(future.cancel(true));
+		assertFalse("cancelled only once", future.cancel(true));
+		assertTrue(future.isCancelled());
+		assertTrue(future.isDone());
+		assertTrue(recorder.failures.get(0) instanceof CancellationException);
+		
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("cancelled future has no result");
+		} catch (CancellationException ex) {
+			// Expected
+		}
+		
+		// Response of forgotten request is routed like any other
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+		assertEquals(future.getActionId(), broadcast.get(0).getActionId());
+		assertEquals(1, recorder.failures.size());
+		assertEquals(0, recorder.results.size());
+	}
+	
+	@Test
+	public void testCancelAfterCompletion() throws Exception {
+		ActionFuture<PathEvent> future = external.getPathAsync("docs", true);
+		future.get(5, TimeUnit.SECONDS);
+		
+		assertFalse(future.cancel(true));
+		assertFalse(future.isCancelled());
+		assertNotNull(future.get());
+	}
+	
+	@Test(expected = TimeoutException.class)
+	public void testTimeout() throws Exception {
+		new ActionFuture<>(external, "a", Event.class).get(10, TimeUnit.MILLISECONDS);
+	}
+}
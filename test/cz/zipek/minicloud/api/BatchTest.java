@@ -0,0 +1,158 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.ErrorEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that batched actions are sent together and their responses
+ * are delivered under their own action ids.
+ * 
+ * @author Jan Zípek
+ */
+public class BatchTest {
+	
+	private FakeServer server;
+	private External external;
+	private Path docs;
+	
+	private final Map<String, List<Event>> responses = new ConcurrentHashMap<>();
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeServer();
+		server.createFile("docs/a.txt", new byte[] { 1 });
+		server.createFile("docs/b.txt", new byte[] { 2 });
+		server.createFile("docs/c.txt", new byte[] { 3 });
+		server.createPath("docs/sub");
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		docs = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath();
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+	}
+	
+	@Test
+	public void testResponsesAreDemultiplexedByActionId() throws Exception {
+		Batch batch = external.batch();
+		batch.setMaxDelay(0);
+		
+		Map<String, String> missing = new HashMap<>();
+		missing.put("action_id", external.nextActionId());
+		missing.put("id", "999");
+		missing.put("path", "nowhere");
+		
+		List<String> ids = new ArrayList<>();
+		ids.add(batch.moveFile(docs.getFile("a.txt"), "moved"));
+		ids.add(batch.deleteFiles(Arrays.asList(docs.getFile("b.txt"))));
+		ids.add(batch.deletePath(docs.getChild("sub")));
+		batch.add("set_path", missing);
+		ids.add(missing.get("action_id"));
+		
+		CountDownLatch done = collect(ids);
+		long before = server.getRequestCount();
+		batch.flush();
+		assertTrue("all responses arrived", done.await(5, TimeUnit.SECONDS));
+		
+		assertEquals("single request sent", before + 1, server.getRequestCount());
+		for (String id : ids) {
+			assertEquals("responses of " + id, 1, responses.get(id).size());
+		}
+		for (int i = 0; i < 3; i++) {
+			assertFalse(responses.get(ids.get(i)).get(0) instanceof ErrorEvent);
+		}
+		assertTrue(responses.get(missing.get("action_id")).get(0) instanceof ErrorEvent);
+		
+		assertTrue(server.findFile("moved/a.txt") > 0);
+		assertEquals(-1, server.findFile("docs/b.txt"));
+		assertTrue(server.findFile("docs/c.txt") > 0);
+	}
+	
+	@Test
+	public void testBatchIsSentWhenFull() throws Exception {
+		Batch batch = external.batch();
+		batch.setMaxDelay(0);
+		batch.setMaxSize(2);
+		
+		List<String> ids = new ArrayList<>();
+		ids.add(batch.moveFile(docs.getFile("a.txt"), "moved"));
+		CountDownLatch done = collect(ids);
+		
+		// Second action fills the batch, nothing flushes it explicitly
+		batch.moveFile(docs.getFile("b.txt"), "moved");
+		
+		assertTrue("full batch was sent", done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, batch.size());
+	}
+	
+	@Test
+	public void testBatchIsSentAfterDelay() throws Exception {
+		Batch batch = external.batch();
+		batch.setMaxDelay(20);
+		
+		List<String> ids = new ArrayList<>();
+		ids.add(batch.moveFile(docs.getFile("c.txt"), "moved"));
+		CountDownLatch done = collect(ids);
+		
+		assertTrue("delayed batch was sent", done.await(5, TimeUnit.SECONDS));
+		assertTrue(server.findFile("moved/c.txt") > 0);
+	}
+	
+	/**
+	 * Subscribes to responses of specified actions.
+	 * 
+	 * @return latch released once every action got response
+	 */
+	private CountDownLatch collect(List<String> ids) {
+		final CountDownLatch done = new CountDownLatch(ids.size());
+		for (final String id : ids) {
+			responses.put(id, new ArrayList<Event>());
+			external.subscribe(id, new Listener<Event>() {
+				@Override
+				public void handleEvent(Event event, Object sender) {
+					responses.get(id).add(event);
+					done.countDown();
+				}
+			});
+		}
+		return done;
+	}
+}
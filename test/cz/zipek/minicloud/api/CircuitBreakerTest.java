@@ -0,0 +1,191 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that breaker opens on failures and always gets back to closed
+ * state once server works again.
+ * 
+ * @author Jan Zípek
+ */
+public class CircuitBreakerTest {
+	
+	private enum Mode {
+		UP, DOWN, BROKEN
+	}
+	
+	/**
+	 * Fake server that can be made unreachable.
+	 */
+	private static class FailingTransport implements Transport {
+		private final FakeServer server = new FakeServer();
+		private final AtomicInteger opened = new AtomicInteger();
+		private volatile Mode mode = Mode.UP;
+		
+		@Override
+		public HttpURLConnection open(String url, String auth) throws IOException {
+			opened.incrementAndGet();
+			switch (mode) {
+				case DOWN:
+					throw new ConnectException("Connection refused");
+				case BROKEN:
+					throw new IllegalStateException("Transport is broken");
+				default:
+					return server.open(url, auth);
+			}
+		}
+		
+		@Override
+		public void release(HttpURLConnection conn) {
+			server.release(conn);
+		}
+		
+		@Override
+		public void release(InputStream stream) {
+			server.release(stream);
+		}
+	}
+	
+	private static final long OPEN_TIME = 100;
+	
+	private FailingTransport transport;
+	private External external;
+	private CircuitBreaker breaker;
+	
+	@Before
+	public void setUp() {
+		transport = new FailingTransport();
+		external = new External(FakeServer.URL);
+		external.setTransport(transport);
+		external.setRetryPolicy(RetryPolicy.none());
+		
+		breaker = external.getCircuitBreaker();
+		breaker.reset();
+		breaker.setFailureThreshold(2);
+		breaker.setOpenTime(OPEN_TIME);
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+		breaker.reset();
+		breaker.setFailureThreshold(5);
+		breaker.setOpenTime(30000);
+	}
+	
+	@Test
+	public void testOpensAndRecovers() throws Exception {
+		open();
+		
+		// Open breaker doesn't touch the server at all
+		int opened = transport.opened.get();
+		assertFalse(request());
+		assertEquals(opened, transport.opened.get());
+		
+		transport.mode = Mode.UP;
+		Thread.sleep(OPEN_TIME + 20);
+		assertTrue(request());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testFailedTrialOpensAgain() throws Exception {
+		open();
+		
+		Thread.sleep(OPEN_TIME + 20);
+		assertFalse(request());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		
+		transport.mode = Mode.UP;
+		assertFalse("breaker is open again", request());
+	}
+	
+	@Test
+	public void testUncheckedFailureOfTrialReleasesBreaker() throws Exception {
+		open();
+		
+		transport.mode = Mode.BROKEN;
+		Thread.sleep(OPEN_TIME + 20);
+		assertFalse(request());
+		assertFalse(breaker.getState() == CircuitBreaker.State.HALF_OPEN);
+		
+		// Next request becomes the trial at once
+		transport.mode = Mode.UP;
+		assertTrue(request());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void testLostTrialIsReplaced() throws Exception {
+		CircuitBreaker lonely = new CircuitBreaker();
+		lonely.setFailureThreshold(1);
+		lonely.setOpenTime(OPEN_TIME);
+		lonely.recordFailure();
+		
+		Thread.sleep(OPEN_TIME + 20);
+		assertTrue("trial", lonely.allowRequest());
+		assertFalse("trial is running", lonely.allowRequest());
+		
+		// Trial never reported its result
+		Thread.sleep(OPEN_TIME + 20);
+		assertTrue("replacement trial", lonely.allowRequest());
+		lonely.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, lonely.getState());
+	}
+	
+	/**
+	 * Makes server unreachable until breaker opens.
+	 */
+	private void open() throws Exception {
+		transport.mode = Mode.DOWN;
+		assertFalse(request());
+		assertFalse(request());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+	
+	/**
+	 * @return true when request succeeded
+	 */
+	private boolean request() throws Exception {
+		try {
+			external.getServerInfoAsync().get(5, TimeUnit.SECONDS);
+			return true;
+		} catch (ExecutionException ex) {
+			return false;
+		}
+	}
+}
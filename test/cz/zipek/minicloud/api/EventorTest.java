@@ -0,0 +1,425 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks delivery of events by emittor in synchronous and asynchronous mode
+ * and registration of listeners while events are being emitted.
+ * 
+ * @author Jan Zípek
+ */
+public class EventorTest {
+	
+	/**
+	 * Emittor whose events are fired by test.
+	 */
+	private static class TestEventor extends Eventor<Object> {
+		void emit(Object event) {
+			fireEvent(event);
+		}
+	}
+	
+	/**
+	 * Listener recording received events and threads delivering them.
+	 */
+	private static class Recorder implements Listener<Object> {
+		final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		
+		@Override
+		public void handleEvent(Object event, Object sender) {
+			threads.add(Thread.currentThread());
+			events.add(event);
+		}
+		
+		void await(int count) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (events.size() < count && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(count, events.size());
+		}
+	}
+	
+	@Test
+	public void testSynchronousDelivery() {
+		TestEventor eventor = new TestEventor();
+		Recorder recorder = new Recorder();
+		eventor.addListener(recorder);
+		
+		eventor.emit(1);
+		assertEquals(1, recorder.events.size());
+		assertSame(Thread.currentThread(), recorder.threads.get(0));
+	}
+	
+	@Test
+	public void testAsyncKeepsOrderPerListener() throws Exception {
+		TestEventor eventor = new TestEventor();
+		eventor.setAsync(16, Overflow.BLOCK);
+		
+		Recorder fast = new Recorder();
+		Recorder slow = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				if ((Integer)event % 50 == 0) {
+					try {
+						Thread.sleep(2);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				super.handleEvent(event, sender);
+			}
+		};
+		eventor.addListener(fast);
+		eventor.addListener(slow);
+		
+		for (int i = 0; i < 500; i++) {
+			eventor.emit(i);
+		}
+		
+		fast.await(500);
+		slow.await(500);
+		assertEquals(range(0, 500), fast.events);
+		assertEquals(range(0, 500), slow.events);
+		assertFalse(fast.threads.contains(Thread.currentThread()));
+	}
+	
+	@Test
+	public void testSlowListenerDoesNotBlockEmitter() throws Exception {
+		TestEventor eventor = new TestEventor();
+		eventor.setAsync(4, Overflow.DROP_OLDEST);
+		
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Recorder blocked = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				entered.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				super.handleEvent(event, sender);
+			}
+		};
+		Recorder fast = new Recorder();
+		eventor.addListener(blocked);
+		eventor.addListener(fast);
+		
+		eventor.emit(0);
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		
+		// Emitter isn't held by blocked listener, other listener keeps up
+		for (int i = 1; i < 100; i++) {
+			eventor.emit(i);
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!fast.events.contains(99) && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(fast.events.contains(99));
+		assertEquals(0, blocked.events.size());
+		release.countDown();
+		
+		// First event was already being delivered, only the newest waited
+		blocked.await(5);
+		assertEquals(0, blocked.events.get(0));
+		assertEquals(range(96, 100), blocked.events.subList(1, 5));
+	}
+	
+	@Test
+	public void testSwitchToSynchronousKeepsQueuedEvents() throws Exception {
+		TestEventor eventor = new TestEventor();
+		eventor.setAsync(100, Overflow.BLOCK);
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		Recorder recorder = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				super.handleEvent(event, sender);
+			}
+		};
+		eventor.addListener(recorder);
+		
+		for (int i = 0; i < 10; i++) {
+			eventor.emit(i);
+		}
+		
+		eventor.setSynchronous();
+		assertFalse(eventor.isAsync());
+		
+		// Queue isn't empty, new events have to wait behind queued ones
+		for (int i = 10; i < 20; i++) {
+			eventor.emit(i);
+		}
+		assertFalse(recorder.threads.contains(Thread.currentThread()));
+		
+		release.countDown();
+		recorder.await(20);
+		assertEquals(range(0, 20), recorder.events);
+		
+		// Once queue is drained, events are delivered directly again
+		Thread.sleep(50);
+		eventor.emit(20);
+		assertEquals(21, recorder.events.size());
+		assertSame(Thread.currentThread(), recorder.threads.get(20));
+		
+		// Switching back to asynchronous mode creates new queue
+		eventor.setAsync(100, Overflow.BLOCK);
+		eventor.emit(21);
+		recorder.await(22);
+		assertEquals(range(0, 22), recorder.events);
+		assertFalse(Thread.currentThread() == recorder.threads.get(21));
+	}
+	
+	@Test
+	public void testRemovedListenerDoesNotGetQueuedEvents() throws Exception {
+		TestEventor eventor = new TestEventor();
+		eventor.setAsync(100, Overflow.BLOCK);
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		Recorder recorder = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				super.handleEvent(event, sender);
+			}
+		};
+		eventor.addListener(recorder);
+		
+		for (int i = 0; i < 10; i++) {
+			eventor.emit(i);
+		}
+		eventor.removeListener(recorder);
+		release.countDown();
+		
+		Thread.sleep(100);
+		assertTrue("at most event being delivered", recorder.events.size() <= 1);
+	}
+	
+	@Test
+	public void testListenerRemovingItself() {
+		final TestEventor eventor = new TestEventor();
+		Recorder self = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				super.handleEvent(event, sender);
+				eventor.removeListener(this);
+			}
+		};
+		Recorder later = new Recorder() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				super.handleEvent(event, sender);
+				eventor.removeListenerLater(this);
+			}
+		};
+		Recorder other = new Recorder();
+		eventor.addListener(self);
+		eventor.addListener(later);
+		eventor.addListener(other);
+		
+		eventor.emit(1);
+		eventor.emit(2);
+		
+		assertEquals(range(1, 2), self.events);
+		assertEquals(range(1, 2), later.events);
+		assertEquals("listener after removed ones isn't skipped", range(1, 3), other.events);
+	}
+	
+	@Test
+	public void testAddDuringDispatch() {
+		final TestEventor eventor = new TestEventor();
+		final Recorder added = new Recorder();
+		final Recorder addedLater = new Recorder();
+		eventor.addListener(new Listener<Object>() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				if (event.equals(1)) {
+					eventor.addListener(added);
+					eventor.addListenerLater(addedLater);
+				}
+			}
+		});
+		
+		eventor.emit(1);
+		assertEquals("event being emitted isn't delivered to new listener", 0, added.events.size());
+		assertEquals(0, addedLater.events.size());
+		
+		eventor.emit(2);
+		assertEquals(range(2, 3), added.events);
+		assertEquals(range(2, 3), addedLater.events);
+	}
+	
+	@Test
+	public void testRemoveFromOtherThreadDuringDispatch() throws Exception {
+		final TestEventor eventor = new TestEventor();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		eventor.addListener(new Listener<Object>() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				if (event.equals(1)) {
+					entered.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+		final Recorder removed = new Recorder();
+		eventor.addListener(removed);
+		
+		Thread emitter = new Thread() {
+			@Override
+			public void run() {
+				eventor.emit(1);
+			}
+		};
+		emitter.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		
+		// Doesn't wait for running dispatch
+		eventor.removeListener(removed);
+		release.countDown();
+		emitter.join(5000);
+		
+		eventor.emit(2);
+		assertEquals("emitted event still reaches removed listener", range(1, 2), removed.events);
+	}
+	
+	@Test
+	public void testConcurrentRegistration() throws Exception {
+		final TestEventor eventor = new TestEventor();
+		final int threads = 8;
+		final int count = 100;
+		final List<Recorder> recorders = Collections.synchronizedList(new ArrayList<Recorder>());
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		
+		// Emitting thread keeps iterating snapshots while registry changes
+		Thread emitter = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					eventor.emit(0);
+				}
+			}
+		};
+		emitter.start();
+		
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final boolean later = t % 2 == 0;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					for (int i = 0; i < count; i++) {
+						Recorder recorder = new Recorder();
+						recorders.add(recorder);
+						if (later) {
+							eventor.addListenerLater(recorder);
+						} else {
+							eventor.addListener(recorder);
+						}
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join(5000);
+		}
+		running.set(false);
+		emitter.join(5000);
+		
+		assertEquals(threads * count, recorders.size());
+		eventor.emit(1);
+		for (Recorder recorder : recorders) {
+			assertTrue(recorder.events.contains(1));
+			assertEquals(recorder.events.indexOf(1), recorder.events.size() - 1);
+		}
+		
+		// Concurrent removal leaves nobody registered
+		workers.clear();
+		for (int t = 0; t < threads; t++) {
+			final List<Recorder> part = new ArrayList<>(recorders.subList(t * count, (t + 1) * count));
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					for (Recorder recorder : part) {
+						eventor.removeListener(recorder);
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join(5000);
+		}
+		
+		eventor.emit(2);
+		for (Recorder recorder : recorders) {
+			assertFalse(recorder.events.contains(2));
+		}
+	}
+	
+	private static List<Object> range(int from, int to) {
+		List<Object> values = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+}
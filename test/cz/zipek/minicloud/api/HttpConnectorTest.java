@@ -0,0 +1,128 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that connections are kept alive and reused.
+ * 
+ * @author Jan Zípek
+ */
+public class HttpConnectorTest {
+	
+	private HttpServer server;
+	private final Set<Integer> ports = Collections.synchronizedSet(new HashSet<Integer>());
+	
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/api.php", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				ports.add(exchange.getRemoteAddress().getPort());
+				
+				String body = URLDecoder.decode(read(exchange.getRequestBody()), "UTF-8");
+				Matcher id = Pattern.compile("(?:^|&)action_id=([^&]*)").matcher(body);
+				String response = "{\"type\":\"server\",\"action_id\":\"" + (id.find() ? id.group(1) : "") + "\",\"data\":" +
+					"{\"name\":\"Local\",\"description\":\"\",\"nice_url\":false,\"time\":0,\"version\":\"1.1\"}}";
+				
+				byte[] data = response.getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, data.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(data);
+				}
+			}
+		});
+		server.start();
+	}
+	
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+	
+	@Test
+	public void testSequentialRequestsShareConnection() throws Exception {
+		External external = new External("http://127.0.0.1:" + server.getAddress().getPort());
+		try {
+			for (int i = 0; i < 20; i++) {
+				assertEquals("Local", external.getServerInfoAsync().get(5, TimeUnit.SECONDS).getName());
+			}
+		} finally {
+			external.shutdown();
+		}
+		
+		assertEquals("connections used", 1, ports.size());
+	}
+	
+	@Test
+	public void testReleasedUnreadResponseKeepsConnection() throws Exception {
+		HttpConnector connector = new HttpConnector();
+		String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api.php";
+		
+		for (int i = 0; i < 5; i++) {
+			HttpURLConnection conn = connector.open(url, "auth");
+			conn.setDoOutput(true);
+			try (OutputStream out = conn.getOutputStream()) {
+				out.write(("action=get_server_info&action_id=" + i).getBytes("UTF-8"));
+			}
+			assertEquals(200, conn.getResponseCode());
+			
+			// Response isn't read at all, release has to skip it
+			connector.release(conn);
+		}
+		
+		assertEquals("connections used", 1, ports.size());
+	}
+	
+	private static String read(InputStream input) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
+}
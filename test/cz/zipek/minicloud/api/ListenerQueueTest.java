@@ -0,0 +1,275 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.download.events.DownloadProgressEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks ordering, overflow policies and scheduling of listener queue.
+ * Queue tasks are run by hand, so every step can be observed.
+ * 
+ * @author Jan Zípek
+ */
+public class ListenerQueueTest {
+	
+	/**
+	 * Executor keeping tasks until they are run by test.
+	 */
+	private static class ManualExecutor implements Executor {
+		private final LinkedList<Runnable> tasks = new LinkedList<>();
+		
+		@Override
+		public synchronized void execute(Runnable command) {
+			tasks.add(command);
+		}
+		
+		synchronized int size() {
+			return tasks.size();
+		}
+		
+		/**
+		 * @return false when there was no task to run
+		 */
+		boolean runNext() {
+			Runnable task;
+			synchronized (this) {
+				task = tasks.poll();
+			}
+			if (task == null) {
+				return false;
+			}
+			task.run();
+			return true;
+		}
+	}
+	
+	private ManualExecutor executor;
+	private final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+	private final Listener<Object> listener = new Listener<Object>() {
+		@Override
+		public void handleEvent(Object event, Object sender) {
+			received.add(event);
+		}
+	};
+	
+	@Before
+	public void setUp() {
+		executor = new ManualExecutor();
+		received.clear();
+	}
+	
+	@Test
+	public void testEventsAreDeliveredInOrder() {
+		ListenerQueue queue = queue(1000, Overflow.BLOCK);
+		for (int i = 0; i < 100; i++) {
+			queue.offer(i);
+		}
+		
+		assertEquals("scheduled once", 1, executor.size());
+		while (executor.runNext()) {
+			// Run until queue is idle
+		}
+		
+		assertEquals(range(0, 100), received);
+	}
+	
+	@Test
+	public void testBatchYieldsThread() {
+		ListenerQueue queue = queue(1000, Overflow.BLOCK);
+		for (int i = 0; i < 150; i++) {
+			queue.offer(i);
+		}
+		
+		executor.runNext();
+		assertEquals(64, received.size());
+		assertEquals("rescheduled after full batch", 1, executor.size());
+		
+		executor.runNext();
+		assertEquals(128, received.size());
+		assertEquals(1, executor.size());
+		
+		executor.runNext();
+		assertEquals(150, received.size());
+		assertEquals("idle queue isn't scheduled", 0, executor.size());
+		
+		queue.offer(150);
+		assertEquals("new event schedules queue again", 1, executor.size());
+		executor.runNext();
+		assertEquals(range(0, 151), received);
+	}
+	
+	@Test
+	public void testDropOldest() {
+		ListenerQueue queue = queue(3, Overflow.DROP_OLDEST);
+		for (int i = 0; i < 5; i++) {
+			queue.offer(i);
+		}
+		
+		executor.runNext();
+		assertEquals(Arrays.<Object>asList(2, 3, 4), received);
+	}
+	
+	@Test
+	public void testCoalesce() throws Exception {
+		File a = file(1);
+		File b = file(2);
+		
+		ListenerQueue queue = queue(10, Overflow.COALESCE);
+		queue.offer(new DownloadProgressEvent(a, "a", 1, 10));
+		queue.offer(new DownloadProgressEvent(b, "b", 1, 10));
+		queue.offer("other");
+		queue.offer(new DownloadProgressEvent(a, "a", 5, 10));
+		queue.offer(new DownloadProgressEvent(b, "b", 7, 10));
+		queue.offer(new DownloadProgressEvent(a, "a", 9, 10));
+		
+		executor.runNext();
+		assertEquals(3, received.size());
+		
+		// Superseded events are replaced in place, so order is kept
+		assertSame(a, ((DownloadProgressEvent)received.get(0)).getFile());
+		assertEquals(9, ((DownloadProgressEvent)received.get(0)).getDownloaded());
+		assertSame(b, ((DownloadProgressEvent)received.get(1)).getFile());
+		assertEquals(7, ((DownloadProgressEvent)received.get(1)).getDownloaded());
+		assertEquals("other", received.get(2));
+	}
+	
+	@Test
+	public void testCoalesceDoesNotReplaceDelivered() throws Exception {
+		File a = file(1);
+		
+		ListenerQueue queue = queue(10, Overflow.COALESCE);
+		queue.offer(new DownloadProgressEvent(a, "a", 1, 10));
+		executor.runNext();
+		queue.offer(new DownloadProgressEvent(a, "a", 2, 10));
+		executor.runNext();
+		
+		assertEquals(2, received.size());
+		assertEquals(2, ((DownloadProgressEvent)received.get(1)).getDownloaded());
+	}
+	
+	@Test
+	public void testBlockWaitsForListener() throws Exception {
+		final ListenerQueue queue = queue(2, Overflow.BLOCK);
+		Thread emitter = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 5; i++) {
+					queue.offer(i);
+				}
+			}
+		};
+		emitter.start();
+		
+		waitForState(emitter, Thread.State.WAITING);
+		assertEquals("nothing delivered yet", 0, received.size());
+		
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((emitter.isAlive() || executor.size() > 0) && System.nanoTime() < deadline) {
+			if (!executor.runNext()) {
+				Thread.sleep(1);
+			}
+		}
+		
+		assertFalse(emitter.isAlive());
+		assertEquals(range(0, 5), received);
+	}
+	
+	@Test
+	public void testCloseReleasesBlockedEmitter() throws Exception {
+		final ListenerQueue queue = queue(1, Overflow.BLOCK);
+		queue.offer(0);
+		Thread emitter = new Thread() {
+			@Override
+			public void run() {
+				queue.offer(1);
+			}
+		};
+		emitter.start();
+		
+		waitForState(emitter, Thread.State.WAITING);
+		queue.close();
+		emitter.join(5000);
+		
+		assertFalse(emitter.isAlive());
+		assertTrue(queue.isClosed());
+		while (executor.runNext()) {
+			// Closed queue has nothing to deliver
+		}
+		assertEquals(0, received.size());
+	}
+	
+	@Test
+	public void testConfigureKeepsWaitingEvents() {
+		ListenerQueue queue = queue(4, Overflow.DROP_OLDEST);
+		for (int i = 0; i < 4; i++) {
+			queue.offer(i);
+		}
+		
+		queue.configure(8, Overflow.DROP_OLDEST);
+		for (int i = 4; i < 8; i++) {
+			queue.offer(i);
+		}
+		
+		// Smaller capacity than number of waiting events
+		queue.configure(2, Overflow.BLOCK);
+		
+		executor.runNext();
+		assertEquals(range(0, 8), received);
+	}
+	
+	private ListenerQueue queue(int capacity, Overflow overflow) {
+		return new ListenerQueue(this, listener, capacity, overflow, executor);
+	}
+	
+	private static File file(int id) throws Exception {
+		return new File(null, new JSONObject("{\"id\":" + id + ",\"size\":10,\"filename\":\"f" + id + "\",\"mktime\":0,\"versions\":[]}"));
+	}
+	
+	private static List<Object> range(int from, int to) {
+		List<Object> values = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+	
+	private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (thread.getState() != state && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(state, thread.getState());
+	}
+}
@@ -0,0 +1,230 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.json.JsonReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that compact listing describes the same tree as decoded paths,
+ * no matter if it's read from stream or converted from path.
+ * 
+ * @author Jan Zípek
+ */
+public class ListingTest {
+	
+	private static final String LOWER = "5d41402abc4b2a76b9719d911017c592";
+	private static final String UPPER = "7D793037A0760186574B0282F2F435E7";
+	
+	///@var TREE root with files, children in non alphabetical order and nested paths
+	private static final String TREE = "{\"id\":1,\"parent_id\":-1,\"path\":\"\",\"checksum\":\"r\",\"mktime\":1400000000,\"mdtime\":1400000100,"
+		+ "\"files\":["
+		+ file(10, "", "z.txt", 5, LOWER, 2) + ","
+		+ file(11, "", "a.bin", 7, UPPER, 1)
+		+ "],\"paths\":["
+		+ "{\"id\":3,\"parent_id\":1,\"path\":\"zeta\",\"checksum\":\"c3\",\"mktime\":1400000200,\"mdtime\":0,"
+		+ "\"files\":[" + file(12, "zeta", "one", 1, "sha256:abcd", 1) + "," + file(13, "zeta", "two.tar.gz", 2, null, -1) + "],"
+		+ "\"paths\":[{\"id\":5,\"parent_id\":3,\"path\":\"zeta/deep\",\"checksum\":\"c5\",\"mktime\":0,\"mdtime\":0,"
+		+ "\"files\":[" + file(14, "zeta/deep", "x", 3, "0123456789abcdef0123456789ABCDEF", 4) + "],\"paths\":[]}]},"
+		+ "{\"id\":2,\"parent_id\":1,\"path\":\"alpha\",\"checksum\":\"c2\",\"mktime\":1400000300,\"mdtime\":1400000400,"
+		+ "\"files\":[],\"paths\":[]},"
+		+ "{\"id\":4,\"parent_id\":1,\"path\":\"mid\",\"checksum\":\"c4\",\"mktime\":1,\"mdtime\":2,"
+		+ "\"files\":[" + file(15, "mid", "m", 0, "", 1) + "],\"paths\":[]}"
+		+ "]}";
+	
+	private Path baseline;
+	private Listing streamed;
+	private Listing converted;
+	
+	private static String file(int id, String path, String name, long size, String checksum, int version) {
+		return "{\"id\":" + id + ",\"filename\":\"" + name + "\",\"path\":\"" + path + "\",\"size\":" + size
+			+ (checksum != null ? ",\"checksum\":\"" + checksum + "\"" : "")
+			+ ",\"encryption\":\"\",\"mktime\":" + (1400000000 + id) + ",\"public\":" + (id % 2)
+			+ ",\"version\":" + version + ",\"versions\":["
+			+ (version >= 0 ? "{\"version\":" + version + ",\"created\":" + (1400000000 + id) + "}" : "")
+			+ "]}";
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		baseline = new Path(null, new JSONObject(TREE));
+		streamed = Listing.read(null, new JsonReader(new StringReader(TREE)));
+		converted = Listing.of(baseline);
+	}
+	
+	@Test
+	public void testCounts() {
+		for (Listing listing : Arrays.asList(streamed, converted)) {
+			assertEquals(5, listing.getPathCount());
+			assertEquals(6, listing.getFileCount());
+			assertEquals(6, listing.getAllFiles().size());
+		}
+	}
+	
+	@Test
+	public void testChildOrder() {
+		for (Listing listing : Arrays.asList(streamed, converted)) {
+			List<Listing.PathView> children = listing.getRoot().getPaths();
+			assertEquals(3, children.size());
+			assertEquals("zeta", children.get(0).getPath());
+			assertEquals("alpha", children.get(1).getPath());
+			assertEquals("mid", children.get(2).getPath());
+			
+			List<Listing.PathView> deep = children.get(0).getPaths();
+			assertEquals(1, deep.size());
+			assertEquals("zeta/deep", deep.get(0).getPath());
+			assertEquals("deep", deep.get(0).getName());
+			assertEquals(0, deep.get(0).getPaths().size());
+			assertEquals(3, deep.get(0).getParent());
+		}
+	}
+	
+	@Test
+	public void testFileRanges() {
+		for (Listing listing : Arrays.asList(streamed, converted)) {
+			assertNames(listing.getRoot().getFiles(), "z.txt", "a.bin");
+			
+			List<Listing.PathView> children = listing.getRoot().getPaths();
+			assertNames(children.get(0).getFiles(), "one", "two.tar.gz");
+			assertNames(children.get(0).getPaths().get(0).getFiles(), "x");
+			assertNames(children.get(1).getFiles());
+			assertNames(children.get(2).getFiles(), "m");
+			
+			for (Listing.FileView file : listing.getAllFiles()) {
+				assertNull(file.getSource());
+				assertEquals(file.getFolderPath(), file.getParent().getPath());
+			}
+			
+			assertEquals("/zeta/deep/x", listing.getFile(4).getPath());
+			assertEquals("/z.txt", listing.getFile(0).getPath());
+			assertEquals("gz", listing.getFile(3).getExtension());
+		}
+	}
+	
+	@Test
+	public void testChecksumText() {
+		for (Listing listing : Arrays.asList(streamed, converted)) {
+			assertEquals(LOWER, listing.getFile(0).getChecksum());
+			assertNotNull(listing.getFile(0).getChecksumBytes());
+			assertEquals(LOWER, Tools.getHexString(listing.getFile(0).getChecksumBytes()));
+			assertTrue(listing.getFile(0).checksumEquals(listing.getFile(0).getChecksumBytes()));
+			
+			// Upper case and mixed case are kept as text, exactly as sent
+			assertEquals(UPPER, listing.getFile(1).getChecksum());
+			assertNull(listing.getFile(1).getChecksumBytes());
+			assertEquals("0123456789abcdef0123456789ABCDEF", listing.getFile(4).getChecksum());
+			
+			assertEquals("sha256:abcd", listing.getFile(2).getChecksum());
+			assertNull(listing.getFile(2).getChecksumBytes());
+			assertFalse(listing.getFile(2).checksumEquals(new byte[16]));
+			
+			assertNull(listing.getFile(3).getChecksum());
+			assertEquals("", listing.getFile(5).getChecksum());
+		}
+	}
+	
+	@Test
+	public void testToPathRoundTrip() throws Exception {
+		assertSamePath(baseline, streamed.getRoot().toPath());
+		assertSamePath(baseline, converted.getRoot().toPath());
+		assertSamePath(baseline.getPaths().get(0), streamed.getRoot().getPaths().get(0).toPath());
+	}
+	
+	@Test
+	public void testToFileRoundTrip() {
+		List<File> files = baseline.getAllFiles();
+		for (Listing listing : Arrays.asList(streamed, converted)) {
+			for (File expected : files) {
+				Listing.FileView view = find(listing, expected.getId());
+				File actual = view.toFile();
+				assertSameFile(expected, actual);
+				assertEquals(expected.getPath(), actual.getPath());
+				if (!expected.getFolderPath().isEmpty()) {
+					assertEquals(expected.getPath(), view.getPath());
+				}
+			}
+		}
+	}
+	
+	private static Listing.FileView find(Listing listing, int id) {
+		for (Listing.FileView file : listing.getAllFiles()) {
+			if (file.getId() == id) {
+				return file;
+			}
+		}
+		fail("File " + id + " not listed");
+		return null;
+	}
+	
+	private static void assertNames(List<Listing.FileView> files, String... names) {
+		assertEquals(names.length, files.size());
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(names[i], files.get(i).getName());
+		}
+	}
+	
+	private static void assertSamePath(Path expected, Path actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getParent(), actual.getParent());
+		assertEquals(expected.getPath(), actual.getPath());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getChecksum(), actual.getChecksum());
+		assertEquals(expected.getMktime(), actual.getMktime());
+		assertEquals(expected.getMdtime(), actual.getMdtime());
+		
+		assertEquals(expected.getFiles().size(), actual.getFiles().size());
+		for (int i = 0; i < expected.getFiles().size(); i++) {
+			assertSameFile(expected.getFiles().get(i), actual.getFiles().get(i));
+		}
+		
+		assertEquals(expected.getPaths().size(), actual.getPaths().size());
+		for (int i = 0; i < expected.getPaths().size(); i++) {
+			assertSamePath(expected.getPaths().get(i), actual.getPaths().get(i));
+		}
+	}
+	
+	private static void assertSameFile(File expected, File actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getFolderPath(), actual.getFolderPath());
+		assertEquals(expected.getSize(), actual.getSize());
+		assertEquals(expected.getChecksum(), actual.getChecksum());
+		assertEquals(expected.getEncryption(), actual.getEncryption());
+		assertEquals(expected.getMktime(), actual.getMktime());
+		assertEquals(expected.isPublic(), actual.isPublic());
+		assertEquals(expected.getExtension(), actual.getExtension());
+		if (expected.getVersion() == null) {
+			assertNull(actual.getVersion());
+		} else {
+			assertEquals(expected.getVersion().getId(), actual.getVersion().getId());
+			assertEquals(expected.getVersion().getCreated(), actual.getVersion().getCreated());
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.PathEvent;
+import cz.zipek.minicloud.api.events.SuccessEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import cz.zipek.minicloud.api.upload.UploadEvent;
+import cz.zipek.minicloud.api.upload.Uploader;
+import cz.zipek.minicloud.api.upload.events.UploadAllDoneEvent;
+import cz.zipek.minicloud.api.upload.events.UploadFailedEvent;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that path listings are reused only while they are up to date
+ * and that cached trees are never shared with callers.
+ * 
+ * @author Jan Zípek
+ */
+public class MetadataCacheTest {
+	
+	/**
+	 * Transport holding next request until it's released.
+	 */
+	private static class GatedTransport implements Transport {
+		private final FakeServer server;
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+		
+		GatedTransport(FakeServer server) {
+			this.server = server;
+		}
+		
+		@Override
+		public HttpURLConnection open(String url, String auth) throws IOException {
+			if (closed.compareAndSet(true, false)) {
+				entered.countDown();
+				try {
+					released.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return server.open(url, auth);
+		}
+		
+		@Override
+		public void release(HttpURLConnection conn) {
+			server.release(conn);
+		}
+		
+		@Override
+		public void release(InputStream stream) {
+			server.release(stream);
+		}
+	}
+	
+	private FakeServer server;
+	private MetadataCache cache;
+	private External external;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeServer();
+		server.createFile("docs/a.txt", new byte[] { 1 });
+		server.createFile("docs/b.txt", new byte[] { 2 });
+		server.createFile("docs/sub/c.txt", new byte[] { 3 });
+		server.createPath("docs/empty");
+		
+		cache = new MetadataCache(16);
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		external.setRetryPolicy(RetryPolicy.none());
+		external.setMetadataCache(cache);
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+	}
+	
+	@Test
+	public void testMissThenHit() throws Exception {
+		long before = server.getRequestCount();
+		Path first = docs();
+		assertEquals("miss fetches listing only", before + 1, server.getRequestCount());
+		assertEquals(1, cache.size());
+		
+		Path second = docs();
+		assertEquals("hit only revalidates", before + 2, server.getRequestCount());
+		assertEquals(1, cache.getHits());
+		assertNotSame(first, second);
+		assertEquals(names(first), names(second));
+		assertNotNull(second.getChild("sub").getFile("c.txt"));
+	}
+	
+	@Test
+	public void testDeliveredTreesAreIndependent() throws Exception {
+		Path first = docs();
+		first.getFile("a.txt").setName("renamed");
+		first.getFiles().remove(first.getFile("b.txt"));
+		first.getPaths().clear();
+		
+		Path second = docs();
+		assertEquals("[a.txt, b.txt]", names(second));
+		assertEquals(2, second.getPaths().size());
+		second.getChild("sub").getFiles().clear();
+		
+		Path third = docs();
+		assertEquals("[a.txt, b.txt]", names(third));
+		File c = third.getChild("sub").getFile("c.txt");
+		assertNotNull(c);
+		assertSame(third.getChild("sub"), c.getParent());
+		assertSame(c, c.getVersion().getFile());
+	}
+	
+	@Test
+	public void testRevalidationMismatch() throws Exception {
+		docs();
+		
+		// Changed behind the back of client, only checksum tells
+		server.createFile("docs/new.txt", new byte[] { 4 });
+		
+		long before = server.getRequestCount();
+		Path changed = docs();
+		assertEquals("revalidation and new listing", before + 2, server.getRequestCount());
+		assertNotNull(changed.getFile("new.txt"));
+		
+		before = server.getRequestCount();
+		assertNotNull(docs().getFile("new.txt"));
+		assertEquals("new listing was cached", before + 1, server.getRequestCount());
+	}
+	
+	@Test
+	public void testInvalidatedByMove() throws Exception {
+		Path docs = docs();
+		success(external.moveFileAsync(docs.getFile("a.txt"), "docs/sub"));
+		assertEquals(0, cache.size());
+		assertEquals("[b.txt]", names(docs()));
+	}
+	
+	@Test
+	public void testInvalidatedByDelete() throws Exception {
+		Path docs = docs();
+		success(external.deleteFilesAsync(Arrays.asList(docs.getFile("b.txt"))));
+		assertEquals(0, cache.size());
+		assertEquals("[a.txt]", names(docs()));
+		
+		success(external.deletePathAsync(docs().getChild("empty")));
+		assertEquals(0, cache.size());
+		assertNull(docs().getChild("empty"));
+		
+		success(external.deletePathsAsync(Arrays.asList(docs().getChild("sub"))));
+		assertEquals(0, cache.size());
+		assertEquals(0, docs().getPaths().size());
+	}
+	
+	@Test
+	public void testInvalidatedByUpload() throws Exception {
+		docs();
+		
+		java.io.File local = java.io.File.createTempFile("minicloud", ".txt");
+		local.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(local)) {
+			out.write(new byte[] { 5, 6 });
+		}
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		final UploadEvent[] result = new UploadEvent[1];
+		Uploader uploader = new Uploader(external, null);
+		uploader.addListener(new Listener<UploadEvent>() {
+			@Override
+			public void handleEvent(UploadEvent event, Object sender) {
+				if (event instanceof UploadAllDoneEvent || event instanceof UploadFailedEvent) {
+					result[0] = event;
+					done.countDown();
+				}
+			}
+		});
+		uploader.add(local, "docs", false);
+		uploader.start("docs");
+		
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(result[0] instanceof UploadAllDoneEvent);
+		assertEquals(0, cache.size());
+		assertNotNull(docs().getFile(local.getName()));
+	}
+	
+	@Test
+	public void testInvalidationDuringFetchIsNotStored() throws Exception {
+		GatedTransport gate = new GatedTransport(server);
+		external.setTransport(gate);
+		gate.closed.set(true);
+		
+		ActionFuture<PathEvent> pending = external.getPathAsync("docs", true);
+		assertTrue(gate.entered.await(5, TimeUnit.SECONDS));
+		
+		// Listing was requested before this change, it may be outdated
+		external.invalidateMetadata();
+		gate.released.countDown();
+		
+		assertNotNull(pending.get(5, TimeUnit.SECONDS).getPath());
+		assertEquals(0, cache.size());
+		
+		long before = server.getRequestCount();
+		docs();
+		assertEquals("listing is fetched again", before + 1, server.getRequestCount());
+		assertEquals(1, cache.size());
+	}
+	
+	private Path docs() throws Exception {
+		Path path = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath();
+		assertNotNull(path);
+		return path;
+	}
+	
+	private static void success(ActionFuture<SuccessEvent> future) throws Exception {
+		assertNotNull(future.get(5, TimeUnit.SECONDS));
+	}
+	
+	private static String names(Path path) {
+		String[] names = new String[path.getFiles().size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = path.getFiles().get(i).getName();
+		}
+		Arrays.sort(names);
+		return Arrays.toString(names);
+	}
+}
@@ -0,0 +1,242 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks executors running API requests and handling of interrupted
+ * request threads.
+ * 
+ * @author Jan Zípek
+ */
+public class RequestExecutorsTest {
+	
+	/**
+	 * Executor starting thread for every task and recording whether
+	 * the thread was left interrupted by the task.
+	 */
+	private static class ThreadPerTask extends AbstractExecutorService {
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final Map<Thread, Boolean> interrupted = new ConcurrentHashMap<>();
+		
+		@Override
+		public void execute(final Runnable command) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					command.run();
+					interrupted.put(Thread.currentThread(), Thread.currentThread().isInterrupted());
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		
+		@Override
+		public void shutdown() {
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			return false;
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			return false;
+		}
+		
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return false;
+		}
+	}
+	
+	@Test
+	public void testDefaultExecutor() throws Exception {
+		ExecutorService executor = RequestExecutors.newDefault(2);
+		try {
+			Thread thread = executor.submit(new Callable<Thread>() {
+				@Override
+				public Thread call() {
+					return Thread.currentThread();
+				}
+			}).get(5, TimeUnit.SECONDS);
+			
+			assertEquals(RequestExecutors.isVirtualAvailable(), isVirtual(thread));
+			if (!RequestExecutors.isVirtualAvailable()) {
+				assertTrue(thread.getName(), thread.getName().startsWith("API request "));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testVirtualExecutorMatchesRuntime() {
+		ExecutorService virtual = RequestExecutors.newVirtual();
+		try {
+			if (RequestExecutors.isVirtualAvailable()) {
+				assertNotNull(virtual);
+			} else {
+				assertNull("fallback when JDK has no virtual threads", virtual);
+			}
+		} finally {
+			if (virtual != null) {
+				virtual.shutdown();
+			}
+		}
+	}
+	
+	@Test
+	public void testBoundedExecutorLimitsThreads() throws Exception {
+		ExecutorService executor = RequestExecutors.newBounded(2, "Test pool", true);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger peak = new AtomicInteger();
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				tasks.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread());
+						int now = running.incrementAndGet();
+						int max;
+						while ((max = peak.get()) < now && !peak.compareAndSet(max, now)) {
+							// Retry until peak is updated
+						}
+						try {
+							release.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+						running.decrementAndGet();
+					}
+				}));
+			}
+			
+			Thread.sleep(100);
+			assertEquals("tasks over limit wait in queue", 2, running.get());
+			release.countDown();
+			for (Future<?> task : tasks) {
+				task.get(5, TimeUnit.SECONDS);
+			}
+			
+			assertEquals(2, peak.get());
+			for (Thread thread : threads) {
+				assertTrue(thread.getName(), thread.getName().startsWith("Test pool "));
+				assertTrue(thread.isDaemon());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testInterruptWhileWaitingForSlot() throws Exception {
+		FakeServer server = new FakeServer();
+		server.setLatency(500);
+		
+		ThreadPerTask executor = new ThreadPerTask();
+		External external = new External(FakeServer.URL);
+		external.setTransport(server);
+		external.setRetryPolicy(RetryPolicy.none());
+		external.getCircuitBreaker().reset();
+		external.setExecutor(executor);
+		external.setMaxConcurrentRequests(1);
+		
+		ActionFuture<User> first = external.getUserAsync();
+		ActionFuture<ServerInfo> waiting = external.getServerInfoAsync();
+		
+		// Second request waits for the only slot
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((executor.threads.size() < 2 || executor.threads.get(1).getState() != Thread.State.WAITING) && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		executor.threads.get(1).interrupt();
+		
+		try {
+			waiting.get(5, TimeUnit.SECONDS);
+			fail("interrupted request fails");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RequestFailedException);
+		}
+		assertNotNull(first.get(5, TimeUnit.SECONDS));
+		
+		Thread interrupted = executor.threads.get(1);
+		interrupted.join(5000);
+		assertEquals("interrupt isn't swallowed", Boolean.TRUE, executor.interrupted.get(interrupted));
+	}
+	
+	@Test
+	public void testInterruptWhileWaitingForResponse() throws Exception {
+		FakeServer server = new FakeServer();
+		server.setLatency(200);
+		
+		External external = new External(FakeServer.URL);
+		external.setTransport(server);
+		try {
+			Thread.currentThread().interrupt();
+			external.getUser(true, external.nextActionId());
+			assertTrue("interrupt isn't swallowed", Thread.interrupted());
+		} finally {
+			Thread.interrupted();
+			external.shutdown();
+		}
+	}
+	
+	private static boolean isVirtual(Thread thread) throws Exception {
+		try {
+			Method method = Thread.class.getMethod("isVirtual");
+			return (Boolean)method.invoke(thread);
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api;
+
+import cz.zipek.minicloud.api.events.ErrorEvent;
+import cz.zipek.minicloud.api.events.PathEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that identical read requests sent while one of them is running
+ * share its response, and every caller still gets exactly one response.
+ * 
+ * @author Jan Zípek
+ */
+public class SingleFlightTest {
+	
+	private static final int CALLERS = 10;
+	
+	private FakeServer server;
+	private External external;
+	
+	private final ConcurrentMap<String, List<Event>> responses = new ConcurrentHashMap<>();
+	private volatile CountDownLatch arrived;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeServer();
+		server.createFile("docs/a.txt", new byte[] { 1 });
+		server.createFile("docs/sub/b.txt", new byte[] { 2 });
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		external.setRetryPolicy(RetryPolicy.none());
+		external.getCircuitBreaker().reset();
+		external.subscribe(Event.class, new Listener<Event>() {
+			@Override
+			public void handleEvent(Event event, Object sender) {
+				List<Event> list = responses.get(event.getActionId());
+				if (list == null) {
+					responses.putIfAbsent(event.getActionId(), new CopyOnWriteArrayList<Event>());
+					list = responses.get(event.getActionId());
+				}
+				list.add(event);
+				arrived.countDown();
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+	}
+	
+	@Test
+	public void testIdenticalRequestsShareResponse() throws Exception {
+		server.setLatency(300);
+		arrived = new CountDownLatch(CALLERS);
+		
+		long before = server.getRequestCount();
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			ids.add(external.getPath("docs", true, external.nextActionId()));
+		}
+		
+		assertTrue("all callers answered", arrived.await(5, TimeUnit.SECONDS));
+		assertEquals("single request sent", before + 1, server.getRequestCount());
+		assertOnePerCaller(ids);
+		for (String id : ids) {
+			Event event = responses.get(id).get(0);
+			assertTrue(event instanceof PathEvent);
+			assertEquals(id, event.getActionId());
+			assertEquals("docs/sub", ((PathEvent)event).getPath().getPaths().get(0).getPath());
+		}
+	}
+	
+	@Test
+	public void testDifferentRequestsAreNotShared() throws Exception {
+		server.setLatency(100);
+		arrived = new CountDownLatch(3);
+		
+		long before = server.getRequestCount();
+		List<String> ids = new ArrayList<>();
+		ids.add(external.getPath("docs", true, external.nextActionId()));
+		ids.add(external.getPath("docs", false, external.nextActionId()));
+		ids.add(external.getPath("docs/sub", true, external.nextActionId()));
+		
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+		assertEquals(before + 3, server.getRequestCount());
+		assertOnePerCaller(ids);
+	}
+	
+	@Test
+	public void testErrorIsSharedByAllCallers() throws Exception {
+		server.setLatency(300);
+		arrived = new CountDownLatch(CALLERS);
+		
+		long before = server.getRequestCount();
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			ids.add(external.getPath("missing", true, external.nextActionId()));
+		}
+		
+		assertTrue("all callers answered", arrived.await(5, TimeUnit.SECONDS));
+		assertEquals("single request sent", before + 1, server.getRequestCount());
+		assertOnePerCaller(ids);
+		for (String id : ids) {
+			assertTrue(responses.get(id).get(0) instanceof ErrorEvent);
+		}
+	}
+	
+	@Test
+	public void testJoinRacingWithResponse() throws Exception {
+		final int threads = 4;
+		final int rounds = 200;
+		arrived = new CountDownLatch(threads * rounds);
+		
+		// Requests keep arriving while earlier ones settle, so some of them
+		// find flight that stops accepting callers and have to start their own
+		final List<String> ids = new CopyOnWriteArrayList<>();
+		final AtomicInteger failures = new AtomicInteger();
+		List<Thread> senders = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread sender = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < rounds; i++) {
+							ids.add(external.getPath("docs", false, external.nextActionId()));
+						}
+					} catch (RuntimeException ex) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			senders.add(sender);
+			sender.start();
+		}
+		for (Thread sender : senders) {
+			sender.join(5000);
+		}
+		
+		assertEquals(0, failures.get());
+		assertTrue("no caller left waiting", arrived.await(10, TimeUnit.SECONDS));
+		assertOnePerCaller(ids);
+		assertTrue("requests were shared", server.getRequestCount() <= threads * rounds);
+		assertEquals(0, external.getPendingRequests());
+	}
+	
+	private void assertOnePerCaller(List<String> ids) throws InterruptedException {
+		// Duplicates would arrive right after the first response
+		Thread.sleep(50);
+		assertEquals(ids.size(), responses.size());
+		for (String id : ids) {
+			assertNotNull("response of " + id, responses.get(id));
+			assertEquals("responses of " + id, 1, responses.get(id).size());
+		}
+	}
+}
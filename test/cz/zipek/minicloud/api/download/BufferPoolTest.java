@@ -0,0 +1,300 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.File;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
+import cz.zipek.minicloud.api.download.events.DownloadProgressEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that pooled buffers are reused and that downloads give back
+ * every buffer they take, whether they succeed or fail.
+ * 
+ * @author Jan Zípek
+ */
+public class BufferPoolTest {
+	
+	private static final int SIZE = 2 * 1024 * 1024;
+	
+	private byte[] content;
+	private java.io.File directory;
+	private FakeServer server;
+	private External external;
+	private User user;
+	private File file;
+	
+	///@var known buffers put into pool by test
+	private final Set<byte[]> known = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+	
+	@Before
+	public void setUp() throws Exception {
+		content = new byte[SIZE];
+		new Random(1).nextBytes(content);
+		
+		server = new FakeServer();
+		server.createFile("docs/data.bin", content);
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		user = external.getUserAsync().get(5, TimeUnit.SECONDS);
+		file = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath().getFile("data.bin");
+		
+		directory = Files.createTempDirectory("minicloud-test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+		for (java.io.File child : directory.listFiles()) {
+			child.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testAcquireRoundsUpToSupportedSize() {
+		assertEquals(BufferPool.MIN, acquireAndRelease(1));
+		assertEquals(BufferPool.MIN, acquireAndRelease(BufferPool.MIN));
+		assertEquals(BufferPool.MIN * 2, acquireAndRelease(BufferPool.MIN + 1));
+		assertEquals(BufferPool.MAX, acquireAndRelease(BufferPool.MAX));
+		assertEquals(BufferPool.MAX, acquireAndRelease(BufferPool.MAX * 4));
+	}
+	
+	@Test
+	public void testReleasedBufferIsReused() {
+		List<byte[]> drained = drain(BufferPool.MIN);
+		
+		byte[] buffer = BufferPool.acquire(BufferPool.MIN);
+		BufferPool.release(buffer);
+		assertSame(buffer, BufferPool.acquire(BufferPool.MIN));
+		
+		BufferPool.release(buffer);
+		release(drained);
+	}
+	
+	@Test
+	public void testPoolKeepsLimitedNumber() {
+		fill();
+		
+		// Pool is full, extra buffer is dropped
+		byte[] extra = new byte[BufferPool.MIN];
+		BufferPool.release(extra);
+		
+		List<byte[]> drained = drain(BufferPool.MIN);
+		assertNotSame(extra, BufferPool.acquire(BufferPool.MIN));
+		for (byte[] buffer : drained) {
+			assertTrue(known.contains(buffer));
+		}
+		release(drained);
+	}
+	
+	@Test
+	public void testBuffersReturnedAfterDownload() throws Exception {
+		fill();
+		
+		List<Long> reads = new ArrayList<>();
+		assertNull(download(new Downloader(external, user), reads));
+		
+		assertArrayEquals(content, Files.readAllBytes(new java.io.File(directory, "data.bin").toPath()));
+		assertGrown(reads);
+		assertPoolsFull();
+	}
+	
+	@Test
+	public void testBuffersReturnedAfterFailedDownload() throws Exception {
+		fill();
+		server.setFailAfter(SIZE * 3 / 4);
+		
+		List<Long> reads = new ArrayList<>();
+		DownloadFailedEvent failure = download(new Downloader(external, user), reads);
+		
+		assertNotNull("download failed", failure);
+		assertGrown(reads);
+		assertPoolsFull();
+	}
+	
+	@Test
+	public void testBuffersReturnedAfterFailureOfSmallBuffer() throws Exception {
+		fill();
+		server.setFailAfter(BufferPool.MIN / 2);
+		
+		assertNotNull("download failed", download(new Downloader(external, user), new ArrayList<Long>()));
+		assertPoolsFull();
+	}
+	
+	@Test
+	public void testBuffersReturnedAfterSegmentedDownload() throws Exception {
+		fill();
+		Downloader downloader = new Downloader(external, user);
+		downloader.setSegments(4, 1);
+		
+		assertNull(download(downloader, new ArrayList<Long>()));
+		
+		assertArrayEquals(content, Files.readAllBytes(new java.io.File(directory, "data.bin").toPath()));
+		assertPoolsFull();
+	}
+	
+	@Test
+	public void testBuffersReturnedAfterFailedSegmentedDownload() throws Exception {
+		fill();
+		server.setFailAfter(BufferPool.MIN * 2);
+		Downloader downloader = new Downloader(external, user);
+		downloader.setSegments(4, 1);
+		
+		assertNotNull("download failed", download(downloader, new ArrayList<Long>()));
+		assertPoolsFull();
+	}
+	
+	/**
+	 * Checks that progress advanced by more than smallest buffer at once,
+	 * so buffer grew during download.
+	 */
+	private static void assertGrown(List<Long> reads) {
+		long largest = 0;
+		for (long read : reads) {
+			largest = Math.max(largest, read);
+		}
+		assertTrue("buffer grew, largest read " + largest, largest > BufferPool.MIN);
+	}
+	
+	/**
+	 * Replaces content of pool with full set of known buffers of every size.
+	 */
+	private void fill() {
+		for (int size = BufferPool.MIN; size <= BufferPool.MAX; size *= 2) {
+			List<byte[]> buffers = drain(size);
+			known.addAll(buffers);
+			release(buffers);
+		}
+	}
+	
+	/**
+	 * Checks that pool holds all known buffers, which means every buffer
+	 * taken from pool was given back. Parts of failed segmented download
+	 * may still be finishing, so they get a while to release buffers.
+	 */
+	private void assertPoolsFull() throws InterruptedException {
+		for (int size = BufferPool.MIN; size <= BufferPool.MAX; size *= 2) {
+			long deadline = System.currentTimeMillis() + 2000;
+			int pooled;
+			while ((pooled = countKnown(size)) < BufferPool.KEEP && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals("pooled buffers of " + size + " bytes", BufferPool.KEEP, pooled);
+		}
+	}
+	
+	/**
+	 * @return number of distinct known buffers of given size in pool
+	 */
+	private int countKnown(int size) {
+		List<byte[]> buffers = drain(size);
+		Set<byte[]> distinct = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+		for (byte[] buffer : buffers) {
+			assertEquals(size, buffer.length);
+			if (known.contains(buffer)) {
+				distinct.add(buffer);
+			}
+		}
+		release(buffers);
+		return distinct.size();
+	}
+	
+	/**
+	 * Takes as many buffers of given size as pool can hold, so pool of
+	 * that size is empty afterwards.
+	 */
+	private static List<byte[]> drain(int size) {
+		List<byte[]> buffers = new ArrayList<>();
+		for (int i = 0; i < BufferPool.KEEP; i++) {
+			buffers.add(BufferPool.acquire(size));
+		}
+		return buffers;
+	}
+	
+	private static void release(List<byte[]> buffers) {
+		for (byte[] buffer : buffers) {
+			BufferPool.release(buffer);
+		}
+	}
+	
+	private static int acquireAndRelease(int size) {
+		byte[] buffer = BufferPool.acquire(size);
+		BufferPool.release(buffer);
+		return buffer.length;
+	}
+	
+	/**
+	 * Downloads file and waits until downloader finishes.
+	 * 
+	 * @param reads receives number of bytes of every progress step
+	 * @return failure of download or null when it succeeded
+	 */
+	private DownloadFailedEvent download(Downloader downloader, final List<Long> reads) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<DownloadFailedEvent> failure = new AtomicReference<>();
+		final AtomicLong last = new AtomicLong();
+		downloader.addListener(new Listener<DownloadEvent>() {
+			@Override
+			public void handleEvent(DownloadEvent event, Object sender) {
+				if (event instanceof DownloadProgressEvent) {
+					long downloaded = ((DownloadProgressEvent)event).getDownloaded();
+					synchronized (reads) {
+						reads.add(downloaded - last.getAndSet(downloaded));
+					}
+				} else if (event instanceof DownloadFailedEvent) {
+					failure.set((DownloadFailedEvent)event);
+					done.countDown();
+				} else if (event instanceof DownloadAllDoneEvent) {
+					done.countDown();
+				}
+			}
+		});
+		
+		downloader.add(file.getVersion(), new java.io.File(directory, "data.bin").getPath());
+		downloader.start(directory.getPath());
+		assertTrue("download finished", done.await(10, TimeUnit.SECONDS));
+		return failure.get();
+	}
+}
@@ -0,0 +1,145 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.File;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks order of queued downloads.
+ * 
+ * @author Jan Zípek
+ */
+public class DownloadSchedulerTest {
+	
+	private External external;
+	private final Map<String, File> files = new HashMap<>();
+	private DownloadScheduler scheduler;
+	
+	@Before
+	public void setUp() throws Exception {
+		FakeServer server = new FakeServer();
+		server.createFile("docs/small", new byte[10]);
+		server.createFile("docs/medium", new byte[100]);
+		server.createFile("docs/large", new byte[1000]);
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		for (File file : external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath().getAllFiles()) {
+			files.put(file.getName(), file);
+		}
+		
+		scheduler = new DownloadScheduler();
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+	}
+	
+	@Test
+	public void testPriorityThenArrival() {
+		add("large", DownloadPriority.BACKGROUND);
+		add("medium", DownloadPriority.NORMAL);
+		add("small", DownloadPriority.NORMAL);
+		add("large", DownloadPriority.INTERACTIVE);
+		
+		assertEquals(Arrays.asList("large", "medium", "small", "large"), drain());
+	}
+	
+	@Test
+	public void testSmallestFirst() {
+		scheduler.setPolicy(DownloadPolicy.SMALLEST_FIRST);
+		add("large", DownloadPriority.NORMAL);
+		add("medium", DownloadPriority.NORMAL);
+		add("small", DownloadPriority.NORMAL);
+		
+		assertEquals(Arrays.asList("small", "medium", "large"), drain());
+	}
+	
+	@Test
+	public void testCancelAndReprioritize() {
+		DownloadHandle large = add("large", DownloadPriority.NORMAL);
+		DownloadHandle medium = add("medium", DownloadPriority.NORMAL);
+		DownloadHandle small = add("small", DownloadPriority.BACKGROUND);
+		
+		assertTrue(medium.cancel());
+		assertFalse("already cancelled", medium.cancel());
+		assertTrue(small.setPriority(DownloadPriority.INTERACTIVE));
+		assertEquals(2, scheduler.size());
+		
+		assertEquals(Arrays.asList("small", "large"), drain());
+		assertFalse("already started", large.cancel());
+	}
+	
+	@Test
+	public void testChurnKeepsOrder() {
+		for (DownloadPolicy policy : DownloadPolicy.values()) {
+			scheduler.setPolicy(policy);
+			add("large", DownloadPriority.NORMAL);
+			
+			// Entries that come and go while one waits
+			for (int i = 0; i < 10000; i++) {
+				DownloadHandle handle = add(i % 2 == 0 ? "small" : "medium", DownloadPriority.NORMAL);
+				if (i % 3 == 0) {
+					handle.setPriority(DownloadPriority.BACKGROUND);
+				}
+				handle.cancel();
+			}
+			add("medium", DownloadPriority.NORMAL);
+			
+			assertEquals(2, scheduler.size());
+			assertEquals(2, scheduler.getItems().size());
+			List<String> expected = policy == DownloadPolicy.FIFO ? Arrays.asList("large", "medium") : Arrays.asList("medium", "large");
+			assertEquals(expected, drain());
+		}
+	}
+	
+	private DownloadHandle add(String name, DownloadPriority priority) {
+		return scheduler.add(new DownloadItem(files.get(name).getVersion(), name), priority);
+	}
+	
+	/**
+	 * @return names of queued files in order they are started
+	 */
+	private List<String> drain() {
+		List<String> names = new ArrayList<>();
+		DownloadItem item;
+		while ((item = scheduler.poll()) != null) {
+			names.add(item.getFile().getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,317 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.Path;
+import cz.zipek.minicloud.api.Transport;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFileDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFileStartedEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that downloader keeps configured number of files downloading
+ * and finishes queue exactly once.
+ * 
+ * @author Jan Zípek
+ */
+public class DownloaderConcurrencyTest {
+	
+	/**
+	 * Fake server holding download connections until gate is opened.
+	 */
+	private static class GatedTransport implements Transport {
+		private final FakeServer server;
+		private final AtomicInteger opened = new AtomicInteger();
+		private final Semaphore entered = new Semaphore(0);
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private volatile int failAt;
+		
+		GatedTransport(FakeServer server) {
+			this.server = server;
+		}
+		
+		@Override
+		public HttpURLConnection open(String url, String auth) throws IOException {
+			if (!url.contains("action=download_file")) {
+				return server.open(url, auth);
+			}
+			
+			if (opened.incrementAndGet() == failAt) {
+				throw new IOException("Broken connection");
+			}
+			
+			entered.release();
+			try {
+				gate.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			return server.open(url, auth);
+		}
+		
+		@Override
+		public void release(HttpURLConnection conn) {
+			server.release(conn);
+		}
+		
+		@Override
+		public void release(InputStream stream) {
+			server.release(stream);
+		}
+	}
+	
+	/**
+	 * Counts downloader events and checks they are fired without lock.
+	 */
+	private static class Recorder implements Listener<DownloadEvent> {
+		private final Downloader downloader;
+		private final AtomicInteger started = new AtomicInteger();
+		private final AtomicInteger finished = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger allDone = new AtomicInteger();
+		private final AtomicBoolean locked = new AtomicBoolean();
+		private final Semaphore done = new Semaphore(0);
+		
+		Recorder(Downloader downloader) {
+			this.downloader = downloader;
+			downloader.addListener(this);
+		}
+		
+		@Override
+		public void handleEvent(DownloadEvent event, Object sender) {
+			if (Thread.holdsLock(downloader)) {
+				locked.set(true);
+			}
+			
+			if (event instanceof DownloadFileStartedEvent) {
+				started.incrementAndGet();
+			} else if (event instanceof DownloadFileDoneEvent) {
+				finished.incrementAndGet();
+			} else if (event instanceof DownloadFailedEvent) {
+				failed.incrementAndGet();
+				done.release();
+			} else if (event instanceof DownloadAllDoneEvent) {
+				allDone.incrementAndGet();
+				done.release();
+			}
+		}
+		
+		/**
+		 * Waits for all done or failure event.
+		 */
+		void await() throws InterruptedException {
+			assertTrue("downloader finished", done.tryAcquire(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	private static final int FILES = 8;
+	private static final int CONCURRENCY = 4;
+	private static final int SIZE = 64 * 1024;
+	
+	private byte[][] contents;
+	private java.io.File directory;
+	private GatedTransport transport;
+	private External external;
+	private User user;
+	private Path folder;
+	
+	@Before
+	public void setUp() throws Exception {
+		FakeServer server = new FakeServer();
+		Random random = new Random(1);
+		contents = new byte[FILES][SIZE];
+		for (int i = 0; i < FILES; i++) {
+			random.nextBytes(contents[i]);
+			server.createFile("docs/" + name(i), contents[i]);
+		}
+		transport = new GatedTransport(server);
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(transport);
+		user = external.getUserAsync().get(5, TimeUnit.SECONDS);
+		folder = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath();
+		
+		directory = Files.createTempDirectory("minicloud-test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		transport.gate.countDown();
+		external.shutdown();
+		for (java.io.File child : directory.listFiles()) {
+			child.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testRunsConfiguredNumberOfWorkers() throws Exception {
+		Downloader downloader = downloader(FILES);
+		Recorder recorder = new Recorder(downloader);
+		downloader.start(directory.getPath());
+		
+		assertTrue("workers running", transport.entered.tryAcquire(CONCURRENCY, 5, TimeUnit.SECONDS));
+		assertFalse("no more workers", transport.entered.tryAcquire(1, 200, TimeUnit.MILLISECONDS));
+		assertEquals(CONCURRENCY, recorder.started.get());
+		assertEquals(FILES - CONCURRENCY, downloader.getQueueSize());
+		
+		transport.gate.countDown();
+		recorder.await();
+		
+		assertEquals(FILES, recorder.started.get());
+		assertEquals(FILES, recorder.finished.get());
+		assertEquals(FILES, transport.opened.get());
+		for (int i = 0; i < FILES; i++) {
+			assertArrayEquals(name(i), contents[i], Files.readAllBytes(new java.io.File(directory, name(i)).toPath()));
+		}
+		
+		assertAllDoneOnce(recorder);
+		assertTrue(downloader.isDone());
+	}
+	
+	@Test
+	public void testAllDoneFiresOnce() throws Exception {
+		transport.gate.countDown();
+		Downloader downloader = new Downloader(external, user);
+		downloader.setConcurrency(CONCURRENCY);
+		Recorder recorder = new Recorder(downloader);
+		
+		// Downloads finishing at once race for last slot, queue is reused
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < FILES; i++) {
+				downloader.add(folder.getFile(name(i)).getVersion(), new java.io.File(directory, round + "-" + name(i)).getPath());
+			}
+			downloader.start(directory.getPath());
+			recorder.await();
+			
+			assertEquals("round " + round, round + 1, recorder.allDone.get());
+			assertTrue(downloader.isDone());
+		}
+		
+		assertEquals(10 * FILES, recorder.finished.get());
+		assertAllDoneOnce(recorder, 10);
+	}
+	
+	@Test
+	public void testStopClearsRunningDownloads() throws Exception {
+		Downloader downloader = downloader(CONCURRENCY);
+		Recorder recorder = new Recorder(downloader);
+		downloader.start(directory.getPath());
+		assertTrue("workers running", transport.entered.tryAcquire(CONCURRENCY, 5, TimeUnit.SECONDS));
+		
+		downloader.stop();
+		assertTrue("running downloads removed", downloader.isDone());
+		
+		// Stopped downloads don't start others nor finish queue
+		transport.gate.countDown();
+		Thread.sleep(300);
+		assertEquals(CONCURRENCY, recorder.started.get());
+		assertEquals(0, recorder.allDone.get());
+		
+		// Downloader can be started again
+		downloader.add(folder.getFile(name(0)).getVersion(), new java.io.File(directory, "again-" + name(0)).getPath());
+		downloader.start(directory.getPath());
+		recorder.await();
+		
+		assertEquals(CONCURRENCY + 1, recorder.started.get());
+		assertAllDoneOnce(recorder);
+	}
+	
+	@Test
+	public void testNoDownloadsStartAfterFailure() throws Exception {
+		transport.failAt = 1;
+		Downloader downloader = downloader(FILES);
+		Recorder recorder = new Recorder(downloader);
+		downloader.start(directory.getPath());
+		
+		recorder.await();
+		assertEquals(1, recorder.failed.get());
+		assertTrue("other workers running", transport.entered.tryAcquire(CONCURRENCY - 1, 5, TimeUnit.SECONDS));
+		
+		transport.gate.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (recorder.finished.get() < CONCURRENCY - 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+		
+		assertEquals(CONCURRENCY - 1, recorder.finished.get());
+		assertEquals("no file started after failure", CONCURRENCY, recorder.started.get());
+		assertEquals(CONCURRENCY, transport.opened.get());
+		assertEquals(FILES - CONCURRENCY, downloader.getQueueSize());
+		assertEquals(0, recorder.allDone.get());
+		assertFalse(recorder.locked.get());
+	}
+	
+	/**
+	 * Creates downloader with given number of files queued.
+	 */
+	private Downloader downloader(int files) {
+		Downloader downloader = new Downloader(external, user);
+		downloader.setConcurrency(CONCURRENCY);
+		for (int i = 0; i < files; i++) {
+			downloader.add(folder.getFile(name(i)).getVersion(), new java.io.File(directory, name(i)).getPath());
+		}
+		return downloader;
+	}
+	
+	private static void assertAllDoneOnce(Recorder recorder) throws InterruptedException {
+		assertAllDoneOnce(recorder, 1);
+	}
+	
+	/**
+	 * Gives late events a chance to arrive and checks queue was finished
+	 * expected number of times, with all events fired outside of lock.
+	 */
+	private static void assertAllDoneOnce(Recorder recorder, int times) throws InterruptedException {
+		Thread.sleep(200);
+		assertEquals("all done fired once per queue", times, recorder.allDone.get());
+		assertFalse("event fired with lock held", recorder.locked.get());
+	}
+	
+	private static String name(int index) {
+		return "f" + index + ".bin";
+	}
+}
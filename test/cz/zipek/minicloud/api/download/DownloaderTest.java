@@ -0,0 +1,399 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.download;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.File;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.Transport;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.download.events.DownloadFailedEvent;
+import cz.zipek.minicloud.api.download.events.DownloadProgressEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks segmented and resumable downloads against fake server.
+ * 
+ * @author Jan Zípek
+ */
+public class DownloaderTest {
+	
+	private enum Fault {
+		NONE, RANGE_FAILS, CORRUPT
+	}
+	
+	/**
+	 * Fake server whose connections can misbehave.
+	 */
+	private static class FaultyTransport implements Transport {
+		private final FakeServer server;
+		private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+		private volatile Fault fault = Fault.NONE;
+		
+		FaultyTransport(FakeServer server) {
+			this.server = server;
+		}
+		
+		@Override
+		public HttpURLConnection open(String url, String auth) throws IOException {
+			HttpURLConnection conn = server.open(url, auth);
+			if (!url.contains("action=download_file")) {
+				return conn;
+			}
+			return new FaultyConnection(this, conn);
+		}
+		
+		@Override
+		public void release(HttpURLConnection conn) {
+			server.release(conn instanceof FaultyConnection ? ((FaultyConnection)conn).conn : conn);
+		}
+		
+		@Override
+		public void release(InputStream stream) {
+			server.release(stream);
+		}
+	}
+	
+	/**
+	 * Download connection passing everything to fake connection, except faults.
+	 */
+	private static class FaultyConnection extends HttpURLConnection {
+		private final FaultyTransport transport;
+		private final HttpURLConnection conn;
+		private String range;
+		
+		FaultyConnection(FaultyTransport transport, HttpURLConnection conn) {
+			super(conn.getURL());
+			this.transport = transport;
+			this.conn = conn;
+		}
+		
+		@Override
+		public void setRequestProperty(String key, String value) {
+			if (key.equals("Range")) {
+				range = value;
+				transport.ranges.add(value);
+			}
+			conn.setRequestProperty(key, value);
+		}
+		
+		@Override
+		public void setDoOutput(boolean doOutput) {
+			conn.setDoOutput(doOutput);
+		}
+		
+		@Override
+		public void setDoInput(boolean doInput) {
+			conn.setDoInput(doInput);
+		}
+		
+		@Override
+		public void setChunkedStreamingMode(int length) {
+			conn.setChunkedStreamingMode(length);
+		}
+		
+		@Override
+		public int getResponseCode() throws IOException {
+			return conn.getResponseCode();
+		}
+		
+		@Override
+		public String getHeaderField(String name) {
+			return conn.getHeaderField(name);
+		}
+		
+		@Override
+		public InputStream getInputStream() throws IOException {
+			if (transport.fault == Fault.RANGE_FAILS && range != null && !range.startsWith("bytes=0-")) {
+				throw new IllegalStateException("Broken part");
+			}
+			if (transport.fault == Fault.CORRUPT) {
+				return new CorruptingStream(conn.getInputStream());
+			}
+			return conn.getInputStream();
+		}
+		
+		@Override
+		public InputStream getErrorStream() {
+			return conn.getErrorStream();
+		}
+		
+		@Override
+		public void connect() throws IOException {
+			conn.connect();
+		}
+		
+		@Override
+		public void disconnect() {
+			conn.disconnect();
+		}
+		
+		@Override
+		public boolean usingProxy() {
+			return false;
+		}
+	}
+	
+	/**
+	 * Stream changing first byte it passes.
+	 */
+	private static class CorruptingStream extends FilterInputStream {
+		private boolean corrupted;
+		
+		CorruptingStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value != -1 && !corrupted) {
+				corrupted = true;
+				value ^= 0xff;
+			}
+			return value;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0 && !corrupted) {
+				corrupted = true;
+				b[off] ^= 0xff;
+			}
+			return count;
+		}
+	}
+	
+	private static final int SIZE = 1024 * 1024;
+	
+	private byte[] content;
+	private java.io.File directory;
+	private FakeServer server;
+	private FaultyTransport transport;
+	private External external;
+	private User user;
+	private File file;
+	
+	@Before
+	public void setUp() throws Exception {
+		content = new byte[SIZE];
+		new Random(1).nextBytes(content);
+		
+		server = new FakeServer();
+		server.createFile("docs/data.bin", content);
+		transport = new FaultyTransport(server);
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(transport);
+		user = external.getUserAsync().get(5, TimeUnit.SECONDS);
+		file = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath().getFile("data.bin");
+		
+		directory = Files.createTempDirectory("minicloud-test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		external.shutdown();
+		for (java.io.File child : directory.listFiles()) {
+			child.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testSegmentedDownload() throws Exception {
+		Downloader downloader = new Downloader(external, user);
+		downloader.setSegments(4, 1);
+		
+		java.io.File target = new java.io.File(directory, "data.bin");
+		assertNull(download(downloader, target));
+		
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+		assertEquals("parts requested", 4, transport.ranges.size());
+		assertFalse(new java.io.File(target.getPath() + DownloadItem.PARTIAL_SUFFIX).exists());
+	}
+	
+	@Test
+	public void testSegmentedProgressIsMonotonic() throws Exception {
+		Downloader downloader = new Downloader(external, user);
+		downloader.setSegments(4, 1);
+		server.setBandwidth(SIZE * 2);
+		
+		final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		downloader.addListener(new Listener<DownloadEvent>() {
+			@Override
+			public void handleEvent(DownloadEvent event, Object sender) {
+				if (event instanceof DownloadProgressEvent) {
+					progress.add(((DownloadProgressEvent)event).getDownloaded());
+					threads.add(Thread.currentThread());
+				}
+			}
+		});
+		
+		java.io.File target = new java.io.File(directory, "data.bin");
+		assertNull(download(downloader, target));
+		
+		assertFalse(progress.isEmpty());
+		for (int i = 1; i < progress.size(); i++) {
+			assertTrue("progress " + progress, progress.get(i) > progress.get(i - 1));
+		}
+		assertEquals((long)SIZE, (long)progress.get(progress.size() - 1));
+		assertEquals("reported by single thread", 1, threads.size());
+	}
+	
+	@Test
+	public void testUncheckedFailureOfSegmentFailsDownload() throws Exception {
+		Downloader downloader = new Downloader(external, user);
+		downloader.setSegments(4, 1);
+		transport.fault = Fault.RANGE_FAILS;
+		
+		java.io.File target = new java.io.File(directory, "data.bin");
+		DownloadFailedEvent failure = download(downloader, target);
+		
+		assertNotNull("download failed", failure);
+		assertTrue(failure.getException().getCause() instanceof IllegalStateException);
+		assertFalse(target.exists());
+	}
+	
+	@Test
+	public void testResumeContinuesAfterCommittedOffset() throws Exception {
+		java.io.File target = new java.io.File(directory, "data.bin");
+		prepare(target, content, SIZE / 2);
+		
+		assertNull(download(new Downloader(external, user), target));
+		
+		assertEquals(Arrays.asList("bytes=" + SIZE / 2 + "-"), transport.ranges);
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+		assertFalse(new java.io.File(target.getPath() + DownloadItem.JOURNAL_SUFFIX).exists());
+	}
+	
+	@Test
+	public void testCorruptedResumeIsDiscarded() throws Exception {
+		byte[] wrong = content.clone();
+		wrong[0] ^= 0xff;
+		
+		java.io.File target = new java.io.File(directory, "data.bin");
+		prepare(target, wrong, SIZE / 2);
+		
+		assertNotNull("checksum mismatch", download(new Downloader(external, user), target));
+		assertFalse(target.exists());
+		assertFalse(new java.io.File(target.getPath() + DownloadItem.PARTIAL_SUFFIX).exists());
+		assertFalse(new java.io.File(target.getPath() + DownloadItem.JOURNAL_SUFFIX).exists());
+		
+		// Next attempt starts from scratch
+		transport.ranges.clear();
+		assertNull(download(new Downloader(external, user), target));
+		assertTrue(transport.ranges.isEmpty());
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+	
+	@Test
+	public void testFreshDownloadIsVerified() throws Exception {
+		transport.fault = Fault.CORRUPT;
+		
+		java.io.File target = new java.io.File(directory, "data.bin");
+		assertNotNull("checksum mismatch", download(new Downloader(external, user), target));
+		assertFalse(target.exists());
+	}
+	
+	@Test
+	public void testJournalPastEndOfPartialIsIgnored() throws Exception {
+		java.io.File target = new java.io.File(directory, "data.bin");
+		prepare(target, content, SIZE / 2);
+		try (RandomAccessFile partial = new RandomAccessFile(target.getPath() + DownloadItem.PARTIAL_SUFFIX, "rw")) {
+			partial.setLength(SIZE / 4);
+		}
+		
+		assertNull(download(new Downloader(external, user), target));
+		
+		assertTrue("downloaded from start", transport.ranges.isEmpty());
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+	
+	/**
+	 * Leaves partial file and journal as interrupted download would.
+	 * 
+	 * @param target download target
+	 * @param data data of partial file
+	 * @param offset number of bytes written and committed
+	 */
+	private void prepare(java.io.File target, byte[] data, int offset) throws IOException {
+		DownloadJournal journal = new DownloadJournal(new DownloadItem(file.getVersion(), target.getPath()));
+		try (FileChannel channel = journal.open(false)) {
+			channel.write(ByteBuffer.wrap(data, 0, offset), 0);
+			journal.commit(channel, offset);
+		}
+	}
+	
+	/**
+	 * Downloads file to target and waits until downloader finishes.
+	 * 
+	 * @return failure of download or null when it succeeded
+	 */
+	private DownloadFailedEvent download(Downloader downloader, java.io.File target) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<DownloadFailedEvent> failure = new AtomicReference<>();
+		downloader.addListener(new Listener<DownloadEvent>() {
+			@Override
+			public void handleEvent(DownloadEvent event, Object sender) {
+				if (event instanceof DownloadFailedEvent) {
+					failure.set((DownloadFailedEvent)event);
+					done.countDown();
+				} else if (event instanceof DownloadAllDoneEvent) {
+					done.countDown();
+				}
+			}
+		});
+		
+		downloader.add(file.getVersion(), target.getPath());
+		downloader.start(directory.getPath());
+		assertTrue("download finished", done.await(10, TimeUnit.SECONDS));
+		return failure.get();
+	}
+}
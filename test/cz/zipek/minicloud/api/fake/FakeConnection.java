@@ -0,0 +1,185 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Connection to fake server. Request body is collected in memory and
+ * handled by server once response is requested.
+ * 
+ * @author Jan Zípek
+ */
+class FakeConnection extends HttpURLConnection {
+	
+	private final FakeServer server;
+	private final String auth;
+	
+	private ByteArrayOutputStream body;
+	private FakeServer.Response response;
+	private InputStream stream;
+	
+	FakeConnection(FakeServer server, URL url, String auth) {
+		super(url);
+		
+		this.server = server;
+		this.auth = auth;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		connected = true;
+	}
+
+	@Override
+	public void disconnect() {
+		connected = false;
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (response != null) {
+			throw new IOException("Response was already received");
+		}
+		
+		if (body == null) {
+			body = new ByteArrayOutputStream();
+		}
+		
+		final Pacer pacer = server.createPacer();
+		return new FilterOutputStream(body) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				pacer.pace(len);
+				out.write(b, off, len);
+			}
+			
+			@Override
+			public void write(int b) throws IOException {
+				pacer.pace(1);
+				out.write(b);
+			}
+		};
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		return respond().getStatus();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		FakeServer.Response current = respond();
+		if (current.getStatus() >= 400) {
+			throw new IOException("Server returned HTTP response code: " + current.getStatus());
+		}
+		return stream;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (response == null || response.getStatus() < 400) {
+			return null;
+		}
+		return stream;
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		try {
+			return respond().getHeaders().get(name);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Lets server handle request, only done once.
+	 */
+	private synchronized FakeServer.Response respond() throws IOException {
+		if (response == null) {
+			String type = getRequestProperty("Content-Type");
+			String range = getRequestProperty("Range");
+			connect();
+			
+			byte[] data = body != null ? body.toByteArray() : new byte[0];
+			response = server.handle(url, type, range, auth, data);
+			
+			final Pacer pacer = server.createPacer();
+			final long failAfter = server.getFailAfter();
+			stream = new FilterInputStream(new ByteArrayInputStream(response.getBody())) {
+				private long position;
+				
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (failAfter >= 0) {
+						check();
+						if (position < failAfter) {
+							len = (int)Math.min(len, failAfter - position);
+						}
+					}
+					int read = super.read(b, off, len);
+					if (read > 0) {
+						position += read;
+						pacer.pace(read);
+					}
+					return read;
+				}
+				
+				@Override
+				public int read() throws IOException {
+					if (failAfter >= 0) {
+						check();
+					}
+					int read = super.read();
+					if (read >= 0) {
+						position++;
+						pacer.pace(1);
+					}
+					return read;
+				}
+				
+				private void check() throws IOException {
+					if (position >= failAfter && available() > 0) {
+						throw new IOException("Connection reset");
+					}
+				}
+			};
+		}
+		return response;
+	}
+}
@@ -0,0 +1,1113 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.fake;
+
+import cz.zipek.minicloud.api.Transport;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process implementation of minicloud server. Understands the same
+ * requests as api.php, keeps paths and files in memory and contents
+ * either in memory or in specified directory. Latency and bandwidth
+ * of connections can be set, so client throughput can be measured
+ * without real server and network. Listings and downloads share read
+ * lock, so concurrent requests of client aren't serialized by server.
+ * <p>Use it as transport of API instance, with {@link #URL} as server url.</p>
+ * 
+ * @author Jan Zípek
+ */
+public class FakeServer implements Transport {
+	
+	///@var URL server url that should be used with fake server
+	public static final String URL = "http://minicloud.fake";
+	
+	/**
+	 * Response of fake server.
+	 */
+	static class Response {
+		
+		private final int status;
+		private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		private final byte[] body;
+		
+		Response(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.body = body;
+			
+			headers.put("Content-Type", contentType);
+			headers.put("Content-Length", Integer.toString(body.length));
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		byte[] getBody() {
+			return body;
+		}
+	}
+	
+	private static class Folder {
+		int id;
+		int parent;
+		String path;
+		long mktime;
+		long mdtime;
+		long revision;
+		final Set<Integer> folders = new TreeSet<>();
+		final Set<Integer> files = new TreeSet<>();
+	}
+	
+	private static class Entry {
+		int id;
+		int folder;
+		String name;
+		long size;
+		String checksum;
+		String encryption = "";
+		boolean shared;
+		long mktime;
+		int version;
+		final Map<Integer, Long> versions = new TreeMap<>();
+	}
+	
+	private final java.io.File directory;
+	
+	private final Map<Integer, Folder> folders = new HashMap<>();
+	private final Map<Integer, Entry> files = new HashMap<>();
+	private final Map<String, byte[]> contents = new HashMap<>();
+	
+	private int nextId = 1;
+	private long revision = 0;
+	
+	///@var lock guards folders, files, contents, ids and revision
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private volatile long latency = 0;
+	private volatile long bandwidth = 0;
+	private volatile long failAfter = -1;
+	
+	private final AtomicLong requests = new AtomicLong();
+	
+	/**
+	 * Creates server keeping file contents in memory.
+	 */
+	public FakeServer() {
+		this(null);
+	}
+	
+	/**
+	 * Creates server keeping file contents in specified directory.
+	 * 
+	 * @param directory directory for file contents, null to keep them in memory
+	 */
+	public FakeServer(java.io.File directory) {
+		this.directory = directory;
+		if (directory != null) {
+			directory.mkdirs();
+		}
+		
+		Folder root = new Folder();
+		root.id = nextId++;
+		root.parent = -1;
+		root.path = "";
+		root.mktime = root.mdtime = now();
+		folders.put(root.id, root);
+	}
+	
+	@Override
+	public HttpURLConnection open(String url, String auth) throws IOException {
+		return new FakeConnection(this, new URL(url), auth);
+	}
+
+	@Override
+	public void release(HttpURLConnection conn) {
+		conn.disconnect();
+	}
+
+	@Override
+	public void release(InputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ex) {
+				// Nothing to release
+			}
+		}
+	}
+	
+	/**
+	 * Creates path including its parents.
+	 * 
+	 * @param path path string
+	 * @return path id
+	 */
+	public int createPath(String path) {
+		lock.writeLock().lock();
+		try {
+			return ensureFolder(normalize(path)).id;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Creates file or new version of existing file.
+	 * 
+	 * @param path file path string, including file name
+	 * @param content file content
+	 * @return file id
+	 * @throws IOException when content can't be stored
+	 */
+	public int createFile(String path, byte[] content) throws IOException {
+		path = normalize(path);
+		int split = path.lastIndexOf('/');
+		String checksum = md5(content);
+		
+		lock.writeLock().lock();
+		try {
+			Folder folder = ensureFolder(split >= 0 ? path.substring(0, split) : "");
+			return storeFile(folder, path.substring(split + 1), content, checksum, "", false, -1, true).id;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns id of file at specified path.
+	 * 
+	 * @param path file path string, including file name
+	 * @return file id or -1 when there is no such file
+	 */
+	public int findFile(String path) {
+		path = normalize(path);
+		int split = path.lastIndexOf('/');
+		
+		lock.readLock().lock();
+		try {
+			Folder folder = findFolder(split >= 0 ? path.substring(0, split) : "");
+			if (folder != null) {
+				Entry entry = findEntry(folder, path.substring(split + 1));
+				if (entry != null) {
+					return entry.id;
+				}
+			}
+			return -1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns current content of file.
+	 * 
+	 * @param id file id
+	 * @return file content or null when there is no such file
+	 * @throws IOException when content can't be loaded
+	 */
+	public byte[] getContent(int id) throws IOException {
+		lock.readLock().lock();
+		try {
+			Entry entry = files.get(id);
+			if (entry == null) {
+				return null;
+			}
+			return load(entry.id, entry.version);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return number of stored files
+	 */
+	public int getFileCount() {
+		lock.readLock().lock();
+		try {
+			return files.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return number of stored paths, including root
+	 */
+	public int getPathCount() {
+		lock.readLock().lock();
+		try {
+			return folders.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return number of handled requests
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return delay in ms before every response
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @param latency delay in ms before every response
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @return bandwidth of every connection in bytes per second, 0 for unlimited
+	 */
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
+	/**
+	 * Sets bandwidth of connections. Limit applies to each connection and
+	 * direction separately.
+	 * 
+	 * @param bandwidth bandwidth in bytes per second, 0 for unlimited
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+	
+	/**
+	 * @return number of response bytes after which connections break, -1 when they don't
+	 */
+	public long getFailAfter() {
+		return failAfter;
+	}
+
+	/**
+	 * Makes connections break after given number of response body bytes
+	 * is read. Applies to responses requested afterwards.
+	 * 
+	 * @param failAfter number of bytes, -1 to keep connections working
+	 */
+	public void setFailAfter(long failAfter) {
+		this.failAfter = failAfter;
+	}
+	
+	Pacer createPacer() {
+		return new Pacer(bandwidth);
+	}
+	
+	/**
+	 * Handles request.
+	 * 
+	 * @param url requested url
+	 * @param type content type of request body
+	 * @param range requested range of downloaded file
+	 * @param auth authorization of client
+	 * @param body request body
+	 * @return response
+	 * @throws IOException when request can't be handled
+	 */
+	Response handle(URL url, String type, String range, String auth, byte[] body) throws IOException {
+		requests.incrementAndGet();
+		
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		
+		Map<String, String> params = new LinkedHashMap<>();
+		parseQuery(url.getQuery(), params);
+		
+		byte[] upload = null;
+		if (type != null && type.startsWith("multipart/form-data")) {
+			upload = parseMultipart(body, type.substring(type.indexOf("boundary=") + 9), params);
+		} else if (body.length > 0) {
+			parseQuery(new String(body, "UTF-8"), params);
+		}
+		
+		String action = params.containsKey("action") ? params.get("action") : "";
+		String action_id = params.get("action_id");
+		
+		try {
+			if (action.equals("download_file")) {
+				return download(params, range);
+			}
+			
+			String result;
+			if (action.equals("batch")) {
+				result = batch(params);
+			} else {
+				result = dispatch(action, params, upload);
+			}
+			return json(200, result);
+		} catch (FakeException ex) {
+			return json(ex.getStatus(), error(action_id, ex.getMessage()));
+		}
+	}
+	
+	private String batch(Map<String, String> params) throws FakeException, IOException {
+		Map<Integer, Map<String, String>> actions = new TreeMap<>();
+		
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			String name = param.getKey();
+			if (!name.startsWith("actions[")) {
+				continue;
+			}
+			
+			//actions[i][files][0] is parameter files[0] of i-th action
+			int end = name.indexOf(']');
+			int index = Integer.parseInt(name.substring(8, end));
+			String rest = name.substring(end + 1);
+			int close = rest.indexOf(']');
+			String key = rest.substring(1, close) + rest.substring(close + 1);
+			
+			if (!actions.containsKey(index)) {
+				actions.put(index, new HashMap<String, String>());
+			}
+			actions.get(index).put(key, param.getValue());
+		}
+		
+		StringBuilder data = new StringBuilder("[");
+		for (Map<String, String> action : actions.values()) {
+			if (data.length() > 1) {
+				data.append(',');
+			}
+			try {
+				data.append(dispatch(action.get("action"), action, null));
+			} catch (FakeException ex) {
+				data.append(error(action.get("action_id"), ex.getMessage()));
+			}
+		}
+		data.append(']');
+		
+		return envelope("batch", params.get("action_id"), data.toString());
+	}
+	
+	private String dispatch(String action, Map<String, String> params, byte[] upload) throws FakeException, IOException {
+		String action_id = params.get("action_id");
+		
+		switch (action == null ? "" : action) {
+			case "get_server_info":
+				return envelope("server", action_id, "{\"name\":\"Fake minicloud\",\"description\":\"In-process server\",\"nice_url\":false,\"time\":" + now() + ",\"version\":\"1.1\"}");
+			case "get_user":
+				return envelope("user", action_id, user());
+			case "admin_get_users":
+				return envelope("users", action_id, "[" + user() + "]");
+			case "get_path":
+			case "get_paths":
+				lock.readLock().lock();
+				try {
+					return list(action, params);
+				} finally {
+					lock.readLock().unlock();
+				}
+			case "upload_file": {
+				if (upload == null) {
+					throw new FakeException(400, "No file uploaded");
+				}
+				return envelope("file", action_id, upload(params, upload));
+			}
+			default:
+				lock.writeLock().lock();
+				try {
+					return modify(action, params);
+				} finally {
+					lock.writeLock().unlock();
+				}
+		}
+	}
+	
+	/**
+	 * Handles listing actions, caller holds read lock.
+	 */
+	private String list(String action, Map<String, String> params) throws FakeException {
+		String action_id = params.get("action_id");
+		
+		if (action.equals("get_path")) {
+			Folder folder = requestedFolder(params);
+			StringBuilder out = new StringBuilder();
+			writeFolder(out, folder, "1".equals(params.get("recursive")) ? -1 : 1);
+			return envelope("path", action_id, out.toString());
+		}
+		
+		StringBuilder out = new StringBuilder("[");
+		for (Folder folder : new TreeMap<>(folders).values()) {
+			if (out.length() > 1) {
+				out.append(',');
+			}
+			writeFolder(out, folder, 0);
+		}
+		out.append(']');
+		return envelope("paths", action_id, out.toString());
+	}
+	
+	/**
+	 * Handles actions changing paths or files, caller holds write lock.
+	 */
+	private String modify(String action, Map<String, String> params) throws FakeException, IOException {
+		String action_id = params.get("action_id");
+		
+		switch (action == null ? "" : action) {
+			case "set_file":
+				updateFile(params);
+				return success(action_id);
+			case "delete_files":
+				for (String id : indexed(params, "files")) {
+					removeFile(requireFile(id));
+				}
+				return success(action_id);
+			case "set_path":
+				moveFolder(requireFolder(params.get("id")), normalize(params.get("path")));
+				return success(action_id);
+			case "delete_path":
+				removeFolder(requireFolder(params.get("id")));
+				return success(action_id);
+			case "delete_paths":
+				for (String id : indexed(params, "paths")) {
+					removeFolder(requireFolder(id));
+				}
+				return success(action_id);
+			default:
+				throw new FakeException(400, "Unknown action " + action);
+		}
+	}
+	
+	private Response download(Map<String, String> params, String range) throws FakeException, IOException {
+		byte[] content;
+		lock.readLock().lock();
+		try {
+			Entry entry = requireFile(params.get("id"));
+			int version = entry.version;
+			if (params.get("version") != null) {
+				version = Integer.parseInt(params.get("version"));
+				if (!entry.versions.containsKey(version)) {
+					throw new FakeException(404, "Version not found");
+				}
+			}
+			
+			content = load(entry.id, version);
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (range == null || !range.startsWith("bytes=")) {
+			return new Response(200, "application/octet-stream", content);
+		}
+		
+		String[] bounds = range.substring(6).split("-", 2);
+		long first = Long.parseLong(bounds[0].trim());
+		long last = bounds.length > 1 && !bounds[1].trim().isEmpty() ? Long.parseLong(bounds[1].trim()) : content.length - 1;
+		last = Math.min(last, content.length - 1);
+		
+		if (first > last) {
+			Response response = new Response(416, "text/plain", new byte[0]);
+			response.getHeaders().put("Content-Range", "bytes */" + content.length);
+			return response;
+		}
+		
+		byte[] part = new byte[(int)(last - first + 1)];
+		System.arraycopy(content, (int)first, part, 0, part.length);
+		
+		Response response = new Response(206, "application/octet-stream", part);
+		response.getHeaders().put("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+		return response;
+	}
+	
+	/**
+	 * Stores uploaded file, checksum is computed before write lock is taken.
+	 * 
+	 * @return uploaded file data
+	 */
+	private String upload(Map<String, String> params, byte[] content) throws FakeException, IOException {
+		String name = params.get("filename");
+		
+		String checksum = params.get("checksum[file]");
+		if (checksum == null || checksum.isEmpty()) {
+			checksum = md5(content);
+		}
+		
+		String encryption = params.get("encryption[file]");
+		boolean shared = isTrue(params.get("public[file]"));
+		boolean version = !"0".equals(params.get("version[file]"));
+		
+		lock.writeLock().lock();
+		try {
+			Folder folder = ensureFolder(normalize(params.get("path")));
+			
+			int replace = -1;
+			if (params.get("replace[file]") != null) {
+				replace = requireFile(params.get("replace[file]")).id;
+			}
+			
+			Entry entry = storeFile(folder, name, content, checksum, encryption != null ? encryption : "", shared, replace, version);
+			StringBuilder out = new StringBuilder();
+			writeFile(out, entry);
+			return out.toString();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private Entry storeFile(Folder folder, String name, byte[] content, String checksum, String encryption, boolean shared, int replace, boolean newVersion) throws IOException {
+		Entry entry = replace >= 0 ? files.get(replace) : findEntry(folder, name);
+		
+		if (entry == null) {
+			entry = new Entry();
+			entry.id = nextId++;
+			entry.folder = folder.id;
+			entry.name = name;
+			entry.mktime = now();
+			entry.version = 0;
+			files.put(entry.id, entry);
+			folder.files.add(entry.id);
+			newVersion = true;
+		}
+		
+		if (newVersion) {
+			entry.version++;
+		}
+		entry.versions.put(entry.version, now());
+		entry.size = content.length;
+		entry.checksum = checksum;
+		entry.encryption = encryption;
+		entry.shared = shared;
+		
+		store(entry.id, entry.version, content);
+		touch(folders.get(entry.folder));
+		
+		return entry;
+	}
+	
+	private void updateFile(Map<String, String> params) throws FakeException {
+		Entry entry = requireFile(params.get("id"));
+		Folder previous = folders.get(entry.folder);
+		Folder target = previous;
+		
+		if (params.get("path_id") != null) {
+			target = requireFolder(params.get("path_id"));
+		} else if (params.get("path") != null) {
+			target = ensureFolder(normalize(params.get("path")));
+		}
+		
+		if (params.get("filename") != null) {
+			entry.name = params.get("filename");
+		}
+		if (params.get("encryption") != null) {
+			entry.encryption = params.get("encryption");
+		}
+		if (params.get("public") != null) {
+			entry.shared = isTrue(params.get("public"));
+		}
+		
+		if (target != previous) {
+			previous.files.remove(entry.id);
+			target.files.add(entry.id);
+			entry.folder = target.id;
+			touch(target);
+		}
+		touch(previous);
+	}
+	
+	private void removeFile(Entry entry) throws IOException {
+		files.remove(entry.id);
+		for (int version : entry.versions.keySet()) {
+			drop(entry.id, version);
+		}
+		
+		Folder folder = folders.get(entry.folder);
+		folder.files.remove(entry.id);
+		touch(folder);
+	}
+	
+	private void moveFolder(Folder folder, String path) throws FakeException {
+		if (folder.parent < 0) {
+			throw new FakeException(400, "Root can't be moved");
+		}
+		if (path.equals(folder.path) || path.startsWith(folder.path + "/")) {
+			throw new FakeException(400, "Path can't be moved into itself");
+		}
+		if (findFolder(path) != null) {
+			throw new FakeException(409, "Path already exists");
+		}
+		
+		int split = path.lastIndexOf('/');
+		Folder target = ensureFolder(split >= 0 ? path.substring(0, split) : "");
+		Folder previous = folders.get(folder.parent);
+		
+		previous.folders.remove(folder.id);
+		target.folders.add(folder.id);
+		folder.parent = target.id;
+		rename(folder, path);
+		
+		touch(previous);
+		touch(folder);
+	}
+	
+	private void rename(Folder folder, String path) {
+		folder.path = path;
+		for (int child : folder.folders) {
+			Folder sub = folders.get(child);
+			rename(sub, path + "/" + sub.path.substring(sub.path.lastIndexOf('/') + 1));
+		}
+	}
+	
+	private void removeFolder(Folder folder) throws FakeException, IOException {
+		if (folder.parent < 0) {
+			throw new FakeException(400, "Root can't be deleted");
+		}
+		
+		Folder parent = folders.get(folder.parent);
+		parent.folders.remove(folder.id);
+		discard(folder);
+		touch(parent);
+	}
+	
+	private void discard(Folder folder) throws IOException {
+		for (int child : folder.folders) {
+			discard(folders.get(child));
+		}
+		for (int id : folder.files) {
+			Entry entry = files.remove(id);
+			for (int version : entry.versions.keySet()) {
+				drop(entry.id, version);
+			}
+		}
+		folders.remove(folder.id);
+	}
+	
+	/**
+	 * Marks folder and all its parents as changed.
+	 */
+	private void touch(Folder folder) {
+		long change = ++revision;
+		long time = now();
+		
+		while (folder != null) {
+			folder.revision = change;
+			folder.mdtime = time;
+			folder = folder.parent >= 0 ? folders.get(folder.parent) : null;
+		}
+	}
+	
+	private Folder ensureFolder(String path) {
+		Folder folder = findFolder(path);
+		if (folder != null) {
+			return folder;
+		}
+		
+		int split = path.lastIndexOf('/');
+		Folder parent = ensureFolder(split >= 0 ? path.substring(0, split) : "");
+		
+		folder = new Folder();
+		folder.id = nextId++;
+		folder.parent = parent.id;
+		folder.path = path;
+		folder.mktime = folder.mdtime = now();
+		folders.put(folder.id, folder);
+		parent.folders.add(folder.id);
+		touch(folder);
+		
+		return folder;
+	}
+	
+	private Folder findFolder(String path) {
+		Folder folder = folders.get(1);
+		if (path.isEmpty()) {
+			return folder;
+		}
+		
+		for (String name : path.split("/")) {
+			Folder next = null;
+			for (int child : folder.folders) {
+				Folder sub = folders.get(child);
+				if (sub.path.endsWith("/" + name) || sub.path.equals(name)) {
+					next = sub;
+					break;
+				}
+			}
+			if (next == null) {
+				return null;
+			}
+			folder = next;
+		}
+		return folder;
+	}
+	
+	private Entry findEntry(Folder folder, String name) {
+		for (int id : folder.files) {
+			Entry entry = files.get(id);
+			if (entry.name.equals(name)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+	
+	private Folder requestedFolder(Map<String, String> params) throws FakeException {
+		if (params.get("id") != null) {
+			return requireFolder(params.get("id"));
+		}
+		
+		Folder folder = findFolder(normalize(params.get("path")));
+		if (folder == null) {
+			throw new FakeException(404, "Path not found");
+		}
+		return folder;
+	}
+	
+	private Folder requireFolder(String id) throws FakeException {
+		Folder folder = null;
+		try {
+			folder = folders.get(Integer.parseInt(id));
+		} catch (NumberFormatException ex) {
+			// Reported below
+		}
+		if (folder == null) {
+			throw new FakeException(404, "Path not found");
+		}
+		return folder;
+	}
+	
+	private Entry requireFile(String id) throws FakeException {
+		Entry entry = null;
+		try {
+			entry = files.get(Integer.parseInt(id));
+		} catch (NumberFormatException ex) {
+			// Reported below
+		}
+		if (entry == null) {
+			throw new FakeException(404, "File not found");
+		}
+		return entry;
+	}
+	
+	private void writeFolder(StringBuilder out, Folder folder, int depth) {
+		out.append("{\"id\":").append(folder.id)
+			.append(",\"parent_id\":").append(folder.parent)
+			.append(",\"path\":").append(quote(folder.path))
+			.append(",\"checksum\":").append(quote(String.format("%016x%016x", folder.id, folder.revision)))
+			.append(",\"mktime\":").append(folder.mktime)
+			.append(",\"mdtime\":").append(folder.mdtime)
+			.append(",\"files\":[");
+		
+		if (depth != 0) {
+			boolean first = true;
+			for (int id : folder.files) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				writeFile(out, files.get(id));
+			}
+		}
+		
+		out.append("],\"paths\":[");
+		
+		if (depth != 0) {
+			boolean first = true;
+			for (int id : folder.folders) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				writeFolder(out, folders.get(id), depth < 0 ? depth : depth - 1);
+			}
+		}
+		
+		out.append("]}");
+	}
+	
+	private void writeFile(StringBuilder out, Entry entry) {
+		out.append("{\"id\":").append(entry.id)
+			.append(",\"filename\":").append(quote(entry.name))
+			.append(",\"path\":").append(quote(folders.get(entry.folder).path))
+			.append(",\"size\":").append(entry.size)
+			.append(",\"checksum\":").append(quote(entry.checksum))
+			.append(",\"encryption\":").append(quote(entry.encryption))
+			.append(",\"mktime\":").append(entry.mktime)
+			.append(",\"public\":").append(entry.shared)
+			.append(",\"version\":").append(entry.version)
+			.append(",\"versions\":[");
+		
+		boolean first = true;
+		for (Map.Entry<Integer, Long> version : entry.versions.entrySet()) {
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			out.append("{\"version\":").append(version.getKey()).append(",\"created\":").append(version.getValue()).append('}');
+		}
+		
+		out.append("]}");
+	}
+	
+	private String user() {
+		return "{\"id\":1,\"name\":\"fake\",\"email\":\"fake@minicloud.fake\",\"admin\":true}";
+	}
+	
+	private String success(String action_id) {
+		return envelope("bool", action_id, "{\"bool\":true}");
+	}
+	
+	private String error(String action_id, String message) {
+		return envelope("error", action_id, quote(message));
+	}
+	
+	private String envelope(String type, String action_id, String data) {
+		return "{\"type\":" + quote(type) + ",\"action_id\":" + quote(action_id) + ",\"data\":" + data + "}";
+	}
+	
+	private Response json(int status, String body) throws UnsupportedEncodingException {
+		return new Response(status, "application/json; charset=UTF-8", body.getBytes("UTF-8"));
+	}
+	
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		
+		StringBuilder out = new StringBuilder(value.length() + 2);
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int)c));
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+		return out.toString();
+	}
+	
+	/**
+	 * Returns values of indexed parameter like files[0], files[1].
+	 */
+	private static List<String> indexed(Map<String, String> params, String name) {
+		List<String> values = new ArrayList<>();
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			if (param.getKey().startsWith(name + "[")) {
+				values.add(param.getValue());
+			}
+		}
+		return values;
+	}
+	
+	private static void parseQuery(String query, Map<String, String> params) throws UnsupportedEncodingException {
+		if (query == null || query.isEmpty()) {
+			return;
+		}
+		
+		for (String pair : query.split("&")) {
+			int split = pair.indexOf('=');
+			if (split < 0) {
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				params.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"), URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+			}
+		}
+	}
+	
+	/**
+	 * Parses multipart body. Form fields are added to parameters,
+	 * file name is stored as filename parameter.
+	 * 
+	 * @return content of uploaded file or null
+	 */
+	private static byte[] parseMultipart(byte[] body, String boundary, Map<String, String> params) throws UnsupportedEncodingException {
+		byte[] delimiter = ("\r\n--" + boundary).getBytes("ISO-8859-1");
+		byte[] upload = null;
+		
+		//First delimiter isn't preceded by line feed
+		int position = indexOf(body, ("--" + boundary).getBytes("ISO-8859-1"), 0);
+		if (position < 0) {
+			return null;
+		}
+		position += delimiter.length - 2;
+		
+		while (position + 2 <= body.length && body[position] == '\r' && body[position + 1] == '\n') {
+			int headersEnd = indexOf(body, "\r\n\r\n".getBytes("ISO-8859-1"), position);
+			if (headersEnd < 0) {
+				break;
+			}
+			
+			String headers = new String(body, position + 2, headersEnd - position - 2, "UTF-8");
+			int start = headersEnd + 4;
+			int end = indexOf(body, delimiter, start);
+			if (end < 0) {
+				break;
+			}
+			
+			String name = attribute(headers, "name");
+			String filename = attribute(headers, "filename");
+			
+			if (filename != null) {
+				params.put("filename", filename);
+				upload = new byte[end - start];
+				System.arraycopy(body, start, upload, 0, upload.length);
+			} else if (name != null) {
+				params.put(name, new String(body, start, end - start, "UTF-8"));
+			}
+			
+			position = end + delimiter.length;
+		}
+		
+		return upload;
+	}
+	
+	private static String attribute(String headers, String name) {
+		String key = " " + name + "=\"";
+		int start = headers.indexOf(key);
+		if (start < 0) {
+			key = ";" + name + "=\"";
+			start = headers.indexOf(key);
+		}
+		if (start < 0) {
+			return null;
+		}
+		start += key.length();
+		return headers.substring(start, headers.indexOf('"', start));
+	}
+	
+	private static int indexOf(byte[] data, byte[] pattern, int from) {
+		outer:
+		for (int i = from; i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	private void store(int id, int version, byte[] content) throws IOException {
+		if (directory != null) {
+			Files.write(new java.io.File(directory, id + "-" + version).toPath(), content);
+		} else {
+			contents.put(id + "-" + version, content);
+		}
+	}
+	
+	private byte[] load(int id, int version) throws IOException {
+		if (directory != null) {
+			return Files.readAllBytes(new java.io.File(directory, id + "-" + version).toPath());
+		}
+		return contents.get(id + "-" + version);
+	}
+	
+	private void drop(int id, int version) throws IOException {
+		if (directory != null) {
+			Files.deleteIfExists(new java.io.File(directory, id + "-" + version).toPath());
+		} else {
+			contents.remove(id + "-" + version);
+		}
+	}
+	
+	private static String normalize(String path) {
+		if (path == null) {
+			return "";
+		}
+		path = path.replaceAll("/{2,}", "/");
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+	
+	private static boolean isTrue(String value) {
+		return "1".equals(value) || "true".equalsIgnoreCase(value);
+	}
+	
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+	
+	private static String md5(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			StringBuilder out = new StringBuilder();
+			for (byte b : digest) {
+				out.append(String.format("%02x", b & 0xff));
+			}
+			return out.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
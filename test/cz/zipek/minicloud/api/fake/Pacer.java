@@ -0,0 +1,73 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.fake;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Slows down stream to specified bandwidth.
+ * 
+ * @author Jan Zípek
+ */
+class Pacer {
+	
+	private final long bandwidth;
+	
+	private long start = -1;
+	private long transferred = 0;
+	
+	/**
+	 * @param bandwidth bytes per second, 0 for unlimited
+	 */
+	Pacer(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+	
+	/**
+	 * Waits until specified number of bytes can be transferred.
+	 * 
+	 * @param bytes number of transferred bytes
+	 * @throws InterruptedIOException when waiting thread is interrupted
+	 */
+	void pace(long bytes) throws InterruptedIOException {
+		if (bandwidth <= 0) {
+			return;
+		}
+		
+		if (start < 0) {
+			start = System.nanoTime();
+		}
+		transferred += bytes;
+		
+		long wait = start + transferred * 1000000000L / bandwidth - System.nanoTime();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.json;
+
+import cz.zipek.minicloud.api.File;
+import cz.zipek.minicloud.api.FileVersion;
+import cz.zipek.minicloud.api.Path;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks streaming parser against hand written input and against org.json.
+ * 
+ * @author Jan Zípek
+ */
+public class JsonReaderTest {
+	
+	///@var TREE path with files and nested paths, as sent by server
+	private static final String TREE = "{\"id\":1,\"parent_id\":-1,\"path\":\"docs\",\"checksum\":\"abc\",\"mktime\":1400000000,\"mdtime\":1400000100,"
+		+ "\"unknown\":{\"nested\":[1,{\"a\":[]}]},"
+		+ "\"files\":[{\"id\":10,\"filename\":\"a.txt\",\"path\":\"docs\",\"size\":5,\"checksum\":\"5d41402abc4b2a76b9719d911017c592\","
+		+ "\"encryption\":\"\",\"mktime\":1400000000,\"public\":1,\"version\":2,\"versions\":[{\"version\":1,\"created\":1400000000},{\"version\":2,\"created\":1400000050}]}],"
+		+ "\"paths\":[{\"id\":2,\"parent_id\":1,\"path\":\"docs/sub\",\"checksum\":\"def\",\"mktime\":1400000000,\"mdtime\":0,"
+		+ "\"files\":[{\"id\":11,\"filename\":\"b \\u00e9.txt\",\"size\":12345678901,\"checksum\":\"X\",\"mktime\":1,\"version\":1,\"versions\":[{\"version\":1,\"created\":1}]}],"
+		+ "\"paths\":[]}]}";
+	
+	@Test
+	public void testEscapes() throws IOException {
+		JsonReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\t\\r\\b\\f\", \"\\u00e9\\u20AC\\ud83d\\ude00\"]");
+		reader.beginArray();
+		assertEquals("a\"b\\c/d\n\t\r\b\f", reader.nextString());
+		assertEquals("\u00e9\u20ac\ud83d\ude00", reader.nextString());
+		reader.endArray();
+		assertEquals(JsonReader.Token.END, reader.peek());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testMalformedUnicodeEscape() throws IOException {
+		reader("\"\\u12g4\"").nextString();
+	}
+	
+	@Test
+	public void testNumbers() throws Exception {
+		JSONArray values = (JSONArray)reader("[0, -7, 2147483648, 12345678901234567890, 1.5, -2e3, 6E-1, 1.2.3]").readValue();
+		assertEquals(0, values.get(0));
+		assertEquals(-7, values.get(1));
+		assertEquals(2147483648L, values.get(2));
+		assertEquals(new BigInteger("12345678901234567890"), values.get(3));
+		assertEquals(1.5, values.get(4));
+		assertEquals(-2000.0, values.get(5));
+		assertEquals(0.6, values.get(6));
+		assertEquals("1.2.3", values.get(7));
+		
+		JsonReader reader = reader("[\"42\", 3.9, null, \"x\", 1e2]");
+		reader.beginArray();
+		assertEquals(42, reader.nextLong(-1));
+		assertEquals(3, reader.nextLong(-1));
+		assertEquals(-1, reader.nextLong(-1));
+		assertEquals(-1, reader.nextInt(-1));
+		assertEquals(100, reader.nextInt(-1));
+		reader.endArray();
+	}
+	
+	@Test
+	public void testSkipNestedValues() throws IOException {
+		JsonReader reader = reader("{\"skip\":{\"a\":[1,[2,{\"b\":\"}]\"}],{}],\"c\":null},\"keep\":true}");
+		reader.beginObject();
+		assertEquals("skip", reader.nextName());
+		reader.skipValue();
+		assertEquals("keep", reader.nextName());
+		assertTrue(reader.nextBoolean());
+		reader.endObject();
+		assertEquals(JsonReader.Token.END, reader.peek());
+	}
+	
+	@Test
+	public void testReadRawAcrossRefill() throws IOException {
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			big.append((char)('a' + i % 26));
+		}
+		String value = "{\"text\":\"" + big + "\",\"list\":[1,2,{\"x\":\"\\\"\"}]}";
+		
+		// Value starts close to end of first buffer, so it spans several refills
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < 8180; i++) {
+			padding.append(' ');
+		}
+		JsonReader reader = reader("[" + padding + "0," + value + ",7]");
+		reader.beginArray();
+		assertEquals(0, reader.nextInt(-1));
+		assertEquals(value, reader.readRaw());
+		assertEquals(7, reader.nextInt(-1));
+		reader.endArray();
+	}
+	
+	@Test
+	public void testTruncatedInput() {
+		String[] inputs = { "{\"a\":", "[1,2", "\"abc", "{\"a\":[{\"b\":1}", "\"\\u00" };
+		for (String input : inputs) {
+			try {
+				JsonReader reader = reader(input);
+				if (input.startsWith("{\"a\":[")) {
+					reader.skipValue();
+				} else {
+					reader.readValue();
+				}
+				fail("accepted " + input);
+			} catch (IOException ex) {
+				// Expected
+			}
+		}
+	}
+	
+	@Test
+	public void testMissingSeparatorsAreRejected() {
+		String[] inputs = { "[1 2]", "[1,,3]", "[1 2,,3]", "[,1]", "[1,]", "{\"a\":1 \"b\":2}", "{\"a\":1,,\"b\":2}", "[{} {}]" };
+		for (String input : inputs) {
+			try {
+				reader(input).readValue();
+				fail("accepted " + input);
+			} catch (IOException ex) {
+				// Expected
+			}
+			try {
+				reader(input).skipValue();
+				fail("skipped " + input);
+			} catch (IOException ex) {
+				// Expected
+			}
+		}
+	}
+	
+	@Test
+	public void testStreamedPathMatchesJsonObject() throws Exception {
+		Path streamed = new Path(null, reader(TREE));
+		Path parsed = new Path(null, new JSONObject(TREE));
+		assertSamePath(parsed, streamed);
+		
+		File big = streamed.getPaths().get(0).getFiles().get(0);
+		assertEquals("b \u00e9.txt", big.getName());
+		assertEquals(12345678901L, big.getSize());
+	}
+	
+	private static void assertSamePath(Path expected, Path actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getParent(), actual.getParent());
+		assertEquals(expected.getPath(), actual.getPath());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getChecksum(), actual.getChecksum());
+		assertEquals(expected.getMktime(), actual.getMktime());
+		assertEquals(expected.getMdtime(), actual.getMdtime());
+		
+		assertEquals(expected.getFiles().size(), actual.getFiles().size());
+		for (int i = 0; i < expected.getFiles().size(); i++) {
+			assertSameFile(expected.getFiles().get(i), actual.getFiles().get(i));
+		}
+		
+		assertEquals(expected.getPaths().size(), actual.getPaths().size());
+		for (int i = 0; i < expected.getPaths().size(); i++) {
+			assertSamePath(expected.getPaths().get(i), actual.getPaths().get(i));
+		}
+	}
+	
+	private static void assertSameFile(File expected, File actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getSize(), actual.getSize());
+		assertEquals(expected.getChecksum(), actual.getChecksum());
+		assertEquals(expected.getEncryption(), actual.getEncryption());
+		assertEquals(expected.getMktime(), actual.getMktime());
+		assertEquals(expected.isPublic(), actual.isPublic());
+		assertEquals(expected.getExtension(), actual.getExtension());
+		assertEquals(expected.getVersion().getId(), actual.getVersion().getId());
+		
+		FileVersion[] versions = expected.getVersions();
+		assertEquals(versions.length, actual.getVersions().length);
+		for (int i = 0; i < versions.length; i++) {
+			assertEquals(versions[i].getId(), actual.getVersions()[i].getId());
+			assertEquals(versions[i].getCreated(), actual.getVersions()[i].getCreated());
+		}
+	}
+	
+	private static JsonReader reader(String json) {
+		return new JsonReader(new StringReader(json));
+	}
+}
@@ -0,0 +1,175 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks bucket boundaries and percentile estimates of histogram.
+ * 
+ * @author Jan Zípek
+ */
+public class HistogramTest {
+	
+	private static final long MICROSECOND = 1000;
+	private static final long MILLISECOND = 1000 * MICROSECOND;
+	private static final double DELTA = 1e-9;
+	
+	@Test
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+		
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), DELTA);
+		assertEquals(0, histogram.getMax(), DELTA);
+		assertEquals(0, histogram.getPercentile(0.5), DELTA);
+		assertEquals(0, histogram.getPercentile(0.99), DELTA);
+	}
+	
+	@Test
+	public void testMeanAndMax() {
+		Histogram histogram = new Histogram();
+		histogram.record(1 * MILLISECOND);
+		histogram.record(2 * MILLISECOND);
+		histogram.record(6 * MILLISECOND);
+		
+		assertEquals(3, histogram.getCount());
+		assertEquals(3, histogram.getMean(), DELTA);
+		assertEquals(6, histogram.getMax(), DELTA);
+	}
+	
+	@Test
+	public void testBucketEdges() {
+		//Bucket i holds values below 2^i microseconds
+		assertBucket(0.001, 999);
+		assertBucket(0.002, 1 * MICROSECOND);
+		assertBucket(0.002, 1999);
+		assertBucket(0.004, 2 * MICROSECOND);
+		assertBucket(1.024, 1023 * MICROSECOND);
+		assertBucket(2.048, 1024 * MICROSECOND);
+	}
+	
+	@Test
+	public void testPercentileLimitedByMax() {
+		Histogram histogram = new Histogram();
+		histogram.record(1500 * MICROSECOND);
+		
+		//Bucket bound is 2.048 ms, but nothing longer than 1.5 ms was seen
+		assertEquals(1.5, histogram.getPercentile(0.5), DELTA);
+		assertEquals(1.5, histogram.getPercentile(1), DELTA);
+	}
+	
+	@Test
+	public void testLastBucket() {
+		Histogram histogram = new Histogram();
+		histogram.record(Long.MAX_VALUE / 2);
+		histogram.record(1 * MILLISECOND);
+		
+		double max = histogram.getMax();
+		assertEquals(Long.MAX_VALUE / 2 / 1e6, max, 1);
+		assertEquals((1L << 39) / 1e3, histogram.getPercentile(1), DELTA);
+		assertTrue(histogram.getPercentile(1) < max);
+		assertEquals(1.024, histogram.getPercentile(0.5), DELTA);
+	}
+	
+	@Test
+	public void testNegativeDurationCountsAsZero() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5 * MICROSECOND);
+		histogram.record(3 * MICROSECOND);
+		
+		assertEquals(2, histogram.getCount());
+		assertEquals(0.001, histogram.getPercentile(0.5), DELTA);
+		assertEquals(0.003, histogram.getPercentile(1), DELTA);
+	}
+	
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(1 * MILLISECOND);
+		}
+		for (int i = 0; i < 9; i++) {
+			histogram.record(10 * MILLISECOND);
+		}
+		histogram.record(100 * MILLISECOND);
+		
+		//1 ms falls below 1.024 ms, 10 ms below 16.384 ms
+		assertEquals(1.024, histogram.getPercentile(0.5), DELTA);
+		assertEquals(1.024, histogram.getPercentile(0.9), DELTA);
+		assertEquals(16.384, histogram.getPercentile(0.91), DELTA);
+		assertEquals(16.384, histogram.getPercentile(0.99), DELTA);
+		assertEquals(100, histogram.getPercentile(0.999), DELTA);
+		assertEquals(100, histogram.getPercentile(1), DELTA);
+		
+		//Estimate never drops below real value and is at most twice as big
+		assertTrue(histogram.getPercentile(0.5) >= 1);
+		assertTrue(histogram.getPercentile(0.5) < 2);
+	}
+	
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final Histogram histogram = new Histogram();
+		final int threads = 4;
+		final int values = 10000;
+		
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final long offset = t;
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= values; i++) {
+						histogram.record(i * MICROSECOND + offset);
+					}
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		
+		assertEquals(threads * values, histogram.getCount());
+		assertEquals((values * MICROSECOND + threads - 1) / 1e6, histogram.getMax(), DELTA);
+		assertEquals(histogram.getMax(), histogram.getPercentile(1), DELTA);
+	}
+	
+	private static void assertBucket(double bound, long nanos) {
+		assertEquals("percentile of " + nanos + " ns", bound, percentileOf(nanos), DELTA);
+	}
+	
+	private static double percentileOf(long nanos) {
+		Histogram histogram = new Histogram();
+		histogram.record(nanos);
+		histogram.record(Long.MAX_VALUE / 2);
+		
+		//Lower half of two values is the measured one, not limited by max
+		return histogram.getPercentile(0.5);
+	}
+}
@@ -0,0 +1,172 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.metrics;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that JSON snapshot reports same values as collected statistics.
+ * 
+ * @author Jan Zípek
+ */
+public class JsonMetricsTest {
+	
+	private static final String[] LATENCIES = {
+		"total", "connect", "first_byte", "body", "decode"
+	};
+	
+	@Test
+	public void testEmpty() throws Exception {
+		assertEquals("{}", JsonMetrics.snapshot(new MetricsRegistry()));
+	}
+	
+	@Test
+	public void testMatchesStats() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		
+		for (int i = 1; i <= 5; i++) {
+			registry.started("get_path");
+			registry.completed("get_path", timing(i, 100 * i));
+		}
+		registry.started("get_path");
+		registry.failed("get_path", "timeout", timing(1, 10));
+		registry.started("get_path");
+		registry.failed("get_path", "http_500", timing(1, 0));
+		registry.started("get_path");
+		registry.failed("get_path", "timeout", timing(1, 0));
+		registry.started("get_path");
+		
+		registry.started("download_file");
+		registry.completed("download_file", timing(20, 4096));
+		
+		JSONObject snapshot = new JSONObject(JsonMetrics.snapshot(registry));
+		assertEquals(2, snapshot.length());
+		
+		ActionStats stats = registry.get("get_path");
+		JSONObject action = snapshot.getJSONObject("get_path");
+		assertEquals(9, action.getLong("requests"));
+		assertEquals(1, action.getLong("in_flight"));
+		assertEquals(1510, action.getLong("bytes"));
+		assertStats(stats, action);
+		
+		JSONObject errors = action.getJSONObject("errors");
+		assertEquals(2, errors.getLong("timeout"));
+		assertEquals(1, errors.getLong("http_500"));
+		
+		//Body durations are known exactly, 1 to 5 ms
+		JSONObject body = action.getJSONObject("latency").getJSONObject("body");
+		assertEquals(5, body.getLong("count"));
+		assertEquals("3.000", format(body.get("mean")));
+		assertEquals("4.096", format(body.get("p50")));
+		assertEquals("5.000", format(body.get("p99")));
+		assertEquals("5.000", format(body.get("max")));
+		
+		assertStats(registry.get("download_file"), snapshot.getJSONObject("download_file"));
+	}
+	
+	@Test
+	public void testQuotedNames() throws Exception {
+		String name = "odd \"name\" \\ with\ttab";
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.started(name);
+		registry.failed(name, "line\nbreak", timing(1, 0));
+		
+		JSONObject snapshot = new JSONObject(JsonMetrics.snapshot(registry));
+		assertEquals(1, snapshot.length());
+		
+		JSONObject action = snapshot.getJSONObject(name);
+		assertEquals(1, action.getJSONObject("errors").getLong("line\nbreak"));
+		assertStats(registry.get(name), action);
+	}
+	
+	@Test
+	public void testFormatIgnoresDefaultLocale() throws Exception {
+		Locale original = Locale.getDefault();
+		Locale.setDefault(Locale.GERMANY);
+		try {
+			MetricsRegistry registry = new MetricsRegistry();
+			registry.started("get_user");
+			registry.completed("get_user", timing(3, 0));
+			
+			JSONObject snapshot = new JSONObject(JsonMetrics.snapshot(registry));
+			assertStats(registry.get("get_user"), snapshot.getJSONObject("get_user"));
+		} finally {
+			Locale.setDefault(original);
+		}
+	}
+	
+	private static RequestTiming timing(long bodyMillis, long bytes) {
+		RequestTiming timing = new RequestTiming();
+		timing.connected();
+		timing.responded();
+		timing.transferred(bodyMillis * 1000000, bytes);
+		timing.decoded();
+		return timing;
+	}
+	
+	private static void assertStats(ActionStats stats, JSONObject action) throws Exception {
+		assertEquals(stats.getRequests(), action.getLong("requests"));
+		assertEquals(stats.getInFlight(), action.getLong("in_flight"));
+		assertEquals(stats.getBytes(), action.getLong("bytes"));
+		
+		JSONObject errors = action.getJSONObject("errors");
+		Map<String, Long> expected = stats.getErrors();
+		assertEquals(expected.size(), errors.length());
+		for (Map.Entry<String, Long> error : expected.entrySet()) {
+			assertEquals(error.getKey(), (long)error.getValue(), errors.getLong(error.getKey()));
+		}
+		
+		JSONObject latency = action.getJSONObject("latency");
+		assertEquals(LATENCIES.length, latency.length());
+		assertHistogram("total", stats.getTotal(), latency.getJSONObject("total"));
+		assertHistogram("connect", stats.getConnect(), latency.getJSONObject("connect"));
+		assertHistogram("first_byte", stats.getFirstByte(), latency.getJSONObject("first_byte"));
+		assertHistogram("body", stats.getBody(), latency.getJSONObject("body"));
+		assertHistogram("decode", stats.getDecode(), latency.getJSONObject("decode"));
+	}
+	
+	private static void assertHistogram(String name, Histogram histogram, JSONObject values) throws Exception {
+		assertEquals(6, values.length());
+		assertEquals(name, histogram.getCount(), values.getLong("count"));
+		assertEquals(name, format(histogram.getMean()), format(values.get("mean")));
+		assertEquals(name, format(histogram.getPercentile(0.5)), format(values.get("p50")));
+		assertEquals(name, format(histogram.getPercentile(0.9)), format(values.get("p90")));
+		assertEquals(name, format(histogram.getPercentile(0.99)), format(values.get("p99")));
+		assertEquals(name, format(histogram.getMax()), format(values.get("max")));
+		
+		Iterator<String> keys = values.keys();
+		while (keys.hasNext()) {
+			assertTrue(keys.next().matches("count|mean|p50|p90|p99|max"));
+		}
+	}
+	
+	private static String format(Object value) {
+		return String.format(Locale.US, "%.3f", ((Number)value).doubleValue());
+	}
+}
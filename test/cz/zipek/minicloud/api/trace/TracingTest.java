@@ -0,0 +1,332 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Jan Zípek <jan at zipek.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.zipek.minicloud.api.trace;
+
+import cz.zipek.minicloud.api.External;
+import cz.zipek.minicloud.api.Listener;
+import cz.zipek.minicloud.api.User;
+import cz.zipek.minicloud.api.download.DownloadEvent;
+import cz.zipek.minicloud.api.download.Downloader;
+import cz.zipek.minicloud.api.download.events.DownloadAllDoneEvent;
+import cz.zipek.minicloud.api.fake.FakeServer;
+import cz.zipek.minicloud.sync.SyncFolder;
+import cz.zipek.minicloud.sync.events.SyncDone;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that instrumented code commits each trace event exactly once
+ * and with duration matching the traced work.
+ * 
+ * @author Jan Zípek
+ */
+public class TracingTest {
+	
+	/**
+	 * Sink keeping all committed events.
+	 */
+	private static class RecordingSink implements TraceSink {
+		private final List<TraceEvent> events = new ArrayList<>();
+		
+		@Override
+		public synchronized void commit(TraceEvent event) {
+			events.add(event);
+			notifyAll();
+		}
+		
+		/**
+		 * Waits until given number of events of given type is committed.
+		 * Events may be committed after completion was announced.
+		 * 
+		 * @return committed events of given type
+		 */
+		synchronized <T extends TraceEvent> List<T> await(Class<T> type, int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			List<T> result = get(type);
+			while (result.size() < count && System.currentTimeMillis() < deadline) {
+				wait(100);
+				result = get(type);
+			}
+			return result;
+		}
+		
+		synchronized <T extends TraceEvent> List<T> get(Class<T> type) {
+			List<T> result = new ArrayList<>();
+			for (TraceEvent event : events) {
+				if (type.isInstance(event)) {
+					result.add(type.cast(event));
+				}
+			}
+			return result;
+		}
+		
+		synchronized void clear() {
+			events.clear();
+		}
+	}
+	
+	private static final byte[] CONTENT = "remote content".getBytes();
+	
+	private RecordingSink sink;
+	private FakeServer server;
+	private External external;
+	private java.io.File directory;
+	
+	@Before
+	public void setUp() throws Exception {
+		sink = new RecordingSink();
+		Tracing.setSink(sink);
+		
+		server = new FakeServer();
+		server.createFile("docs/remote.txt", CONTENT);
+		
+		external = new External(FakeServer.URL);
+		external.setTransport(server);
+		
+		directory = Files.createTempDirectory("minicloud-test").toFile();
+	}
+	
+	@After
+	public void tearDown() {
+		Tracing.setSink(null);
+		external.shutdown();
+		delete(directory);
+	}
+	
+	@Test
+	public void testEventIsEndedOnce() throws Exception {
+		RequestTraceEvent event = new RequestTraceEvent("get_user");
+		assertEquals(-1, event.getDuration());
+		
+		event.end();
+		long duration = event.getDuration();
+		assertTrue(duration >= 0);
+		
+		Thread.sleep(5);
+		event.commit();
+		assertEquals(duration, event.getDuration());
+		assertEquals(1, sink.get(RequestTraceEvent.class).size());
+	}
+	
+	@Test
+	public void testDisabledTracingDropsEvents() throws Exception {
+		Tracing.setSink(null);
+		assertFalse(Tracing.isEnabled());
+		
+		external.getUserAsync().get(5, TimeUnit.SECONDS);
+		new RequestTraceEvent("get_user").commit();
+		
+		assertTrue(sink.get(TraceEvent.class).isEmpty());
+	}
+	
+	@Test
+	public void testRequestEvent() throws Exception {
+		server.setLatency(50);
+		
+		long start = System.nanoTime();
+		external.getUserAsync().get(5, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+		
+		List<RequestTraceEvent> requests = sink.await(RequestTraceEvent.class, 1);
+		assertEquals(1, requests.size());
+		
+		RequestTraceEvent request = requests.get(0);
+		assertEquals("get_user", request.getAction());
+		assertEquals(200, request.getStatus());
+		assertTrue("bytes read", request.getBytes() > 0);
+		assertDuration(request, TimeUnit.MILLISECONDS.toNanos(50), elapsed);
+		
+		assertNoMoreEvents(RequestTraceEvent.class, 1);
+	}
+	
+	@Test
+	public void testDownloadEvent() throws Exception {
+		User user = external.getUserAsync().get(5, TimeUnit.SECONDS);
+		cz.zipek.minicloud.api.File file = external.getPathAsync("docs", true).get(5, TimeUnit.SECONDS).getPath().getFile("remote.txt");
+		sink.clear();
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		Downloader downloader = new Downloader(external, user);
+		downloader.addListener(new Listener<DownloadEvent>() {
+			@Override
+			public void handleEvent(DownloadEvent event, Object sender) {
+				if (event instanceof DownloadAllDoneEvent) {
+					done.countDown();
+				}
+			}
+		});
+		
+		long start = System.nanoTime();
+		downloader.add(file.getVersion(), new java.io.File(directory, "remote.txt").getPath());
+		downloader.start(directory.getPath());
+		assertTrue("download finished", done.await(10, TimeUnit.SECONDS));
+		
+		List<TransferTraceEvent> transfers = sink.await(TransferTraceEvent.class, 1);
+		long elapsed = System.nanoTime() - start;
+		assertEquals(1, transfers.size());
+		
+		TransferTraceEvent transfer = transfers.get(0);
+		assertEquals(TransferTraceEvent.DOWNLOAD, transfer.getDirection());
+		assertEquals("remote.txt", transfer.getFile());
+		assertEquals(CONTENT.length, transfer.getBytes());
+		assertTrue(transfer.isSuccess());
+		assertDuration(transfer, 0, elapsed);
+		
+		assertNoMoreEvents(TransferTraceEvent.class, 1);
+	}
+	
+	@Test
+	public void testSyncPhases() throws Exception {
+		write(new java.io.File(directory, "local.txt"), "local content".getBytes());
+		
+		long start = System.nanoTime();
+		sync();
+		
+		List<SyncPhaseTraceEvent> phases = sink.await(SyncPhaseTraceEvent.class, 4);
+		List<TransferTraceEvent> transfers = sink.await(TransferTraceEvent.class, 2);
+		long elapsed = System.nanoTime() - start;
+		
+		assertPhases(phases, SyncPhaseTraceEvent.LISTING, SyncPhaseTraceEvent.WALK, SyncPhaseTraceEvent.RECONCILE, SyncPhaseTraceEvent.TRANSFER);
+		assertEquals("remote files", 1, phases.get(0).getItems());
+		assertEquals("local files", 1, phases.get(1).getItems());
+		assertEquals("compared files", 2, phases.get(2).getItems());
+		assertEquals("transferred files", 2, phases.get(3).getItems());
+		
+		long sum = 0;
+		for (SyncPhaseTraceEvent phase : phases) {
+			assertEquals(directory.getAbsolutePath(), phase.getFolder());
+			assertDuration(phase, 0, elapsed);
+			sum += phase.getDuration();
+		}
+		assertTrue("phases don't overlap", sum <= elapsed);
+		
+		assertEquals(2, transfers.size());
+		List<String> directions = new ArrayList<>();
+		for (TransferTraceEvent transfer : transfers) {
+			directions.add(transfer.getDirection());
+			assertTrue(transfer.isSuccess());
+			assertTrue("transfer is part of transfer phase", transfer.getTimestamp() >= phases.get(3).getTimestamp());
+		}
+		assertTrue(directions.containsAll(Arrays.asList(TransferTraceEvent.UPLOAD, TransferTraceEvent.DOWNLOAD)));
+		
+		List<RequestTraceEvent> requests = sink.get(RequestTraceEvent.class);
+		assertEquals("listing request", 1, requests.size());
+		assertEquals("get_path", requests.get(0).getAction());
+		assertTrue("listing request is part of listing phase", requests.get(0).getDuration() <= phases.get(0).getDuration());
+		
+		assertNoMoreEvents(SyncPhaseTraceEvent.class, 4);
+		assertNoMoreEvents(TransferTraceEvent.class, 2);
+	}
+	
+	@Test
+	public void testSyncWithoutChangesSkipsTransferPhase() throws Exception {
+		write(new java.io.File(directory, "remote.txt"), CONTENT);
+		
+		sync();
+		
+		List<SyncPhaseTraceEvent> phases = sink.await(SyncPhaseTraceEvent.class, 3);
+		assertPhases(phases, SyncPhaseTraceEvent.LISTING, SyncPhaseTraceEvent.WALK, SyncPhaseTraceEvent.RECONCILE);
+		
+		assertNoMoreEvents(SyncPhaseTraceEvent.class, 3);
+		assertTrue(sink.get(TransferTraceEvent.class).isEmpty());
+	}
+	
+	/**
+	 * Synchronizes temporary directory with remote folder and waits until done.
+	 */
+	private void sync() throws Exception {
+		User user = external.getUserAsync().get(5, TimeUnit.SECONDS);
+		sink.clear();
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		SyncFolder folder = new SyncFolder(directory, "docs", 0, null, null);
+		folder.setExternal(external);
+		folder.setUser(user);
+		folder.addListener(new Listener() {
+			@Override
+			public void handleEvent(Object event, Object sender) {
+				if (event instanceof SyncDone) {
+					done.countDown();
+				}
+			}
+		});
+		
+		folder.sync();
+		assertTrue("sync finished", done.await(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Checks that phases were committed in given order, each once.
+	 */
+	private static void assertPhases(List<SyncPhaseTraceEvent> phases, String... expected) {
+		List<String> names = new ArrayList<>();
+		for (SyncPhaseTraceEvent phase : phases) {
+			names.add(phase.getPhase());
+		}
+		assertEquals("phases committed once, in order", Arrays.asList(expected), names);
+	}
+	
+	/**
+	 * Checks that event lasted at least given time and not longer than
+	 * traced operation.
+	 */
+	private static void assertDuration(TraceEvent event, long min, long max) {
+		assertTrue(event.getName() + " lasted " + event.getDuration() + " ns", event.getDuration() >= min);
+		assertTrue(event.getName() + " lasted " + event.getDuration() + " ns", event.getDuration() <= max);
+	}
+	
+	/**
+	 * Gives late commits a chance to arrive and checks there were none.
+	 */
+	private void assertNoMoreEvents(Class<? extends TraceEvent> type, int count) throws InterruptedException {
+		Thread.sleep(200);
+		assertEquals("committed once", count, sink.get(type).size());
+	}
+	
+	private static void write(java.io.File file, byte[] data) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(data);
+		}
+	}
+	
+	private static void delete(java.io.File file) {
+		java.io.File[] children = file.listFiles();
+		if (children != null) {
+			for (java.io.File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}